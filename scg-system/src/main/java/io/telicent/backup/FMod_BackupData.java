@@ -17,7 +17,9 @@ package io.telicent.backup;
 
 import io.telicent.backup.services.BackupJobManager;
 import io.telicent.backup.services.DatasetBackupService;
+import io.telicent.backup.services.IngestJournal;
 import io.telicent.backup.servlets.*;
+import io.telicent.backup.utils.BackupUtils;
 import io.telicent.model.KeyPair;
 import io.telicent.smart.cache.configuration.Configurator;
 import io.telicent.smart.cache.security.data.plugins.DataSecurityPlugin;
@@ -25,6 +27,7 @@ import io.telicent.smart.cache.security.data.plugins.DataSecurityPluginLoader;
 import io.telicent.utils.SmartCacheGraphException;
 import org.apache.jena.fuseki.main.FusekiServer;
 import org.apache.jena.fuseki.main.sys.FusekiAutoModule;
+import org.apache.jena.fuseki.server.DataAccessPoint;
 import org.apache.jena.fuseki.server.DataAccessPointRegistry;
 import org.apache.jena.rdf.model.Model;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
@@ -35,10 +38,13 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URISyntaxException;
+import java.nio.file.Path;
 import java.security.Security;
 import java.util.Objects;
 import java.util.Optional;
 
+import static io.telicent.otel.FMod_OpenTelemetry.fixupName;
+
 /**
  * Fuseki module responsible for the creating, restoring and administration of backup-data from the server.
  */
@@ -100,6 +106,33 @@ public class FMod_BackupData implements FusekiAutoModule {
                 serverBuilder.addServlet("/$/backups/details/*", new DetailsServlet(backupService));
             } catch (SmartCacheGraphException ex) {
                 LOG.warn("Database backups are not enabled", ex);
+                return;
+            }
+            if (IngestJournal.isEnabled()) {
+                registerJournals(dapRegistry);
+            }
+        }
+    }
+
+    /**
+     * Starts journaling the records applied from Kafka to each dataset, so that incremental backups can be taken
+     *
+     * @param dapRegistry Data access point registry
+     */
+    private static void registerJournals(DataAccessPointRegistry dapRegistry) {
+        final Path journalDir = Path.of(Configurator.get(new String[]{IngestJournal.ENV_BACKUP_JOURNAL_DIR},
+                                                         BackupUtils.getBackUpDir() + "/journal"));
+        for (DataAccessPoint dataAccessPoint : dapRegistry.accessPoints()) {
+            if (dataAccessPoint.getDataService() == null) {
+                continue;
+            }
+            String name = fixupName(DatasetBackupService.sanitiseName(dataAccessPoint.getName()));
+            try {
+                IngestJournal.register(dataAccessPoint.getDataService().getDataset(), journalDir.resolve(name));
+                LOG.info("Journaling records applied to {} for incremental backups", dataAccessPoint.getName());
+            } catch (IOException e) {
+                LOG.warn("Unable to journal records applied to {}, only full backups will be taken: {}",
+                         dataAccessPoint.getName(), e.getMessage());
             }
         }
     }
@@ -16,5 +16,10 @@
 
 package io.telicent.backup.services;
 
-public record BackupOperationRequest(String pathInfo, String remoteUser, String description, String backupName) {
+public record BackupOperationRequest(String pathInfo, String remoteUser, String description, String backupName,
+                                     boolean incremental) {
+
+    public BackupOperationRequest(String pathInfo, String remoteUser, String description, String backupName) {
+        this(pathInfo, remoteUser, description, backupName, false);
+    }
 }
@@ -0,0 +1,525 @@
+/*
+ *  Copyright (c) Telicent Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.telicent.backup.services;
+
+import io.telicent.backup.utils.BackupFormat;
+import io.telicent.core.OnlineCompaction;
+import io.telicent.smart.cache.configuration.Configurator;
+import org.apache.commons.io.FileUtils;
+import org.apache.jena.dboe.base.file.Location;
+import org.apache.jena.dboe.transaction.txn.TransactionCoordinator;
+import org.apache.jena.riot.RDFParser;
+import org.apache.jena.riot.lang.LabelToNode;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDFBase;
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.jena.system.Txn;
+import org.apache.jena.tdb2.loader.DataLoader;
+import org.apache.jena.tdb2.loader.LoaderFactory;
+import org.apache.jena.tdb2.loader.base.LoaderOps;
+import org.apache.jena.tdb2.store.DatasetGraphSwitchable;
+import org.apache.jena.tdb2.store.DatasetGraphTDB;
+import org.apache.jena.tdb2.sys.DatabaseOps;
+import org.apache.jena.tdb2.sys.StoreConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Restores a triple store backup by bulk loading it into a new TDB2 generation and then switching the dataset to it.
+ * <p>
+ * Restoring through a transaction clears the dataset and parses the whole backup on one thread into a single write
+ * transaction, whose journal grows with the size of the backup. A bulk restore instead parses the backup on a pool of
+ * threads, each segment of a backup written by {@link ParallelBackupWriter} separately, or blocks of whole lines of any
+ * other N-Quads backup, and loads the quads with the TDB2 parallel loader into a new {@code Data-NNNN} directory, which has no
+ * transaction journal. The dataset carries on using its current generation until the new one is complete, and is then
+ * switched to it in exclusive mode. Writers are held back from the time loading starts until the switch, so that no
+ * change is made to the current generation that the restored one would lose.
+ * </p>
+ * <p>
+ * The restored generation has the prefixes held in the backup, if any, rather than those of the current generation.
+ * </p>
+ * <p>
+ * Only datasets that are a TDB2 database with no wrapper are restored this way, since a data security plugin may read
+ * the blank nodes of a backup differently. Blank nodes keep the labels they were backed up with, so a blank node split
+ * across segments is still one blank node.
+ * </p>
+ */
+public class BulkRestore {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BulkRestore.class);
+
+    /**
+     * Configuration key to restore triple store backups by bulk loading a new generation, defaults to false
+     */
+    public static final String ENV_RESTORE_BULK_LOAD = "RESTORE_BULK_LOAD";
+    /**
+     * Configuration key for the number of threads used to parse a backup, defaults to the number of processors
+     */
+    public static final String ENV_RESTORE_THREADS = "RESTORE_THREADS";
+    /**
+     * Configuration key for how long, in milliseconds, to wait for transactions in progress to finish before switching
+     * to the restored generation
+     */
+    public static final String ENV_RESTORE_SWAP_TIMEOUT_MS = "RESTORE_SWAP_TIMEOUT_MS";
+    /** Default swap timeout, 30 seconds */
+    public static final long DEFAULT_SWAP_TIMEOUT_MS = 30_000;
+
+    /** Size of the blocks a backup without a manifest is split into for parsing */
+    static final int BLOCK_BYTES = 4 * 1024 * 1024;
+    private static final String TEMP_SUFFIX = "-restoring";
+    private static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+
+    /**
+     * A restored generation that is ready to be switched to
+     *
+     * @param container Database restored
+     * @param tempDir   Directory the generation was loaded into
+     * @param nextDir   Directory the generation is moved to when switched to
+     * @param quads     Number of quads loaded
+     */
+    public record Prepared(DatasetGraphSwitchable container, Path tempDir, Path nextDir, long quads) {
+    }
+
+    /**
+     * Loads data into a new generation of a database
+     */
+    @FunctionalInterface
+    public interface Loader {
+        /**
+         * Loads data into a new generation, which has no transaction journal so is best loaded with a TDB2 bulk
+         * loader
+         *
+         * @param target   New generation
+         * @param prefixes Receives the prefixes the new generation should have
+         * @return Number of quads loaded
+         * @throws IOException Thrown if the data cannot be read
+         */
+        long load(DatasetGraphTDB target, Map<String, String> prefixes) throws IOException;
+    }
+
+    private final int threads;
+    private final long swapTimeoutMillis;
+
+    /**
+     * Gets whether bulk restores are enabled
+     *
+     * @return True if enabled
+     */
+    public static boolean isEnabled() {
+        return Configurator.get(ENV_RESTORE_BULK_LOAD, Boolean::parseBoolean, false);
+    }
+
+    /**
+     * Indicates whether a dataset can be restored by bulk loading
+     *
+     * @param dsg Dataset
+     * @return True if the dataset is an on-disk TDB2 database with no wrapper
+     */
+    public static boolean isSupported(DatasetGraph dsg) {
+        return dsg instanceof DatasetGraphSwitchable switchable && OnlineCompaction.isSupported(switchable);
+    }
+
+    /**
+     * Creates a bulk restore using the configured number of threads and swap timeout
+     *
+     * @return Bulk restore
+     */
+    public static BulkRestore fromConfiguration() {
+        return new BulkRestore(Configurator.get(ENV_RESTORE_THREADS, Integer::parseInt,
+                                                Runtime.getRuntime().availableProcessors()),
+                               Configurator.get(ENV_RESTORE_SWAP_TIMEOUT_MS, Long::parseLong,
+                                                DEFAULT_SWAP_TIMEOUT_MS));
+    }
+
+    /**
+     * Creates a new bulk restore
+     *
+     * @param threads           Number of threads to parse the backup with
+     * @param swapTimeoutMillis How long to wait for transactions in progress to finish before switching generation
+     */
+    public BulkRestore(int threads, long swapTimeoutMillis) {
+        this.threads = Math.max(1, threads);
+        this.swapTimeoutMillis = swapTimeoutMillis;
+    }
+
+    /**
+     * Restores a backup into a new generation of a database and switches to it. Writers are blocked for the whole
+     * restore, while readers carry on using the current generation until the switch.
+     *
+     * @param container  Database to restore
+     * @param backupFile Gzip compressed backup, in the {@link BackupFormat} given by its suffix
+     * @return Number of quads restored
+     * @throws IOException Thrown if the backup cannot be read or the generation cannot be created or moved into place
+     */
+    public long restore(DatasetGraphSwitchable container, Path backupFile) throws IOException {
+        return restore(container, backupFile.toString(), (target, prefixes) -> load(backupFile, target, prefixes));
+    }
+
+    /**
+     * Loads data into a new generation of a database and switches to it. Writers are blocked for the whole load,
+     * while readers carry on using the current generation until the switch.
+     *
+     * @param container Database to load
+     * @param source    Description of where the data comes from, for logging
+     * @param loader    Loads the data
+     * @return Number of quads loaded
+     * @throws IOException Thrown if the data cannot be read or the generation cannot be created or moved into place
+     */
+    public long restore(DatasetGraphSwitchable container, String source, Loader loader) throws IOException {
+        if (OnlineCompaction.isInProgress(container)) {
+            throw new IllegalStateException("An online compaction is in progress, the backup was not restored");
+        }
+        DatasetGraphTDB current = OnlineCompaction.currentGeneration(container);
+        if (current == null) {
+            throw new IllegalStateException("Not an on-disk TDB2 database");
+        }
+        TransactionCoordinator txnMgr = current.getTxnSystem().getTxnMgr();
+        if (!awaitWriters(txnMgr)) {
+            throw new IllegalStateException("Write transaction in progress did not finish within "
+                                            + this.swapTimeoutMillis + " ms, the backup was not restored");
+        }
+        try {
+            Prepared prepared = prepare(container, source, loader);
+            switchTo(prepared);
+            return prepared.quads();
+        } finally {
+            txnMgr.enableWriters();
+        }
+    }
+
+    /**
+     * Loads a backup into a new generation of a database, without switching to it. The caller is responsible for
+     * making sure nothing is written to the database until it is switched, see {@link #restore(DatasetGraphSwitchable,
+     * Path)}.
+     *
+     * @param container  Database to restore
+     * @param backupFile Gzip compressed backup, in the {@link BackupFormat} given by its suffix
+     * @return Generation ready to be switched to
+     * @throws IOException Thrown if the backup cannot be read or the generation cannot be created
+     */
+    public Prepared prepare(DatasetGraphSwitchable container, Path backupFile) throws IOException {
+        return prepare(container, backupFile.toString(), (target, prefixes) -> load(backupFile, target, prefixes));
+    }
+
+    /**
+     * Loads data into a new generation of a database, without switching to it. The caller is responsible for making
+     * sure nothing is written to the database until it is switched.
+     *
+     * @param container Database to load
+     * @param source    Description of where the data comes from, for logging
+     * @param loader    Loads the data
+     * @return Generation ready to be switched to
+     * @throws IOException Thrown if the data cannot be read or the generation cannot be created
+     */
+    public Prepared prepare(DatasetGraphSwitchable container, String source, Loader loader) throws IOException {
+        Path currentDir = DatabaseOps.findStorageLocation(container.getContainerPath());
+        Path nextDir = OnlineCompaction.nextGeneration(currentDir);
+        Path tempDir = nextDir.resolveSibling(nextDir.getFileName() + TEMP_SUFFIX);
+        FileUtils.deleteDirectory(tempDir.toFile());
+        Location tempLocation = Location.create(tempDir.toString());
+        boolean prepared = false;
+        try {
+            DatasetGraphTDB target = StoreConnection.connectCreate(tempLocation).getDatasetGraphTDB();
+            Map<String, String> prefixes = new LinkedHashMap<>();
+            long quads = loader.load(target, prefixes);
+            if (!prefixes.isEmpty()) {
+                Txn.executeWrite(target, () -> target.prefixes().putAll(prefixes));
+            }
+            StoreConnection.release(tempLocation);
+            prepared = true;
+            LOG.info("[RESTORE] Bulk loaded {} quads from {} into {}", quads, source, tempDir);
+            return new Prepared(container, tempDir, nextDir, quads);
+        } finally {
+            if (!prepared) {
+                StoreConnection.release(tempLocation);
+                FileUtils.deleteDirectory(tempDir.toFile());
+            }
+        }
+    }
+
+    /**
+     * Bulk loads a backup into a new generation of a database
+     *
+     * @param backupFile Backup file
+     * @param target     New generation
+     * @param prefixes   Receives the backup's prefixes
+     * @return Number of quads loaded
+     * @throws IOException Thrown if the backup cannot be read
+     */
+    long load(Path backupFile, DatasetGraphTDB target, Map<String, String> prefixes) throws IOException {
+        DataLoader loader = LoaderFactory.parallelLoader(target, LoaderOps.nullOutput());
+        ExecutorService pool = Executors.newFixedThreadPool(this.threads, runnable -> {
+            Thread thread = new Thread(runnable, "restore-parser-" + THREAD_COUNTER.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        BackupFormat format = BackupFormat.forFile(backupFile.toString());
+        loader.startBulk();
+        try {
+            ParsedOutput output = new ParsedOutput(loader.stream(), prefixes);
+            Optional<List<ParallelBackupWriter.Segment>> segments = ParallelBackupWriter.readManifest(backupFile);
+            if (segments.isPresent()) {
+                for (ParallelBackupWriter.Segment segment : segments.get()) {
+                    output.add(pool.submit(() -> parse(new GZIPInputStream(new ByteArrayInputStream(
+                            readSegment(backupFile, segment))), format)));
+                }
+            } else if (format != BackupFormat.NQUADS) {
+                // Binary formats cannot be split between lines, so are parsed as one block
+                output.add(pool.submit(() -> {
+                    try (InputStream input = new GZIPInputStream(Files.newInputStream(backupFile), 64 * 1024)) {
+                        return parse(input, format);
+                    }
+                }));
+            } else {
+                try (InputStream input = new GZIPInputStream(Files.newInputStream(backupFile), 64 * 1024)) {
+                    byte[] remainder = new byte[0];
+                    boolean eof = false;
+                    while (!eof) {
+                        byte[] read = input.readNBytes(BLOCK_BYTES);
+                        eof = read.length < BLOCK_BYTES;
+                        byte[] block = concat(remainder, read);
+                        int end = eof ? block.length : lastLineEnd(block);
+                        if (end > 0) {
+                            byte[] lines = Arrays.copyOf(block, end);
+                            output.add(pool.submit(() -> parse(new ByteArrayInputStream(lines), format)));
+                        }
+                        remainder = Arrays.copyOfRange(block, end, block.length);
+                    }
+                }
+            }
+            long quads = output.finish();
+            loader.finishBulk();
+            return quads;
+        } catch (IOException | RuntimeException e) {
+            loader.finishException(e);
+            throw e;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static byte[] readSegment(Path backupFile, ParallelBackupWriter.Segment segment) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(Math.toIntExact(segment.length()));
+        try (FileChannel channel = FileChannel.open(backupFile, StandardOpenOption.READ)) {
+            long position = segment.offset();
+            while (buffer.hasRemaining()) {
+                int read = channel.read(buffer, position);
+                if (read < 0) {
+                    throw new EOFException("Backup " + backupFile + " is shorter than its manifest");
+                }
+                position += read;
+            }
+        }
+        return buffer.array();
+    }
+
+    private static byte[] concat(byte[] first, byte[] second) {
+        if (first.length == 0) {
+            return second;
+        }
+        byte[] joined = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, joined, first.length, second.length);
+        return joined;
+    }
+
+    /**
+     * Finds the end of the last complete line in a block, so that blocks are only ever split between lines
+     *
+     * @param block Block
+     * @return Index after the last line feed, {@code 0} if there is none
+     */
+    static int lastLineEnd(byte[] block) {
+        int end = block.length;
+        while (end > 0 && block[end - 1] != '\n') {
+            end--;
+        }
+        return end;
+    }
+
+    private static Parsed parse(InputStream input, BackupFormat format) {
+        Parsed parsed = new Parsed(new ArrayList<>(), new LinkedHashMap<>());
+        // Blank node labels are kept as given, so the same label in different segments is the same blank node
+        RDFParser.source(input)
+                 .lang(format.lang())
+                 .labelToNode(LabelToNode.createUseLabelAsGiven())
+                 .parse(new StreamRDFBase() {
+                     @Override
+                     public void quad(Quad quad) {
+                         parsed.quads().add(quad);
+                     }
+
+                     @Override
+                     public void prefix(String prefix, String iri) {
+                         parsed.prefixes().put(prefix, iri);
+                     }
+                 });
+        return parsed;
+    }
+
+    /**
+     * Switches a database to a restored generation, deleting the previous generation
+     *
+     * @param prepared Restored generation
+     * @throws IOException Thrown if the generation cannot be moved into place
+     */
+    public void switchTo(Prepared prepared) throws IOException {
+        DatasetGraphSwitchable container = prepared.container();
+        if (OnlineCompaction.isInProgress(container)) {
+            discard(prepared);
+            throw new IllegalStateException(
+                    "An online compaction is in progress, the restored data was not switched to");
+        }
+        DatasetGraphTDB current = OnlineCompaction.currentGeneration(container);
+        if (current == null) {
+            throw new IllegalStateException("Not an on-disk TDB2 database");
+        }
+        Path currentDir = DatabaseOps.findStorageLocation(container.getContainerPath());
+        TransactionCoordinator txnMgr = current.getTxnSystem().getTxnMgr();
+        if (!awaitExclusive(txnMgr)) {
+            discard(prepared);
+            throw new IllegalStateException("Transactions in progress did not finish within " + this.swapTimeoutMillis
+                                            + " ms, the restored data was not switched to");
+        }
+        try {
+            if (container.get() != current) {
+                discard(prepared);
+                throw new IllegalStateException("Database changed generation during restore");
+            }
+            Files.move(prepared.tempDir(), prepared.nextDir());
+            DatasetGraphTDB restored = StoreConnection.connectExisting(Location.create(prepared.nextDir().toString()))
+                                                      .getDatasetGraphTDB();
+            container.change(current, restored);
+        } finally {
+            txnMgr.finishExclusiveMode();
+        }
+        StoreConnection.release(current.getLocation());
+        FileUtils.deleteDirectory(currentDir.toFile());
+        LOG.info("[RESTORE] Switched {} to restored generation {}", container.getContainerPath(), prepared.nextDir());
+    }
+
+    /**
+     * Removes a restored generation that will not be switched to
+     *
+     * @param prepared Restored generation
+     */
+    public static void discard(Prepared prepared) {
+        try {
+            FileUtils.deleteDirectory(prepared.tempDir().toFile());
+        } catch (IOException e) {
+            LOG.warn("[RESTORE] Failed to remove unused restored generation {}: {}", prepared.tempDir(),
+                     e.getMessage());
+        }
+    }
+
+    private boolean awaitWriters(TransactionCoordinator txnMgr) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.swapTimeoutMillis);
+        while (!txnMgr.tryBlockWriters()) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean awaitExclusive(TransactionCoordinator txnMgr) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.swapTimeoutMillis);
+        while (!txnMgr.tryExclusiveMode(false)) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The quads and prefixes parsed from one block of a backup
+     */
+    private record Parsed(List<Quad> quads, Map<String, String> prefixes) {
+    }
+
+    /**
+     * Sends parsed quads to the loader in the order they were read, limiting how many parsed blocks are held in memory
+     * at once
+     */
+    private final class ParsedOutput {
+        private final StreamRDF stream;
+        private final Map<String, String> prefixes;
+        private final Deque<Future<Parsed>> pending = new ArrayDeque<>();
+        private long quads;
+
+        private ParsedOutput(StreamRDF stream, Map<String, String> prefixes) {
+            this.stream = stream;
+            this.prefixes = prefixes;
+        }
+
+        private void add(Future<Parsed> parsed) throws IOException {
+            this.pending.add(parsed);
+            while (this.pending.size() > threads * 2) {
+                loadNext();
+            }
+        }
+
+        private void loadNext() throws IOException {
+            Parsed parsed;
+            try {
+                parsed = this.pending.removeFirst().get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while restoring backup");
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException runtimeException) {
+                    throw runtimeException;
+                }
+                throw new IOException("Failed to parse backup", e.getCause());
+            }
+            parsed.quads().forEach(this.stream::quad);
+            this.prefixes.putAll(parsed.prefixes());
+            this.quads += parsed.quads().size();
+        }
+
+        private long finish() throws IOException {
+            while (!this.pending.isEmpty()) {
+                loadNext();
+            }
+            return this.quads;
+        }
+    }
+}
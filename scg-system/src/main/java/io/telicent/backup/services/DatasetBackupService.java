@@ -16,10 +16,13 @@
 
 package io.telicent.backup.services;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.telicent.backup.utils.BackupFormat;
 import io.telicent.backup.utils.EncryptionUtils;
 import io.telicent.core.DatasetMaintenanceRegistry;
+import io.telicent.core.OffsetCheckpointSink;
 import io.telicent.model.KeyPair;
 import io.telicent.smart.cache.security.data.DataSecurityException;
 import io.telicent.smart.cache.security.data.labels.SecurityLabelsBackup;
@@ -33,18 +36,25 @@ import org.apache.jena.fuseki.kafka.FKS;
 import org.apache.jena.fuseki.mgt.Backup;
 import org.apache.jena.fuseki.server.DataAccessPoint;
 import org.apache.jena.fuseki.server.DataAccessPointRegistry;
+import org.apache.jena.fuseki.server.DataService;
+import org.apache.jena.fuseki.server.Operation;
 import org.apache.jena.graph.Graph;
 import org.apache.jena.rdf.model.Model;
 import org.apache.jena.rdf.model.ModelFactory;
 import org.apache.jena.riot.Lang;
 import org.apache.jena.riot.RDFDataMgr;
 import org.apache.jena.riot.RDFParser;
+import org.apache.jena.riot.system.StreamRDF;
 import org.apache.jena.riot.system.StreamRDFLib;
+import org.apache.jena.riot.system.StreamRDFOps;
+import org.apache.jena.riot.system.StreamRDFWriter;
 import org.apache.jena.shacl.ShaclValidator;
 import org.apache.jena.shacl.Shapes;
 import org.apache.jena.shacl.ValidationReport;
 import org.apache.jena.sparql.core.DatasetGraph;
 import org.apache.jena.system.Txn;
+import org.apache.jena.tdb2.store.DatasetGraphSwitchable;
+import org.apache.kafka.common.TopicPartition;
 import org.bouncycastle.openpgp.PGPException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -63,19 +73,28 @@ import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import static io.telicent.backup.utils.BackupConstants.*;
 import static io.telicent.backup.utils.BackupUtils.*;
 import static io.telicent.backup.utils.CompressionUtils.*;
 import static io.telicent.backup.utils.JsonFileUtils.OBJECT_MAPPER;
 import static io.telicent.backup.utils.JsonFileUtils.writeObjectNodeToFile;
-import static org.apache.jena.riot.Lang.NQUADS;
 
 public class DatasetBackupService {
 
     public static final Logger LOG = LoggerFactory.getLogger(DatasetBackupService.class);
 
     private static final String BACKUP_SUFFIX = "_backup";
+    private static final String DELTA_SUFFIX = "_delta";
+    private static final String DELTA_JOURNAL_SUFFIX = ".jsonl.gz";
+    private static final String DELTA_INFO_SUFFIX = ".json";
+    private static final String CHECKPOINT_SUFFIX = "_checkpoint.json";
+    /** Suffix of the directory a backup is extracted into before it has been verified */
+    private static final String EXTRACT_SUFFIX = "-extracting";
+    /** Operations that change a dataset directly, so their changes are not in its ingest journal */
+    private static final List<Operation> DIRECT_WRITE_OPERATIONS =
+            List.of(Operation.Update, Operation.GSP_RW, Operation.Upload, Operation.Patch);
 
     // JSON keys of the backup/restore response contract
     private static final String SUCCESS = "success";
@@ -88,6 +107,11 @@ public class DatasetBackupService {
     private static final String DESCRIPTION = "description";
     private static final String START_TIME = "start-time";
     private static final String END_TIME = "end-time";
+    private static final String MODE = "mode";
+    private static final String BASE_BACKUP_ID = "base-backup-id";
+    private static final String FORMAT = "format";
+    private static final String CHECKPOINT = "checkpoint";
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
 
     private final ReentrantLock lock;
 
@@ -99,6 +123,9 @@ public class DatasetBackupService {
 
     private final DataSecurityPlugin dataSecurityPlugin;
 
+    // Results of triple stores bulk restored ahead of the restore transaction, see bulkRestoreTDB()
+    private final Map<DatasetGraph, ObjectNode> bulkRestores = new ConcurrentHashMap<>();
+
     static final ConcurrentHashMap<String, TriConsumer<DataAccessPoint, String, ObjectNode>> backupConsumerMap = new ConcurrentHashMap<>();
     static final ConcurrentHashMap<String, TriConsumer<DataAccessPoint, String, ObjectNode>> restoreConsumerMap = new ConcurrentHashMap<>();
 
@@ -141,7 +168,8 @@ public class DatasetBackupService {
         return new BackupOperationRequest(request.getPathInfo(),
                                           request.getRemoteUser(),
                                           request.getParameter(DESCRIPTION),
-                                          request.getParameter("backup-name"));
+                                          request.getParameter("backup-name"),
+                                          Boolean.parseBoolean(request.getParameter("incremental")));
     }
 
     public BackupOperationResponse execute(final BackupOperationRequest request, final boolean backup,
@@ -192,7 +220,7 @@ public class DatasetBackupService {
             LOG.info("[{}] >>>> Starting {} operation (target={}, user={})",
                      operation, operation, target, request.remoteUser());
             if (backup) {
-                backupDataset(id, resultNode);
+                backupDataset(id, resultNode, request.incremental());
             } else {
                 restoreDatasets(id, resultNode);
             }
@@ -287,6 +315,18 @@ public class DatasetBackupService {
      * @param response the node to add metadata of process to
      */
     public void backupDataset(String datasetName, ObjectNode response) {
+        backupDataset(datasetName, response, false);
+    }
+
+    /**
+     * Perform a backup of all datasets or a specific dataset if a name is provided.
+     *
+     * @param datasetName the name of the dataset to back up
+     * @param response the node to add metadata of process to
+     * @param incremental whether to back up only the changes to the triple store since the previous backup, where
+     *                    possible
+     */
+    public void backupDataset(String datasetName, ObjectNode response, boolean incremental) {
         ZonedDateTime startTime = ZonedDateTime.now();
         String backupPath = getBackUpDir();
         int backupID = getNextDirectoryNumberAndCreate(backupPath);
@@ -320,7 +360,8 @@ public class DatasetBackupService {
                     LOG.info("[BACKUP] Backing up dataset {} (backup-id {}) to {}",
                              sanitizedDataAccessPointName, backupID, backupIDPath + "/" + sanitizedDataAccessPointName);
                     try {
-                        applyBackUpMethods(datasetJSON, dataAccessPoint, backupIDPath + "/" + sanitizedDataAccessPointName);
+                        applyBackUpMethods(datasetJSON, dataAccessPoint, backupIDPath + "/" + sanitizedDataAccessPointName,
+                                           incremental);
                     } catch (DataSecurityException e) {
                         throw new RuntimeException(e);
                     } finally {
@@ -353,6 +394,20 @@ public class DatasetBackupService {
      * @param backupPath      the path to backup to
      */
     public void applyBackUpMethods(ObjectNode moduleJSON, DataAccessPoint dataAccessPoint, String backupPath) throws DataSecurityException {
+        applyBackUpMethods(moduleJSON, dataAccessPoint, backupPath, false);
+    }
+
+    /**
+     * For all registered backup Consumers, apply the backup operation
+     *
+     * @param moduleJSON      JSON to update with details
+     * @param dataAccessPoint the details to  which to apply
+     * @param backupPath      the path to backup to
+     * @param incremental     whether to back up only the changes to the triple store since the previous backup, where
+     *                        possible, other modules are always backed up in full
+     */
+    public void applyBackUpMethods(ObjectNode moduleJSON, DataAccessPoint dataAccessPoint, String backupPath,
+                                   boolean incremental) throws DataSecurityException {
         for (Map.Entry<String, TriConsumer<DataAccessPoint, String, ObjectNode>> entry : backupConsumerMap.entrySet()) {
             ObjectNode node = OBJECT_MAPPER.createObjectNode();
             String modBackupPath = backupPath + "/" + entry.getKey() + "/";
@@ -362,7 +417,11 @@ public class DatasetBackupService {
                 node.put(SUCCESS, false);
             } else {
                 try {
-                    entry.getValue().accept(dataAccessPoint, modBackupPath, node);
+                    if (incremental && "tdb".equals(entry.getKey())) {
+                        backupTDB(dataAccessPoint, modBackupPath, node, true);
+                    } else {
+                        entry.getValue().accept(dataAccessPoint, modBackupPath, node);
+                    }
                 } catch (RuntimeException e) {
                     node.put(REASON, e.getMessage());
                     node.put(SUCCESS, false);
@@ -380,9 +439,174 @@ public class DatasetBackupService {
      * @param node            JSON Node to store results
      */
     void backupTDB(DataAccessPoint dataAccessPoint, String backupPath, ObjectNode node) {
+        backupTDB(dataAccessPoint, backupPath, node, false);
+    }
+
+    /**
+     * Back up the triple store, either in full or, if requested and the dataset's {@link IngestJournal} holds all the
+     * changes since the previous backup, as the journal of those changes.
+     *
+     * @param dataAccessPoint Dataset to backup
+     * @param backupPath      the folder to back up to
+     * @param node            JSON Node to store results
+     * @param incremental     whether to back up only the changes since the previous backup
+     */
+    void backupTDB(DataAccessPoint dataAccessPoint, String backupPath, ObjectNode node, boolean incremental) {
         String backupFile = backupPath + sanitiseName(dataAccessPoint.getName()) + BACKUP_SUFFIX;
         DatasetGraph dsg = dataAccessPoint.getDataService().getDataset();
-        executeBackupTDB(dsg, backupFile, node);
+        // Taken before the data, so the checkpoint never runs ahead of what is backed up
+        backupCheckpoint(dsg, backupFile);
+        Optional<IngestJournal> journal = IngestJournal.forDataset(dsg);
+        if (journal.isEmpty()) {
+            if (incremental) {
+                node.put(MODE + "-" + REASON, "Incremental backups are not enabled for this dataset");
+            }
+            executeBackupTDB(dsg, backupFile, node);
+            node.put(MODE, "FULL");
+            return;
+        }
+        String backupId = backupIdOf(backupPath);
+        try {
+            Optional<IngestJournal.Base> base = journal.get().base();
+            Optional<String> directWrites = directWriteOperations(dataAccessPoint.getDataService());
+            if (incremental && directWrites.isPresent()) {
+                // The journal only holds records read from Kafka so would miss changes made by these operations
+                node.put(MODE + "-" + REASON, "Dataset accepts direct writes (" + directWrites.get()
+                                              + ") that incremental backups do not capture");
+            } else if (incremental && base.isPresent() && backupExists(base.get().backupId())) {
+                writeDelta(journal.get(), base.get(), backupFile, backupId);
+                node.put(MODE, "INCREMENTAL");
+                node.put(BASE_BACKUP_ID, base.get().backupId());
+                node.put(SUCCESS, true);
+                return;
+            }
+            if (incremental) {
+                node.put(MODE + "-" + REASON, base.isEmpty()
+                                              ? "No previous backup to take an incremental backup from"
+                                              : "Previous backup " + base.get().backupId() + " no longer exists");
+            }
+            // Start a new segment first, so changes made while the backup runs are in the next incremental backup
+            IngestJournal.Position start = journal.get().rotate();
+            executeBackupTDB(dsg, backupFile, node);
+            journal.get().setBase(backupId, start);
+            node.put(MODE, "FULL");
+        } catch (IOException e) {
+            journal.get().invalidate();
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Finds the operations through which a dataset can be changed directly, rather than through Kafka
+     *
+     * @param dataService the dataset's service
+     * @return the operations, empty if there are none
+     */
+    static Optional<String> directWriteOperations(DataService dataService) {
+        Set<String> operations = new TreeSet<>();
+        for (Operation operation : DIRECT_WRITE_OPERATIONS) {
+            if (dataService.hasOperation(operation)) {
+                operations.add(operation.getName());
+            }
+        }
+        return operations.isEmpty() ? Optional.empty() : Optional.of(String.join(", ", operations));
+    }
+
+    /**
+     * Gets the ID of the backup a module's backup directory belongs to
+     *
+     * @param modulePath the module directory, i.e. {@code <backup-id>/<dataset>/<module>/}
+     * @return the backup ID, empty if the path is not within a backup
+     */
+    private static String backupIdOf(String modulePath) {
+        Path backupDir = Path.of(modulePath).getParent() == null ? null : Path.of(modulePath).getParent().getParent();
+        return backupDir == null || backupDir.getFileName() == null ? "" : backupDir.getFileName().toString();
+    }
+
+    /**
+     * Find the format a dataset's triple store backup was written in, as recorded in the backup's metadata, or else
+     * from the backup files present
+     *
+     * @param backupId    the backup identifier
+     * @param datasetName the dataset name
+     * @param backupFile  the triple store backup file, without a format suffix
+     * @return the format, N-Quads if there is no record of it
+     */
+    static BackupFormat formatOf(String backupId, String datasetName, String backupFile) {
+        File info = new File(getBackUpDir() + "/" + backupId + JSON_INFO_SUFFIX);
+        if (!backupId.isEmpty() && info.isFile()) {
+            try {
+                for (JsonNode dataset : OBJECT_MAPPER.readTree(info).path(DATASETS)) {
+                    if (datasetName.equalsIgnoreCase(dataset.path(DATASET_NAME).asText())) {
+                        Optional<BackupFormat> recorded =
+                                BackupFormat.fromLabel(dataset.path("tdb").path(FORMAT).asText());
+                        if (recorded.isPresent()) {
+                            return recorded.get();
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                LOG.warn("Unable to read the metadata of backup {}: {}", backupId, e.getMessage());
+            }
+        }
+        return BackupFormat.locate(backupFile).orElse(BackupFormat.NQUADS);
+    }
+
+    /**
+     * Write the Kafka offsets checkpointed in a dataset, see {@link OffsetCheckpointSink}, alongside its triple store
+     * backup. The checkpoint is held in the TDB2 prefix table rather than as data, so is not in the backup itself.
+     *
+     * @param dsg        the dataset
+     * @param backupFile the triple store backup file, without a format suffix
+     */
+    static void backupCheckpoint(DatasetGraph dsg, String backupFile) {
+        Map<TopicPartition, Long> checkpoint = OffsetCheckpointSink.read(dsg);
+        if (checkpoint.isEmpty()) {
+            return;
+        }
+        ObjectNode offsets = OBJECT_MAPPER.createObjectNode();
+        ArrayNode partitions = offsets.putArray(CHECKPOINT);
+        checkpoint.forEach((partition, offset) -> partitions.addObject()
+                                                            .put("topic", partition.topic())
+                                                            .put("partition", partition.partition())
+                                                            .put("offset", offset));
+        writeObjectNodeToFile(offsets, backupFile + CHECKPOINT_SUFFIX);
+    }
+
+    /**
+     * Read the Kafka offsets checkpointed in a dataset when its triple store was backed up
+     *
+     * @param backupFile the triple store backup file, without a format suffix
+     * @return the offsets, empty if the dataset had no checkpoint
+     * @throws IOException if the checkpoint cannot be read
+     */
+    static Map<TopicPartition, Long> readCheckpoint(String backupFile) throws IOException {
+        Map<TopicPartition, Long> checkpoint = new HashMap<>();
+        File file = new File(backupFile + CHECKPOINT_SUFFIX);
+        if (file.isFile()) {
+            for (JsonNode partition : OBJECT_MAPPER.readTree(file).path(CHECKPOINT)) {
+                checkpoint.put(new TopicPartition(partition.path("topic").asText(),
+                                                  partition.path("partition").asInt()),
+                               partition.path("offset").asLong());
+            }
+        }
+        return checkpoint;
+    }
+
+    private void writeDelta(IngestJournal journal, IngestJournal.Base base, String backupFile, String backupId)
+            throws IOException {
+        IngestJournal.Position end =
+                journal.copy(base.position(), Path.of(backupFile + DELTA_SUFFIX + DELTA_JOURNAL_SUFFIX));
+        ObjectNode info = OBJECT_MAPPER.createObjectNode();
+        info.put(BASE_BACKUP_ID, base.backupId());
+        writeObjectNodeToFile(info, backupFile + DELTA_SUFFIX + DELTA_INFO_SUFFIX);
+        journal.setBase(backupId, end);
+    }
+
+    private static boolean backupExists(String backupId) {
+        String path = getBackUpDir() + "/" + backupId;
+        return checkPathExistsAndIsDir(path) || checkPathExistsAndIsFile(path + ZIP_SUFFIX)
+                || checkPathExistsAndIsFile(path + ZIP_SUFFIX + ENCRYPTION_SUFFIX);
     }
 
     /**
@@ -393,10 +617,43 @@ public class DatasetBackupService {
      * @param node       JSON Node to store results
      */
     void executeBackupTDB(DatasetGraph dsg, String backupFile, ObjectNode node) {
-        Backup.backup(dsg, dsg, backupFile);
+        BackupFormat format = BackupFormat.fromConfiguration();
+        try {
+            if (ParallelBackupWriter.configuredThreads() > 1) {
+                List<ParallelBackupWriter.Segment> segments =
+                        ParallelBackupWriter.fromConfiguration().write(dsg, Path.of(backupFile + format.suffix()));
+                node.put("segments", segments.size());
+            } else if (format == BackupFormat.NQUADS) {
+                Backup.backup(dsg, dsg, backupFile);
+            } else {
+                writeBackup(dsg, backupFile + format.suffix(), format);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        node.put(FORMAT, format.label());
         node.put(SUCCESS, true);
     }
 
+    /**
+     * Write a backup of the triple store in one of the binary formats
+     *
+     * @param dsg        DatasetGraph to back up
+     * @param backupFile the file to back up to
+     * @param format     the format to write
+     * @throws IOException if the backup cannot be written
+     */
+    private static void writeBackup(DatasetGraph dsg, String backupFile, BackupFormat format) throws IOException {
+        try (OutputStream out = new GZIPOutputStream(new FileOutputStream(backupFile), 64 * 1024)) {
+            Txn.executeRead(dsg, () -> {
+                StreamRDF stream = StreamRDFWriter.getWriterStream(out, format.lang());
+                stream.start();
+                StreamRDFOps.sendDatasetToStream(dsg, stream);
+                stream.finish();
+            });
+        }
+    }
+
     /**
      * Back up the label store for the given data access point (DSG)
      *
@@ -486,18 +743,7 @@ public class DatasetBackupService {
             }
         }
 
-        boolean decompressDir = false;
-        if (checkPathExistsAndIsFile(restorePath + ZIP_SUFFIX)) {
-            unzipDirectory(restorePath + ZIP_SUFFIX, restorePath);
-            decompressDir = true;
-        } else if (checkPathExistsAndIsFile(restorePath + ZIP_SUFFIX + ENCRYPTION_SUFFIX)) {
-            final Path encZipFilePath = Path.of(restorePath + ZIP_SUFFIX + ENCRYPTION_SUFFIX);
-            final Path decryptedZipPath = encryptionUtils.decryptFile(encZipFilePath, Path.of(restorePath + ZIP_SUFFIX));
-            LOG.debug("Successfully decrypted file: {} as {}", encZipFilePath, decryptedZipPath);
-            unzipDirectory(decryptedZipPath, Path.of(restorePath));
-            Files.delete(decryptedZipPath);
-            decompressDir = true;
-        }
+        boolean decompressDir = extractBackup(restorePath);
         if (!checkPathExistsAndIsDir(restorePath)) {
             response.put(REASON, "Restore path unsuitable: " + restorePath);
             response.put(SUCCESS, false);
@@ -528,6 +774,46 @@ public class DatasetBackupService {
         }
     }
 
+    /**
+     * Decompress, and decrypt if needed, a backup so that its files can be restored from. The backup is extracted into
+     * a separate directory which is only moved into place once the whole backup has been read, and for an encrypted
+     * backup its integrity verified, so nothing is ever restored from a backup that has been tampered with.
+     *
+     * @param backupPath the path of the backup directory
+     * @return true if the backup was decompressed, so the directory should be cleaned up afterward
+     */
+    boolean extractBackup(String backupPath) throws PGPException, IOException {
+        final Path extractPath = Path.of(backupPath + EXTRACT_SUFFIX);
+        if (checkPathExistsAndIsFile(backupPath + ZIP_SUFFIX)) {
+            cleanupDirectory(extractPath.toString());
+            try {
+                unzipDirectory(Path.of(backupPath + ZIP_SUFFIX), extractPath);
+            } catch (IOException | RuntimeException e) {
+                cleanupDirectory(extractPath.toString());
+                throw e;
+            }
+        } else if (checkPathExistsAndIsFile(backupPath + ZIP_SUFFIX + ENCRYPTION_SUFFIX)) {
+            final Path encZipFilePath = Path.of(backupPath + ZIP_SUFFIX + ENCRYPTION_SUFFIX);
+            cleanupDirectory(extractPath.toString());
+            // Decrypt and unzip in one pass, without writing the decrypted ZIP file to disk. The integrity of the
+            // backup is only verified when the stream is closed.
+            try (InputStream zipIn = encryptionUtils.decryptingStream(
+                    new BufferedInputStream(Files.newInputStream(encZipFilePath), STREAM_BUFFER_SIZE))) {
+                unzipDirectory(zipIn, extractPath);
+            } catch (IOException | PGPException | RuntimeException e) {
+                cleanupDirectory(extractPath.toString());
+                throw e;
+            }
+            LOG.debug("Successfully decrypted and extracted file: {}", encZipFilePath);
+        } else {
+            return false;
+        }
+        // Replaces anything left behind by an earlier restore that was not cleaned up
+        cleanupDirectory(backupPath);
+        Files.move(extractPath, Path.of(backupPath));
+        return true;
+    }
+
     static Duration KAFKA_PAUSE_TIMEOUT = Duration.ofSeconds(30);
 
     /**
@@ -575,12 +861,15 @@ public class DatasetBackupService {
                 response.put(SUCCESS, false);
                 return false;
             }
-            Txn.executeWrite(dsg, () -> applyRestoreMethods(response, dataAccessPoint, restorePath + "/" + datasetName));
+            String datasetRestorePath = restorePath + "/" + datasetName;
+            bulkRestoreTDB(dataAccessPoint, datasetRestorePath + "/tdb/");
+            Txn.executeWrite(dsg, () -> applyRestoreMethods(response, dataAccessPoint, datasetRestorePath));
         } catch (RuntimeException ex) {
             LOG.error("[RESTORE] Error while restoring dataset {}: {}", datasetName, ex.getMessage(), ex);
             response.put(REASON, ex.getMessage());
             response.put(SUCCESS, false);
         } finally {
+            bulkRestores.remove(dsg);
             // ALWAYS resume Kafka ingest -- even if the restore threw
             try {
                 LOG.info("[RESTORE] Resuming Kafka ingest for {} after restore", fksKey);
@@ -608,9 +897,30 @@ public class DatasetBackupService {
      * @param node            the results of the operation.
      */
     void restoreTDB(DataAccessPoint dataAccessPoint, String restorePath, ObjectNode node) {
-        String tdbRestoreFile = restorePath + "/" + sanitiseName(dataAccessPoint.getName()) + BACKUP_SUFFIX + RDF_BACKUP_SUFFIX;
+        ObjectNode bulk = bulkRestores.remove(dataAccessPoint.getDataService().getDataset());
+        if (bulk != null) {
+            // Already restored ahead of the restore transaction
+            node.setAll(bulk);
+            return;
+        }
+        String tdbRestoreFile = tdbRestoreFile(dataAccessPoint, restorePath);
+        String deltaFile = restorePath + "/" + sanitiseName(dataAccessPoint.getName()) + BACKUP_SUFFIX + DELTA_SUFFIX;
         node.put("restorePath", tdbRestoreFile);
-        if (!checkPathExistsAndIsFile(tdbRestoreFile)) {
+        if (checkPathExistsAndIsFile(deltaFile + DELTA_INFO_SUFFIX)) {
+            node.put("restorePath", deltaFile + DELTA_JOURNAL_SUFFIX);
+            try {
+                DatasetGraph dsg = dataAccessPoint.getDataService().getDataset();
+                Set<String> restored = new HashSet<>();
+                restored.add(backupIdOf(restorePath));
+                node.put("replayed", executeRestoreIncrementalTDB(dataAccessPoint, dsg, deltaFile, restored));
+                node.put(MODE, "INCREMENTAL");
+                node.put(SUCCESS, true);
+                IngestJournal.forDataset(dsg).ifPresent(IngestJournal::invalidate);
+            } catch (Exception e) {
+                node.put(REASON, e.getMessage());
+                node.put(SUCCESS, false);
+            }
+        } else if (!checkPathExistsAndIsFile(tdbRestoreFile)) {
             node.put(REASON, "Restore file not found: " + tdbRestoreFile);
             node.put(SUCCESS, false);
         } else {
@@ -618,6 +928,8 @@ public class DatasetBackupService {
                 DatasetGraph dsg = dataAccessPoint.getDataService().getDataset();
                 executeRestoreTDB(dsg, tdbRestoreFile);
                 node.put(SUCCESS, true);
+                // The journal's base no longer reflects the dataset
+                IngestJournal.forDataset(dsg).ifPresent(IngestJournal::invalidate);
             } catch (Exception e) {
                 node.put(REASON, e.getMessage());
                 node.put(SUCCESS, false);
@@ -625,6 +937,111 @@ public class DatasetBackupService {
         }
     }
 
+    /**
+     * Restore the triple store by bulk loading it into a new generation, if enabled for the dataset and the backup is a
+     * full backup. This has to be done before the restore transaction is started, as writers are blocked on the
+     * database itself from the time loading starts until the dataset is switched to the new generation. The result is
+     * reported by {@link #restoreTDB(DataAccessPoint, String, ObjectNode)}.
+     *
+     * @param dataAccessPoint access to the dataset to recover
+     * @param restorePath     the location of the recovery files
+     */
+    void bulkRestoreTDB(DataAccessPoint dataAccessPoint, String restorePath) {
+        DatasetGraph dsg = dataAccessPoint.getDataService().getDataset();
+        if (!restoreConsumerMap.containsKey("tdb") || !BulkRestore.isEnabled() || !BulkRestore.isSupported(dsg)) {
+            return;
+        }
+        String tdbRestoreFile = tdbRestoreFile(dataAccessPoint, restorePath);
+        String deltaFile = restorePath + "/" + sanitiseName(dataAccessPoint.getName()) + BACKUP_SUFFIX + DELTA_SUFFIX;
+        if (checkPathExistsAndIsFile(deltaFile + DELTA_INFO_SUFFIX) || !checkPathExistsAndIsFile(tdbRestoreFile)) {
+            // Left to restoreTDB()
+            return;
+        }
+        ObjectNode node = OBJECT_MAPPER.createObjectNode();
+        node.put("restorePath", tdbRestoreFile);
+        try {
+            Map<TopicPartition, Long> checkpoint = readCheckpoint(withoutFormatSuffix(tdbRestoreFile));
+            BulkRestore restore = BulkRestore.fromConfiguration();
+            long quads = restore.restore((DatasetGraphSwitchable) dsg, tdbRestoreFile, (target, prefixes) -> {
+                long loaded = restore.load(Path.of(tdbRestoreFile), target, prefixes);
+                OffsetCheckpointSink.write(target, checkpoint);
+                return loaded;
+            });
+            node.put("loader", "bulk");
+            node.put("quads", quads);
+            node.put(SUCCESS, true);
+            // The journal's base no longer reflects the dataset
+            IngestJournal.forDataset(dsg).ifPresent(IngestJournal::invalidate);
+        } catch (IOException | RuntimeException e) {
+            LOG.error("[RESTORE] Failed to bulk restore the triple store: {}", e.getMessage(), e);
+            node.put(REASON, e.getMessage());
+            node.put(SUCCESS, false);
+        }
+        bulkRestores.put(dsg, node);
+    }
+
+    private static String withoutFormatSuffix(String tdbRestoreFile) {
+        String suffix = BackupFormat.forFile(tdbRestoreFile).suffix();
+        return tdbRestoreFile.endsWith(suffix)
+               ? tdbRestoreFile.substring(0, tdbRestoreFile.length() - suffix.length()) : tdbRestoreFile;
+    }
+
+    private String tdbRestoreFile(DataAccessPoint dataAccessPoint, String restorePath) {
+        String tdbBackupFile = restorePath + "/" + sanitiseName(dataAccessPoint.getName()) + BACKUP_SUFFIX;
+        return tdbBackupFile
+                + formatOf(backupIdOf(restorePath), sanitiseName(dataAccessPoint.getName()), tdbBackupFile).suffix();
+    }
+
+    /**
+     * Restore the triple store from an incremental backup, by restoring the backup it was taken from and then replaying
+     * the changes it holds.
+     *
+     * @param dataAccessPoint access to the dataset to recover
+     * @param dsg             dataset to recover
+     * @param deltaFile       the incremental backup files, without their suffixes
+     * @param restored        IDs of the backups already in the chain being restored, to detect cycles
+     * @return the total number of changes replayed
+     */
+    long executeRestoreIncrementalTDB(DataAccessPoint dataAccessPoint, DatasetGraph dsg, String deltaFile,
+                                      Set<String> restored) throws IOException, PGPException {
+        String baseId = OBJECT_MAPPER.readTree(new File(deltaFile + DELTA_INFO_SUFFIX)).path(BASE_BACKUP_ID).asText();
+        if (baseId.isEmpty() || !restored.add(baseId)) {
+            throw new IllegalStateException("Incremental backup " + deltaFile + " has an invalid base backup: " + baseId);
+        }
+        if (!backupExists(baseId)) {
+            throw new IllegalStateException("Base backup " + baseId + " of incremental backup no longer exists");
+        }
+        String basePath = getBackUpDir() + "/" + baseId;
+        boolean decompressDir = extractBackup(basePath);
+        long replayed = 0;
+        try {
+            String baseFile = basePath + "/" + sanitiseName(dataAccessPoint.getName()) + "/tdb/"
+                    + sanitiseName(dataAccessPoint.getName()) + BACKUP_SUFFIX;
+            if (checkPathExistsAndIsFile(baseFile + DELTA_SUFFIX + DELTA_INFO_SUFFIX)) {
+                replayed = executeRestoreIncrementalTDB(dataAccessPoint, dsg, baseFile + DELTA_SUFFIX, restored);
+            } else if (BackupFormat.locate(baseFile).isPresent()) {
+                LOG.info("[RESTORE] Restoring base backup {} of incremental backup", baseId);
+                executeRestoreTDB(dsg, baseFile
+                        + formatOf(baseId, sanitiseName(dataAccessPoint.getName()), baseFile).suffix());
+            } else {
+                throw new IllegalStateException("Base backup " + baseId + " has no triple store backup for "
+                                                        + sanitiseName(dataAccessPoint.getName()));
+            }
+        } finally {
+            if (DELETE_GENERATED_FILES && decompressDir) {
+                cleanupDirectory(basePath);
+            }
+        }
+        IngestJournal journal = IngestJournal.forDataset(dsg).orElseThrow(
+                () -> new IllegalStateException("Incremental backups are not enabled for this dataset"));
+        long count = journal.replay(Path.of(deltaFile + DELTA_JOURNAL_SUFFIX));
+        // The base backup's checkpoint is behind the changes just replayed
+        OffsetCheckpointSink.replace(dsg, readCheckpoint(
+                deltaFile.substring(0, deltaFile.length() - DELTA_SUFFIX.length())));
+        LOG.info("[RESTORE] Replayed {} changes from incremental backup {}", count, deltaFile);
+        return replayed + count;
+    }
+
     /**
      * For all registered restore Consumers, apply the restore operation
      *
@@ -660,6 +1077,7 @@ public class DatasetBackupService {
      * @throws IOException if there's an issue.
      */
     void executeRestoreTDB(DatasetGraph dsg, String tdbRestoreFile) throws IOException {
+        Map<TopicPartition, Long> checkpoint = readCheckpoint(withoutFormatSuffix(tdbRestoreFile));
         try (InputStream fis = new FileInputStream(tdbRestoreFile);
              InputStream gis = new GZIPInputStream(fis)) {
             Txn.executeWrite(dsg, () -> {
@@ -667,8 +1085,10 @@ public class DatasetBackupService {
                 RDFParser.create()
                         .source(gis)
                         .labelToNode(dataSecurityPlugin.prepareLabelToNode())
-                        .lang(NQUADS)
+                        .lang(BackupFormat.forFile(tdbRestoreFile).lang())
                         .parse(StreamRDFLib.dataset(dsg));
+                // Clearing the dataset leaves the prefix table, so the checkpoint is replaced explicitly
+                OffsetCheckpointSink.replace(dsg, checkpoint);
             });
         }
     }
@@ -897,10 +1317,11 @@ public class DatasetBackupService {
     private ObjectNode executeValidation(String validatePath, String datasetDir, Graph shapesGraph) {
         final ObjectNode response = OBJECT_MAPPER.createObjectNode();
         try {
-            final Path source = Path.of(validatePath, datasetDir, "tdb", datasetDir + BACKUP_SUFFIX + RDF_BACKUP_SUFFIX);
+            final String backupFile = Path.of(validatePath, datasetDir, "tdb", datasetDir + BACKUP_SUFFIX).toString();
+            final BackupFormat format = formatOf(Path.of(validatePath).getFileName().toString(), datasetDir, backupFile);
             final List<Path> tempPaths = new ArrayList<>();
 
-            final Graph dataGraph = RDFDataMgr.loadGraph(source.toString());
+            final Graph dataGraph = RDFDataMgr.loadGraph(backupFile + format.suffix(), format.lang());
             final Shapes shapes = Shapes.parse(shapesGraph);
 
             final ValidationReport report = ShaclValidator.get().validate(shapes, dataGraph);
@@ -966,22 +1387,41 @@ public class DatasetBackupService {
      * @param dirPath  location of files to compress
      */
     private void compressAndStoreBackupMetadata(ObjectNode response, String dirPath) {
-        final Path zipFilePath = zipDirectory(dirPath, dirPath + ZIP_SUFFIX, DELETE_GENERATED_FILES);
-        if (encryptionUtils != null) {
-            try {
-                final Path encZipFilePath = Path.of(dirPath + ZIP_SUFFIX + ENCRYPTION_SUFFIX);
-                final Path encZipPath = encryptionUtils.encryptFile(zipFilePath, encZipFilePath, keyPair.publicKeyUrl());
-                LOG.debug("Successfully encrypted file: {} as {}", zipFilePath, encZipPath.toString());
-                Files.delete(zipFilePath);
-            } catch (IOException | PGPException ex) {
-                LOG.error("Failed to encrypt backup files", ex);
-            }
+        if (encryptionUtils == null || !zipAndEncrypt(dirPath)) {
+            zipDirectory(dirPath, dirPath + ZIP_SUFFIX, DELETE_GENERATED_FILES);
         }
         ZonedDateTime endTime = ZonedDateTime.now();
         response.put(END_TIME, endTime.toString());
         writeObjectNodeToFile(response, dirPath + JSON_INFO_SUFFIX);
     }
 
+    /**
+     * Zip and encrypt the files generated in one pass, without writing an unencrypted ZIP file to disk.
+     *
+     * @param dirPath location of files to compress
+     * @return true if the files were encrypted, false if encryption failed so they should be stored unencrypted
+     */
+    private boolean zipAndEncrypt(String dirPath) {
+        final Path encZipFilePath = Path.of(dirPath + ZIP_SUFFIX + ENCRYPTION_SUFFIX);
+        try (OutputStream encZipOut =
+                     new BufferedOutputStream(Files.newOutputStream(encZipFilePath), STREAM_BUFFER_SIZE)) {
+            zipDirectory(Path.of(dirPath), encryptionUtils.encryptingStream(encZipOut, keyPair.publicKeyUrl()));
+            LOG.debug("Successfully compressed and encrypted {} as {}", dirPath, encZipFilePath);
+        } catch (IOException | PGPException ex) {
+            LOG.error("Failed to encrypt backup files", ex);
+            try {
+                Files.deleteIfExists(encZipFilePath);
+            } catch (IOException e) {
+                LOG.error("Unable to delete incomplete encrypted backup {}", encZipFilePath, e);
+            }
+            return false;
+        }
+        if (DELETE_GENERATED_FILES) {
+            cleanupDirectory(dirPath);
+        }
+        return true;
+    }
+
     /**
      * A utility method that takes the duration and represents it in
      * a more easy to grasp format.
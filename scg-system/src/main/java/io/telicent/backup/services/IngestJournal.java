@@ -0,0 +1,411 @@
+/*
+ *  Copyright (c) Telicent Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.telicent.backup.services;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.telicent.smart.cache.configuration.Configurator;
+import io.telicent.smart.cache.payloads.RdfPayload;
+import io.telicent.smart.cache.projectors.Sink;
+import io.telicent.smart.cache.sources.Event;
+import io.telicent.smart.cache.sources.EventHeader;
+import io.telicent.smart.cache.sources.Header;
+import io.telicent.smart.cache.sources.memory.SimpleEvent;
+import org.apache.jena.riot.web.HttpNames;
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.utils.Bytes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static io.telicent.backup.utils.JsonFileUtils.OBJECT_MAPPER;
+
+/**
+ * A journal of the Kafka records applied to a dataset, from which incremental backups are taken.
+ * <p>
+ * Each record applied to the dataset is appended to the current journal segment, once its transaction has committed,
+ * as a line of JSON holding its location, headers, key and value. A full backup starts a new segment, discarding the older ones, and records where
+ * the segment started as the base for the next backup. An incremental backup copies the journal from that base to its
+ * current end, and then becomes the base for the one after. Restoring an incremental backup restores the full backup
+ * it was ultimately taken from and replays the journal of each incremental backup since, within the restore's
+ * transaction. Records are replayed through a sink that applies them to the dataset as the connector does, so security
+ * labels are applied as before, but not through the rest of the ingest pipeline, so replays are not counted as ingest
+ * and are never quarantined.
+ * </p>
+ * <p>
+ * Only records read from Kafka are journaled, so changes made directly to the dataset, e.g. by SPARQL Update, are not.
+ * </p>
+ * <p>
+ * Replaying a record that was already applied leaves the dataset unchanged, so a record that is journaled more than
+ * once, e.g. when a batch is retried, or that is already reflected in the base backup, does no harm.
+ * </p>
+ */
+public class IngestJournal {
+
+    private static final Logger LOG = LoggerFactory.getLogger(IngestJournal.class);
+
+    /**
+     * Configuration key to enable incremental backups, which journals the records applied from Kafka
+     */
+    public static final String ENV_BACKUP_INCREMENTAL = "BACKUP_INCREMENTAL";
+    /**
+     * Configuration key for the directory journals are written to, defaults to {@code journal} in the backups directory
+     */
+    public static final String ENV_BACKUP_JOURNAL_DIR = "BACKUP_JOURNAL_DIR";
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".jsonl";
+    private static final Pattern SEGMENT = Pattern.compile(SEGMENT_PREFIX + "(\\d+)" + Pattern.quote(SEGMENT_SUFFIX));
+    private static final String BASE_FILE = "base.json";
+
+    private static final Map<DatasetGraph, IngestJournal> JOURNALS = new ConcurrentHashMap<>();
+
+    /**
+     * A position in the journal
+     *
+     * @param segment Segment number
+     * @param offset  Byte offset within the segment
+     */
+    public record Position(long segment, long offset) {
+    }
+
+    /**
+     * The backup the next incremental backup is taken from
+     *
+     * @param backupId Backup ID
+     * @param position Position in the journal the backup reflects
+     */
+    public record Base(String backupId, Position position) {
+    }
+
+    private final Path directory;
+    private long segment;
+    private long size;
+    private OutputStream output;
+    private Base base;
+    private volatile Sink<Event<Bytes, RdfPayload>> replayTarget;
+
+    /**
+     * Gets whether incremental backups are enabled
+     *
+     * @return True if enabled
+     */
+    public static boolean isEnabled() {
+        return Configurator.get(ENV_BACKUP_INCREMENTAL, Boolean::parseBoolean, false);
+    }
+
+    /**
+     * Creates, or reopens, the journal for a dataset
+     *
+     * @param dsg       Dataset
+     * @param directory Directory the journal is kept in
+     * @return Journal
+     * @throws IOException Thrown if the journal cannot be opened
+     */
+    public static IngestJournal register(DatasetGraph dsg, Path directory) throws IOException {
+        IngestJournal journal = new IngestJournal(directory);
+        IngestJournal previous = JOURNALS.put(Objects.requireNonNull(dsg, "dsg cannot be null"), journal);
+        if (previous != null) {
+            previous.close();
+        }
+        return journal;
+    }
+
+    /**
+     * Gets the journal for a dataset
+     *
+     * @param dsg Dataset
+     * @return Journal, empty if the dataset is not journaled
+     */
+    public static Optional<IngestJournal> forDataset(DatasetGraph dsg) {
+        return dsg == null ? Optional.empty() : Optional.ofNullable(JOURNALS.get(dsg));
+    }
+
+    /**
+     * Stops journaling a dataset
+     *
+     * @param dsg Dataset
+     */
+    public static void deregister(DatasetGraph dsg) {
+        IngestJournal journal = JOURNALS.remove(dsg);
+        if (journal != null) {
+            journal.close();
+        }
+    }
+
+    /**
+     * Opens a journal, continuing from the latest segment in the directory if any
+     *
+     * @param directory Directory
+     * @throws IOException Thrown if the journal cannot be opened
+     */
+    IngestJournal(Path directory) throws IOException {
+        this.directory = Objects.requireNonNull(directory, "directory cannot be null");
+        Files.createDirectories(directory);
+        this.segment = Math.max(1, latestSegment());
+        this.size = Files.exists(segmentFile(this.segment)) ? Files.size(segmentFile(this.segment)) : 0;
+        this.base = readBase();
+    }
+
+    private long latestSegment() throws IOException {
+        try (Stream<Path> files = Files.list(this.directory)) {
+            return files.map(file -> SEGMENT.matcher(file.getFileName().toString()))
+                        .filter(Matcher::matches)
+                        .mapToLong(matcher -> Long.parseLong(matcher.group(1)))
+                        .max()
+                        .orElse(0);
+        }
+    }
+
+    private Path segmentFile(long number) {
+        return this.directory.resolve(SEGMENT_PREFIX + number + SEGMENT_SUFFIX);
+    }
+
+    private Base readBase() {
+        File file = this.directory.resolve(BASE_FILE).toFile();
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            JsonNode json = OBJECT_MAPPER.readTree(file);
+            return new Base(json.path("backup-id").asText(),
+                            new Position(json.path("segment").asLong(), json.path("offset").asLong()));
+        } catch (IOException e) {
+            LOG.warn("Ignoring unreadable journal base {}: {}", file, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Sets the sink records are replayed through, this applies records directly to the dataset, within the caller's
+     * transaction
+     *
+     * @param sink Sink
+     */
+    public void setReplayTarget(Sink<Event<Bytes, RdfPayload>> sink) {
+        this.replayTarget = sink;
+    }
+
+    /**
+     * Appends a record that has been applied to the dataset
+     *
+     * @param record Record
+     * @param value  Original value of the record
+     */
+    public synchronized void append(ConsumerRecord<Bytes, ?> record, byte[] value) {
+        ObjectNode json = OBJECT_MAPPER.createObjectNode();
+        json.put("topic", record.topic());
+        json.put("partition", record.partition());
+        json.put("offset", record.offset());
+        ArrayNode headers = json.putArray("headers");
+        for (org.apache.kafka.common.header.Header header : record.headers()) {
+            headers.addObject()
+                   .put("key", header.key())
+                   .put("value", header.value() == null ? null :
+                                 new String(header.value(), StandardCharsets.UTF_8));
+        }
+        Base64.Encoder encoder = Base64.getEncoder();
+        json.put("key", record.key() == null ? null : encoder.encodeToString(record.key().get()));
+        json.put("value", encoder.encodeToString(value));
+        try {
+            byte[] line = (OBJECT_MAPPER.writeValueAsString(json) + "\n").getBytes(StandardCharsets.UTF_8);
+            if (this.output == null) {
+                this.output = new BufferedOutputStream(new FileOutputStream(segmentFile(this.segment).toFile(), true));
+            }
+            this.output.write(line);
+            this.output.flush();
+            this.size += line.length;
+        } catch (IOException e) {
+            // Without this record the journal no longer reflects the dataset, so the next backup must be full
+            LOG.error("Failed to journal record {}-{}@{}, the next backup will be a full backup: {}", record.topic(),
+                      record.partition(), record.offset(), e.getMessage());
+            invalidate();
+        }
+    }
+
+    /**
+     * Gets the current end of the journal
+     *
+     * @return Position
+     */
+    public synchronized Position position() {
+        return new Position(this.segment, this.size);
+    }
+
+    /**
+     * Starts a new segment, discarding older segments, as done when a full backup is taken
+     *
+     * @return Position of the start of the new segment
+     * @throws IOException Thrown if the new segment cannot be started
+     */
+    public synchronized Position rotate() throws IOException {
+        closeOutput();
+        this.segment++;
+        this.size = 0;
+        try (Stream<Path> files = Files.list(this.directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Matcher matcher = SEGMENT.matcher(file.getFileName().toString());
+                if (matcher.matches() && Long.parseLong(matcher.group(1)) < this.segment) {
+                    Files.delete(file);
+                }
+            }
+        }
+        return position();
+    }
+
+    /**
+     * Gets the backup the next incremental backup is taken from
+     *
+     * @return Base, empty if the next backup must be a full backup
+     */
+    public synchronized Optional<Base> base() {
+        return Optional.ofNullable(this.base);
+    }
+
+    /**
+     * Records the backup the next incremental backup is taken from
+     *
+     * @param backupId Backup ID
+     * @param position Position in the journal the backup reflects
+     * @throws IOException Thrown if the base cannot be recorded
+     */
+    public synchronized void setBase(String backupId, Position position) throws IOException {
+        ObjectNode json = OBJECT_MAPPER.createObjectNode();
+        json.put("backup-id", backupId);
+        json.put("segment", position.segment());
+        json.put("offset", position.offset());
+        OBJECT_MAPPER.writeValue(this.directory.resolve(BASE_FILE).toFile(), json);
+        this.base = new Base(backupId, position);
+    }
+
+    /**
+     * Forgets the base, so the next backup will be a full backup, e.g. because the dataset has been restored
+     */
+    public synchronized void invalidate() {
+        this.base = null;
+        try {
+            Files.deleteIfExists(this.directory.resolve(BASE_FILE));
+        } catch (IOException e) {
+            LOG.warn("Failed to remove journal base from {}: {}", this.directory, e.getMessage());
+        }
+    }
+
+    /**
+     * Copies the journal from a position to its current end, compressed, as done for an incremental backup
+     *
+     * @param from   Position to copy from
+     * @param target File to copy to
+     * @return Position of the end of the copied journal
+     * @throws IOException           Thrown if the journal cannot be copied
+     * @throws IllegalStateException Thrown if the journal no longer holds the records since the position
+     */
+    public synchronized Position copy(Position from, Path target) throws IOException {
+        if (from.segment() != this.segment || from.offset() > this.size) {
+            throw new IllegalStateException("The journal no longer holds the records applied since " + from);
+        }
+        Position end = position();
+        try (InputStream input = Files.exists(segmentFile(this.segment)) ?
+                                 Files.newInputStream(segmentFile(this.segment)) : InputStream.nullInputStream();
+             OutputStream output = new GZIPOutputStream(Files.newOutputStream(target))) {
+            input.skipNBytes(from.offset());
+            long remaining = end.offset() - from.offset();
+            byte[] buffer = new byte[64 * 1024];
+            while (remaining > 0) {
+                int read = input.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read < 0) {
+                    throw new EOFException("Journal segment " + this.segment + " is shorter than expected");
+                }
+                output.write(buffer, 0, read);
+                remaining -= read;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * Replays the records of a journal copy, within the caller's transaction
+     *
+     * @param source Compressed journal copy
+     * @return Number of records replayed
+     * @throws IOException           Thrown if the journal copy cannot be read
+     * @throws IllegalStateException Thrown if there is no sink to replay through
+     */
+    public long replay(Path source) throws IOException {
+        Sink<Event<Bytes, RdfPayload>> target = this.replayTarget;
+        if (target == null) {
+            throw new IllegalStateException("No Kafka connector is applying records to the dataset to replay through");
+        }
+        long replayed = 0;
+        Base64.Decoder decoder = Base64.getDecoder();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(Files.newInputStream(source)), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                JsonNode json = OBJECT_MAPPER.readTree(line);
+                List<EventHeader> headers = new ArrayList<>();
+                String contentType = null;
+                for (JsonNode header : json.path("headers")) {
+                    String key = header.path("key").asText();
+                    String value = header.path("value").isNull() ? null : header.path("value").asText();
+                    headers.add(new Header(key, value));
+                    if (HttpNames.hContentType.equalsIgnoreCase(key)) {
+                        contentType = value;
+                    }
+                }
+                Bytes key = json.path("key").isTextual() ? Bytes.wrap(decoder.decode(json.path("key").asText())) : null;
+                byte[] value = decoder.decode(json.path("value").asText());
+                target.send(new SimpleEvent<>(headers, key, RdfPayload.of(contentType, value)));
+                replayed++;
+            }
+        }
+        return replayed;
+    }
+
+    private void closeOutput() {
+        if (this.output != null) {
+            try {
+                this.output.close();
+            } catch (IOException e) {
+                LOG.warn("Failed to close journal segment in {}: {}", this.directory, e.getMessage());
+            }
+            this.output = null;
+        }
+    }
+
+    /**
+     * Closes the journal
+     */
+    public synchronized void close() {
+        closeOutput();
+    }
+}
@@ -0,0 +1,303 @@
+/*
+ *  Copyright (c) Telicent Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.telicent.backup.services;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.telicent.backup.utils.BackupFormat;
+import io.telicent.smart.cache.configuration.Configurator;
+import org.apache.jena.atlas.iterator.Iter;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDFWriter;
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.jena.system.Txn;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import static io.telicent.backup.utils.JsonFileUtils.OBJECT_MAPPER;
+
+/**
+ * Writes a gzip compressed backup of a dataset, in any {@link BackupFormat}, using several threads.
+ * <p>
+ * The quads of the dataset are read, in a single read transaction, into segments of consecutive quads. Since TDB2
+ * returns quads in graph then subject order each segment covers a range of graphs and subjects. Segments are
+ * serialized and compressed in parallel, each as a separate gzip member, and the members are written to the backup
+ * file in order. A file of concatenated gzip members is itself a valid gzip file, so the backup is read exactly as one
+ * written by a single thread. A manifest alongside the backup records where each segment starts, so segments can also
+ * be read independently.
+ * </p>
+ */
+public class ParallelBackupWriter {
+
+    /**
+     * Configuration key for the number of threads used to compress a triple store backup, {@code 1} writes backups on a
+     * single thread as before
+     */
+    public static final String ENV_BACKUP_WRITER_THREADS = "BACKUP_WRITER_THREADS";
+    /**
+     * Configuration key for the number of quads in each separately compressed segment of a backup
+     */
+    public static final String ENV_BACKUP_SEGMENT_QUADS = "BACKUP_SEGMENT_QUADS";
+    /** Default number of quads per segment */
+    public static final int DEFAULT_SEGMENT_QUADS = 100_000;
+    /** Suffix of the manifest written alongside a backup file */
+    public static final String MANIFEST_SUFFIX = ".manifest.json";
+
+    private static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+
+    /**
+     * A separately compressed segment of a backup file
+     *
+     * @param offset Byte offset of the segment's gzip member in the backup file
+     * @param length Length, in bytes, of the segment's gzip member
+     * @param quads  Number of quads in the segment
+     */
+    public record Segment(long offset, long length, long quads) {
+    }
+
+    private final int threads;
+    private final int segmentQuads;
+    private final BackupFormat format;
+
+    /**
+     * Gets the configured number of threads to write backups with
+     *
+     * @return Number of threads
+     */
+    public static int configuredThreads() {
+        return Math.max(1, Configurator.get(ENV_BACKUP_WRITER_THREADS, Integer::parseInt, 1));
+    }
+
+    /**
+     * Creates a writer using the configured number of threads and segment size
+     *
+     * @return Writer
+     */
+    public static ParallelBackupWriter fromConfiguration() {
+        return new ParallelBackupWriter(configuredThreads(),
+                                        Configurator.get(ENV_BACKUP_SEGMENT_QUADS, Integer::parseInt,
+                                                         DEFAULT_SEGMENT_QUADS),
+                                        BackupFormat.fromConfiguration());
+    }
+
+    /**
+     * Creates a new writer
+     *
+     * @param threads      Number of threads to compress segments with
+     * @param segmentQuads Number of quads per segment
+     */
+    public ParallelBackupWriter(int threads, int segmentQuads) {
+        this(threads, segmentQuads, BackupFormat.NQUADS);
+    }
+
+    /**
+     * Creates a new writer
+     *
+     * @param threads      Number of threads to compress segments with
+     * @param segmentQuads Number of quads per segment
+     * @param format       Format to write
+     */
+    public ParallelBackupWriter(int threads, int segmentQuads, BackupFormat format) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1");
+        }
+        if (segmentQuads < 1) {
+            throw new IllegalArgumentException("segmentQuads must be at least 1");
+        }
+        this.threads = threads;
+        this.segmentQuads = segmentQuads;
+        this.format = Objects.requireNonNull(format, "format cannot be null");
+    }
+
+    /**
+     * Writes a backup of a dataset, and its manifest
+     *
+     * @param dsg    Dataset
+     * @param target Backup file to write
+     * @return Segments written
+     * @throws IOException Thrown if the backup cannot be written
+     */
+    public List<Segment> write(DatasetGraph dsg, Path target) throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(this.threads, runnable -> {
+            Thread thread = new Thread(runnable, "backup-writer-" + THREAD_COUNTER.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        List<Segment> segments;
+        try (OutputStream output = new BufferedOutputStream(Files.newOutputStream(target), 64 * 1024)) {
+            SegmentOutput segmentOutput = new SegmentOutput(pool, output);
+            try {
+                Txn.executeRead(dsg, () -> readSegments(dsg, segmentOutput));
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            segments = segmentOutput.finish();
+        } finally {
+            pool.shutdownNow();
+        }
+        writeManifest(target, segments, this.format);
+        return segments;
+    }
+
+    private void readSegments(DatasetGraph dsg, SegmentOutput output) {
+        Iterator<Quad> quads = dsg.find();
+        try {
+            List<Quad> segment = new ArrayList<>(this.segmentQuads);
+            while (quads.hasNext()) {
+                segment.add(quads.next());
+                if (segment.size() == this.segmentQuads) {
+                    output.submit(segment);
+                    segment = new ArrayList<>(this.segmentQuads);
+                }
+            }
+            // An empty dataset still needs one gzip member to be a valid gzip file
+            if (!segment.isEmpty() || output.isEmpty()) {
+                output.submit(segment);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            Iter.close(quads);
+        }
+    }
+
+    /**
+     * Serializes and compresses a segment of quads as a complete gzip member
+     *
+     * @param quads  Quads
+     * @param format Format to serialize the quads in
+     * @return Compressed bytes
+     * @throws IOException Thrown if the segment cannot be compressed
+     */
+    static byte[] compress(List<Quad> quads, BackupFormat format) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream gzip = new GZIPOutputStream(bytes, 64 * 1024)) {
+            StreamRDF writer = StreamRDFWriter.getWriterStream(gzip, format.lang());
+            writer.start();
+            quads.forEach(writer::quad);
+            writer.finish();
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void writeManifest(Path target, List<Segment> segments, BackupFormat format) throws IOException {
+        ObjectNode manifest = OBJECT_MAPPER.createObjectNode();
+        manifest.put("format", format.label());
+        manifest.put("compression", "gzip");
+        ArrayNode array = manifest.putArray("segments");
+        for (Segment segment : segments) {
+            array.addObject()
+                 .put("offset", segment.offset())
+                 .put("length", segment.length())
+                 .put("quads", segment.quads());
+        }
+        OBJECT_MAPPER.writeValue(manifestFile(target).toFile(), manifest);
+    }
+
+    /**
+     * Gets the manifest file of a backup file
+     *
+     * @param target Backup file
+     * @return Manifest file
+     */
+    public static Path manifestFile(Path target) {
+        return target.resolveSibling(target.getFileName() + MANIFEST_SUFFIX);
+    }
+
+    /**
+     * Reads the manifest of a backup file
+     *
+     * @param target Backup file
+     * @return Segments, empty if the backup has no manifest, e.g. because it was written by a single thread
+     * @throws IOException Thrown if the manifest cannot be read
+     */
+    public static Optional<List<Segment>> readManifest(Path target) throws IOException {
+        Path manifestFile = manifestFile(target);
+        if (!Files.isRegularFile(manifestFile)) {
+            return Optional.empty();
+        }
+        List<Segment> segments = new ArrayList<>();
+        for (JsonNode segment : OBJECT_MAPPER.readTree(manifestFile.toFile()).path("segments")) {
+            segments.add(new Segment(segment.path("offset").asLong(), segment.path("length").asLong(),
+                                     segment.path("quads").asLong()));
+        }
+        return Optional.of(segments);
+    }
+
+    /**
+     * Writes compressed segments to the backup file in the order they were read, limiting how many segments are held in
+     * memory at once
+     */
+    private final class SegmentOutput {
+        private final ExecutorService pool;
+        private final OutputStream output;
+        private final Deque<Future<byte[]>> pending = new ArrayDeque<>();
+        private final Deque<Integer> pendingQuads = new ArrayDeque<>();
+        private final List<Segment> segments = new ArrayList<>();
+        private long offset;
+
+        private SegmentOutput(ExecutorService pool, OutputStream output) {
+            this.pool = pool;
+            this.output = output;
+        }
+
+        private boolean isEmpty() {
+            return this.pending.isEmpty() && this.segments.isEmpty();
+        }
+
+        private void submit(List<Quad> quads) throws IOException {
+            while (this.pending.size() > threads) {
+                writeNext();
+            }
+            this.pending.add(this.pool.submit(() -> compress(quads, format)));
+            this.pendingQuads.add(quads.size());
+        }
+
+        private void writeNext() throws IOException {
+            byte[] compressed;
+            try {
+                compressed = this.pending.removeFirst().get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while writing backup");
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException ioException) {
+                    throw ioException;
+                }
+                throw new IOException("Failed to compress backup segment", e.getCause());
+            }
+            this.output.write(compressed);
+            this.segments.add(new Segment(this.offset, compressed.length, this.pendingQuads.removeFirst()));
+            this.offset += compressed.length;
+        }
+
+        private List<Segment> finish() throws IOException {
+            while (!this.pending.isEmpty()) {
+                writeNext();
+            }
+            return this.segments;
+        }
+    }
+}
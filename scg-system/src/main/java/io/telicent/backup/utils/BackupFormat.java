@@ -0,0 +1,131 @@
+/*
+ *  Copyright (c) Telicent Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.telicent.backup.utils;
+
+import io.telicent.smart.cache.configuration.Configurator;
+import org.apache.jena.riot.Lang;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Optional;
+
+import static io.telicent.backup.utils.BackupConstants.RDF_BACKUP_SUFFIX;
+import static io.telicent.backup.utils.BackupUtils.checkPathExistsAndIsFile;
+
+/**
+ * The RDF formats a triple store backup can be written in, each gzip compressed.
+ * <p>
+ * The binary formats are much cheaper to write and parse than N-Quads text. Each backup file carries the suffix of its
+ * format, and the format is recorded in the backup metadata, so a backup is always read with the format it was written
+ * in whatever format is currently configured.
+ * </p>
+ */
+public enum BackupFormat {
+    /** N-Quads text, the default */
+    NQUADS(Lang.NQUADS, RDF_BACKUP_SUFFIX),
+    /** RDF Thrift binary encoding */
+    THRIFT(Lang.RDFTHRIFT, ".rt.gz"),
+    /** RDF Protobuf binary encoding */
+    PROTOBUF(Lang.RDFPROTO, ".rpb.gz");
+
+    /**
+     * Configuration key for the format triple store backups are written in, one of {@code nquads}, {@code thrift} or
+     * {@code protobuf}
+     */
+    public static final String ENV_BACKUP_FORMAT = "BACKUP_FORMAT";
+
+    private final Lang lang;
+    private final String suffix;
+
+    BackupFormat(Lang lang, String suffix) {
+        this.lang = lang;
+        this.suffix = suffix;
+    }
+
+    /**
+     * Gets the RDF language of the format
+     *
+     * @return Language
+     */
+    public Lang lang() {
+        return this.lang;
+    }
+
+    /**
+     * Gets the suffix of backup files written in the format
+     *
+     * @return Suffix
+     */
+    public String suffix() {
+        return this.suffix;
+    }
+
+    /**
+     * Gets the name the format is configured, and recorded, by
+     *
+     * @return Name
+     */
+    public String label() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Gets the configured format for new backups
+     *
+     * @return Format
+     * @throws IllegalArgumentException Thrown if the configured format is not recognised
+     */
+    public static BackupFormat fromConfiguration() {
+        return fromLabel(Configurator.get(ENV_BACKUP_FORMAT, NQUADS.label()))
+                .orElseThrow(() -> new IllegalArgumentException(
+                        "Unrecognised " + ENV_BACKUP_FORMAT + ", expected one of " + Arrays.toString(labels())));
+    }
+
+    /**
+     * Finds a format by the name it is configured and recorded by
+     *
+     * @param label Name
+     * @return Format, empty if not recognised
+     */
+    public static Optional<BackupFormat> fromLabel(String label) {
+        return Arrays.stream(values()).filter(format -> format.label().equalsIgnoreCase(label)).findFirst();
+    }
+
+    /**
+     * Finds the format of a backup file from its suffix
+     *
+     * @param file Backup file
+     * @return Format, N-Quads if the suffix is not recognised
+     */
+    public static BackupFormat forFile(String file) {
+        return Arrays.stream(values()).filter(format -> file.endsWith(format.suffix)).findFirst().orElse(NQUADS);
+    }
+
+    /**
+     * Finds which format a backup was written in from the files present
+     *
+     * @param backupFile Backup file without a format suffix
+     * @return Format, empty if there is no backup file in any format
+     */
+    public static Optional<BackupFormat> locate(String backupFile) {
+        return Arrays.stream(values()).filter(format -> checkPathExistsAndIsFile(backupFile + format.suffix))
+                     .findFirst();
+    }
+
+    private static String[] labels() {
+        return Arrays.stream(values()).map(BackupFormat::label).toArray(String[]::new);
+    }
+}
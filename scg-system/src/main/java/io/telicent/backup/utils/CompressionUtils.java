@@ -22,11 +22,16 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.List;
+import java.util.Locale;
 import java.util.Objects;
 import java.util.stream.Stream;
+import java.util.zip.CRC32;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 import java.util.zip.ZipInputStream;
@@ -34,7 +39,12 @@ import java.util.zip.ZipInputStream;
 public class CompressionUtils {
 
     public static final Logger LOG = LoggerFactory.getLogger(CompressionUtils.class);
-    private static final int BUFFER_SIZE = 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    /**
+     * Suffixes of files that are already compressed, or encrypted, so are stored in a ZIP file without compressing them
+     * a second time
+     */
+    private static final List<String> COMPRESSED_SUFFIXES = List.of(".gz", ".zip", ".enc");
 
     /**
      * Zips a directory and its contents into a single ZIP file.
@@ -81,10 +91,8 @@ public class CompressionUtils {
         }
 
         boolean zipSuccessful = false;
-        try (FileOutputStream fos = new FileOutputStream(zipFilePath.toFile());
-             ZipOutputStream zos = new ZipOutputStream(fos)) {
-
-            addDirToZip(sourceDirPath, sourceDirPath.toString(), zos);
+        try {
+            zipDirectory(sourceDirPath, new FileOutputStream(zipFilePath.toFile()));
             zipSuccessful = true;
             return zipFilePath;
 
@@ -103,6 +111,21 @@ public class CompressionUtils {
         }
     }
 
+    /**
+     * Zips a directory and its contents, as a ZIP file, to a stream, e.g. one that encrypts the ZIP file as it is
+     * written, so that no intermediate ZIP file is needed.
+     * @param sourceDirPath The path to the directory to be zipped.
+     * @param out           The stream to write the ZIP file to, which is closed once the ZIP file is complete.
+     * @throws IOException If an I/O error occurs.
+     */
+    public static void zipDirectory(Path sourceDirPath, OutputStream out) throws IOException {
+        Objects.requireNonNull(sourceDirPath, "Source directory path cannot be null");
+        Objects.requireNonNull(out, "Output stream cannot be null");
+        try (ZipOutputStream zos = new ZipOutputStream(out)) {
+            addDirToZip(sourceDirPath, sourceDirPath.toString(), zos);
+        }
+    }
+
     /**
      * Recursively adds a directory and its contents to the ZipOutputStream.
      * @param sourceDir  The current directory being processed.
@@ -127,7 +150,7 @@ public class CompressionUtils {
                 addDirToZip(file.toPath(), parentPath, zos);
             } else {
                 try (FileInputStream fis = new FileInputStream(file)) {
-                    zos.putNextEntry(new ZipEntry(entryName));
+                    zos.putNextEntry(isCompressed(file) ? storedEntry(entryName, file, buffer) : new ZipEntry(entryName));
                     int len;
                     while ((len = fis.read(buffer)) != -1) {
                         zos.write(buffer, 0, len);
@@ -138,6 +161,37 @@ public class CompressionUtils {
         }
     }
 
+    private static boolean isCompressed(File file) {
+        String name = file.getName().toLowerCase(Locale.ROOT);
+        return COMPRESSED_SUFFIXES.stream().anyMatch(name::endsWith);
+    }
+
+    /**
+     * Creates an entry that stores a file as is, which requires its size and checksum up front.
+     * @param entryName The name of the entry.
+     * @param file      The file to be stored.
+     * @param buffer    Buffer to read the file with.
+     * @return the entry
+     * @throws IOException If an I/O error occurs.
+     */
+    private static ZipEntry storedEntry(String entryName, File file, byte[] buffer) throws IOException {
+        CRC32 crc = new CRC32();
+        long size = 0;
+        try (FileInputStream fis = new FileInputStream(file)) {
+            int len;
+            while ((len = fis.read(buffer)) != -1) {
+                crc.update(buffer, 0, len);
+                size += len;
+            }
+        }
+        ZipEntry entry = new ZipEntry(entryName);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(size);
+        entry.setCompressedSize(size);
+        entry.setCrc(crc.getValue());
+        return entry;
+    }
+
     /**
      * Unzips a ZIP file to a specified destination directory.
      * @param zipFilePath     The path to the ZIP file.
@@ -166,10 +220,26 @@ public class CompressionUtils {
             throw new IllegalArgumentException("ZIP file does not exist or is not a regular file: " + zipFilePath);
         }
 
+        try (FileInputStream fis = new FileInputStream(zipFilePath.toFile())) {
+            unzipDirectory(fis, destDirectoryPath);
+        }
+    }
+
+    /**
+     * Unzips a ZIP file read from a stream, e.g. one that decrypts the ZIP file as it is read, to a specified
+     * destination directory, so that no intermediate ZIP file is needed.
+     *
+     * @param zipIn             The stream to read the ZIP file from.
+     * @param destDirectoryPath The path to the directory where contents will be extracted.
+     * @throws IOException If an I/O error occurs.
+     */
+    public static void unzipDirectory(InputStream zipIn, Path destDirectoryPath) throws IOException {
+        Objects.requireNonNull(zipIn, "ZIP input stream cannot be null");
+        Objects.requireNonNull(destDirectoryPath, "Destination directory path cannot be null");
+
         Files.createDirectories(destDirectoryPath);
 
-        try (FileInputStream fis = new FileInputStream(zipFilePath.toFile());
-             ZipInputStream zis = new ZipInputStream(fis)) {
+        try (ZipInputStream zis = new ZipInputStream(zipIn)) {
 
             ZipEntry entry;
             byte[] buffer = new byte[BUFFER_SIZE];
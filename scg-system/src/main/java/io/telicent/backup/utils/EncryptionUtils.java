@@ -14,6 +14,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -117,6 +119,97 @@ public class EncryptionUtils {
         return outputFilePath;
     }
 
+    /**
+     * Opens a stream that encrypts everything written to it to {@code encryptOut} using the provided public key, so
+     * that data can be encrypted as it is produced without first being written to a file.
+     * <p>
+     * The data is not compressed again, callers are expected to write data that is already compressed. Closing the
+     * returned stream writes the trailing PGP packets and closes {@code encryptOut}; the output is not valid PGP until
+     * then.
+     *
+     * @param encryptOut the stream to write the encrypted data to
+     * @param publicKey  the URL of the public key to use
+     * @return the stream to write the clear data to
+     * @throws IOException  if there is a problem reading the key or writing the output
+     * @throws PGPException if there is a problem with the encryption
+     */
+    public OutputStream encryptingStream(OutputStream encryptOut, URL publicKey) throws IOException, PGPException {
+        final PGPPublicKey pgpPublicKey;
+        try (InputStream publicKeyIn = publicKey.openStream()) {
+            pgpPublicKey = getPublicKey(publicKeyIn);
+        }
+        final PGPEncryptedDataGenerator pgpEncryptedDataGenerator = new PGPEncryptedDataGenerator(
+                new JcePGPDataEncryptorBuilder(symmetricKeyAlgorithm)
+                        .setWithIntegrityPacket(withIntegrityCheck)
+                        .setSecureRandom(new SecureRandom())
+                        .setProvider(BouncyCastleProvider.PROVIDER_NAME)
+        );
+        pgpEncryptedDataGenerator.addMethod(new JcePublicKeyKeyEncryptionMethodGenerator(pgpPublicKey));
+
+        final OutputStream outerStream = armor ? new ArmoredOutputStream(encryptOut) : encryptOut;
+        final OutputStream cipherOutStream = pgpEncryptedDataGenerator.open(outerStream, new byte[bufferSize]);
+        final PGPCompressedDataGenerator compressedDataGenerator =
+                new PGPCompressedDataGenerator(CompressionAlgorithmTags.UNCOMPRESSED);
+        final OutputStream literalOut = new PGPLiteralDataGenerator().open(
+                compressedDataGenerator.open(cipherOutStream), PGPLiteralData.BINARY, PGPLiteralData.CONSOLE,
+                Date.from(LocalDateTime.now().toInstant(ZoneOffset.UTC)), new byte[bufferSize]);
+        return new FilterOutputStream(literalOut) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                // Each layer must be closed, innermost first, for its trailing packet to be written
+                try (encryptOut; outerStream; cipherOutStream) {
+                    try {
+                        literalOut.close();
+                    } finally {
+                        compressedDataGenerator.close();
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Opens a stream that decrypts {@code encryptedIn} as it is read, so that encrypted data can be processed without
+     * first being decrypted to a file.
+     * <p>
+     * The integrity of the data is checked when the returned stream is first closed, any data not yet read is skipped
+     * so that it can be checked. Closing the stream again does nothing, as the integrity check cannot be repeated once
+     * all the data has been read.
+     *
+     * @param encryptedIn the encrypted data
+     * @return the stream to read the clear data from
+     * @throws IOException  if there is a problem reading the data
+     * @throws PGPException if there is a problem with the decryption
+     */
+    public InputStream decryptingStream(InputStream encryptedIn) throws IOException, PGPException {
+        final EncryptedData encryptedData = findEncryptedData(encryptedIn);
+        final InputStream literalIn = openLiteralData(encryptedData.privateKey(), encryptedData.data());
+        return new FilterInputStream(literalIn) {
+            private boolean closed = false;
+
+            @Override
+            public void close() throws IOException {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                try {
+                    IOUtils.consume(in);
+                    verifyIntegrity(encryptedData.data());
+                } catch (PGPException e) {
+                    throw new IOException(e);
+                } finally {
+                    encryptedIn.close();
+                }
+            }
+        };
+    }
+
     /**
      * Encrypts {@code clearIn} (up to {@code length} bytes) to {@code encryptOut} using
      * the provided public key stream.
@@ -171,9 +264,29 @@ public class EncryptionUtils {
 
     private void decrypt(InputStream encryptedIn, OutputStream clearOut)
             throws PGPException, IOException {
+        try (InputStream clearIn = decryptingStream(encryptedIn)) {
+            IOUtils.copy(clearIn, clearOut);
+        }
+        clearOut.close();
+    }
+
+    /**
+     * Public key encrypted data, and the private key to decrypt it with
+     */
+    private record EncryptedData(PGPPublicKeyEncryptedData data, PGPPrivateKey privateKey) {
+    }
+
+    /**
+     * Finds the public key encrypted data in an encrypted message that can be decrypted with our private key
+     *
+     * @param encryptedIn the encrypted message, which may be ASCII armored
+     * @return the public key encrypted data instance and its private key
+     * @throws IOException  for IO related error
+     * @throws PGPException for pgp related errors
+     */
+    private EncryptedData findEncryptedData(InputStream encryptedIn) throws IOException, PGPException {
         // Removing armour and returning the underlying binary encrypted stream
-        encryptedIn = PGPUtil.getDecoderStream(encryptedIn);
-        final JcaPGPObjectFactory pgpObjectFactory = new JcaPGPObjectFactory(encryptedIn);
+        final JcaPGPObjectFactory pgpObjectFactory = new JcaPGPObjectFactory(PGPUtil.getDecoderStream(encryptedIn));
 
         final Object obj = pgpObjectFactory.nextObject();
         //The first object might be a marker packet
@@ -196,19 +309,19 @@ public class EncryptionUtils {
         if (pgpPrivateKey == null) {
             throw new PGPException("Could Not Extract private key");
         }
-        doDecrypt(clearOut, pgpPrivateKey, publicKeyEncryptedData);
+        return new EncryptedData(publicKeyEncryptedData, pgpPrivateKey);
     }
 
     /**
-     * Decrypts the public Key encrypted data using the provided private key and writes it to the output stream
+     * Opens the literal data of the public Key encrypted data using the provided private key
      *
-     * @param clearOut               the output stream to which data is to be written
      * @param pgpPrivateKey          the private key instance
      * @param publicKeyEncryptedData the public key encrypted data instance
+     * @return the stream of the decrypted literal data
      * @throws IOException  for IO related error
      * @throws PGPException for pgp related errors
      */
-    private static void doDecrypt(OutputStream clearOut, PGPPrivateKey pgpPrivateKey, PGPPublicKeyEncryptedData publicKeyEncryptedData) throws IOException, PGPException {
+    private static InputStream openLiteralData(PGPPrivateKey pgpPrivateKey, PGPPublicKeyEncryptedData publicKeyEncryptedData) throws IOException, PGPException {
         final PublicKeyDataDecryptorFactory decryptorFactory = new JcePublicKeyDataDecryptorFactoryBuilder()
                 .setProvider(BouncyCastleProvider.PROVIDER_NAME).build(pgpPrivateKey);
         final InputStream decryptedCompressedIn = publicKeyEncryptedData.getDataStream(decryptorFactory);
@@ -222,15 +335,22 @@ public class EncryptionUtils {
         final Object message = pgpCompObjFac.nextObject();
 
         if (message instanceof PGPLiteralData pgpLiteralData) {
-            final InputStream decDataStream = pgpLiteralData.getInputStream();
-            IOUtils.copy(decDataStream, clearOut);
-            clearOut.close();
+            return pgpLiteralData.getInputStream();
         } else if (message instanceof PGPOnePassSignatureList) {
             throw new PGPException("Encrypted message contains a signed message not literal data");
         } else {
             throw new PGPException("Message is not a simple encrypted file - Type Unknown");
         }
-        // Performing Integrity check
+    }
+
+    /**
+     * Performs the integrity check of public key encrypted data, once all of it has been read
+     *
+     * @param publicKeyEncryptedData the public key encrypted data instance
+     * @throws IOException  for IO related error
+     * @throws PGPException if the integrity check fails
+     */
+    private static void verifyIntegrity(PGPPublicKeyEncryptedData publicKeyEncryptedData) throws IOException, PGPException {
         if (publicKeyEncryptedData.isIntegrityProtected()) {
             if (!publicKeyEncryptedData.verify()) {
                 throw new PGPException("Message failed integrity check");
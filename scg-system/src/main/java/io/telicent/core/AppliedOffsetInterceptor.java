@@ -0,0 +1,101 @@
+/*
+ *  Copyright (c) Telicent Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.telicent.core;
+
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerInterceptor;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * A Kafka consumer interceptor that marks offsets as applied in the {@link AppliedOffsetRegistry} once the connector
+ * commits them, which it only does after the transaction the events were applied in has committed.
+ * <p>
+ * Kafka instantiates interceptors reflectively, so the registry is that of the consumer's group, taken from the
+ * consumer configuration when Kafka configures the interceptor.
+ * </p>
+ */
+public class AppliedOffsetInterceptor implements ConsumerInterceptor<Object, Object> {
+
+    private AppliedOffsetRegistry registry;
+
+    /**
+     * Creates a new interceptor, as Kafka does, that reports to the registry of the consumer's group once configured
+     */
+    public AppliedOffsetInterceptor() {
+        this(AppliedOffsetRegistry.get());
+    }
+
+    AppliedOffsetInterceptor(AppliedOffsetRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * Adds this interceptor to consumer properties, keeping any interceptors already configured
+     *
+     * @param properties Consumer properties
+     */
+    public static void install(Properties properties) {
+        install(properties, AppliedOffsetInterceptor.class);
+    }
+
+    /**
+     * Adds an interceptor to consumer properties, keeping any interceptors already configured
+     *
+     * @param properties  Consumer properties
+     * @param interceptor Interceptor class
+     */
+    static void install(Properties properties, Class<? extends ConsumerInterceptor<?, ?>> interceptor) {
+        String configured = properties.getProperty(ConsumerConfig.INTERCEPTOR_CLASSES_CONFIG);
+        String name = interceptor.getName();
+        if (configured == null || configured.isBlank()) {
+            properties.setProperty(ConsumerConfig.INTERCEPTOR_CLASSES_CONFIG, name);
+        } else if (!configured.contains(name)) {
+            properties.setProperty(ConsumerConfig.INTERCEPTOR_CLASSES_CONFIG, configured + "," + name);
+        }
+    }
+
+    @Override
+    public ConsumerRecords<Object, Object> onConsume(ConsumerRecords<Object, Object> records) {
+        return records;
+    }
+
+    @Override
+    public void onCommit(Map<TopicPartition, OffsetAndMetadata> offsets) {
+        offsets.forEach((partition, offset) -> {
+            if (offset != null) {
+                this.registry.committed(partition, offset.offset());
+            }
+        });
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public void configure(Map<String, ?> configs) {
+        Object consumerGroup = configs.get(ConsumerConfig.GROUP_ID_CONFIG);
+        if (consumerGroup != null) {
+            this.registry = AppliedOffsetRegistry.forConsumerGroup(consumerGroup.toString());
+        }
+    }
+}
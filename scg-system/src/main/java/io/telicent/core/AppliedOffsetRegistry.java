@@ -0,0 +1,258 @@
+/*
+ *  Copyright (c) Telicent Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.telicent.core;
+
+import org.apache.kafka.common.TopicPartition;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Tracks, per Kafka topic partition, the highest offset that the Kafka sink has applied to the local dataset, so that
+ * CQRS updates can wait until their own patch is visible locally (read-your-writes).
+ * <p>
+ * There is a registry for each Kafka consumer group, see {@link #forConsumerGroup(String)}, so that connectors that
+ * read the same topic into different datasets, each with their own consumer group, never signal each other's waiting
+ * updates.
+ * </p>
+ * <p>
+ * The sink reports offsets as it receives them. Events applied inside a transaction managed by the projector are only
+ * visible once that transaction commits, after which the connector commits the consumer offsets, so those offsets are
+ * only marked as applied when {@link AppliedOffsetInterceptor} observes the consumer offset commit. Neither the sink
+ * nor the waiting requests ever touch the dataset's transactions.
+ * </p>
+ */
+public final class AppliedOffsetRegistry {
+
+    private static final AppliedOffsetRegistry INSTANCE = new AppliedOffsetRegistry();
+    private static final ConcurrentMap<String, AppliedOffsetRegistry> CONSUMER_GROUPS = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<TopicPartition, Watermark> watermarks = new ConcurrentHashMap<>();
+    private final List<Consumer<TopicPartition>> commitListeners = new CopyOnWriteArrayList<>();
+
+    private static final class Watermark {
+        private long received = -1;
+        private long applied = -1;
+        private final NavigableMap<Long, List<CompletableFuture<Long>>> waiting = new TreeMap<>();
+    }
+
+    /**
+     * Gets the registry for consumers that have no consumer group
+     *
+     * @return Registry
+     */
+    public static AppliedOffsetRegistry get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Gets the registry for a Kafka consumer group
+     *
+     * @param consumerGroup Consumer group, {@code null} for consumers that have no consumer group
+     * @return Registry
+     */
+    public static AppliedOffsetRegistry forConsumerGroup(String consumerGroup) {
+        if (consumerGroup == null || consumerGroup.isBlank()) {
+            return INSTANCE;
+        }
+        return CONSUMER_GROUPS.computeIfAbsent(consumerGroup, group -> new AppliedOffsetRegistry());
+    }
+
+    AppliedOffsetRegistry() {
+    }
+
+    private Watermark watermark(TopicPartition partition) {
+        return watermarks.computeIfAbsent(partition, p -> new Watermark());
+    }
+
+    /**
+     * Records that an event has been applied to the dataset and is visible to new transactions
+     *
+     * @param partition Topic partition
+     * @param offset    Offset of the event
+     */
+    public void applied(TopicPartition partition, long offset) {
+        List<CompletableFuture<Long>> completed = new ArrayList<>();
+        Watermark watermark = watermark(partition);
+        synchronized (watermark) {
+            watermark.received = Math.max(watermark.received, offset);
+            if (offset <= watermark.applied) {
+                return;
+            }
+            watermark.applied = offset;
+            NavigableMap<Long, List<CompletableFuture<Long>>> ready = watermark.waiting.headMap(offset, true);
+            ready.values().forEach(completed::addAll);
+            ready.clear();
+        }
+        completed.forEach(waiter -> waiter.complete(offset));
+    }
+
+    /**
+     * Records that an event has been applied within a transaction that has not yet committed
+     *
+     * @param partition Topic partition
+     * @param offset    Offset of the event
+     */
+    public void received(TopicPartition partition, long offset) {
+        Watermark watermark = watermark(partition);
+        synchronized (watermark) {
+            watermark.received = Math.max(watermark.received, offset);
+        }
+    }
+
+    /**
+     * Records that the consumer offset for a partition has been committed, which the connector does once the
+     * transaction the events were applied in has committed
+     *
+     * @param partition  Topic partition
+     * @param nextOffset Committed offset, i.e. the offset of the next event to be read
+     */
+    public void committed(TopicPartition partition, long nextOffset) {
+        Watermark watermark = watermarks.get(partition);
+        if (watermark == null) {
+            // Nothing was received from this partition, e.g. the commit just confirmed the starting position
+            return;
+        }
+        long received;
+        synchronized (watermark) {
+            received = watermark.received;
+        }
+        // Only offsets that were actually received can have been applied
+        long applied = Math.min(nextOffset - 1, received);
+        if (applied >= 0) {
+            applied(partition, applied);
+        }
+        commitListeners.forEach(listener -> listener.accept(partition));
+    }
+
+    /**
+     * Adds a listener called, on the consumer's thread, each time the consumer offset of a partition that events have
+     * been received from is committed
+     *
+     * @param listener Listener
+     */
+    public void addCommitListener(Consumer<TopicPartition> listener) {
+        commitListeners.add(Objects.requireNonNull(listener, "listener cannot be null"));
+    }
+
+    /**
+     * Removes a commit listener
+     *
+     * @param listener Listener
+     */
+    public void removeCommitListener(Consumer<TopicPartition> listener) {
+        commitListeners.remove(listener);
+    }
+
+    /**
+     * Gets a future that completes once the given offset has been applied
+     *
+     * @param partition Topic partition
+     * @param offset    Offset
+     * @return Future completed with the applied offset
+     */
+    public CompletableFuture<Long> whenApplied(TopicPartition partition, long offset) {
+        Watermark watermark = watermark(partition);
+        synchronized (watermark) {
+            if (offset <= watermark.applied) {
+                return CompletableFuture.completedFuture(watermark.applied);
+            }
+            CompletableFuture<Long> waiter = new CompletableFuture<>();
+            watermark.waiting.computeIfAbsent(offset, o -> new ArrayList<>()).add(waiter);
+            // Stop tracking the waiter if the caller gives up on it
+            waiter.whenComplete((applied, error) -> {
+                if (error != null) {
+                    removeWaiter(watermark, offset, waiter);
+                }
+            });
+            return waiter;
+        }
+    }
+
+    /**
+     * Gets the highest applied offset
+     *
+     * @param partition Topic partition
+     * @return Offset, or {@code -1} if nothing has been applied
+     */
+    public long applied(TopicPartition partition) {
+        Watermark watermark = watermarks.get(partition);
+        if (watermark == null) {
+            return -1;
+        }
+        synchronized (watermark) {
+            return watermark.applied;
+        }
+    }
+
+    /**
+     * Gets the highest offset received, which may have been applied in a transaction that has not yet ended
+     *
+     * @param partition Topic partition
+     * @return Offset, or {@code -1} if nothing has been received
+     */
+    public long received(TopicPartition partition) {
+        Watermark watermark = watermarks.get(partition);
+        if (watermark == null) {
+            return -1;
+        }
+        synchronized (watermark) {
+            return watermark.received;
+        }
+    }
+
+    /**
+     * Gets the partitions that events have been received from
+     *
+     * @return Topic partitions
+     */
+    public Set<TopicPartition> partitions() {
+        return Set.copyOf(watermarks.keySet());
+    }
+
+    private static void removeWaiter(Watermark watermark, long offset, CompletableFuture<Long> waiter) {
+        synchronized (watermark) {
+            List<CompletableFuture<Long>> waiters = watermark.waiting.get(offset);
+            if (waiters != null) {
+                waiters.remove(waiter);
+                if (waiters.isEmpty()) {
+                    watermark.waiting.remove(offset);
+                }
+            }
+        }
+    }
+
+    /**
+     * Forgets all tracked offsets, failing any waiters, primarily intended for testing
+     */
+    void reset() {
+        commitListeners.clear();
+        watermarks.values().forEach(watermark -> {
+            List<CompletableFuture<Long>> waiters = new ArrayList<>();
+            synchronized (watermark) {
+                watermark.waiting.values().forEach(waiters::addAll);
+                watermark.waiting.clear();
+            }
+            waiters.forEach(waiter -> waiter.cancel(false));
+        });
+        watermarks.clear();
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ *  Copyright (c) Telicent Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.telicent.core;
+
+import io.telicent.smart.cache.payloads.RdfPayload;
+import io.telicent.smart.cache.projectors.Sink;
+import io.telicent.smart.cache.sources.Event;
+import io.telicent.smart.cache.sources.kafka.KafkaEvent;
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.utils.Bytes;
+
+import java.util.Objects;
+
+/**
+ * A sink that passes events on to the sink that applies them to the dataset, then advances the
+ * {@link AppliedOffsetRegistry} with the Kafka offset of each event.
+ * <p>
+ * When the event was applied inside a transaction, as it is when driven by the Kafka projector which commits in
+ * batches, the offset is only recorded as received. It becomes applied once the connector commits the consumer offsets
+ * after the transaction, as observed by {@link AppliedOffsetInterceptor}, so this sink never takes the dataset's
+ * writer lock.
+ * </p>
+ */
+public class AppliedOffsetSink implements Sink<Event<Bytes, RdfPayload>> {
+
+    private final DatasetGraph dataset;
+    private final Sink<Event<Bytes, RdfPayload>> destination;
+    private final AppliedOffsetRegistry registry;
+
+    /**
+     * Creates a new sink
+     *
+     * @param dataset     Dataset the destination applies events to
+     * @param destination Destination that applies events
+     * @param registry    Registry to advance
+     */
+    public AppliedOffsetSink(DatasetGraph dataset, Sink<Event<Bytes, RdfPayload>> destination,
+                             AppliedOffsetRegistry registry) {
+        this.dataset = Objects.requireNonNull(dataset, "dataset cannot be null");
+        this.destination = Objects.requireNonNull(destination, "destination cannot be null");
+        this.registry = Objects.requireNonNull(registry, "registry cannot be null");
+    }
+
+    @Override
+    public void send(Event<Bytes, RdfPayload> event) {
+        this.destination.send(event);
+        if (!(event instanceof KafkaEvent<Bytes, RdfPayload> kafkaEvent)) {
+            return;
+        }
+        ConsumerRecord<Bytes, RdfPayload> record = kafkaEvent.getConsumerRecord();
+        TopicPartition partition = new TopicPartition(record.topic(), record.partition());
+        if (this.dataset.isInTransaction()) {
+            this.registry.received(partition, record.offset());
+        } else {
+            this.registry.applied(partition, record.offset());
+        }
+    }
+
+    @Override
+    public void close() {
+        this.destination.close();
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ *  Copyright (c) Telicent Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.telicent.core;
+
+import io.telicent.otel.IngestMetrics;
+import io.telicent.smart.cache.payloads.RdfPayload;
+import io.telicent.smart.cache.projectors.Sink;
+import io.telicent.smart.cache.sources.Event;
+import io.telicent.smart.cache.sources.kafka.KafkaEvent;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.utils.Bytes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * A sink that times the batches of records the Kafka connector applies and commits, and works out the batch size that
+ * would meet a target commit duration.
+ * <p>
+ * The connector applies each batch of records it polls inside a single write transaction which it owns, so this sink
+ * never commits or begins transactions itself, nor does it change the size of the connector's batches. Those are
+ * bounded through the consumer's {@code max.poll.records} setting, see {@link #limitPollRecords(Properties, int)},
+ * which Kafka fixes when the consumer is created. This sink times each batch from its first record until the
+ * connector commits the consumer offsets, which it does once the batch's transaction has committed, as reported by
+ * the {@link AppliedOffsetRegistry}.
+ * </p>
+ * <p>
+ * Batches are measured in Kafka records, as {@code max.poll.records} is, so this sink is placed outside the other
+ * ingest sinks, where each event is a record as polled, including records that are later quarantined or that carry
+ * only part of a CQRS patch. The recommended batch size is worked out after each batch: it is halved if applying and
+ * committing the batch took longer than the target, and doubled if a batch of at least that size took less than half
+ * the target. It is reported, along with the size and duration of each batch, as metrics so that
+ * {@code max.poll.records} can be tuned.
+ * </p>
+ */
+public class BatchTimingSink implements Sink<Event<Bytes, RdfPayload>> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BatchTimingSink.class);
+
+    /**
+     * Configuration key to enable timing of the batches Kafka data is applied in, defaults to false
+     */
+    public static final String ENV_INGEST_BATCH_TIMING = "INGEST_BATCH_TIMING";
+    /**
+     * Configuration key for the target time, in milliseconds, to apply and commit a batch of records
+     */
+    public static final String ENV_INGEST_TARGET_COMMIT_MS = "INGEST_TARGET_COMMIT_MS";
+    /** Default target commit duration, 1 second */
+    public static final long DEFAULT_TARGET_COMMIT_MS = 1_000;
+    /**
+     * Configuration key for the minimum recommended number of records per batch, this is also the initial
+     * recommendation
+     */
+    public static final String ENV_INGEST_MIN_BATCH_RECORDS = "INGEST_MIN_BATCH_RECORDS";
+    /** Default minimum batch size */
+    public static final int DEFAULT_MIN_BATCH_RECORDS = 100;
+    /**
+     * Configuration key for the maximum number of records per batch, used as the connector's {@code max.poll.records}
+     * unless that is already configured
+     */
+    public static final String ENV_INGEST_MAX_BATCH_RECORDS = "INGEST_MAX_BATCH_RECORDS";
+    /** Default maximum batch size */
+    public static final int DEFAULT_MAX_BATCH_RECORDS = 100_000;
+
+    private final Sink<Event<Bytes, RdfPayload>> destination;
+    private final AppliedOffsetRegistry registry;
+    private final Consumer<TopicPartition> commitListener = this::committed;
+    private final long targetNanos;
+    private final int minBatch;
+    private final int maxBatch;
+
+    private final Set<TopicPartition> batchPartitions = new HashSet<>();
+    private String batchTopic;
+    private int recommended;
+    private int batchRecords;
+    private long batchStart;
+    private long batches;
+
+    /**
+     * Creates a new sink
+     *
+     * @param destination        Destination that applies events
+     * @param registry           Registry reporting the connector's offset commits
+     * @param targetCommitMillis Target time to apply and commit a batch
+     * @param minBatch           Minimum, and initial, recommended number of records per batch
+     * @param maxBatch           Maximum number of records per batch
+     */
+    public BatchTimingSink(Sink<Event<Bytes, RdfPayload>> destination, AppliedOffsetRegistry registry,
+                           long targetCommitMillis, int minBatch, int maxBatch) {
+        this.destination = Objects.requireNonNull(destination, "destination cannot be null");
+        this.registry = Objects.requireNonNull(registry, "registry cannot be null");
+        if (targetCommitMillis < 1) {
+            throw new IllegalArgumentException("targetCommitMillis must be positive");
+        }
+        if (minBatch < 1) {
+            throw new IllegalArgumentException("minBatch must be positive");
+        }
+        if (maxBatch < minBatch) {
+            throw new IllegalArgumentException("maxBatch cannot be less than minBatch");
+        }
+        this.targetNanos = TimeUnit.MILLISECONDS.toNanos(targetCommitMillis);
+        this.minBatch = minBatch;
+        this.maxBatch = maxBatch;
+        this.recommended = minBatch;
+        this.registry.addCommitListener(this.commitListener);
+    }
+
+    /**
+     * Bounds the number of records the connector applies per batch, unless the consumer properties already do
+     *
+     * @param properties Consumer properties
+     * @param maxBatch   Maximum number of records per batch
+     */
+    public static void limitPollRecords(Properties properties, int maxBatch) {
+        properties.putIfAbsent(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, Integer.toString(maxBatch));
+    }
+
+    @Override
+    public void send(Event<Bytes, RdfPayload> event) {
+        this.destination.send(event);
+        if (!(event instanceof KafkaEvent<Bytes, RdfPayload> kafkaEvent)) {
+            return;
+        }
+        ConsumerRecord<Bytes, RdfPayload> record = kafkaEvent.getConsumerRecord();
+        synchronized (this) {
+            if (this.batchRecords == 0) {
+                this.batchStart = System.nanoTime();
+                this.batchTopic = record.topic();
+            }
+            this.batchRecords++;
+            this.batchPartitions.add(new TopicPartition(record.topic(), record.partition()));
+        }
+    }
+
+    private synchronized void committed(TopicPartition partition) {
+        // A commit covering several partitions ends the batch on the first of them
+        if (this.batchRecords == 0 || !this.batchPartitions.contains(partition)) {
+            return;
+        }
+        long elapsed = System.nanoTime() - this.batchStart;
+        int records = this.batchRecords;
+        this.batchRecords = 0;
+        this.batchPartitions.clear();
+        this.batches++;
+
+        if (elapsed > this.targetNanos) {
+            this.recommended = Math.max(this.minBatch, this.recommended / 2);
+        } else if (records >= this.recommended && elapsed < this.targetNanos / 2) {
+            this.recommended = (int) Math.min(this.maxBatch, 2L * this.recommended);
+        }
+        LOG.debug("Applied and committed {} records in {} ms, batch size meeting the target now {}", records,
+                  TimeUnit.NANOSECONDS.toMillis(elapsed), this.recommended);
+        IngestMetrics.recordBatch(this.batchTopic, records, elapsed, this.recommended);
+    }
+
+    /**
+     * Gets the recommended number of records per batch, that would meet the target commit duration
+     *
+     * @return Batch size
+     */
+    synchronized int recommendedBatchSize() {
+        return this.recommended;
+    }
+
+    /**
+     * Gets the number of connector batches this sink has seen committed
+     *
+     * @return Batches
+     */
+    synchronized long batches() {
+        return this.batches;
+    }
+
+    @Override
+    public void close() {
+        this.registry.removeCommitListener(this.commitListener);
+        this.destination.close();
+    }
+}
@@ -0,0 +1,288 @@
+/*
+ *  Copyright (c) Telicent Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.telicent.core;
+
+import io.telicent.backup.services.BulkRestore;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFLanguages;
+import org.apache.jena.riot.RDFParser;
+import org.apache.jena.riot.WebContent;
+import org.apache.jena.riot.system.StreamRDFBase;
+import org.apache.jena.riot.web.HttpNames;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.jena.tdb2.loader.DataLoader;
+import org.apache.jena.tdb2.loader.LoaderFactory;
+import org.apache.jena.tdb2.loader.base.LoaderOps;
+import org.apache.jena.tdb2.store.DatasetGraphSwitchable;
+import org.apache.jena.tdb2.store.DatasetGraphTDB;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.header.Header;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+
+/**
+ * Bulk loads the backlog of an empty dataset's Kafka topics into a new TDB2 generation, and switches the dataset to
+ * it, before the dataset's connector starts, so that a replica rebuilt from Kafka is not built one transaction per
+ * connector batch.
+ * <p>
+ * Catch-up only happens when the dataset's consumer group has not yet read the topics, so reads them from the start,
+ * and they hold at least a minimum number of records. The records up to the end of each partition, as it was when
+ * catch-up started, are read with a consumer of their own that never commits offsets, parsed, and loaded with the
+ * TDB2 parallel loader through {@link BulkRestore}, so the new generation's indexes are built in bulk and it has no
+ * transaction journal. Catch-up stops reading a partition at the first record it cannot bulk load, an RDF patch, a
+ * part of a split patch, a record in a format that is not RDF or one that fails to parse, leaving that record and
+ * everything after it to the connector.
+ * </p>
+ * <p>
+ * The offset each partition was read up to is checkpointed in the new generation, see {@link OffsetCheckpointSink},
+ * in the same way as the connector's own batches, so once switched the connector resumes from there. Until the switch
+ * nothing is written to the dataset and no offsets are committed, so if the server stops part way through catch-up
+ * starts again from the beginning on the next start.
+ * </p>
+ */
+public class BulkCatchUp {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BulkCatchUp.class);
+
+    /**
+     * Configuration key to bulk load the Kafka backlog of empty datasets before their connector starts, defaults to
+     * false
+     */
+    public static final String ENV_INGEST_BULK_CATCHUP = "INGEST_BULK_CATCHUP";
+    /**
+     * Configuration key for the minimum number of records on a dataset's topics for the backlog to be bulk loaded
+     */
+    public static final String ENV_INGEST_BULK_CATCHUP_MIN_RECORDS = "INGEST_BULK_CATCHUP_MIN_RECORDS";
+    /** Default minimum number of records to bulk load */
+    public static final long DEFAULT_BULK_CATCHUP_MIN_RECORDS = 100_000;
+
+    /** How long catch-up waits for records that should be on a partition before giving up */
+    static final Duration IDLE_TIMEOUT = Duration.ofMinutes(1);
+    private static final Duration POLL_TIMEOUT = Duration.ofSeconds(1);
+
+    private final Consumer<byte[], byte[]> consumer;
+    private final Collection<String> topics;
+    private final long minRecords;
+
+    /**
+     * Creates a new catch-up
+     *
+     * @param consumer   Consumer to read the topics with, in the dataset's consumer group so its committed offsets can
+     *                   be checked, it is never used to commit offsets
+     * @param topics     Topics the dataset's connector reads
+     * @param minRecords Minimum number of records on the topics for the backlog to be bulk loaded
+     */
+    public BulkCatchUp(Consumer<byte[], byte[]> consumer, Collection<String> topics, long minRecords) {
+        this.consumer = Objects.requireNonNull(consumer, "consumer cannot be null");
+        this.topics = List.copyOf(topics);
+        this.minRecords = minRecords;
+    }
+
+    /**
+     * Bulk loads the backlog into a new generation of a database and switches the database to it, if the backlog is
+     * large enough and has not already been read by the consumer group
+     *
+     * @param container Empty database, writers are held back until it is switched
+     * @param restore   Bulk restore to load and switch the generation with
+     * @return Offset of the next record to be read for each partition loaded, empty if nothing was loaded
+     * @throws IOException Thrown if the backlog cannot be read or the generation cannot be created or switched to
+     */
+    public Map<TopicPartition, Long> catchUp(DatasetGraphSwitchable container, BulkRestore restore)
+            throws IOException {
+        Map<TopicPartition, long[]> backlog = backlog();
+        if (backlog.isEmpty()) {
+            return Map.of();
+        }
+        Map<TopicPartition, Long> loaded = new HashMap<>();
+        restore.restore(container, "Kafka topics " + this.topics, (target, prefixes) -> {
+            long quads = load(backlog, target, prefixes, loaded);
+            OffsetCheckpointSink.write(target, loaded);
+            return quads;
+        });
+        return loaded;
+    }
+
+    /**
+     * Works out the start and end offsets of the backlog of each partition
+     *
+     * @return Start and end offsets by partition, empty if there is no backlog to bulk load
+     */
+    Map<TopicPartition, long[]> backlog() {
+        Set<TopicPartition> partitions = new HashSet<>();
+        for (String topic : this.topics) {
+            List<PartitionInfo> infos = this.consumer.partitionsFor(topic);
+            if (infos != null) {
+                infos.forEach(info -> partitions.add(new TopicPartition(info.topic(), info.partition())));
+            }
+        }
+        if (partitions.isEmpty()) {
+            return Map.of();
+        }
+        Map<TopicPartition, OffsetAndMetadata> committed = this.consumer.committed(partitions);
+        if (committed != null && committed.values().stream().anyMatch(Objects::nonNull)) {
+            LOG.info("Not bulk loading {}, the consumer group has already read them", this.topics);
+            return Map.of();
+        }
+        Map<TopicPartition, Long> starts = this.consumer.beginningOffsets(partitions);
+        Map<TopicPartition, Long> ends = this.consumer.endOffsets(partitions);
+        Map<TopicPartition, long[]> backlog = new HashMap<>();
+        long records = 0;
+        for (TopicPartition partition : partitions) {
+            long start = starts.getOrDefault(partition, 0L);
+            long end = ends.getOrDefault(partition, start);
+            backlog.put(partition, new long[]{start, end});
+            records += Math.max(0, end - start);
+        }
+        if (records < this.minRecords) {
+            LOG.info("Not bulk loading {}, {} records is fewer than {}", this.topics, records, this.minRecords);
+            return Map.of();
+        }
+        return backlog;
+    }
+
+    private long load(Map<TopicPartition, long[]> backlog, DatasetGraphTDB target, Map<String, String> prefixes,
+                      Map<TopicPartition, Long> loaded) throws IOException {
+        Set<TopicPartition> remaining = new HashSet<>();
+        this.consumer.assign(backlog.keySet());
+        backlog.forEach((partition, range) -> {
+            loaded.put(partition, range[0]);
+            if (range[0] < range[1]) {
+                this.consumer.seek(partition, range[0]);
+                remaining.add(partition);
+            }
+        });
+        this.consumer.pause(difference(backlog.keySet(), remaining));
+
+        DataLoader loader = LoaderFactory.parallelLoader(target, LoaderOps.nullOutput());
+        loader.startBulk();
+        try {
+            long quads = 0;
+            long idleSince = System.nanoTime();
+            while (!remaining.isEmpty()) {
+                boolean read = false;
+                for (ConsumerRecord<byte[], byte[]> record : this.consumer.poll(POLL_TIMEOUT)) {
+                    TopicPartition partition = new TopicPartition(record.topic(), record.partition());
+                    if (!remaining.contains(partition)) {
+                        continue;
+                    }
+                    read = true;
+                    List<Quad> parsed = parse(record, prefixes);
+                    if (parsed == null) {
+                        LOG.info("Stopped bulk loading {} at offset {}, the connector applies the rest", partition,
+                                 record.offset());
+                        stop(partition, remaining);
+                        continue;
+                    }
+                    parsed.forEach(loader.stream()::quad);
+                    quads += parsed.size();
+                    loaded.put(partition, record.offset() + 1);
+                    if (record.offset() + 1 >= backlog.get(partition)[1]) {
+                        stop(partition, remaining);
+                    }
+                }
+                if (read) {
+                    idleSince = System.nanoTime();
+                } else if (System.nanoTime() - idleSince > IDLE_TIMEOUT.toNanos()) {
+                    throw new IOException("No records read from " + remaining + " for " + IDLE_TIMEOUT.toSeconds()
+                                          + " seconds, bulk catch-up abandoned");
+                }
+            }
+            loader.finishBulk();
+            LOG.info("Bulk loaded {} quads from {} up to offsets {}", quads, this.topics, loaded);
+            return quads;
+        } catch (IOException | RuntimeException e) {
+            loader.finishException(e);
+            throw e;
+        } finally {
+            this.consumer.unsubscribe();
+        }
+    }
+
+    private void stop(TopicPartition partition, Set<TopicPartition> remaining) {
+        remaining.remove(partition);
+        this.consumer.pause(Set.of(partition));
+    }
+
+    private static Set<TopicPartition> difference(Set<TopicPartition> all, Set<TopicPartition> remove) {
+        Set<TopicPartition> difference = new HashSet<>(all);
+        difference.removeAll(remove);
+        return difference;
+    }
+
+    /**
+     * Parses a record's payload, if it can be bulk loaded
+     *
+     * @param record   Record
+     * @param prefixes Receives the payload's prefixes
+     * @return Quads of the payload, or {@code null} if it cannot be bulk loaded
+     */
+    static List<Quad> parse(ConsumerRecord<byte[], byte[]> record, Map<String, String> prefixes) {
+        String contentType = header(record, HttpNames.hContentType);
+        if (record.value() == null || contentType == null || header(record, CQRS.HEADER_PATCH_ID) != null
+            || contentType.startsWith(WebContent.contentTypePatch)
+            || contentType.startsWith(WebContent.contentTypePatchThrift)) {
+            return null;
+        }
+        Lang lang = RDFLanguages.contentTypeToLang(contentType);
+        if (lang == null || !(RDFLanguages.isTriples(lang) || RDFLanguages.isQuads(lang))) {
+            return null;
+        }
+        List<Quad> quads = new ArrayList<>();
+        Map<String, String> parsedPrefixes = new LinkedHashMap<>();
+        try {
+            RDFParser.source(new ByteArrayInputStream(record.value())).lang(lang).parse(new StreamRDFBase() {
+                @Override
+                public void triple(Triple triple) {
+                    quads.add(Quad.create(Quad.defaultGraphIRI, triple));
+                }
+
+                @Override
+                public void quad(Quad quad) {
+                    quads.add(quad.getGraph() == null ? Quad.create(Quad.defaultGraphIRI, quad.asTriple()) : quad);
+                }
+
+                @Override
+                public void prefix(String prefix, String iri) {
+                    parsedPrefixes.put(prefix, iri);
+                }
+            });
+        } catch (RuntimeException e) {
+            LOG.warn("Record at offset {} of {} failed to parse: {}", record.offset(), record.topic(),
+                     e.getMessage());
+            return null;
+        }
+        prefixes.putAll(parsedPrefixes);
+        return quads;
+    }
+
+    private static String header(ConsumerRecord<byte[], byte[]> record, String name) {
+        Header header = record.headers().lastHeader(name);
+        return (header == null || header.value() == null) ? null :
+               new String(header.value(), StandardCharsets.UTF_8);
+    }
+}
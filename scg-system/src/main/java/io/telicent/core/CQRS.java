@@ -18,17 +18,26 @@ package io.telicent.core;
 
 import static java.lang.String.format;
 
-import java.io.ByteArrayOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.function.Consumer;
 
+import io.telicent.otel.CqrsMetrics;
+import io.telicent.smart.cache.configuration.Configurator;
 import io.telicent.smart.cache.sources.TelicentHeaders;
 import io.telicent.utils.UserUtils;
-import org.apache.jena.atlas.lib.Bytes;
 import org.apache.jena.atlas.logging.Log;
 import org.apache.jena.fuseki.server.Operation;
 import org.apache.jena.fuseki.servlets.ActionService;
@@ -47,6 +56,7 @@ import org.apache.jena.sparql.util.Symbol;
 import org.apache.jena.system.buffering.BufferingDatasetGraph;
 import org.apache.kafka.clients.producer.KafkaProducer;
 import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerConfig;
 import org.apache.kafka.clients.producer.ProducerRecord;
 import org.apache.kafka.clients.producer.RecordMetadata;
 import org.apache.kafka.common.header.Header;
@@ -62,6 +72,111 @@ public class CQRS {
     public static Logger LOG = LoggerFactory.getLogger(CQRS.class);
     /** Context symbol for Kafka topic */
     public static Symbol symKafkaTopic = Symbol.create("kafka:topic");
+    /**
+     * Configuration key that enables asynchronous sending of CQRS patches. When enabled the patch is handed to the
+     * producer and the dataset transaction is released before waiting for the Kafka acknowledgement, so concurrent
+     * updates can be pipelined and batched by the producer.
+     * <p>
+     * The request thread still waits for the acknowledgement before responding, so the only gain is that the send
+     * overlaps with the end of the transaction and with other updates, request latency and thread usage are unchanged.
+     * </p>
+     */
+    public static final String ENV_CQRS_ASYNC_SEND = "CQRS_ASYNC_SEND";
+    /**
+     * Configuration key that enables evaluating CQRS updates against a read transaction of the base dataset. The base
+     * dataset is never modified by a CQRS update, all changes are captured by the buffering overlay, so a read
+     * snapshot is sufficient and updates no longer serialize against each other or against Kafka ingest.
+     */
+    public static final String ENV_CQRS_READ_SNAPSHOT = "CQRS_READ_SNAPSHOT";
+    /**
+     * Configuration key for the size, in bytes, above which the RDF Patch for an update is spilled from memory to a
+     * temporary file.
+     */
+    public static final String ENV_CQRS_PATCH_SPILL_THRESHOLD = "CQRS_PATCH_SPILL_THRESHOLD";
+    /**
+     * Configuration key for the maximum size, in bytes, of the value of a single Kafka record. The patch of an update
+     * that is larger than this is split into ordered parts, each sent as its own record, which the Kafka connector
+     * joins back together and applies as a single transaction once the last part arrives, see
+     * {@link PatchPartsSink}. Zero, the default, sends every patch as a single record, leaving the limit to the
+     * producer's {@code max.request.size}.
+     */
+    public static final String ENV_CQRS_MAX_RECORD_BYTES = "CQRS_MAX_RECORD_BYTES";
+    /** Default spill threshold, 16 MiB */
+    public static final long DEFAULT_PATCH_SPILL_THRESHOLD = 16L * 1024 * 1024;
+    /** Default maximum record size, zero, patches are never split */
+    public static final long DEFAULT_MAX_RECORD_BYTES = 0;
+    /**
+     * Configuration key for the encoding used for patches sent to Kafka, either {@code text} (the default) or
+     * {@code binary}, see {@link PatchEncoding}.
+     */
+    public static final String ENV_CQRS_PATCH_ENCODING = "CQRS_PATCH_ENCODING";
+    /**
+     * Configuration key for the Kafka compression codec, e.g. {@code lz4} or {@code zstd}, used by the CQRS producer,
+     * only applied when the connector properties do not already specify {@code compression.type}.
+     */
+    public static final String ENV_CQRS_COMPRESSION_TYPE = "CQRS_COMPRESSION_TYPE";
+    /** Response header giving the number of quads added by a CQRS update */
+    public static final String HEADER_QUADS_ADDED = "CQRS-Quads-Added";
+    /** Response header giving the number of quads deleted by a CQRS update */
+    public static final String HEADER_QUADS_DELETED = "CQRS-Quads-Deleted";
+    /** Response header giving the size, in bytes, of the encoded RDF Patch generated by a CQRS update */
+    public static final String HEADER_PATCH_BYTES = "CQRS-Patch-Bytes";
+    /** Response header giving the number of graphs changed by a CQRS update */
+    public static final String HEADER_GRAPHS_CHANGED = "CQRS-Graphs-Changed";
+    /** Kafka header identifying the patch that a record holds part of, when a patch is split across records */
+    public static final String HEADER_PATCH_ID = "CQRS-Patch-Id";
+    /**
+     * Kafka header giving the position of the part of a split patch held by a record, as {@code <part>/<parts>}
+     * counting from one
+     */
+    public static final String HEADER_PATCH_PART = "CQRS-Patch-Part";
+    /**
+     * Configuration key for the group commit window in milliseconds. When greater than zero, patches from concurrent
+     * updates with the same security label are joined into a single Kafka record. Zero, the default, disables group
+     * commit.
+     */
+    public static final String ENV_CQRS_GROUP_COMMIT_WINDOW_MS = "CQRS_GROUP_COMMIT_WINDOW_MS";
+    /**
+     * Configuration key for the maximum number of patches joined into a single group commit record.
+     */
+    public static final String ENV_CQRS_GROUP_COMMIT_MAX_PATCHES = "CQRS_GROUP_COMMIT_MAX_PATCHES";
+    /** Default maximum number of patches in a group commit */
+    public static final int DEFAULT_GROUP_COMMIT_MAX_PATCHES = 100;
+    /**
+     * Configuration key for the maximum number of bytes of a patch that are logged when no Kafka producer is
+     * connected, zero disables logging of patch content.
+     */
+    public static final String ENV_CQRS_DEBUG_PATCH_MAX_BYTES = "CQRS_DEBUG_PATCH_MAX_BYTES";
+    /** Default maximum number of bytes of patch content logged, 64 KiB */
+    public static final int DEFAULT_DEBUG_PATCH_MAX_BYTES = 64 * 1024;
+    /** Default producer compression codec, none, matching the Kafka producer default */
+    public static final String DEFAULT_COMPRESSION_TYPE = "none";
+    /**
+     * Request parameter that controls when a CQRS update responds, {@code wait=applied} responds only once the patch
+     * has been applied to the local dataset by the Kafka connector
+     */
+    public static final String PARAM_WAIT = "wait";
+    /** Value of {@link #PARAM_WAIT} requesting read-your-writes */
+    public static final String WAIT_APPLIED = "applied";
+    /**
+     * Configuration key for the maximum time, in milliseconds, an update requesting {@code wait=applied} waits for its
+     * patch to be applied locally
+     */
+    public static final String ENV_CQRS_WAIT_APPLIED_TIMEOUT_MS = "CQRS_WAIT_APPLIED_TIMEOUT_MS";
+    /** Default wait for a patch to be applied, 30 seconds */
+    public static final long DEFAULT_WAIT_APPLIED_TIMEOUT_MS = 30_000;
+    /**
+     * Configuration key for the maximum number of {@code wait=applied} updates, per endpoint, that wait at once,
+     * further updates respond immediately without waiting
+     */
+    public static final String ENV_CQRS_WAIT_APPLIED_MAX_WAITERS = "CQRS_WAIT_APPLIED_MAX_WAITERS";
+    /** Default maximum number of waiting updates */
+    public static final int DEFAULT_WAIT_APPLIED_MAX_WAITERS = 64;
+    /**
+     * Response header given when {@code wait=applied} was requested, {@code true} if the patch was applied locally
+     * before responding, {@code false} if the wait timed out
+     */
+    public static final String HEADER_APPLIED = "CQRS-Applied";
 
     public static class Vocab {
         public static String NS = "http://telicent.io/cqrs#";
@@ -71,18 +186,164 @@ public class CQRS {
                                                                             "Update CQRS");
     }
 
+    /**
+     * Encodings for the RDF Patch sent to Kafka, advertised to consumers via the {@code Content-Type} header.
+     */
+    public enum PatchEncoding {
+        /** Text RDF Patch, {@code application/rdf-patch} */
+        TEXT(WebContent.contentTypePatch),
+        /** Dictionary encoded binary RDF Patch, see {@link RDFChangesWriterDictionary} */
+        BINARY(RDFChangesWriterDictionary.CONTENT_TYPE);
+
+        private final String contentType;
+
+        PatchEncoding(String contentType) {
+            this.contentType = contentType;
+        }
+
+        /**
+         * Gets the content type that identifies this encoding
+         *
+         * @return Content type
+         */
+        public String contentType() {
+            return contentType;
+        }
+
+        /**
+         * Parses an encoding from configuration, case-insensitively
+         *
+         * @param value Value
+         * @return Encoding
+         */
+        public static PatchEncoding parse(String value) {
+            return PatchEncoding.valueOf(value.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+
+    /**
+     * Options controlling how CQRS updates are executed and published.
+     *
+     * @param asyncSend    Whether the transaction is released before waiting for the Kafka acknowledgement
+     * @param readSnapshot   Whether updates are evaluated in a read transaction rather than a write transaction
+     * @param spillThreshold Patch size, in bytes, above which the patch is spilled to a temporary file
+     * @param maxRecordBytes Maximum Kafka record size, in bytes, larger patches are split, zero to disable
+     * @param encoding       Encoding of patches sent to Kafka
+     * @param compression    Producer compression codec, used unless the producer properties already specify one
+     * @param groupCommitWindowMillis Group commit window in milliseconds, zero to disable group commit
+     * @param groupCommitMaxPatches   Maximum number of patches joined into a single group commit record
+     */
+    public record Options(boolean asyncSend, boolean readSnapshot, long spillThreshold, long maxRecordBytes,
+                          PatchEncoding encoding, String compression, long groupCommitWindowMillis,
+                          int groupCommitMaxPatches) {
+        /** Options matching the original behaviour, a synchronous send per update under the write lock. */
+        public static final Options DEFAULT =
+                new Options(false, false, DEFAULT_PATCH_SPILL_THRESHOLD, DEFAULT_MAX_RECORD_BYTES, PatchEncoding.TEXT,
+                            DEFAULT_COMPRESSION_TYPE, 0, DEFAULT_GROUP_COMMIT_MAX_PATCHES);
+
+        /**
+         * Validates the options
+         *
+         * @throws IllegalArgumentException Thrown if group commit is enabled while updates send under the write lock,
+         *                                  since every group would then hold a single patch
+         */
+        public Options {
+            if ( groupCommitWindowMillis > 0 && groupCommitMaxPatches > 1 && !asyncSend && !readSnapshot )
+                throw new IllegalArgumentException(
+                        format("%s requires %s or %s to be enabled", ENV_CQRS_GROUP_COMMIT_WINDOW_MS,
+                               ENV_CQRS_ASYNC_SEND, ENV_CQRS_READ_SNAPSHOT));
+        }
+
+        /**
+         * Whether group commit is enabled
+         *
+         * @return True if enabled
+         */
+        public boolean isGroupCommit() {
+            return groupCommitWindowMillis > 0 && groupCommitMaxPatches > 1;
+        }
+
+        /**
+         * Builds the options from the runtime configuration
+         *
+         * @return Options
+         */
+        public static Options fromConfiguration() {
+            return new Options(Configurator.get(ENV_CQRS_ASYNC_SEND, Boolean::parseBoolean, false),
+                               Configurator.get(ENV_CQRS_READ_SNAPSHOT, Boolean::parseBoolean, false),
+                               Configurator.get(ENV_CQRS_PATCH_SPILL_THRESHOLD, Long::parseLong,
+                                                DEFAULT_PATCH_SPILL_THRESHOLD),
+                               Configurator.get(ENV_CQRS_MAX_RECORD_BYTES, Long::parseLong, DEFAULT_MAX_RECORD_BYTES),
+                               Configurator.get(ENV_CQRS_PATCH_ENCODING, PatchEncoding::parse, PatchEncoding.TEXT),
+                               Configurator.get(ENV_CQRS_COMPRESSION_TYPE, String::trim, DEFAULT_COMPRESSION_TYPE),
+                               Configurator.get(ENV_CQRS_GROUP_COMMIT_WINDOW_MS, Long::parseLong, 0L),
+                               Configurator.get(new String[]{ENV_CQRS_GROUP_COMMIT_MAX_PATCHES}, Integer::parseInt,
+                                                DEFAULT_GROUP_COMMIT_MAX_PATCHES));
+        }
+    }
+
     /**
      * Return an {@link ActionService} suitable for registering for {@link Operation#Update}.
      */
     public static ActionService updateAction(String topic, Properties producerProperties) {
+        return updateAction(topic, producerProperties, Options.DEFAULT);
+    }
+
+    /**
+     * Return an {@link ActionService} suitable for registering for {@link Operation#Update}.
+     */
+    public static ActionService updateAction(String topic, Properties producerProperties, Options options) {
         Producer<String, byte[]> producer = (producerProperties == null)
                 ? null
-                : new KafkaProducer<>(producerProperties, new StringSerializer(), new ByteArraySerializer());
-        return new SPARQL_Update_CQRS(UserUtils.userForRequest(), topic, producer, onBegin, onCommit, onAbort);
+                : new KafkaProducer<>(CqrsProducerPool.withDefaults(producerProperties(producerProperties, options)),
+                                      new StringSerializer(), new ByteArraySerializer());
+        return updateActionWithProducer(topic, producer, options);
+    }
+
+    /**
+     * Applies the CQRS producer defaults to a copy of the given properties, explicitly configured values are kept.
+     * <p>
+     * When updates send under the write lock, neither {@code asyncSend} nor {@code readSnapshot}, no two patches are
+     * ever in flight at once, so the pool's {@code linger.ms} would only delay every update. Such producers don't
+     * linger unless explicitly configured to.
+     * </p>
+     */
+    static Properties producerProperties(Properties properties, Options options) {
+        Properties producerProperties = new Properties();
+        producerProperties.putAll(properties);
+        if ( options.compression() != null && !options.compression().isEmpty() )
+            producerProperties.putIfAbsent(ProducerConfig.COMPRESSION_TYPE_CONFIG, options.compression());
+        if ( !options.asyncSend() && !options.readSnapshot() )
+            producerProperties.putIfAbsent(ProducerConfig.LINGER_MS_CONFIG, "0");
+        return producerProperties;
     }
 
     static ActionService updateActionWithProducer(String topic, Producer<String, byte[]> producer) {
-        return new SPARQL_Update_CQRS(UserUtils.userForRequest(), topic, producer, onBegin, onCommit, onAbort);
+        return updateActionWithProducer(topic, producer, Options.DEFAULT);
+    }
+
+    static ActionService updateActionWithProducer(String topic, Producer<String, byte[]> producer, Options options) {
+        return updateActionWithProducer(topic, producer, options, null);
+    }
+
+    /**
+     * Return an {@link ActionService} that joins patches through the given group committer, which the caller owns and
+     * must close.
+     */
+    static ActionService updateActionWithProducer(String topic, Producer<String, byte[]> producer, Options options,
+                                                  PatchGroupCommitter groupCommitter) {
+        return updateActionWithProducer(topic, producer, options, groupCommitter, AppliedOffsetRegistry.get());
+    }
+
+    /**
+     * Return an {@link ActionService} whose {@code wait=applied} updates wait on the given registry, that of the
+     * consumer group of the Kafka connector applying the topic to the endpoint's dataset.
+     */
+    static ActionService updateActionWithProducer(String topic, Producer<String, byte[]> producer, Options options,
+                                                  PatchGroupCommitter groupCommitter,
+                                                  AppliedOffsetRegistry appliedOffsets) {
+        return new SPARQL_Update_CQRS(UserUtils.userForRequest(), topic, producer, options, groupCommitter,
+                                      appliedOffsets, onBegin, onCommit, onAbort);
     }
 
     /**
@@ -91,6 +352,8 @@ public class CQRS {
      */
     static UpdateCQRS startOperation(String topic,
                                      Producer<String, byte[]> producer,
+                                     Options options,
+                                     PatchGroupCommitter groupCommitter,
                                      HttpAction action,
                                      DatasetGraph dsgBase,
                                      Consumer<HttpAction> onBegin,
@@ -101,13 +364,26 @@ public class CQRS {
 
         BufferingDatasetGraph dsgBuffering = new BufferingDatasetGraph(dsgBase);
         // Writing the patch log.
-        ByteArrayOutputStream bout = new ByteArrayOutputStream(8*1024);
-        TokenWriter tok = TokenWriterText.create(bout);
-        RDFChangesWriterText changesWriter = new RDFChangesWriterText(tok);
+        // Large patches are spilled to disk rather than held on heap.
+        PatchBuffer bout = new PatchBuffer(options.spillThreshold());
+        // The patch is written directly in the encoding that is sent
+        Flushable patchOutput;
+        RDFChanges changesWriter;
+        if ( options.encoding() == PatchEncoding.BINARY ) {
+            RDFChangesWriterDictionary binaryWriter = new RDFChangesWriterDictionary(bout);
+            patchOutput = binaryWriter;
+            changesWriter = binaryWriter;
+        } else {
+            TokenWriter tok = TokenWriterText.create(bout);
+            patchOutput = tok::flush;
+            changesWriter = new RDFChangesWriterText(tok);
+        }
 
         // Manage transaction change record here so we can terminate the patch
         // (i.e. write "TX") before and separately from the dataset commit.
-        RDFChanges changes = new RDFChangesExternalTxn(changesWriter) {
+        // Count the changes as they are written, rather than by materialising the buffered changes afterwards.
+        CountingRDFChanges counts = new CountingRDFChanges(changesWriter, dsgBuffering, dsgBase);
+        RDFChanges changes = new RDFChangesExternalTxn(counts) {
             @Override public void txnBegin()  { if ( onBegin != null )  onBegin.accept(action) ; }
             @Override public void txnCommit() { if ( onCommit != null ) onCommit.accept(action) ; }
             @Override public void txnAbort()  { if ( onAbort != null )  onAbort.accept(action) ; }
@@ -116,9 +392,9 @@ public class CQRS {
 
         // Record the details of the setup.
         UpdateCQRS updateCtl = new UpdateCQRS(topic, dsgBase,
-                                              bout, tok, changesWriter, changes,
+                                              bout, patchOutput, changesWriter, counts, changes,
                                               dsgBuffering, dsgOperation, hSecurityLabel,
-                                              producer);
+                                              producer, options, groupCommitter, new CompletableFuture<>());
         // XXX RemoveMe and pass UpdateCQRS to on*
         // Add to the action context so it is carried through the update.
         action.getContext().set(symbol, updateCtl);
@@ -133,12 +409,71 @@ public class CQRS {
         updateCtl.changes.finish();
     }
 
+    /**
+     * Releases any resources, such as a spilled patch file, held by an update. Safe to call more than once.
+     */
+    static void releaseOperation(UpdateCQRS updateCtl) {
+        if ( updateCtl == null )
+            return;
+        try {
+            updateCtl.bout.close();
+        } catch (IOException e) {
+            LOG.warn("Failed to release CQRS patch buffer: {}", e.getMessage());
+        }
+    }
+
     public record UpdateCQRS(String topic, DatasetGraph dsgBase,
-                             ByteArrayOutputStream bout, TokenWriter tok, RDFChangesWriterText changesWriter, RDFChanges changes,
+                             PatchBuffer bout, Flushable patchOutput, RDFChanges changesWriter,
+                             CountingRDFChanges counts, RDFChanges changes,
                              BufferingDatasetGraph datasetBuffering,
                              DatasetGraph dataset, // Operate on this DataestGraph
                              String securityLabelHeader,
-                             Producer<String, byte[]> producer) {}
+                             Producer<String, byte[]> producer,
+                             Options options,
+                             PatchGroupCommitter groupCommitter,
+                             CompletableFuture<PatchOffset> sendResult) {}
+
+    /**
+     * The position of a sent patch in Kafka
+     *
+     * @param topic     Topic
+     * @param partition Partition the patch was written to
+     * @param offset    Offset of the record
+     */
+    public record PatchOffset(String topic, int partition, long offset) {
+        /** Used when no producer is connected and the patch was only logged */
+        public static final PatchOffset NOT_SENT = new PatchOffset(null, -1, -1);
+
+        /**
+         * Whether the patch was written to Kafka
+         *
+         * @return True if sent
+         */
+        public boolean isSent() {
+            return offset >= 0;
+        }
+    }
+
+    /**
+     * Waits for the patch of an update to be acknowledged by Kafka.
+     *
+     * @param sendResult Send result of the update
+     * @return Position of the patch, or {@link PatchOffset#NOT_SENT} if no producer is connected
+     * @throws JenaKafkaException Thrown if the send failed or the wait was interrupted
+     */
+    static PatchOffset awaitSend(CompletableFuture<PatchOffset> sendResult) {
+        try {
+            return sendResult.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new JenaKafkaException("Interrupted waiting for Kafka send", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof JenaKafkaException kafkaException) {
+                throw kafkaException;
+            }
+            throw new JenaKafkaException("Failed to send Kafka message", e.getCause());
+        }
+    }
 
     /** Used to pass the addition information through the HttpActionLifecycle. */
     private static Symbol symbol = Symbol.create("cqrs:update");
@@ -168,27 +503,70 @@ public class CQRS {
 
         changesCtl.changesWriter.txnCommit();
         changesCtl.changes.finish();
-        changesCtl.tok.flush();
+        try {
+            changesCtl.patchOutput.flush();
+        } catch (IOException e) {
+            throw new JenaKafkaException("Failed to write CQRS patch", e);
+        }
 
         boolean isConnected = (changesCtl.producer != null);
-        byte[] kBody = changesCtl.bout.toByteArray();
-        int addCount = changesCtl.datasetBuffering.getAddedTriples().size();
-        int delCount = changesCtl.datasetBuffering.getDeletedTriples().size();
-        Log.info(action.log, format("[%d] CQRS Patch: Add=%,d : Del=%,d", action.id, addCount, delCount));
+        long patchSize = changesCtl.bout.size();
+        long maxRecordBytes = changesCtl.options.maxRecordBytes();
+        long addCount = changesCtl.counts.added();
+        long delCount = changesCtl.counts.deleted();
+        Map<String, CountingRDFChanges.Counts> perGraph = changesCtl.counts.perGraph();
+        Log.info(action.log, format("[%d] CQRS Patch: Add=%,d : Del=%,d : Graphs=%,d : Bytes=%,d", action.id,
+                                    addCount, delCount, perGraph.size(), patchSize));
+        if ( action.log.isDebugEnabled() ) {
+            perGraph.forEach((graph, counts) -> action.log.debug(
+                    format("[%d] CQRS Patch: Graph=%s : Add=%,d : Del=%,d", action.id, graph, counts.added(),
+                           counts.deleted())));
+        }
+        CqrsMetrics.recordPatch(changesCtl.topic, addCount, delCount, patchSize);
+        // The response is a 204, or the success page for form updates, so the counts are only carried in headers
+        action.setResponseHeader(HEADER_QUADS_ADDED, Long.toString(addCount));
+        action.setResponseHeader(HEADER_QUADS_DELETED, Long.toString(delCount));
+        action.setResponseHeader(HEADER_GRAPHS_CHANGED, Integer.toString(perGraph.size()));
+        action.setResponseHeader(HEADER_PATCH_BYTES, Long.toString(patchSize));
 
         if ( isConnected ) {
             List<Header> sendHeaders;
-            Header headerContentType = kafkaHeader(HttpNames.hContentType, WebContent.contentTypePatch);
+            PatchEncoding encoding = changesCtl.options.encoding();
+            Header headerContentType = kafkaHeader(HttpNames.hContentType, encoding.contentType());
             if ( changesCtl.securityLabelHeader != null ) {
                 Header headerSecurityLabel = kafkaHeader(TelicentHeaders.SECURITY_LABEL, changesCtl.securityLabelHeader);
                 sendHeaders = List.of(headerContentType, headerSecurityLabel);
             } else {
                 sendHeaders = List.of(headerContentType);
             }
-            sendToKafka(changesCtl.producer, changesCtl.topic, sendHeaders, kBody);
+            // Only hands the patch to the producer, the caller decides whether to wait for the acknowledgement.
+            // Kafka serializes the whole record value up front, so a spilled patch is read from disk exactly once,
+            // straight into the record values.
+            try {
+                if ( maxRecordBytes > 0 && patchSize > maxRecordBytes ) {
+                    // Too large for a single record, never joined with other patches
+                    sendPartsToKafkaAsync(changesCtl.producer, changesCtl.topic, sendHeaders, changesCtl.bout,
+                                          maxRecordBytes, changesCtl.sendResult);
+                } else if ( changesCtl.groupCommitter != null ) {
+                    // Joined with other patches that have the same label
+                    changesCtl.groupCommitter.submit(changesCtl.securityLabelHeader, changesCtl.bout.readAll())
+                                             .whenComplete((sent, error) -> {
+                                                 if ( error != null )
+                                                     changesCtl.sendResult.completeExceptionally(error);
+                                                 else
+                                                     changesCtl.sendResult.complete(sent);
+                                             });
+                } else {
+                    byte[] kBody = changesCtl.bout.readAll();
+                    sendToKafkaAsync(changesCtl.producer, changesCtl.topic, sendHeaders, kBody, changesCtl.sendResult);
+                }
+            } catch (IOException e) {
+                changesCtl.sendResult.completeExceptionally(new JenaKafkaException("Failed to read CQRS patch", e));
+            }
         } else {
-            System.out.print(Bytes.bytes2string(kBody));
-            LOG.info("Send to Kafka: topic={} bytes={}", changesCtl.topic, kBody.length);
+            debugPatch(changesCtl.topic, changesCtl.bout, changesCtl.options.encoding());
+            LOG.info("Send to Kafka: topic={} bytes={}", changesCtl.topic, patchSize);
+            changesCtl.sendResult.complete(PatchOffset.NOT_SENT);
         }
         action.getContext().remove(symbol);
     }
@@ -227,6 +605,100 @@ public class CQRS {
         }
     }
 
+    /**
+     * Send to the Kafka topic without waiting for the acknowledgement, the given future is completed with the offset
+     * (or the failure) from the producer callback.
+     */
+    static <K,V> void sendToKafkaAsync(Producer<K,V> producer, String topic, List<Header> sendHeaders, V content,
+                                       CompletableFuture<PatchOffset> sendResult) {
+        sendToKafkaAsync(producer, topic, null, sendHeaders, content, sendResult);
+    }
+
+    private static <K,V> void sendToKafkaAsync(Producer<K,V> producer, String topic, K key, List<Header> sendHeaders,
+                                               V content, CompletableFuture<PatchOffset> sendResult) {
+        try {
+            ProducerRecord<K, V> pRec = new ProducerRecord<>(topic, null, null, key, content, sendHeaders);
+            long start = System.nanoTime();
+            producer.send(pRec, (metadata, e) -> {
+                if ( e != null ) {
+                    sendResult.completeExceptionally(new JenaKafkaException("Failed to send Kafka message", e));
+                    return;
+                }
+                CqrsMetrics.recordSend(topic, start);
+                LOG.info("[{}] Send: Offset = {}", topic, metadata.offset());
+                sendResult.complete(new PatchOffset(topic, metadata.partition(), metadata.offset()));
+            });
+        } catch (RuntimeException e) {
+            // Serialization, buffer exhaustion and metadata timeouts are thrown directly from send()
+            sendResult.completeExceptionally(new JenaKafkaException("Failed to send Kafka message", e));
+        }
+    }
+
+    /**
+     * Sends a patch that is too large for a single record as a sequence of parts, without waiting for the
+     * acknowledgements. Every part is keyed by the patch identifier, so all parts go to the same partition in order,
+     * and carries the {@link #HEADER_PATCH_ID} and {@link #HEADER_PATCH_PART} headers. The consumer only applies the
+     * patch once its last part arrives, so if any part fails to send the update fails and nothing is applied.
+     * <p>
+     * The given future is completed with the position of the last part, the one that causes the patch to be applied,
+     * once every part has been acknowledged, or with the first failure. Parts are read from the patch buffer one at a
+     * time, so a spilled patch is only held on heap as far as the producer buffers it.
+     * </p>
+     */
+    static void sendPartsToKafkaAsync(Producer<String, byte[]> producer, String topic, List<Header> sendHeaders,
+                                      PatchBuffer patch, long maxRecordBytes,
+                                      CompletableFuture<PatchOffset> sendResult) throws IOException {
+        String patchId = UUID.randomUUID().toString();
+        int partBytes = (int) Math.min(maxRecordBytes, Integer.MAX_VALUE);
+        long parts = (patch.size() + partBytes - 1) / partBytes;
+        List<CompletableFuture<PatchOffset>> partResults = new ArrayList<>();
+        try (InputStream input = patch.openInputStream()) {
+            for ( long part = 1 ; part <= parts ; part++ ) {
+                List<Header> partHeaders = new ArrayList<>(sendHeaders);
+                partHeaders.add(kafkaHeader(HEADER_PATCH_ID, patchId));
+                partHeaders.add(kafkaHeader(HEADER_PATCH_PART, part + "/" + parts));
+                CompletableFuture<PatchOffset> partResult = new CompletableFuture<>();
+                partResults.add(partResult);
+                sendToKafkaAsync(producer, topic, patchId, partHeaders, input.readNBytes(partBytes), partResult);
+                // No point sending the remaining parts, the patch can no longer be applied
+                if ( partResult.isCompletedExceptionally() )
+                    break;
+            }
+        }
+        LOG.info("[{}] Sending patch {} of {} bytes as {} records", topic, patchId, patch.size(), parts);
+        CompletableFuture.allOf(partResults.toArray(CompletableFuture[]::new)).whenComplete((ignored, error) -> {
+            if ( error != null )
+                sendResult.completeExceptionally(error instanceof CompletionException ? error.getCause() : error);
+            else
+                sendResult.complete(partResults.getLast().join());
+        });
+    }
+
+    /**
+     * Logs the patch when no Kafka producer is connected. At most {@link #ENV_CQRS_DEBUG_PATCH_MAX_BYTES} bytes are
+     * read, directly from the patch buffer, so large updates do not cause a heap spike.
+     */
+    static void debugPatch(String topic, PatchBuffer patch, PatchEncoding encoding) {
+        int maxBytes = Configurator.get(new String[]{ENV_CQRS_DEBUG_PATCH_MAX_BYTES}, Integer::parseInt,
+                                        DEFAULT_DEBUG_PATCH_MAX_BYTES);
+        if ( maxBytes <= 0 )
+            return;
+        if ( encoding != PatchEncoding.TEXT ) {
+            LOG.info("[{}] Patch: {} bytes, {}", topic, patch.size(), encoding.contentType());
+            return;
+        }
+        try (InputStream input = patch.openInputStream()) {
+            byte[] head = input.readNBytes((int) Math.min(maxBytes, patch.size()));
+            String text = new String(head, StandardCharsets.UTF_8);
+            if ( head.length < patch.size() )
+                LOG.info("[{}] Patch (first {} of {} bytes):\n{}", topic, head.length, patch.size(), text);
+            else
+                LOG.info("[{}] Patch:\n{}", topic, text);
+        } catch (IOException e) {
+            LOG.warn("Failed to read CQRS patch: {}", e.getMessage());
+        }
+    }
+
 //    private static Header kafkaHeader(String key_value) {
 //        String[] a = key_value.split(":",2);
 //        if ( a.length != 2 )
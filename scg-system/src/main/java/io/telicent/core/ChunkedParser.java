@@ -0,0 +1,188 @@
+/*
+ *  Copyright (c) Telicent Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.telicent.core;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.kafka.JenaKafkaException;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFLanguages;
+import org.apache.jena.riot.RDFParser;
+import org.apache.jena.riot.lang.LabelToNode;
+import org.apache.jena.riot.system.StreamRDFBase;
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.sparql.core.DatasetGraphFactory;
+import org.apache.jena.sparql.core.Quad;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Consumer;
+
+/**
+ * Parses large line based RDF payloads, N-Triples and N-Quads, in fixed size chunks on a worker pool.
+ * <p>
+ * The payload is split on line boundaries into chunks, at most a bounded number of which are being parsed, or parsed
+ * and not yet handed on, at once. Parsed chunks are handed on in their original order, usually straight into a single
+ * dataset for the payload. Blank node labels are scoped to the payload so that a label used in several chunks still
+ * refers to the same blank node.
+ * </p>
+ */
+public final class ChunkedParser {
+
+    private final ExecutorService parsers;
+    private final int chunkBytes;
+    private final int queueDepth;
+    private final int minBytes;
+
+    /**
+     * Creates a new parser
+     *
+     * @param parsers    Executor to parse chunks on
+     * @param chunkBytes Size of the chunks a payload is split into
+     * @param queueDepth Maximum number of chunks in flight
+     * @param minBytes   Minimum payload size for chunked parsing
+     */
+    public ChunkedParser(ExecutorService parsers, int chunkBytes, int queueDepth, int minBytes) {
+        this.parsers = Objects.requireNonNull(parsers, "parsers cannot be null");
+        if (chunkBytes < 1) {
+            throw new IllegalArgumentException("chunkBytes must be positive");
+        }
+        if (queueDepth < 1) {
+            throw new IllegalArgumentException("queueDepth must be positive");
+        }
+        this.chunkBytes = chunkBytes;
+        this.queueDepth = queueDepth;
+        this.minBytes = minBytes;
+    }
+
+    /**
+     * Gets the language to parse a payload as, if it should be parsed in chunks
+     *
+     * @param contentType Content type of the payload, may be {@code null}
+     * @param data        Payload
+     * @return Language, N-Triples or N-Quads, or {@code null} if the payload should not be parsed in chunks
+     */
+    public Lang lang(String contentType, byte[] data) {
+        if (data == null || data.length < this.minBytes || contentType == null) {
+            return null;
+        }
+        Lang lang = RDFLanguages.contentTypeToLang(contentType);
+        return (Lang.NTRIPLES.equals(lang) || Lang.NQUADS.equals(lang)) ? lang : null;
+    }
+
+    /**
+     * Parses a line based payload into a single in-memory dataset, adding each chunk's quads as soon as it is parsed
+     *
+     * @param data Payload
+     * @param lang Language, N-Triples or N-Quads
+     * @return Dataset holding every quad of the payload
+     * @throws JenaKafkaException Thrown if any chunk fails to parse
+     */
+    public DatasetGraph parse(byte[] data, Lang lang) {
+        DatasetGraph dataset = DatasetGraphFactory.create();
+        parse(data, lang, chunk -> chunk.forEach(dataset::add));
+        return dataset;
+    }
+
+    /**
+     * Parses a line based payload
+     *
+     * @param data   Payload
+     * @param lang   Language, N-Triples or N-Quads
+     * @param chunks Receives the quads of each chunk, in order, as they are parsed
+     * @throws JenaKafkaException Thrown if any chunk fails to parse
+     */
+    public void parse(byte[] data, Lang lang, Consumer<List<Quad>> chunks) {
+        String scope = UUID.randomUUID().toString();
+        Deque<CompletableFuture<List<Quad>>> inFlight = new ArrayDeque<>();
+        try {
+            for (int[] bounds : chunkBounds(data, this.chunkBytes)) {
+                if (inFlight.size() >= this.queueDepth) {
+                    // Backpressure, drain the oldest chunk before parsing any more
+                    chunks.accept(inFlight.removeFirst().join());
+                }
+                inFlight.addLast(CompletableFuture.supplyAsync(
+                        () -> parseChunk(data, bounds[0], bounds[1], lang, scope), this.parsers));
+            }
+            while (!inFlight.isEmpty()) {
+                chunks.accept(inFlight.removeFirst().join());
+            }
+        } catch (CompletionException e) {
+            inFlight.forEach(chunk -> chunk.cancel(false));
+            Throwable cause = (e.getCause() != null) ? e.getCause() : e;
+            throw new JenaKafkaException("Failed to parse " + lang.getName() + " payload: " + cause.getMessage(),
+                                         cause);
+        }
+    }
+
+    /**
+     * Splits data into chunks of roughly the given size that start and end on line boundaries
+     *
+     * @param data       Data
+     * @param chunkBytes Target chunk size
+     * @return Start (inclusive) and end (exclusive) of each chunk
+     */
+    static List<int[]> chunkBounds(byte[] data, int chunkBytes) {
+        List<int[]> bounds = new ArrayList<>();
+        int target = Math.max(1, chunkBytes);
+        int start = 0;
+        while (start < data.length) {
+            int end = Math.min(data.length, start + target);
+            while (end < data.length && data[end - 1] != '\n') {
+                end++;
+            }
+            bounds.add(new int[]{start, end});
+            start = end;
+        }
+        return bounds;
+    }
+
+    private static List<Quad> parseChunk(byte[] data, int start, int end, Lang lang, String scope) {
+        List<Quad> quads = new ArrayList<>();
+        RDFParser.source(new ByteArrayInputStream(data, start, end - start))
+                 .lang(lang)
+                 .labelToNode(LabelToNode.createUseLabelAsGiven())
+                 .parse(new StreamRDFBase() {
+                     @Override
+                     public void triple(Triple triple) {
+                         quads.add(Quad.create(Quad.defaultGraphIRI, scoped(triple.getSubject(), scope),
+                                               triple.getPredicate(), scoped(triple.getObject(), scope)));
+                     }
+
+                     @Override
+                     public void quad(Quad quad) {
+                         Node graph = (quad.getGraph() == null) ? Quad.defaultGraphIRI : quad.getGraph();
+                         quads.add(Quad.create(scoped(graph, scope), scoped(quad.getSubject(), scope),
+                                               quad.getPredicate(), scoped(quad.getObject(), scope)));
+                     }
+                 });
+        return quads;
+    }
+
+    private static Node scoped(Node node, String scope) {
+        return node.isBlank() ? NodeFactory.createBlankNode(scope + "-" + node.getBlankNodeLabel()) : node;
+    }
+}
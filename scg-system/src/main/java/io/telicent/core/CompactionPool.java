@@ -0,0 +1,195 @@
+/*
+ *  Copyright (c) Telicent Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.telicent.core;
+
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.tdb2.store.DatasetGraphSwitchable;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.*;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Runs compactions of several datasets in parallel on a bounded pool of threads, limiting how many compactions run at
+ * once against the same storage volume.
+ * <p>
+ * Compaction is dominated by disk I/O, so compacting datasets that share a volume in parallel mostly contends for the
+ * same disk. Datasets are therefore grouped by the file store their database lives on and at most the per-volume limit
+ * of each group is compacted at once, while datasets on separate volumes proceed in parallel up to the pool size.
+ * With the defaults of one thread and one compaction per volume datasets are compacted one after another, in order.
+ * </p>
+ */
+class CompactionPool implements AutoCloseable {
+
+    /**
+     * Configuration key for the maximum number of datasets compacted in parallel
+     */
+    public static final String ENV_COMPACTION_THREADS = "COMPACTION_THREADS";
+    /** Default number of datasets compacted in parallel */
+    public static final int DEFAULT_COMPACTION_THREADS = 1;
+    /**
+     * Configuration key for the maximum number of datasets on the same volume compacted in parallel
+     */
+    public static final String ENV_COMPACTION_THREADS_PER_VOLUME = "COMPACTION_THREADS_PER_VOLUME";
+    /** Default number of datasets on the same volume compacted in parallel */
+    public static final int DEFAULT_COMPACTION_THREADS_PER_VOLUME = 1;
+
+    /** Progress of a dataset that is waiting to be compacted */
+    public static final String PENDING = "PENDING";
+    /** Progress of a dataset that is being compacted */
+    public static final String RUNNING = "RUNNING";
+    /** Progress of a dataset whose compaction failed */
+    public static final String FAILED = "FAILED";
+
+    /**
+     * Outcome of compacting a dataset
+     *
+     * @param status Status, {@code null} if the compaction failed
+     * @param error  Error, {@code null} if the compaction did not fail
+     */
+    record Outcome(FMod_InitialCompaction.CompactionStatus status, Throwable error) {
+    }
+
+    private final ExecutorService executor;
+    private final int perVolume;
+    private final Function<DatasetGraph, Object> volumeOf;
+    private final Map<Object, Semaphore> volumes = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a new pool
+     *
+     * @param threads   Maximum number of datasets compacted in parallel
+     * @param perVolume Maximum number of datasets on the same volume compacted in parallel
+     */
+    CompactionPool(int threads, int perVolume) {
+        this(threads, perVolume, CompactionPool::volumeOf);
+    }
+
+    /**
+     * Creates a new pool
+     *
+     * @param threads   Maximum number of datasets compacted in parallel
+     * @param perVolume Maximum number of datasets on the same volume compacted in parallel
+     * @param volumeOf  Identifies the volume a dataset is stored on
+     */
+    CompactionPool(int threads, int perVolume, Function<DatasetGraph, Object> volumeOf) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive");
+        }
+        if (perVolume < 1) {
+            throw new IllegalArgumentException("perVolume must be positive");
+        }
+        this.perVolume = perVolume;
+        this.volumeOf = Objects.requireNonNull(volumeOf, "volumeOf cannot be null");
+        this.executor = Executors.newFixedThreadPool(threads, r -> {
+            final Thread thread = new Thread(r, "scg-compaction-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Compacts the given datasets, waiting for all of them to complete
+     *
+     * @param datasets  Datasets by name, started in iteration order
+     * @param compactor Compacts a single dataset
+     * @param progress  Notified as each dataset's compaction progresses, with {@link #PENDING}, {@link #RUNNING}, the
+     *                  name of its {@link FMod_InitialCompaction.CompactionStatus} or {@link #FAILED}
+     * @return Outcome of each dataset, in the same order as the datasets
+     */
+    Map<String, Outcome> compactAll(Map<String, DatasetGraph> datasets, Compactor compactor,
+                                    BiConsumer<String, String> progress) {
+        Map<String, Future<Outcome>> futures = new LinkedHashMap<>();
+        datasets.keySet().forEach(name -> progress.accept(name, PENDING));
+        for (Map.Entry<String, DatasetGraph> entry : datasets.entrySet()) {
+            String name = entry.getKey();
+            DatasetGraph dsg = entry.getValue();
+            Semaphore volume = this.volumes.computeIfAbsent(this.volumeOf.apply(dsg),
+                                                            v -> new Semaphore(this.perVolume, true));
+            futures.put(name, this.executor.submit(() -> {
+                volume.acquire();
+                try {
+                    progress.accept(name, RUNNING);
+                    FMod_InitialCompaction.CompactionStatus status = compactor.compact(name, dsg);
+                    progress.accept(name, status.name());
+                    return new Outcome(status, null);
+                } catch (Throwable t) {
+                    progress.accept(name, FAILED);
+                    return new Outcome(null, t);
+                } finally {
+                    volume.release();
+                }
+            }));
+        }
+
+        Map<String, Outcome> outcomes = new LinkedHashMap<>();
+        for (Map.Entry<String, Future<Outcome>> entry : futures.entrySet()) {
+            try {
+                outcomes.put(entry.getKey(), entry.getValue().get());
+            } catch (ExecutionException e) {
+                outcomes.put(entry.getKey(), new Outcome(null, e.getCause()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                outcomes.put(entry.getKey(), new Outcome(null, e));
+            }
+        }
+        return outcomes;
+    }
+
+    /**
+     * Identifies the volume a dataset's database is stored on
+     *
+     * @param dsg Dataset
+     * @return File store of a TDB2 database, otherwise the dataset itself so it is not limited by any other dataset
+     */
+    static Object volumeOf(DatasetGraph dsg) {
+        DatasetGraphSwitchable tdb = FMod_InitialCompaction.getTDB2(dsg);
+        if (tdb == null || tdb.getContainerPath() == null) {
+            return dsg;
+        }
+        try {
+            return Files.getFileStore(tdb.getContainerPath());
+        } catch (IOException e) {
+            return tdb.getContainerPath().toAbsolutePath().getRoot();
+        }
+    }
+
+    /**
+     * Compacts a single dataset
+     */
+    @FunctionalInterface
+    interface Compactor {
+        /**
+         * Compacts a dataset
+         *
+         * @param name    Dataset name
+         * @param dataset Dataset
+         * @return Compaction status
+         */
+        FMod_InitialCompaction.CompactionStatus compact(String name, DatasetGraph dataset);
+    }
+
+    @Override
+    public void close() {
+        this.executor.shutdownNow();
+    }
+}
@@ -0,0 +1,270 @@
+/*
+ *  Copyright (c) Telicent Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.telicent.core;
+
+import io.telicent.smart.cache.configuration.Configurator;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+import java.util.function.ToLongBiFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * Periodically compares the size of each TDB2 database against the size it was last compacted to and schedules a
+ * compaction of the most bloated database once it has grown beyond a threshold.
+ * <p>
+ * A database is compacted when its bloat ratio, its current size divided by its last compacted size, reaches the
+ * configured ratio. Within the optional low-traffic window a lower ratio applies, so that routine compaction happens
+ * when it is least disruptive while heavily bloated databases are still compacted outside of it. At most one database
+ * is scheduled per check, and a database is not scheduled again until the minimum interval has passed since it was
+ * last scheduled.
+ * </p>
+ */
+public class CompactionScheduler implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CompactionScheduler.class);
+
+    /**
+     * Configuration key to enable background compaction, defaults to false
+     */
+    public static final String ENV_COMPACTION_SCHEDULER = "COMPACTION_SCHEDULER";
+    /**
+     * Configuration key for the interval, in milliseconds, between checks of database sizes
+     */
+    public static final String ENV_COMPACTION_CHECK_INTERVAL_MS = "COMPACTION_CHECK_INTERVAL_MS";
+    /** Default check interval, 5 minutes */
+    public static final long DEFAULT_CHECK_INTERVAL_MS = 300_000;
+    /**
+     * Configuration key for the bloat ratio at which a database is compacted
+     */
+    public static final String ENV_COMPACTION_BLOAT_RATIO = "COMPACTION_BLOAT_RATIO";
+    /** Default bloat ratio */
+    public static final double DEFAULT_BLOAT_RATIO = 2.0;
+    /**
+     * Configuration key for the low-traffic window, in the form {@code HH:mm-HH:mm} in server local time
+     */
+    public static final String ENV_COMPACTION_WINDOW = "COMPACTION_WINDOW";
+    /**
+     * Configuration key for the bloat ratio at which a database is compacted within the low-traffic window
+     */
+    public static final String ENV_COMPACTION_WINDOW_BLOAT_RATIO = "COMPACTION_WINDOW_BLOAT_RATIO";
+    /** Default bloat ratio within the low-traffic window */
+    public static final double DEFAULT_WINDOW_BLOAT_RATIO = 1.2;
+    /**
+     * Configuration key for the minimum interval, in milliseconds, between compactions of the same database
+     */
+    public static final String ENV_COMPACTION_MIN_INTERVAL_MS = "COMPACTION_MIN_INTERVAL_MS";
+    /** Default minimum interval between compactions of a database, 6 hours */
+    public static final long DEFAULT_MIN_INTERVAL_MS = 21_600_000;
+
+    /**
+     * When a database should be compacted
+     *
+     * @param bloatRatio        Bloat ratio at which a database is compacted
+     * @param windowBloatRatio  Bloat ratio at which a database is compacted within the window
+     * @param windowStart       Start of the low-traffic window, or {@code null} if there is none
+     * @param windowEnd         End of the low-traffic window, or {@code null} if there is none
+     * @param minIntervalMillis Minimum interval between compactions of the same database
+     */
+    public record Policy(double bloatRatio, double windowBloatRatio, LocalTime windowStart, LocalTime windowEnd,
+                         long minIntervalMillis) {
+
+        /**
+         * Creates the policy from configuration
+         *
+         * @return Policy
+         */
+        public static Policy fromConfiguration() {
+            String window = Configurator.get(ENV_COMPACTION_WINDOW);
+            LocalTime start = null;
+            LocalTime end = null;
+            if (StringUtils.isNotBlank(window)) {
+                String[] parts = window.strip().split("-");
+                try {
+                    if (parts.length != 2) {
+                        throw new DateTimeParseException("Expected HH:mm-HH:mm", window, 0);
+                    }
+                    start = LocalTime.parse(parts[0].strip());
+                    end = LocalTime.parse(parts[1].strip());
+                } catch (DateTimeParseException e) {
+                    LOG.warn("[Compaction] Ignoring invalid {} of {}, expected HH:mm-HH:mm", ENV_COMPACTION_WINDOW,
+                             window);
+                    start = null;
+                    end = null;
+                }
+            }
+            return new Policy(Configurator.get(ENV_COMPACTION_BLOAT_RATIO, Double::parseDouble, DEFAULT_BLOAT_RATIO),
+                              Configurator.get(ENV_COMPACTION_WINDOW_BLOAT_RATIO, Double::parseDouble,
+                                               DEFAULT_WINDOW_BLOAT_RATIO),
+                              start, end,
+                              Configurator.get(ENV_COMPACTION_MIN_INTERVAL_MS, Long::parseLong,
+                                               DEFAULT_MIN_INTERVAL_MS));
+        }
+
+        /**
+         * Indicates whether a time is within the low-traffic window, which may span midnight
+         *
+         * @param time Time
+         * @return True if within the window
+         */
+        public boolean inWindow(LocalTime time) {
+            if (this.windowStart == null || this.windowEnd == null) {
+                return false;
+            }
+            if (this.windowStart.isBefore(this.windowEnd)) {
+                return !time.isBefore(this.windowStart) && time.isBefore(this.windowEnd);
+            }
+            return !time.isBefore(this.windowStart) || time.isBefore(this.windowEnd);
+        }
+    }
+
+    private final Supplier<Map<String, DatasetGraph>> datasets;
+    private final ToLongFunction<DatasetGraph> currentSize;
+    private final ToLongBiFunction<String, DatasetGraph> compactedSize;
+    private final BiConsumer<String, DatasetGraph> compactor;
+    private final Policy policy;
+    private final Clock clock;
+    private final Map<String, Long> firstSeenSizes = new ConcurrentHashMap<>();
+    private final Map<String, Instant> lastScheduled = new ConcurrentHashMap<>();
+    private ScheduledExecutorService executor;
+
+    /**
+     * Creates a new scheduler
+     *
+     * @param datasets      Supplies the datasets to consider, by name
+     * @param currentSize   Gives the current size on disk of a dataset, less than zero if unknown
+     * @param compactedSize Gives the size a dataset was last compacted to, less than zero if unknown
+     * @param compactor     Compacts a dataset
+     * @param policy        When to compact
+     * @param clock         Clock
+     */
+    public CompactionScheduler(Supplier<Map<String, DatasetGraph>> datasets, ToLongFunction<DatasetGraph> currentSize,
+                               ToLongBiFunction<String, DatasetGraph> compactedSize,
+                               BiConsumer<String, DatasetGraph> compactor, Policy policy, Clock clock) {
+        this.datasets = Objects.requireNonNull(datasets, "datasets cannot be null");
+        this.currentSize = Objects.requireNonNull(currentSize, "currentSize cannot be null");
+        this.compactedSize = Objects.requireNonNull(compactedSize, "compactedSize cannot be null");
+        this.compactor = Objects.requireNonNull(compactor, "compactor cannot be null");
+        this.policy = Objects.requireNonNull(policy, "policy cannot be null");
+        this.clock = Objects.requireNonNull(clock, "clock cannot be null");
+    }
+
+    /**
+     * Starts checking database sizes in the background
+     *
+     * @param checkIntervalMillis Interval between checks
+     */
+    public synchronized void start(long checkIntervalMillis) {
+        if (this.executor != null) {
+            return;
+        }
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "scg-compaction-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.executor.scheduleWithFixedDelay(() -> {
+            try {
+                check();
+            } catch (Throwable t) {
+                // Compaction is a best-effort maintenance task, keep checking
+                LOG.warn("[Compaction] Scheduled compaction check failed", t);
+            }
+        }, checkIntervalMillis, checkIntervalMillis, TimeUnit.MILLISECONDS);
+        LOG.info("[Compaction] Background compaction checking every {} ms with {}", checkIntervalMillis, this.policy);
+    }
+
+    /**
+     * Checks database sizes and schedules a compaction of the most bloated database that is due one
+     *
+     * @return Name of the dataset scheduled for compaction, if any
+     */
+    Optional<String> check() {
+        Instant now = this.clock.instant();
+        boolean inWindow = this.policy.inWindow(LocalTime.now(this.clock));
+        double threshold = inWindow ? this.policy.windowBloatRatio() : this.policy.bloatRatio();
+
+        String candidate = null;
+        DatasetGraph candidateDataset = null;
+        double candidateRatio = 0;
+        for (Map.Entry<String, DatasetGraph> entry : this.datasets.get().entrySet()) {
+            String name = entry.getKey();
+            Instant last = this.lastScheduled.get(name);
+            if (last != null && now.toEpochMilli() - last.toEpochMilli() < this.policy.minIntervalMillis()) {
+                continue;
+            }
+            double ratio = bloatRatio(name, entry.getValue());
+            if (ratio >= threshold && ratio > candidateRatio) {
+                candidate = name;
+                candidateDataset = entry.getValue();
+                candidateRatio = ratio;
+            }
+        }
+        if (candidate == null) {
+            return Optional.empty();
+        }
+
+        LOG.info("[Compaction] Scheduling compaction of {} with a bloat ratio of {}{}", candidate,
+                 String.format("%.2f", candidateRatio), inWindow ? " within the compaction window" : "");
+        this.lastScheduled.put(candidate, now);
+        this.compactor.accept(candidate, candidateDataset);
+        return Optional.of(candidate);
+    }
+
+    /**
+     * Calculates the bloat ratio of a dataset, relative to its last compacted size or, if it has never been compacted,
+     * to the size it was first seen at
+     *
+     * @param name    Dataset name
+     * @param dataset Dataset
+     * @return Bloat ratio, zero if the size is unknown
+     */
+    double bloatRatio(String name, DatasetGraph dataset) {
+        long size = this.currentSize.applyAsLong(dataset);
+        if (size <= 0) {
+            return 0;
+        }
+        long baseline = this.compactedSize.applyAsLong(name, dataset);
+        if (baseline <= 0) {
+            baseline = this.firstSeenSizes.computeIfAbsent(name, k -> size);
+        }
+        return (double) size / baseline;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (this.executor != null) {
+            this.executor.shutdownNow();
+            this.executor = null;
+        }
+    }
+}
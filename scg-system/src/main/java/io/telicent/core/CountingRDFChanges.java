@@ -0,0 +1,175 @@
+/*
+ *  Copyright (c) Telicent Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.telicent.core;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.rdfpatch.RDFChanges;
+import org.apache.jena.rdfpatch.changes.RDFChangesWrapper;
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.sparql.core.Quad;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * An {@link RDFChanges} wrapper that counts the quads added and deleted as they are written to the patch, both in total
+ * and per graph, so that update statistics are available without another pass over the buffered changes.
+ * <p>
+ * When given the dataset being changed, and the base dataset it started from, the counts are net changes to the base:
+ * adding a quad that is already present is not counted, and adding then deleting the same quad cancels out. Each change
+ * costs two index lookups, the changed quads are never collected.
+ * </p>
+ */
+public class CountingRDFChanges extends RDFChangesWrapper {
+
+    /** Key used for the default graph in the per-graph counts */
+    public static final String DEFAULT_GRAPH = "default";
+
+    /**
+     * Add and delete counts for a graph
+     */
+    public static final class Counts {
+        private long added = 0;
+        private long deleted = 0;
+
+        /**
+         * Gets the number of quads added
+         *
+         * @return Added count
+         */
+        public long added() {
+            return added;
+        }
+
+        /**
+         * Gets the number of quads deleted
+         *
+         * @return Deleted count
+         */
+        public long deleted() {
+            return deleted;
+        }
+    }
+
+    private final Counts total = new Counts();
+    private final Map<String, Counts> perGraph = new HashMap<>();
+    private final DatasetGraph current;
+    private final DatasetGraph base;
+
+    /**
+     * Creates a new counting wrapper that counts every change written
+     *
+     * @param other Changes to pass through to
+     */
+    public CountingRDFChanges(RDFChanges other) {
+        this(other, null, null);
+    }
+
+    /**
+     * Creates a new counting wrapper that counts net changes
+     *
+     * @param other   Changes to pass through to
+     * @param current Dataset the changes are being made to, each change is seen before it is applied
+     * @param base    Dataset as it was before any of the changes, {@code null} to count every change written
+     */
+    public CountingRDFChanges(RDFChanges other, DatasetGraph current, DatasetGraph base) {
+        super(other);
+        this.current = (base == null) ? null : current;
+        this.base = (current == null) ? null : base;
+    }
+
+    private Counts forGraph(Node g) {
+        String key = (g == null || Quad.isDefaultGraph(g)) ? DEFAULT_GRAPH : g.toString();
+        return perGraph.computeIfAbsent(key, k -> new Counts());
+    }
+
+    @Override
+    public void add(Node g, Node s, Node p, Node o) {
+        if (base == null) {
+            count(g, 1, 0);
+        } else {
+            Node graph = (g == null) ? Quad.defaultGraphIRI : g;
+            if (!current.contains(graph, s, p, o)) {
+                // Restoring a quad deleted earlier in the update undoes that delete
+                if (base.contains(graph, s, p, o)) {
+                    count(g, 0, -1);
+                } else {
+                    count(g, 1, 0);
+                }
+            }
+        }
+        super.add(g, s, p, o);
+    }
+
+    @Override
+    public void delete(Node g, Node s, Node p, Node o) {
+        if (base == null) {
+            count(g, 0, 1);
+        } else {
+            Node graph = (g == null) ? Quad.defaultGraphIRI : g;
+            if (current.contains(graph, s, p, o)) {
+                // Deleting a quad added earlier in the update undoes that add
+                if (base.contains(graph, s, p, o)) {
+                    count(g, 0, 1);
+                } else {
+                    count(g, -1, 0);
+                }
+            }
+        }
+        super.delete(g, s, p, o);
+    }
+
+    private void count(Node g, int added, int deleted) {
+        total.added += added;
+        total.deleted += deleted;
+        Counts graph = forGraph(g);
+        graph.added += added;
+        graph.deleted += deleted;
+    }
+
+    /**
+     * Gets the number of quads added across all graphs
+     *
+     * @return Added count
+     */
+    public long added() {
+        return total.added;
+    }
+
+    /**
+     * Gets the number of quads deleted across all graphs
+     *
+     * @return Deleted count
+     */
+    public long deleted() {
+        return total.deleted;
+    }
+
+    /**
+     * Gets the counts for each graph that was changed, keyed by graph name or {@link #DEFAULT_GRAPH}, graphs whose
+     * changes cancelled out are omitted
+     *
+     * @return Per-graph counts
+     */
+    public Map<String, Counts> perGraph() {
+        return perGraph.entrySet()
+                       .stream()
+                       .filter(e -> e.getValue().added != 0 || e.getValue().deleted != 0)
+                       .collect(Collectors.toUnmodifiableMap(Map.Entry::getKey, Map.Entry::getValue));
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ *  Copyright (c) Telicent Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.telicent.core;
+
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.metrics.Meter;
+import io.opentelemetry.api.metrics.ObservableDoubleGauge;
+import io.telicent.otel.CqrsMetrics;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Pool of Kafka producers used by CQRS update endpoints.
+ * <p>
+ * Endpoints whose effective producer configuration is identical, i.e. they talk to the same cluster with the same
+ * settings, share a single producer so that their records are batched together. Throughput orientated defaults from
+ * {@link #PRODUCER_DEFAULTS} are applied to any setting that is not explicitly configured.
+ * </p>
+ */
+public class CqrsProducerPool implements AutoCloseable {
+
+    /**
+     * Producer settings applied unless explicitly configured, idempotent delivery with a small linger so concurrent
+     * updates are batched. The linger adds up to 5 ms to every send, so it is only used when updates can send
+     * concurrently, see {@link CQRS#producerProperties(Properties, CQRS.Options)}.
+     */
+    public static final Map<String, String> PRODUCER_DEFAULTS =
+            Map.of(ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG, "true",
+                   ProducerConfig.ACKS_CONFIG, "all",
+                   ProducerConfig.MAX_IN_FLIGHT_REQUESTS_PER_CONNECTION, "5",
+                   ProducerConfig.LINGER_MS_CONFIG, "5",
+                   ProducerConfig.BATCH_SIZE_CONFIG, Integer.toString(64 * 1024));
+
+    private final Function<Properties, Producer<String, byte[]>> factory;
+    private final Map<Map<Object, Object>, PooledProducer> producers = new LinkedHashMap<>();
+
+    private record PooledProducer(String clientId, Producer<String, byte[]> producer,
+                                  List<ObservableDoubleGauge> gauges) {}
+
+    /**
+     * Creates a pool of real Kafka producers
+     */
+    public CqrsProducerPool() {
+        this(props -> new KafkaProducer<>(props, new StringSerializer(), new ByteArraySerializer()));
+    }
+
+    /**
+     * Creates a pool with a custom producer factory, primarily intended for testing
+     *
+     * @param factory Producer factory
+     */
+    CqrsProducerPool(Function<Properties, Producer<String, byte[]>> factory) {
+        this.factory = Objects.requireNonNull(factory, "factory cannot be null");
+    }
+
+    /**
+     * Selects the settings from a Kafka connector's consumer properties that apply to a producer for the same cluster,
+     * i.e. the bootstrap servers, security settings and other settings that producers recognise.
+     * <p>
+     * Consumer specific settings, such as the group ID, and the connector's client ID are dropped so that they neither
+     * leak into the producer nor stop endpoints for different connectors to the same cluster sharing a producer.
+     * </p>
+     *
+     * @param consumerProperties Connector consumer properties
+     * @return Producer relevant properties
+     */
+    public static Properties producerSettings(Properties consumerProperties) {
+        Set<String> producerConfigs = ProducerConfig.configNames();
+        Properties settings = new Properties();
+        consumerProperties.forEach((key, value) -> {
+            String name = key.toString();
+            if (name.equals(ProducerConfig.CLIENT_ID_CONFIG)) {
+                return;
+            }
+            if (producerConfigs.contains(name) || name.startsWith("security.") || name.startsWith("sasl.")
+                    || name.startsWith("ssl.")) {
+                settings.put(key, value);
+            }
+        });
+        return settings;
+    }
+
+    /**
+     * Applies the pool defaults to a copy of the given properties, explicitly configured values are kept
+     *
+     * @param properties Configured producer properties
+     * @return Effective producer properties
+     */
+    public static Properties withDefaults(Properties properties) {
+        Properties effective = new Properties();
+        effective.putAll(properties);
+        if (!supportsIdempotence(effective)) {
+            // Explicit settings are incompatible with idempotence, so leave Kafka to decide rather than failing
+            CQRS.LOG.warn("CQRS producer configuration is incompatible with idempotent delivery, not enabling it");
+            effective.putIfAbsent(ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG, "false");
+        }
+        PRODUCER_DEFAULTS.forEach(effective::putIfAbsent);
+        return effective;
+    }
+
+    private static boolean supportsIdempotence(Properties properties) {
+        String acks = Objects.toString(properties.get(ProducerConfig.ACKS_CONFIG), "all").trim();
+        if (!acks.equals("all") && !acks.equals("-1")) {
+            return false;
+        }
+        Object inFlight = properties.get(ProducerConfig.MAX_IN_FLIGHT_REQUESTS_PER_CONNECTION);
+        try {
+            return inFlight == null || Integer.parseInt(inFlight.toString().trim()) <= 5;
+        } catch (NumberFormatException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Gets the shared producer for the given configuration, creating it if necessary
+     *
+     * @param properties Producer properties, pool defaults are applied to these
+     * @return Producer
+     */
+    public synchronized Producer<String, byte[]> acquire(Properties properties) {
+        Properties effective = withDefaults(properties);
+        Map<Object, Object> key = new HashMap<>(effective);
+        PooledProducer pooled = producers.get(key);
+        if (pooled == null) {
+            String clientId = effective.getProperty(ProducerConfig.CLIENT_ID_CONFIG,
+                                                    "scg-cqrs-" + (producers.size() + 1));
+            effective.putIfAbsent(ProducerConfig.CLIENT_ID_CONFIG, clientId);
+            Producer<String, byte[]> producer = factory.apply(effective);
+            pooled = new PooledProducer(clientId, producer, registerMetrics(clientId, producer));
+            producers.put(key, pooled);
+            CQRS.LOG.info("Created CQRS Kafka producer {} for {}", clientId,
+                          effective.getProperty(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG));
+        }
+        return pooled.producer();
+    }
+
+    /**
+     * Gets the number of distinct producers in the pool
+     *
+     * @return Number of producers
+     */
+    public synchronized int size() {
+        return producers.size();
+    }
+
+    private static List<ObservableDoubleGauge> registerMetrics(String clientId, Producer<String, byte[]> producer) {
+        Meter meter = CqrsMetrics.meter();
+        Attributes attributes = Attributes.of(CqrsMetrics.KAFKA_CLIENT_ID, clientId);
+        return List.of(meter.gaugeBuilder(CqrsMetrics.PRODUCER_BATCH_SIZE)
+                            .setUnit("bytes")
+                            .buildWithCallback(m -> m.record(producerMetric(producer, "batch-size-avg"),
+                                                             attributes)),
+                       meter.gaugeBuilder(CqrsMetrics.PRODUCER_RECORDS_PER_REQUEST)
+                            .buildWithCallback(m -> m.record(producerMetric(producer, "records-per-request-avg"),
+                                                             attributes)));
+    }
+
+    /**
+     * Reads a producer level metric from the Kafka producer's own metrics
+     *
+     * @param producer Producer
+     * @param name     Metric name within the {@code producer-metrics} group
+     * @return Metric value, or zero if not available
+     */
+    static double producerMetric(Producer<?, ?> producer, String name) {
+        for (Map.Entry<MetricName, ? extends Metric> entry : producer.metrics().entrySet()) {
+            MetricName metricName = entry.getKey();
+            if ("producer-metrics".equals(metricName.group()) && name.equals(metricName.name())) {
+                Object value = entry.getValue().metricValue();
+                if (value instanceof Number number && Double.isFinite(number.doubleValue())) {
+                    return number.doubleValue();
+                }
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Flushes and closes all producers in the pool
+     */
+    @Override
+    public synchronized void close() {
+        producers.values().forEach(pooled -> {
+            try {
+                CQRS.LOG.info("Closing CQRS Kafka producer {}", pooled.clientId());
+                pooled.gauges().forEach(ObservableDoubleGauge::close);
+                pooled.producer().flush();
+                pooled.producer().close(Duration.ofSeconds(10));
+                CQRS.LOG.info("Closed CQRS Kafka producer {} successfully", pooled.clientId());
+            } catch (Throwable e) {
+                CQRS.LOG.warn("Error closing CQRS Kafka producer {}", pooled.clientId(), e);
+            }
+        });
+        producers.clear();
+    }
+}
@@ -15,19 +15,29 @@ public final class DatasetMaintenanceRegistry {
             new ConcurrentHashMap<>();
 
     public enum MaintenanceOperation {
-        COMPACTION("compaction"),
-        BACKUP("backup"),
-        RESTORE("restore");
+        COMPACTION("compaction", true),
+        ONLINE_COMPACTION("online compaction", false),
+        BACKUP("backup", true),
+        RESTORE("restore", true);
 
         private final String displayName;
+        private final boolean blocksRequests;
 
-        MaintenanceOperation(String displayName) {
+        MaintenanceOperation(String displayName, boolean blocksRequests) {
             this.displayName = displayName;
+            this.blocksRequests = blocksRequests;
         }
 
         public String displayName() {
             return displayName;
         }
+
+        /**
+         * Whether requests to the dataset must be rejected while this operation is in progress
+         */
+        public boolean blocksRequests() {
+            return blocksRequests;
+        }
     }
 
     public record MaintenanceIndicator(MaintenanceOperation operation,
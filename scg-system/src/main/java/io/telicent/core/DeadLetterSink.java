@@ -0,0 +1,122 @@
+/*
+ *  Copyright (c) Telicent Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.telicent.core;
+
+import io.telicent.smart.cache.payloads.RdfPayload;
+import io.telicent.smart.cache.projectors.Sink;
+import io.telicent.smart.cache.sources.Event;
+import io.telicent.smart.cache.sources.kafka.KafkaEvent;
+import org.apache.jena.rdfpatch.PatchException;
+import org.apache.jena.riot.RiotException;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.utils.Bytes;
+
+import java.util.Objects;
+
+/**
+ * A sink that quarantines Kafka records that cannot be applied, rather than letting them stop the connector, so that
+ * later records continue to be applied.
+ * <p>
+ * A record is quarantined if its value is larger than the configured maximum, in which case it is never applied, or if
+ * applying it fails because its payload cannot be parsed. Payloads are parsed in full before any of their content is
+ * applied, including those parsed in chunks by {@link ParallelParsingSink}, so a record that fails to parse has made
+ * no changes to the dataset. Any other failure may have happened part way through applying the record, so is
+ * propagated as before, stopping the connector, rather than risking a partially applied record. Likewise if an earlier
+ * record could not be quarantined the failure is raised before any further records are applied.
+ * </p>
+ */
+public class DeadLetterSink implements Sink<Event<Bytes, RdfPayload>> {
+
+    /**
+     * Configuration key for the maximum size, in bytes, of a record value that will be applied, larger records are
+     * quarantined, zero, the default, for no limit
+     */
+    public static final String ENV_INGEST_MAX_RECORD_BYTES = "INGEST_MAX_RECORD_BYTES";
+
+    private final Sink<Event<Bytes, RdfPayload>> destination;
+    private final IngestQuarantine quarantine;
+    private final long maxRecordBytes;
+
+    /**
+     * Creates a new sink
+     *
+     * @param destination    Destination that applies events
+     * @param quarantine     Quarantine for records that cannot be applied
+     * @param maxRecordBytes Maximum size of a record value, zero or less for no limit
+     */
+    public DeadLetterSink(Sink<Event<Bytes, RdfPayload>> destination, IngestQuarantine quarantine,
+                          long maxRecordBytes) {
+        this.destination = Objects.requireNonNull(destination, "destination cannot be null");
+        this.quarantine = Objects.requireNonNull(quarantine, "quarantine cannot be null");
+        this.maxRecordBytes = maxRecordBytes;
+    }
+
+    @Override
+    public void send(Event<Bytes, RdfPayload> event) {
+        this.quarantine.checkFailures();
+        if (!(event instanceof KafkaEvent<Bytes, RdfPayload> kafkaEvent)) {
+            this.destination.send(event);
+            return;
+        }
+        ConsumerRecord<Bytes, RdfPayload> record = kafkaEvent.getConsumerRecord();
+        // Capture the original value now as applying the event may replace it with the parsed form
+        byte[] value = rawValue(event);
+        if (this.maxRecordBytes > 0 && record.serializedValueSize() > this.maxRecordBytes) {
+            this.quarantine.quarantine(record, value,
+                                       "Record of " + record.serializedValueSize() + " bytes exceeds the maximum of "
+                                       + this.maxRecordBytes + " bytes");
+            return;
+        }
+        try {
+            this.destination.send(event);
+        } catch (RuntimeException e) {
+            Throwable parseFailure = parseFailure(e);
+            if (parseFailure == null) {
+                throw e;
+            }
+            this.quarantine.quarantine(record, value, "Failed to parse payload: " + parseFailure.getMessage());
+        }
+    }
+
+    private static byte[] rawValue(Event<Bytes, RdfPayload> event) {
+        RdfPayload payload = event.value();
+        return (payload == null || payload.isReady()) ? null : payload.getRawData();
+    }
+
+    /**
+     * Finds the parse failure, if any, that caused an error
+     *
+     * @param error Error
+     * @return Parse failure, or {@code null} if the error was not caused by a parse failure
+     */
+    static Throwable parseFailure(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof RiotException || cause instanceof PatchException) {
+                return cause;
+            }
+            if (cause.getCause() == cause) {
+                break;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void close() {
+        this.destination.close();
+    }
+}
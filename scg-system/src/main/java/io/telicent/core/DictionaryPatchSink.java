@@ -0,0 +1,59 @@
+/*
+ *  Copyright (c) Telicent Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.telicent.core;
+
+import io.telicent.smart.cache.payloads.RdfPayload;
+import io.telicent.smart.cache.projectors.Sink;
+import io.telicent.smart.cache.sources.Event;
+import org.apache.jena.riot.web.HttpNames;
+import org.apache.kafka.common.utils.Bytes;
+
+import java.util.Objects;
+
+/**
+ * A sink that decodes RDF Patches sent in the dictionary encoding, see {@link RDFChangesWriterDictionary}, before
+ * passing them on to the sink that applies them to the dataset. All other payloads are passed through unchanged.
+ */
+public class DictionaryPatchSink implements Sink<Event<Bytes, RdfPayload>> {
+
+    private final Sink<Event<Bytes, RdfPayload>> destination;
+
+    /**
+     * Creates a new sink
+     *
+     * @param destination Destination that applies the decoded patches
+     */
+    public DictionaryPatchSink(Sink<Event<Bytes, RdfPayload>> destination) {
+        this.destination = Objects.requireNonNull(destination, "destination cannot be null");
+    }
+
+    @Override
+    public void send(Event<Bytes, RdfPayload> event) {
+        RdfPayload payload = event.value();
+        if (payload == null || payload.isReady()
+                || !RDFChangesWriterDictionary.CONTENT_TYPE.equals(event.lastHeader(HttpNames.hContentType))) {
+            this.destination.send(event);
+            return;
+        }
+        this.destination.send(event.replaceValue(RdfPayload.of(RDFPatchReaderDictionary.read(payload.getRawData()))));
+    }
+
+    @Override
+    public void close() {
+        this.destination.close();
+    }
+}
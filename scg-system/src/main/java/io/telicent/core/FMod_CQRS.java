@@ -18,11 +18,11 @@ package io.telicent.core;
 
 import static io.telicent.core.CQRS.symKafkaTopic;
 
-import java.time.Duration;
 import java.util.*;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 
-import org.apache.jena.atlas.lib.Pair;
 import org.apache.jena.atlas.lib.Version;
 import org.apache.jena.atlas.logging.FmtLog;
 import org.apache.jena.fuseki.Fuseki;
@@ -39,7 +39,7 @@ import org.apache.jena.rdf.model.Model;
 import org.apache.jena.riot.WebContent;
 import org.apache.jena.sparql.algebra.Op;
 import org.apache.jena.sparql.util.Context;
-import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.jena.sparql.util.Symbol;
 import org.apache.kafka.clients.producer.Producer;
 import org.slf4j.Logger;
 
@@ -55,7 +55,15 @@ public class FMod_CQRS implements FusekiModule {
      */
     private static final String VERSION = Version.versionForClass(FMod_CQRS.class).orElse("<development>");
 
-    private final List<Pair<String, Producer<?, ?>>> producers = new CopyOnWriteArrayList<>();
+    /**
+     * Prefix for endpoint context settings that override Kafka producer properties for that endpoint, e.g.
+     * {@code kafka:producer.linger.ms}
+     */
+    public static final String PRODUCER_CONTEXT_PREFIX = "kafka:producer.";
+
+    private final CqrsProducerPool producerPool = new CqrsProducerPool();
+    private final List<PatchGroupCommitter> groupCommitters = new CopyOnWriteArrayList<>();
+    private ScheduledExecutorService groupCommitScheduler;
 
     private static ActionService placeholder = new ActionService() {
         @Override
@@ -126,40 +134,85 @@ public class FMod_CQRS implements FusekiModule {
                             "Empty string for topic name for " + symKafkaTopic + " on CQRS update operation");
                 }
 
-                KConnectorDesc conn = FKRegistry.get().getConnectorDescriptor(topicName);
-                // NB - It's safe to just pass the same set of Consumer Properties to the Producer, it will simply
-                //      ignore the properties that are consumer specific
-                //      If we don't pass these in as-in any extra configuration a user has provided, e.g. for Kafka
-                //      Authentication/Authorization, these won't be propagated and the producer will be stuck in a
-                //      failure loop
-                ActionService cqrsUpdate = CQRS.updateAction(topicName, conn.getKafkaConsumerProps());
-                endpoint.setProcessor(cqrsUpdate);
-
-                // Register the created Kafka producer in our ThreadLocal so we can later ensure that we flush and close
-                // the producers upon server stop
-                if (cqrsUpdate instanceof SPARQL_Update_CQRS cqrsAction) {
-                    producers.add(Pair.create(topicName, cqrsAction.getProducer()));
+                KConnectorDesc conn = connectorFor(dap, topicName);
+                // NB - The producer settings from the Consumer Properties, e.g. for Kafka Authentication/Authorization,
+                //      must be passed on otherwise the producer will be stuck in a failure loop.  Consumer specific
+                //      settings are dropped so that endpoints for different connectors to the same cluster have the
+                //      same effective producer configuration, and so share a pooled producer, which is flushed and
+                //      closed upon server stop
+                CQRS.Options options;
+                try {
+                    options = CQRS.Options.fromConfiguration();
+                } catch (IllegalArgumentException e) {
+                    throw new FusekiConfigException("Invalid CQRS configuration: " + e.getMessage());
+                }
+                Properties producerProperties = new Properties();
+                producerProperties.putAll(CqrsProducerPool.producerSettings(conn.getKafkaConsumerProps()));
+                producerProperties.putAll(producerOverrides(endpoint.getContext()));
+                Producer<String, byte[]> producer =
+                        producerPool.acquire(CQRS.producerProperties(producerProperties, options));
+                // Committers share a single scheduler and are closed with the server
+                PatchGroupCommitter groupCommitter = null;
+                if (options.isGroupCommit()) {
+                    groupCommitter = new PatchGroupCommitter(producer, topicName, options, groupCommitScheduler());
+                    groupCommitters.add(groupCommitter);
                 }
+                // Updates waiting to be applied only listen to the connector that applies this dataset
+                AppliedOffsetRegistry appliedOffsets =
+                        AppliedOffsetRegistry.forConsumerGroup(conn.getConsumerGroupId());
+                ActionService cqrsUpdate =
+                        CQRS.updateActionWithProducer(topicName, producer, options, groupCommitter, appliedOffsets);
+                endpoint.setProcessor(cqrsUpdate);
             }
         });
     }
 
     @Override
     public void serverStopped(FusekiServer server) {
+        // Send any patches still waiting in a group commit window before the producers are closed
+        groupCommitters.forEach(PatchGroupCommitter::close);
+        groupCommitters.clear();
+        synchronized (this) {
+            if (groupCommitScheduler != null) {
+                groupCommitScheduler.shutdown();
+                groupCommitScheduler = null;
+            }
+        }
         // Ensure that any active producers are explicitly flushed and closed upon server stop
-        producers.forEach(pair -> {
-            String topic = pair.getLeft();
-            Producer<?,?> producer = pair.getRight();
-            try {
-                LOG.info("Closing Kafka Producer for topic {}", topic);
-                producer.flush();
-                producer.close(Duration.ofSeconds(10));
-                LOG.info("Closed Kafka Producer for topic {} successfully", topic);
-            } catch (Throwable e) {
-                LOG.warn("Error closing Kafka Producer for topic {}", topic, e);
+        producerPool.close();
+    }
+
+    private synchronized ScheduledExecutorService groupCommitScheduler() {
+        if (groupCommitScheduler == null) {
+            groupCommitScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "scg-cqrs-group-commit");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return groupCommitScheduler;
+    }
+
+    /**
+     * Finds the connector that reads a topic into a dataset, falling back to the connector registered for the topic
+     *
+     * @param dap       Data access point
+     * @param topicName Topic
+     * @return Connector
+     */
+    private static KConnectorDesc connectorFor(DataAccessPoint dap, String topicName) {
+        Collection<KConnectorDesc> registered = FKRegistry.get().getConnectors();
+        if (registered != null) {
+            for (KConnectorDesc connector : registered) {
+                // The connector may name the dataset, or an endpoint of it
+                String dataset = DataAccessPoint.canonical(connector.getDatasetName());
+                if (connector.getTopics().contains(topicName)
+                    && (dataset.equals(dap.getName()) || dataset.startsWith(dap.getName() + "/"))) {
+                    return connector;
+                }
             }
-        });
-        producers.clear();
+        }
+        return FKRegistry.get().getConnectorDescriptor(topicName);
     }
 
     private String endpointName(DataAccessPoint dap, Endpoint endpoint) {
@@ -169,6 +222,26 @@ public class FMod_CQRS implements FusekiModule {
         return dap.getName() + "/" + endpoint.getName();
     }
 
+    /**
+     * Finds any per-endpoint producer property overrides in the endpoint context
+     *
+     * @param context Endpoint context
+     * @return Producer properties
+     */
+    static Properties producerOverrides(Context context) {
+        Properties overrides = new Properties();
+        if (context == null) {
+            return overrides;
+        }
+        for (Symbol symbol : context.keys()) {
+            String name = symbol.getSymbol();
+            if (name.startsWith(PRODUCER_CONTEXT_PREFIX) && name.length() > PRODUCER_CONTEXT_PREFIX.length()) {
+                overrides.put(name.substring(PRODUCER_CONTEXT_PREFIX.length()), context.getAsString(symbol));
+            }
+        }
+        return overrides;
+    }
+
     private static String getTopicFromContext(Context context) {
         if (context == null) {
             return null;
@@ -122,7 +122,8 @@ public class FMod_DatasetAvailabilityFilter implements FusekiModule {
             DatasetGraphSwitchable dataset = datasetForPath(request.getRequestURI(), datasetNames, datasetsByPath)
                     .orElse(null);
             Optional<DatasetMaintenanceRegistry.MaintenanceIndicator> maintenance =
-                    dataset == null ? Optional.empty() : DatasetMaintenanceRegistry.findCurrentMaintenance(dataset);
+                    dataset == null ? Optional.empty() : DatasetMaintenanceRegistry.findCurrentMaintenance(dataset)
+                            .filter(indicator -> indicator.operation().blocksRequests());
             if (datasetName.isPresent() && maintenance.isPresent()) {
                 response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
                 response.setContentType("application/json");
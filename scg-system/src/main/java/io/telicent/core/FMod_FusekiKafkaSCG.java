@@ -18,7 +18,10 @@ package io.telicent.core;
 
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.telicent.backup.services.BulkRestore;
 import io.telicent.backup.services.DatasetBackupService;
+import io.telicent.backup.services.IngestJournal;
+import io.telicent.otel.FMod_OpenTelemetry;
 import io.telicent.smart.cache.configuration.Configurator;
 import io.telicent.smart.cache.payloads.RdfPayload;
 import io.telicent.smart.cache.projectors.Sink;
@@ -26,12 +29,15 @@ import io.telicent.smart.cache.security.data.distribution.DistributionLifecycleS
 import io.telicent.smart.cache.security.data.plugins.DataSecurityPlugin;
 import io.telicent.smart.cache.security.data.plugins.DataSecurityPluginLoader;
 import io.telicent.smart.cache.sources.Event;
+import io.telicent.smart.cache.sources.kafka.KafkaEventSource;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.jena.atlas.io.IOX;
+import org.apache.jena.fuseki.kafka.FKRegistry;
 import org.apache.jena.fuseki.kafka.FKS;
 import org.apache.jena.fuseki.kafka.FMod_FusekiKafka;
 import org.apache.jena.fuseki.main.FusekiServer;
 import org.apache.jena.fuseki.server.DataAccessPoint;
+import org.apache.jena.fuseki.server.DataAccessPointRegistry;
 import org.apache.jena.fuseki.server.DataService;
 import org.apache.jena.fuseki.server.Endpoint;
 import org.apache.jena.kafka.KConnectorDesc;
@@ -40,12 +46,27 @@ import org.apache.jena.kafka.common.FusekiOffsetStore;
 import org.apache.jena.kafka.common.FusekiSink;
 import org.apache.jena.rdf.model.Model;
 import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.system.Txn;
+import org.apache.jena.tdb2.store.DatasetGraphSwitchable;
+import org.apache.kafka.clients.admin.Admin;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
 import org.apache.kafka.common.utils.Bytes;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
 import static io.telicent.backup.services.DatasetBackupService.sanitiseName;
 import static io.telicent.backup.utils.JsonFileUtils.OBJECT_MAPPER;
@@ -67,10 +88,98 @@ public class FMod_FusekiKafkaSCG extends FMod_FusekiKafka {
 
     Map<String, KConnectorDesc> connectors = new HashMap<>();
 
+    // Shared by the sinks of all datasets, and the parse ahead interceptor, created only when parallel parsing is
+    // enabled
+    private ExecutorService parsers;
+    private ChunkedParser chunkedParser;
+
+    private final List<IngestLagMonitor> lagMonitors = new ArrayList<>();
+    // Admin clients used by the lag monitors, one per cluster, created on first use
+    private final Map<Properties, Admin> lagAdmins = new HashMap<>();
+
+    // Created only when a dead letter topic or quarantine directory is configured
+    private IngestQuarantine quarantine;
+
+    // Used to find the connector, and so the consumer group, that applies records to a dataset
+    private volatile DataAccessPointRegistry dataAccessPoints;
+
     @Override
     public void prepare(FusekiServer.Builder builder, Set<String> names, Model configModel) {
         super.prepare(builder, names, configModel);
+        // Offsets are only applied, and visible to CQRS updates waiting on them, once the connector commits them
+        Collection<KConnectorDesc> registered = FKRegistry.get().getConnectors();
+        if (registered != null) {
+            registered.forEach(connector -> AppliedOffsetInterceptor.install(connector.getKafkaConsumerProps()));
+        }
+        // Batches are bounded through the connector's polling, never by committing the connector's transaction
+        final boolean batchTiming = Configurator.get(BatchTimingSink.ENV_INGEST_BATCH_TIMING,
+                                                     Boolean::parseBoolean, false);
+        if (registered != null && batchTiming) {
+            final int maxBatchRecords = Configurator.get(new String[]{BatchTimingSink.ENV_INGEST_MAX_BATCH_RECORDS},
+                                                         Integer::parseInt, BatchTimingSink.DEFAULT_MAX_BATCH_RECORDS);
+            registered.forEach(connector -> BatchTimingSink.limitPollRecords(connector.getKafkaConsumerProps(),
+                                                                             maxBatchRecords));
+        }
+        // Large payloads are parsed as they are polled, before the connector's write transaction begins, each
+        // connector's consumer group parsing within its own memory limit
+        final ChunkedParser parser = chunkedParser();
+        if (parser != null && registered != null) {
+            final long parseAheadMaxBytes = Configurator.get(ParallelParsingSink.ENV_INGEST_PARSE_AHEAD_MAX_BYTES,
+                                                             Long::parseLong,
+                                                             ParallelParsingSink.DEFAULT_PARSE_AHEAD_MAX_BYTES);
+            registered.forEach(connector -> {
+                ParseAheadBuffer.forConsumerGroup(connector.getConsumerGroupId()).enable(parser, parseAheadMaxBytes);
+                ParseAheadInterceptor.install(connector.getKafkaConsumerProps());
+            });
+        }
         DatasetBackupService.registerMethods("kafka", this::backupKafka, this::restoreKafka);
+        this.quarantine = createQuarantine();
+        if (this.quarantine != null) {
+            builder.addServlet("/$/ingest/quarantine", new IngestQuarantineServlet(this.quarantine));
+        }
+    }
+
+    @Override
+    public void configured(FusekiServer.Builder serverBuilder, DataAccessPointRegistry dapRegistry,
+                           Model configModel) {
+        super.configured(serverBuilder, dapRegistry, configModel);
+        this.dataAccessPoints = dapRegistry;
+    }
+
+    private static IngestQuarantine createQuarantine() {
+        final String dlqTopic = Configurator.get(IngestQuarantine.ENV_INGEST_DLQ_TOPIC);
+        final String quarantineDir = Configurator.get(IngestQuarantine.ENV_INGEST_QUARANTINE_DIR);
+        if (StringUtils.isBlank(dlqTopic) && StringUtils.isBlank(quarantineDir)) {
+            return null;
+        }
+        final int history = Configurator.get(new String[]{IngestQuarantine.ENV_INGEST_QUARANTINE_HISTORY},
+                                             Integer::parseInt, IngestQuarantine.DEFAULT_QUARANTINE_HISTORY);
+        final int maxInFlight = Configurator.get(new String[]{IngestQuarantine.ENV_INGEST_DLQ_MAX_IN_FLIGHT},
+                                                 Integer::parseInt, IngestQuarantine.DEFAULT_DLQ_MAX_IN_FLIGHT);
+        return new IngestQuarantine(dlqTopic, StringUtils.isBlank(quarantineDir) ? null : Path.of(quarantineDir),
+                                    history, maxInFlight, FMod_FusekiKafkaSCG::producerConnectionFor,
+                                    KafkaProducer::new);
+    }
+
+    /**
+     * Gets the connection properties of the connector that reads from a topic
+     *
+     * @param topic Topic
+     * @return Connection properties, or {@code null} if no connector reads from the topic
+     */
+    private static Properties producerConnectionFor(String topic) {
+        Collection<KConnectorDesc> registered = FKRegistry.get().getConnectors();
+        if (registered == null) {
+            return null;
+        }
+        for (KConnectorDesc connector : registered) {
+            if (connector.getTopics().contains(topic) && StringUtils.isNotBlank(connector.getBootstrapServers())) {
+                Properties properties = FMod_DistributionLifecycle.connectionProperties(connector);
+                properties.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, connector.getBootstrapServers());
+                return properties;
+            }
+        }
+        return null;
     }
 
     @Override
@@ -81,18 +190,277 @@ public class FMod_FusekiKafkaSCG extends FMod_FusekiKafka {
         final DistributionLifecycleStateFile lifecycleStateFile =
                 routeToNamedGraphs && StringUtils.isNotBlank(lifecycleStateFileName) ?
                 new DistributionLifecycleStateFile(Path.of(lifecycleStateFileName), applicationId) : null;
+        final ChunkedParser parser = chunkedParser();
+        final boolean batchTiming = Configurator.get(BatchTimingSink.ENV_INGEST_BATCH_TIMING,
+                                                     Boolean::parseBoolean, false);
+        final long targetCommitMillis = Configurator.get(BatchTimingSink.ENV_INGEST_TARGET_COMMIT_MS,
+                                                         Long::parseLong, BatchTimingSink.DEFAULT_TARGET_COMMIT_MS);
+        final int minBatchRecords = Configurator.get(new String[]{BatchTimingSink.ENV_INGEST_MIN_BATCH_RECORDS},
+                                                     Integer::parseInt, BatchTimingSink.DEFAULT_MIN_BATCH_RECORDS);
+        final int maxBatchRecords = Configurator.get(new String[]{BatchTimingSink.ENV_INGEST_MAX_BATCH_RECORDS},
+                                                     Integer::parseInt, BatchTimingSink.DEFAULT_MAX_BATCH_RECORDS);
+        final boolean offsetCheckpoint = Configurator.get(OffsetCheckpointSink.ENV_INGEST_OFFSET_CHECKPOINT,
+                                                          Boolean::parseBoolean, false);
+        final long maxRecordBytes = Configurator.get(DeadLetterSink.ENV_INGEST_MAX_RECORD_BYTES, Long::parseLong, 0L);
         return dsg -> {
             final DataSecurityPlugin dataSecurityPlugin = DataSecurityPluginLoader.load();
-            final Optional<FusekiSink<?>> fusekiSink = dataSecurityPlugin.prepareFusekiSink(dsg, routeToNamedGraphs, lifecycleStateFile);
-            if (fusekiSink.isPresent()) {
-                return fusekiSink.get();
-            } else {
+            // Offsets are tracked per consumer group so connectors reading the same topic into other datasets never
+            // signal this dataset's waiting updates
+            final String consumerGroup = consumerGroupFor(dsg);
+            final AppliedOffsetRegistry appliedOffsets = AppliedOffsetRegistry.forConsumerGroup(consumerGroup);
+            final Supplier<Sink<Event<Bytes, RdfPayload>>> applySink = () -> {
+                final Optional<FusekiSink<?>> fusekiSink =
+                        dataSecurityPlugin.prepareFusekiSink(dsg, routeToNamedGraphs, lifecycleStateFile);
                 // For non-ABAC datasets use the default Fuseki Kafka sink
-                return FusekiSink.builder().dataset(dsg).build();
+                return fusekiSink.isPresent() ? fusekiSink.get() : FusekiSink.builder().dataset(dsg).build();
+            };
+            Sink<Event<Bytes, RdfPayload>> sink = applySink.get();
+            if (parser != null) {
+                sink = new ParallelParsingSink(sink, parser, ParseAheadBuffer.forConsumerGroup(consumerGroup));
+            }
+            // Binary CQRS patches are dictionary encoded, and large patches are split across records
+            sink = new PatchPartsSink(new DictionaryPatchSink(sink));
+            sink = new IngestMetricsSink(sink);
+            // Journal applied records for incremental backups, quarantined records are not applied so not journaled
+            final IngestJournal journal = IngestJournal.forDataset(dsg).orElse(null);
+            if (journal != null) {
+                // Restores replay journaled records straight into the dataset, within the restore's transaction, not
+                // through the ingest pipeline with its metrics, quarantine and offset tracking
+                journal.setReplayTarget(new PatchPartsSink(new DictionaryPatchSink(applySink.get())));
+                sink = new IngestJournalSink(dsg, journal, appliedOffsets, sink);
+            }
+            if (this.quarantine != null) {
+                sink = new DeadLetterSink(sink, this.quarantine, maxRecordBytes);
             }
+            // Only persistent datasets benefit from checkpointed offsets, in-memory datasets are reloaded from Kafka
+            final DatasetGraph tdb = offsetCheckpoint ? FMod_InitialCompaction.getTDB2(dsg) : null;
+            if (tdb != null) {
+                sink = new OffsetCheckpointSink(tdb, sink);
+            }
+            // Batches are timed in records as polled, before any are quarantined or joined into whole patches
+            if (batchTiming) {
+                sink = new BatchTimingSink(sink, appliedOffsets, targetCommitMillis, minBatchRecords,
+                                           maxBatchRecords);
+            }
+            // Track applied offsets so CQRS updates can wait for their own changes to be applied
+            return new AppliedOffsetSink(dsg, sink, appliedOffsets);
         };
     }
 
+    /**
+     * Gets the parser for large N-Triples/N-Quads payloads, creating it on first use
+     *
+     * @return Parser, or {@code null} if parallel parsing is not enabled
+     */
+    private synchronized ChunkedParser chunkedParser() {
+        final int parseThreads = Configurator.get(new String[]{ParallelParsingSink.ENV_INGEST_PARSE_THREADS},
+                                                  Integer::parseInt, 0);
+        if (parseThreads <= 1) {
+            return null;
+        }
+        if (this.chunkedParser == null) {
+            final int parallelParseMinBytes =
+                    Configurator.get(new String[]{ParallelParsingSink.ENV_INGEST_PARALLEL_PARSE_MIN_BYTES},
+                                     Integer::parseInt, ParallelParsingSink.DEFAULT_PARALLEL_PARSE_MIN_BYTES);
+            final int parseChunkBytes =
+                    Configurator.get(new String[]{ParallelParsingSink.ENV_INGEST_PARSE_CHUNK_BYTES},
+                                     Integer::parseInt, ParallelParsingSink.DEFAULT_PARSE_CHUNK_BYTES);
+            final int parseQueueDepth =
+                    Configurator.get(new String[]{ParallelParsingSink.ENV_INGEST_PARSE_QUEUE_DEPTH},
+                                     Integer::parseInt, 2 * parseThreads);
+            AtomicInteger counter = new AtomicInteger();
+            this.parsers = Executors.newFixedThreadPool(parseThreads, r -> {
+                Thread thread = new Thread(r, "scg-ingest-parser-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.chunkedParser = new ChunkedParser(this.parsers, parseChunkBytes, parseQueueDepth,
+                                                   parallelParseMinBytes);
+        }
+        return this.chunkedParser;
+    }
+
+    @Override
+    public void serverAfterStarting(FusekiServer server) {
+        Collection<KConnectorDesc> registered = FKRegistry.get().getConnectors();
+        final boolean offsetCheckpoint = Configurator.get(OffsetCheckpointSink.ENV_INGEST_OFFSET_CHECKPOINT,
+                                                          Boolean::parseBoolean, false);
+        // Empty datasets far behind their topics are bulk loaded before the connectors start, the connectors then
+        // resume from the offsets checkpointed in the loaded data
+        if (registered != null && Configurator.get(BulkCatchUp.ENV_INGEST_BULK_CATCHUP, Boolean::parseBoolean, false)) {
+            if (offsetCheckpoint) {
+                final long minRecords = Configurator.get(BulkCatchUp.ENV_INGEST_BULK_CATCHUP_MIN_RECORDS,
+                                                         Long::parseLong,
+                                                         BulkCatchUp.DEFAULT_BULK_CATCHUP_MIN_RECORDS);
+                registered.forEach(connector -> bulkCatchUp(server, connector, minRecords));
+            } else {
+                LOG.warn("{} is ignored as it requires {} to be enabled", BulkCatchUp.ENV_INGEST_BULK_CATCHUP,
+                         OffsetCheckpointSink.ENV_INGEST_OFFSET_CHECKPOINT);
+            }
+        }
+        super.serverAfterStarting(server);
+        final long lagRefreshMillis = Configurator.get(IngestLagMonitor.ENV_INGEST_LAG_REFRESH_MS, Long::parseLong,
+                                                       IngestLagMonitor.DEFAULT_LAG_REFRESH_MS);
+        if (registered != null && offsetCheckpoint) {
+            registered.forEach(connector -> resumeFromCheckpoint(server, connector));
+        }
+        // Lag is only looked up when metrics are being exported
+        if (!FMod_OpenTelemetry.ENABLED) {
+            return;
+        }
+        synchronized (this) {
+            for (KConnectorDesc connector : registered == null ? List.<KConnectorDesc>of() : registered) {
+                AppliedOffsetRegistry appliedOffsets =
+                        AppliedOffsetRegistry.forConsumerGroup(connector.getConsumerGroupId());
+                this.lagMonitors.add(new IngestLagMonitor(connector, appliedOffsets, this::lagAdmin,
+                                                          lagRefreshMillis));
+            }
+        }
+    }
+
+    private synchronized Admin lagAdmin(Properties properties) {
+        return this.lagAdmins.computeIfAbsent(properties, Admin::create);
+    }
+
+    /**
+     * Bulk loads the backlog of a connector's topics into its dataset, if the dataset is an empty TDB2 database and the
+     * connector has not read the topics before, see {@link BulkCatchUp}
+     *
+     * @param server     Server
+     * @param connector  Connector
+     * @param minRecords Minimum number of records on the topics for the backlog to be bulk loaded
+     */
+    private void bulkCatchUp(FusekiServer server, KConnectorDesc connector, long minRecords) {
+        DataAccessPoint dataAccessPoint = dataAccessPointFor(server, connector.getDatasetName());
+        DatasetGraph dsg = dataAccessPoint == null ? null : dataAccessPoint.getDataService().getDataset();
+        // Routing to named graphs, and data security plugins, transform records in ways bulk loading would bypass
+        if (!(dsg instanceof DatasetGraphSwitchable container) || !BulkRestore.isSupported(dsg)
+            || Configurator.get("ROUTE_TO_NAMED_GRAPHS", Boolean::parseBoolean, false)) {
+            return;
+        }
+        String stateFile = connector.getStateFile();
+        if ((stateFile != null && new File(stateFile).length() > 0)
+            || "latest".equalsIgnoreCase(connector.getKafkaConsumerProps()
+                                                  .getProperty(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG))
+            || !Txn.calculateRead(dsg, dsg::isEmpty) || !OffsetCheckpointSink.read(dsg).isEmpty()) {
+            return;
+        }
+        Properties properties = FMod_DistributionLifecycle.connectionProperties(connector);
+        properties.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, connector.getBootstrapServers());
+        properties.put(ConsumerConfig.GROUP_ID_CONFIG, connector.getConsumerGroupId());
+        properties.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, "false");
+        properties.put(ConsumerConfig.CLIENT_ID_CONFIG, "scg-bulk-catch-up");
+        try (KafkaConsumer<byte[], byte[]> consumer = new KafkaConsumer<>(properties, new ByteArrayDeserializer(),
+                                                                          new ByteArrayDeserializer())) {
+            Map<TopicPartition, Long> loaded = new BulkCatchUp(consumer, connector.getTopics(), minRecords)
+                    .catchUp(container, BulkRestore.fromConfiguration());
+            if (!loaded.isEmpty()) {
+                LOG.info("Bulk loaded the Kafka backlog of {} up to offsets {}", dataAccessPoint.getName(), loaded);
+            }
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Unable to bulk load the Kafka backlog of {}, the connector applies it instead: {}",
+                     dataAccessPoint.getName(), e.getMessage());
+        }
+    }
+
+    /**
+     * Moves a connector to the offsets checkpointed in its dataset, if any, which reflect exactly what the dataset has
+     * committed, rather than those of its offsets state file which is written after the data is committed
+     *
+     * @param server    Server
+     * @param connector Connector
+     */
+    private void resumeFromCheckpoint(FusekiServer server, KConnectorDesc connector) {
+        DataAccessPoint dataAccessPoint = dataAccessPointFor(server, connector.getDatasetName());
+        DatasetGraph tdb = dataAccessPoint == null ? null :
+                           FMod_InitialCompaction.getTDB2(dataAccessPoint.getDataService().getDataset());
+        if (tdb == null) {
+            return;
+        }
+        Map<TopicPartition, Long> checkpoint = OffsetCheckpointSink.read(tdb);
+        checkpoint.keySet().removeIf(partition -> !connector.getTopics().contains(partition.topic()));
+        if (checkpoint.isEmpty()) {
+            return;
+        }
+        String dataset = dataAccessPoint.getName();
+        try {
+            // The offset store is only used to carry the offsets, so starts from a state file that doesn't exist yet
+            File stateDir = Files.createTempDirectory("scg-offset-checkpoint").toFile();
+            stateDir.deleteOnExit();
+            File stateFile = new File(stateDir, "offsets.json");
+            stateFile.deleteOnExit();
+            FusekiOffsetStore offsetStore = FusekiOffsetStore.builder()
+                                                             .datasetName(dataset)
+                                                             .consumerGroup(connector.getConsumerGroupId())
+                                                             .stateFile(stateFile)
+                                                             .build();
+            checkpoint.forEach((partition, offset) -> offsetStore.saveOffset(
+                    KafkaEventSource.externalOffsetStoreKey(partition.topic(), partition.partition(),
+                                                            connector.getConsumerGroupId()), offset));
+            FKS.restoreOffsetForDataset(dataset, offsetStore);
+            LOG.info("Resuming Kafka connector for {} from checkpointed offsets {}", dataset, checkpoint);
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Unable to resume Kafka connector for {} from checkpointed offsets: {}", dataset,
+                     e.getMessage());
+        }
+    }
+
+    private static DataAccessPoint dataAccessPointFor(FusekiServer server, String name) {
+        return dataAccessPointFor(server.getDataAccessPointRegistry(), name);
+    }
+
+    private static DataAccessPoint dataAccessPointFor(DataAccessPointRegistry registry, String name) {
+        // The connector may name the dataset, or an endpoint of it
+        DataAccessPoint dataAccessPoint = registry.get(name);
+        int separator = name.lastIndexOf('/');
+        if (dataAccessPoint == null && separator > 0) {
+            dataAccessPoint = registry.get(name.substring(0, separator));
+        }
+        return dataAccessPoint;
+    }
+
+    /**
+     * Finds the consumer group of the connector that applies records to a dataset
+     *
+     * @param dsg Dataset
+     * @return Consumer group, or {@code null} if no connector could be found for the dataset
+     */
+    private String consumerGroupFor(DatasetGraph dsg) {
+        Collection<KConnectorDesc> registered = FKRegistry.get().getConnectors();
+        DataAccessPointRegistry registry = this.dataAccessPoints;
+        if (registered != null && registry != null) {
+            for (KConnectorDesc connector : registered) {
+                DataAccessPoint dataAccessPoint = dataAccessPointFor(registry, connector.getDatasetName());
+                if (dataAccessPoint != null && dataAccessPoint.getDataService().getDataset() == dsg) {
+                    return connector.getConsumerGroupId();
+                }
+            }
+        }
+        LOG.warn("Unable to find the Kafka connector for a dataset, CQRS updates to it waiting to be applied will not "
+                 + "be signalled");
+        return null;
+    }
+
+    @Override
+    public void serverStopped(FusekiServer server) {
+        super.serverStopped(server);
+        synchronized (this) {
+            if (this.parsers != null) {
+                ParseAheadBuffer.disableAll();
+                this.parsers.shutdown();
+                this.parsers = null;
+                this.chunkedParser = null;
+            }
+            this.lagMonitors.forEach(IngestLagMonitor::close);
+            this.lagMonitors.clear();
+            this.lagAdmins.values().forEach(Admin::close);
+            this.lagAdmins.clear();
+            if (this.quarantine != null) {
+                this.quarantine.close();
+            }
+        }
+    }
+
     @Override
     protected String logMessage() {
         return String.format("Fuseki-Kafka Connector Module SCG (%s)", SysJenaKafka.VERSION);
@@ -101,9 +469,22 @@ public class FMod_FusekiKafkaSCG extends FMod_FusekiKafka {
     public void backupKafka(DataAccessPoint dataAccessPoint, String path, ObjectNode resultNode) {
         String dataset = dataAccessPoint.getName();
         List<KConnectorDesc> kafkaConnectionList = obtainKafkaConnection(dataset, dataAccessPoint.getDataService());
+        // Checkpointed offsets are saved, and restored, with the triple store backup, they are only reported here
+        DatasetGraph tdb = FMod_InitialCompaction.getTDB2(dataAccessPoint.getDataService().getDataset());
+        Map<TopicPartition, Long> checkpoint = tdb == null ? Map.of() : OffsetCheckpointSink.read(tdb);
         ArrayNode nodeList = OBJECT_MAPPER.createArrayNode();
         for (KConnectorDesc conn : kafkaConnectionList) {
-            nodeList.add(backupKafkaConnection(conn, path));
+            ObjectNode connectionNode = backupKafkaConnection(conn, path);
+            ObjectNode checkpointNode = OBJECT_MAPPER.createObjectNode();
+            checkpoint.forEach((partition, offset) -> {
+                if (conn.getTopics().contains(partition.topic())) {
+                    checkpointNode.put(partition.toString(), offset);
+                }
+            });
+            if (!checkpointNode.isEmpty()) {
+                connectionNode.set("checkpoint", checkpointNode);
+            }
+            nodeList.add(connectionNode);
         }
         resultNode.set(dataset, nodeList);
     }
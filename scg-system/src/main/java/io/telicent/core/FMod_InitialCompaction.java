@@ -2,6 +2,7 @@ package io.telicent.core;
 
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.telicent.smart.cache.configuration.Configurator;
 import io.telicent.smart.cache.security.data.DataSecurityException;
 import io.telicent.smart.cache.security.data.labels.SecurityLabelsCompact;
 import io.telicent.smart.cache.security.data.plugins.DataSecurityPlugin;
@@ -28,6 +29,7 @@ import org.apache.jena.sparql.core.DatasetGraphWrapper;
 import org.apache.jena.tdb2.DatabaseMgr;
 import org.apache.jena.tdb2.store.DatasetGraphSwitchable;
 import org.apache.jena.tdb2.sys.DatabaseOps;
+import org.apache.kafka.common.TopicPartition;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -37,12 +39,15 @@ import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.time.Clock;
 import java.time.Instant;
 import java.util.*;
-import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 import static io.telicent.backup.utils.JsonFileUtils.OBJECT_MAPPER;
 import static io.telicent.utils.ServletUtils.processResponse;
@@ -55,7 +60,11 @@ public class FMod_InitialCompaction implements FusekiAutoModule {
 
     public static final Logger LOG = LoggerFactory.getLogger(FMod_InitialCompaction.class);
     private static final String ALL_DATASETS_SCOPE = "__ALL_DATASETS__";
+    private static final BiConsumer<String, String> NO_PROGRESS = (datasetName, state) -> {
+    };
     private final CompactionJobManager jobManager = new CompactionJobManager();
+    private CompactionPool pool;
+    private CompactionScheduler scheduler;
     final Set<String> datasets = new HashSet<>();
     static final boolean DELETE_OLD = true;
     public static final String DISABLE_INITIAL_COMPACTION = "DISABLE_INITIAL_COMPACTION";
@@ -105,7 +114,7 @@ public class FMod_InitialCompaction implements FusekiAutoModule {
         ObjectNode submit(final String scope,
                           final String operation,
                           final String statusPathPrefix,
-                          final Callable<CompactionOperationResponse> task) {
+                          final Function<BiConsumer<String, String>, CompactionOperationResponse> task) {
             final CompactionJob job = new CompactionJob(scope, UUID.randomUUID().toString(), operation, statusPathPrefix);
             this.jobs.put(job.jobId, job);
             LOG.info("[Compaction] Queued async job {} ({})", job.jobId, operation);
@@ -113,7 +122,7 @@ public class FMod_InitialCompaction implements FusekiAutoModule {
                 try {
                     job.markRunning();
                     LOG.info("[Compaction] >>>> Async job {} ({}) started", job.jobId, operation);
-                    final CompactionOperationResponse response = task.call();
+                    final CompactionOperationResponse response = task.apply(job::recordProgress);
                     if (response.statusCode() >= 200 && response.statusCode() < 300) {
                         job.markSucceeded(response);
                         LOG.info("[Compaction] <<<< Async job {} ({}) completed successfully (status={})",
@@ -160,6 +169,7 @@ public class FMod_InitialCompaction implements FusekiAutoModule {
             private volatile Instant completedAt;
             private volatile Integer httpStatus;
             private volatile ObjectNode result;
+            private final Map<String, String> progress = Collections.synchronizedMap(new LinkedHashMap<>());
 
             private CompactionJob(final String scope,
                                   final String jobId,
@@ -171,6 +181,10 @@ public class FMod_InitialCompaction implements FusekiAutoModule {
                 this.statusPath = statusPathPrefix + jobId;
             }
 
+            private void recordProgress(final String datasetName, final String state) {
+                this.progress.put(datasetName, state);
+            }
+
             private void markRunning() {
                 this.status = STATUS_RUNNING;
                 this.message = "Job is running.";
@@ -223,6 +237,12 @@ public class FMod_InitialCompaction implements FusekiAutoModule {
                 if (this.result != null) {
                     node.set("result", this.result.deepCopy());
                 }
+                synchronized (this.progress) {
+                    if (!this.progress.isEmpty()) {
+                        final ObjectNode progressNode = node.putObject("progress");
+                        this.progress.forEach(progressNode::put);
+                    }
+                }
                 return node;
             }
         }
@@ -242,7 +262,7 @@ public class FMod_InitialCompaction implements FusekiAutoModule {
     @Override
     public void configured(FusekiServer.Builder serverBuilder, DataAccessPointRegistry dapRegistry, Model configModel) {
         // Create a new dataset endpoint for compacting all datasets
-        serverBuilder.addServlet("/$/compactall", new CompactAllServlet(dapRegistry, this.jobManager));
+        serverBuilder.addServlet("/$/compactall", new CompactAllServlet(dapRegistry, this.jobManager, this::pool));
         serverBuilder.addServlet("/$/compaction/jobs/all/*", new CompactionJobsServlet(this.jobManager, ALL_DATASETS_SCOPE));
 
         if (dapRegistry != null) {
@@ -262,6 +282,83 @@ public class FMod_InitialCompaction implements FusekiAutoModule {
     public void serverAfterStarting(FusekiServer server) {
         // Run after starting
         compactDatabases(server);
+        startScheduler(server);
+    }
+
+    @Override
+    public void serverStopped(FusekiServer server) {
+        synchronized (this) {
+            if (this.scheduler != null) {
+                this.scheduler.close();
+                this.scheduler = null;
+            }
+            if (this.pool != null) {
+                this.pool.close();
+                this.pool = null;
+            }
+        }
+    }
+
+    /**
+     * Gets the pool compactions run on, creating it on first use so that it can be shut down when the server stops and
+     * recreated should it be started again
+     *
+     * @return Compaction pool
+     */
+    private synchronized CompactionPool pool() {
+        if (this.pool == null) {
+            this.pool = new CompactionPool(
+                    Configurator.get(CompactionPool.ENV_COMPACTION_THREADS, Integer::parseInt,
+                                     CompactionPool.DEFAULT_COMPACTION_THREADS),
+                    Configurator.get(CompactionPool.ENV_COMPACTION_THREADS_PER_VOLUME, Integer::parseInt,
+                                     CompactionPool.DEFAULT_COMPACTION_THREADS_PER_VOLUME));
+        }
+        return this.pool;
+    }
+
+    /**
+     * Starts background compaction, if enabled, the first time the server starts
+     *
+     * @param server Server
+     */
+    private synchronized void startScheduler(FusekiServer server) {
+        if (this.scheduler != null
+            || !Configurator.get(CompactionScheduler.ENV_COMPACTION_SCHEDULER, Boolean::parseBoolean, false)) {
+            return;
+        }
+        DataAccessPointRegistry dapRegistry = server.getDataAccessPointRegistry();
+        Supplier<Map<String, DatasetGraph>> tdbDatasets = () -> {
+            Map<String, DatasetGraph> found = new LinkedHashMap<>();
+            for (DataAccessPoint dataAccessPoint : dapRegistry.accessPoints()) {
+                DatasetGraph dsg = dataAccessPoint.getDataService().getDataset();
+                if (getTDB2(dsg) != null) {
+                    found.put(dataAccessPoint.getName(), dsg);
+                }
+            }
+            return found;
+        };
+        // Scheduled compactions run as jobs so they are serialised with, and reported alongside, requested ones
+        BiConsumer<String, DatasetGraph> compactor =
+                (name, dsg) -> this.jobManager.submit(name, "SCHEDULED_COMPACTION", "/$/compaction/jobs" + name + "/",
+                                                      progress -> executeCompactOne(dsg, name, progress));
+        this.scheduler = new CompactionScheduler(tdbDatasets, dsg -> findDatabaseSize(getTDB2(dsg)),
+                                                 FMod_InitialCompaction::findCompactedSize, compactor,
+                                                 CompactionScheduler.Policy.fromConfiguration(),
+                                                 Clock.systemDefaultZone());
+        this.scheduler.start(Configurator.get(CompactionScheduler.ENV_COMPACTION_CHECK_INTERVAL_MS, Long::parseLong,
+                                              CompactionScheduler.DEFAULT_CHECK_INTERVAL_MS));
+    }
+
+    /**
+     * Finds the size a dataset was last compacted to, whether by this server or a previous instance of it
+     *
+     * @param name Dataset name
+     * @param dsg  Dataset Graph
+     * @return Compacted size, {@code -1} if unknown
+     */
+    static long findCompactedSize(String name, DatasetGraph dsg) {
+        Long size = SIZES.get(name);
+        return size != null ? size : findPreviousCompactionSize(getTDB2(dsg));
     }
 
     /**
@@ -270,20 +367,24 @@ public class FMod_InitialCompaction implements FusekiAutoModule {
      * @param server Server
      */
     private void compactDatabases(FusekiServer server) {
+        Map<String, DatasetGraph> found = new LinkedHashMap<>();
         for (String name : datasets) {
             Optional<DatasetGraph> optionalDatasetGraph = FKS.findDataset(server, name);
             if (optionalDatasetGraph.isPresent()) {
-                try {
-                    compactDatasetGraphDatabase(optionalDatasetGraph.get(), name);
-                } catch (Throwable t) {
-                    // Compaction is a best-effort maintenance task and must not take the server down.
-                    LOG.error("[Compaction] Startup compaction failed for {}. Leaving dataset available without compaction.",
-                              name, t);
-                }
+                found.put(name, optionalDatasetGraph.get());
             } else {
                 LOG.debug("Compaction not required for {} as no graph", name);
             }
         }
+        Map<String, CompactionPool.Outcome> outcomes =
+                pool().compactAll(found, (name, dsg) -> compactDatasetGraphDatabase(dsg, name), NO_PROGRESS);
+        outcomes.forEach((name, outcome) -> {
+            if (outcome.error() != null) {
+                // Compaction is a best-effort maintenance task and must not take the server down.
+                LOG.error("[Compaction] Startup compaction failed for {}. Leaving dataset available without compaction.",
+                          name, outcome.error());
+            }
+        });
     }
 
     /**
@@ -322,30 +423,48 @@ public class FMod_InitialCompaction implements FusekiAutoModule {
                 return CompactionStatus.SKIPPED_PREVIOUSLY_COMPACTED;
             }
 
+            // Online compaction only needs exclusive mode for the final swap, which it manages itself
+            boolean online = Configurator.get(OnlineCompaction.ENV_COMPACTION_ONLINE, Boolean::parseBoolean, false)
+                             && OnlineCompaction.isSupported(dsg);
+
             // Due to known issue - obtain a write lock prior to compaction.
             // If it fails, stop processing to avoid deadlock.
-            if (!dsg.tryExclusiveMode(false)) {
+            if (!online && !dsg.tryExclusiveMode(false)) {
                 LOG.info("[Compaction] Ignoring for {} due to potential deadlock operation", name);
                 return CompactionStatus.SKIPPED_LOCK_CONTENTION;
             }
-            LOG.info("[Compaction] >>>> Start compact {}, current size is {} ({})", name,
+            LOG.info("[Compaction] >>>> Start {}compact {}, current size is {} ({})", online ? "online " : "", name,
                      humanReadableSize(sizeBefore), sizeBefore);
             Instant startedAt = Instant.now();
             Optional<DatasetMaintenanceRegistry.MaintenanceHandle> maintenance =
-                    DatasetMaintenanceRegistry.begin(datasetGraph, name,
+                    DatasetMaintenanceRegistry.begin(datasetGraph, name, online ?
+                                                    DatasetMaintenanceRegistry.MaintenanceOperation.ONLINE_COMPACTION :
                                                     DatasetMaintenanceRegistry.MaintenanceOperation.COMPACTION);
             if (maintenance.isEmpty()) {
                 LOG.info("[Compaction] Ignoring for {} due to another maintenance operation already being in progress", name);
                 return CompactionStatus.SKIPPED_LOCK_CONTENTION;
             }
+            Optional<CompactionIndicator> previousIndicator = findPreviousCompactionIndicator(dsg);
             updateCompactionIndicator(dsg, new CompactionIndicator(CompactionIndicatorState.IN_PROGRESS, name,
                                                                    startedAt.toString(), startedAt.toString(),
                                                                    sizeBefore, -1, null));
             Timer timer = new Timer();
             timer.startTimer();
-            CompactionIndicator successIndicator = null;
+            CompactionIndicator outcomeIndicator = null;
             try {
-                DatabaseMgr.compact(dsg, DELETE_OLD);
+                if (online) {
+                    if (!compactOnline(dsg)) {
+                        // Abandoned, the dataset carries on using its current generation as if compaction had been
+                        // skipped, so the outcome of the last compaction that did run still stands
+                        restoreCompactionIndicator(dsg, previousIndicator);
+                        return CompactionStatus.SKIPPED_LOCK_CONTENTION;
+                    }
+                } else {
+                    Map<TopicPartition, Long> checkpoint = OffsetCheckpointSink.read(dsg);
+                    DatabaseMgr.compact(dsg, DELETE_OLD);
+                    // Carry checkpointed offsets, which are held outside the data, over to the new generation
+                    OffsetCheckpointSink.write(dsg, checkpoint);
+                }
                 long sizeAfter = findDatabaseSize(dsg);
                 LOG.info("[Compaction] <<<< Finish compact {}. Took {} seconds.  Compacted size is {} ({})",
                          name, Timer.timeStr(timer.endTimer()), humanReadableSize(sizeAfter), sizeAfter);
@@ -356,7 +475,7 @@ public class FMod_InitialCompaction implements FusekiAutoModule {
                 } catch (DataSecurityException e) {
                     LOG.warn("[Compaction] Label compaction failed for {} — data compaction still succeeded", name, e);
                 }
-                successIndicator = new CompactionIndicator(CompactionIndicatorState.SUCCEEDED, name,
+                outcomeIndicator = new CompactionIndicator(CompactionIndicatorState.SUCCEEDED, name,
                                                            startedAt.toString(), Instant.now().toString(),
                                                            sizeBefore, sizeAfter, null);
                 return CompactionStatus.COMPACTED;
@@ -367,10 +486,12 @@ public class FMod_InitialCompaction implements FusekiAutoModule {
                                                                   sizeBefore, -1, summarizeThrowable(t)));
                 throw t;
             } finally {
-                dsg.finishExclusiveMode();
+                if (!online) {
+                    dsg.finishExclusiveMode();
+                }
                 DatasetMaintenanceRegistry.end(maintenance.get());
-                if (successIndicator != null) {
-                    updateCompactionIndicator(dsg, successIndicator);
+                if (outcomeIndicator != null) {
+                    updateCompactionIndicator(dsg, outcomeIndicator);
                 }
             }
         } else {
@@ -379,6 +500,24 @@ public class FMod_InitialCompaction implements FusekiAutoModule {
         }
     }
 
+    /**
+     * Compacts a database while it remains available for reads and writes
+     *
+     * @param dsg Dataset Graph
+     * @return True if compacted, false if abandoned
+     */
+    private static boolean compactOnline(DatasetGraphSwitchable dsg) {
+        long swapTimeout = Configurator.get(OnlineCompaction.ENV_COMPACTION_SWAP_TIMEOUT_MS, Long::parseLong,
+                                            OnlineCompaction.DEFAULT_SWAP_TIMEOUT_MS);
+        int maxPendingChanges = Configurator.get(new String[]{OnlineCompaction.ENV_COMPACTION_MAX_PENDING_CHANGES},
+                                                 Integer::parseInt, OnlineCompaction.DEFAULT_MAX_PENDING_CHANGES);
+        try {
+            return new OnlineCompaction(dsg, swapTimeout, maxPendingChanges).compact(DELETE_OLD);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
     /**
      * Updates the compaction results file for the database (if supported)
      *
@@ -408,7 +547,8 @@ public class FMod_InitialCompaction implements FusekiAutoModule {
                 return -1;
             }
             if (currentDataDir.toFile().exists()) {
-                return FileUtils.sizeOfDirectory(currentDataDir.toFile());
+                // Refresh rather than using the cached usage as compaction decisions need the current size
+                return TdbDiskUsage.forContainer(switchable.getContainerPath()).refresh().active();
             }
         }
         return -1;
@@ -477,7 +617,8 @@ public class FMod_InitialCompaction implements FusekiAutoModule {
 
     static boolean isCompactionInProgress(DatasetGraphSwitchable dsg) {
         return DatasetMaintenanceRegistry.findCurrentMaintenance(dsg)
-                .map(indicator -> indicator.operation() == DatasetMaintenanceRegistry.MaintenanceOperation.COMPACTION)
+                .map(indicator -> indicator.operation() == DatasetMaintenanceRegistry.MaintenanceOperation.COMPACTION
+                        || indicator.operation() == DatasetMaintenanceRegistry.MaintenanceOperation.ONLINE_COMPACTION)
                 .orElse(false);
     }
 
@@ -583,6 +724,24 @@ public class FMod_InitialCompaction implements FusekiAutoModule {
         }
     }
 
+    /**
+     * Puts back the compaction indicator from before a compaction that was abandoned without changing the database
+     *
+     * @param dsg       Dataset Graph
+     * @param indicator Indicator from before the compaction, empty if there was none
+     */
+    private static void restoreCompactionIndicator(DatasetGraphSwitchable dsg, Optional<CompactionIndicator> indicator) {
+        if (indicator.isPresent()) {
+            updateCompactionIndicator(dsg, indicator.get());
+            return;
+        }
+        CURRENT_COMPACTIONS.remove(dsg);
+        File indicatorFile = getCompactionIndicatorFile(dsg);
+        if (indicatorFile.exists() && !indicatorFile.delete()) {
+            LOG.warn("[Compaction] Unable to remove compaction indicator file {}", indicatorFile);
+        }
+    }
+
     private static long parseLongProperty(String value) {
         if (value == null) {
             return -1;
@@ -621,20 +780,24 @@ public class FMod_InitialCompaction implements FusekiAutoModule {
                                 this.jobManager.submit(this.datasetName,
                                                        "COMPACT_DATASET",
                                                        "/$/compaction/jobs" + this.datasetName + "/",
-                                                       () -> executeCompactOne(this.dsg, this.datasetName)));
+                                                       progress -> executeCompactOne(this.dsg, this.datasetName,
+                                                                                     progress)));
                 return;
             }
-            writeSyncResponse(res, executeCompactOne(this.dsg, this.datasetName));
+            writeSyncResponse(res, executeCompactOne(this.dsg, this.datasetName, NO_PROGRESS));
         }
     }
 
     private static class CompactAllServlet extends HttpServlet {
         private final DataAccessPointRegistry dapRegistry;
         private final CompactionJobManager jobManager;
+        private final Supplier<CompactionPool> pool;
 
-        public CompactAllServlet(DataAccessPointRegistry dapRegistry, CompactionJobManager jobManager) {
+        public CompactAllServlet(DataAccessPointRegistry dapRegistry, CompactionJobManager jobManager,
+                                 Supplier<CompactionPool> pool) {
             this.dapRegistry = dapRegistry;
             this.jobManager = jobManager;
+            this.pool = pool;
         }
 
         @Override
@@ -645,10 +808,11 @@ public class FMod_InitialCompaction implements FusekiAutoModule {
                                 this.jobManager.submit(ALL_DATASETS_SCOPE,
                                                        "COMPACT_ALL_DATASETS",
                                                        "/$/compaction/jobs/all/",
-                                                       () -> executeCompactAll(this.dapRegistry)));
+                                                       progress -> executeCompactAll(this.dapRegistry, this.pool.get(),
+                                                                                     progress)));
                 return;
             }
-            writeSyncResponse(res, executeCompactAll(this.dapRegistry));
+            writeSyncResponse(res, executeCompactAll(this.dapRegistry, this.pool.get(), NO_PROGRESS));
         }
 
     }
@@ -684,35 +848,44 @@ public class FMod_InitialCompaction implements FusekiAutoModule {
         }
     }
 
-    private static CompactionOperationResponse executeCompactOne(final DatasetGraph dsg, final String datasetName) {
+    private static CompactionOperationResponse executeCompactOne(final DatasetGraph dsg, final String datasetName,
+                                                                 final BiConsumer<String, String> progress) {
         try {
+            progress.accept(datasetName, CompactionPool.RUNNING);
             final CompactionStatus outcome = compactDatasetGraphDatabase(dsg, datasetName);
+            progress.accept(datasetName, outcome.name());
             return new CompactionOperationResponse(HttpServletResponse.SC_OK,
                                                    toCompactionSummaryJson(Map.of(datasetName, outcome)));
         } catch (Throwable t) {
+            progress.accept(datasetName, CompactionPool.FAILED);
             FmtLog.error(Fuseki.configLog, "Error while compacting dataset " + datasetName, t);
             return compactionFailureResponse(compactionFailureDetails(datasetName, t));
         }
     }
 
-    private static CompactionOperationResponse executeCompactAll(final DataAccessPointRegistry dapRegistry) {
+    private static CompactionOperationResponse executeCompactAll(final DataAccessPointRegistry dapRegistry,
+                                                                 final CompactionPool pool,
+                                                                 final BiConsumer<String, String> progress) {
         if (dapRegistry == null) {
             return compactionFailureResponse("No DataAccessPoint registry configured");
         }
 
-        final Map<String, CompactionStatus> outcomes = new LinkedHashMap<>();
-        final Map<String, String> failures = new LinkedHashMap<>();
+        final Map<String, DatasetGraph> datasets = new LinkedHashMap<>();
         for (DataAccessPoint dataAccessPoint : dapRegistry.accessPoints()) {
-            final DataService dataService = dataAccessPoint.getDataService();
-            final String datasetName = dataAccessPoint.getName();
-            try {
-                final CompactionStatus outcome = compactDatasetGraphDatabase(dataService.getDataset(), datasetName);
-                outcomes.put(datasetName, outcome);
-            } catch (Throwable t) {
-                failures.put(datasetName, t.getMessage() != null ? t.getMessage() : t.getClass().getName());
-                FmtLog.error(Fuseki.configLog, "Error while compacting dataset " + datasetName, t);
-            }
+            datasets.put(dataAccessPoint.getName(), dataAccessPoint.getDataService().getDataset());
         }
+        final Map<String, CompactionStatus> outcomes = new LinkedHashMap<>();
+        final Map<String, String> failures = new LinkedHashMap<>();
+        pool.compactAll(datasets, (name, dsg) -> compactDatasetGraphDatabase(dsg, name), progress)
+            .forEach((datasetName, outcome) -> {
+                if (outcome.error() == null) {
+                    outcomes.put(datasetName, outcome.status());
+                } else {
+                    Throwable t = outcome.error();
+                    failures.put(datasetName, t.getMessage() != null ? t.getMessage() : t.getClass().getName());
+                    FmtLog.error(Fuseki.configLog, "Error while compacting dataset " + datasetName, t);
+                }
+            });
 
         if (!failures.isEmpty()) {
             StringBuilder details = new StringBuilder("Compaction failed for one or more datasets: ");
@@ -0,0 +1,139 @@
+/*
+ *  Copyright (c) Telicent Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.telicent.core;
+
+import io.telicent.backup.services.IngestJournal;
+import io.telicent.smart.cache.payloads.RdfPayload;
+import io.telicent.smart.cache.projectors.Sink;
+import io.telicent.smart.cache.sources.Event;
+import io.telicent.smart.cache.sources.kafka.KafkaEvent;
+import org.apache.jena.query.ReadWrite;
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.utils.Bytes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * A sink that appends each Kafka record to the dataset's {@link IngestJournal} once the transaction it was applied in
+ * has committed, so that incremental backups can be taken.
+ * <p>
+ * Records applied within a write transaction are held until the connector commits the consumer offsets, which it does
+ * once the transaction has committed, as reported by the {@link AppliedOffsetRegistry}. A full backup starts a new
+ * journal segment before taking its snapshot, so a record is either committed before the snapshot is taken or
+ * journaled after the segment was started, and is never missing from both. Records that fail to apply are not
+ * journaled.
+ * </p>
+ */
+public class IngestJournalSink implements Sink<Event<Bytes, RdfPayload>> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(IngestJournalSink.class);
+
+    private record Pending(ConsumerRecord<Bytes, RdfPayload> record, byte[] value) {
+    }
+
+    private final DatasetGraph dataset;
+    private final IngestJournal journal;
+    private final AppliedOffsetRegistry registry;
+    private final Sink<Event<Bytes, RdfPayload>> destination;
+    private final Consumer<TopicPartition> commitListener = this::committed;
+    private final Map<TopicPartition, List<Pending>> pending = new HashMap<>();
+
+    /**
+     * Creates a new sink
+     *
+     * @param dataset     Dataset the destination applies events to
+     * @param journal     Journal
+     * @param registry    Registry reporting the connector's offset commits
+     * @param destination Destination that applies events
+     */
+    public IngestJournalSink(DatasetGraph dataset, IngestJournal journal, AppliedOffsetRegistry registry,
+                             Sink<Event<Bytes, RdfPayload>> destination) {
+        this.dataset = Objects.requireNonNull(dataset, "dataset cannot be null");
+        this.journal = Objects.requireNonNull(journal, "journal cannot be null");
+        this.registry = Objects.requireNonNull(registry, "registry cannot be null");
+        this.destination = Objects.requireNonNull(destination, "destination cannot be null");
+        this.registry.addCommitListener(this.commitListener);
+    }
+
+    @Override
+    public void send(Event<Bytes, RdfPayload> event) {
+        // Capture the original value now as applying the event may replace it with the parsed form
+        RdfPayload payload = event.value();
+        byte[] value = (payload == null || payload.isReady()) ? null : payload.getRawData();
+        this.destination.send(event);
+        if (!(event instanceof KafkaEvent<Bytes, RdfPayload> kafkaEvent)) {
+            return;
+        }
+        ConsumerRecord<Bytes, RdfPayload> record = kafkaEvent.getConsumerRecord();
+        if (value == null) {
+            LOG.warn("Unable to journal record {}-{}@{} as its original value is not available, the next backup "
+                     + "will be a full backup", record.topic(), record.partition(), record.offset());
+            this.journal.invalidate();
+            return;
+        }
+        if (this.dataset.isInTransaction() && this.dataset.transactionMode() == ReadWrite.WRITE) {
+            synchronized (this) {
+                this.pending.computeIfAbsent(new TopicPartition(record.topic(), record.partition()),
+                                             p -> new ArrayList<>())
+                            .add(new Pending(record, value));
+            }
+        } else {
+            // Already committed
+            this.journal.append(record, value);
+        }
+    }
+
+    private synchronized void committed(TopicPartition partition) {
+        List<Pending> waiting = this.pending.get(partition);
+        if (waiting == null) {
+            return;
+        }
+        long applied = this.registry.applied(partition);
+        Iterator<Pending> records = waiting.iterator();
+        while (records.hasNext()) {
+            Pending next = records.next();
+            if (next.record().offset() > applied) {
+                break;
+            }
+            this.journal.append(next.record(), next.value());
+            records.remove();
+        }
+        if (waiting.isEmpty()) {
+            this.pending.remove(partition);
+        }
+    }
+
+    /**
+     * Gets the number of records waiting for their transaction to commit before they are journaled
+     *
+     * @return Number of records
+     */
+    synchronized int pending() {
+        return this.pending.values().stream().mapToInt(List::size).sum();
+    }
+
+    @Override
+    public void close() {
+        this.registry.removeCommitListener(this.commitListener);
+        this.destination.close();
+    }
+}
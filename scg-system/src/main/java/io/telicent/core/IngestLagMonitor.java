@@ -0,0 +1,222 @@
+/*
+ *  Copyright (c) Telicent Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.telicent.core;
+
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.metrics.Meter;
+import io.opentelemetry.api.metrics.ObservableDoubleMeasurement;
+import io.opentelemetry.api.metrics.ObservableLongMeasurement;
+import io.telicent.otel.CqrsMetrics;
+import io.telicent.otel.FMod_OpenTelemetry;
+import io.telicent.otel.IngestMetrics;
+import org.apache.jena.kafka.KConnectorDesc;
+import org.apache.kafka.clients.admin.Admin;
+import org.apache.kafka.clients.admin.AdminClientConfig;
+import org.apache.kafka.clients.admin.ListOffsetsResult;
+import org.apache.kafka.clients.admin.OffsetSpec;
+import org.apache.kafka.common.TopicPartition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+/**
+ * Exports the consumer lag of each partition, and the time since a record was last applied, for a Kafka connector as
+ * Open Telemetry gauges.
+ * <p>
+ * Lag is the difference between the end offset of a partition and the last offset the connector's sink has received
+ * from it. End offsets are looked up via a Kafka admin client, obtained on first use from a factory that may share one
+ * client between all the connectors of a cluster, and refreshed asynchronously at most once per refresh interval, so
+ * collecting the gauges never waits on Kafka. The admin client belongs to the factory so is not closed by the monitor. Only partitions that the connector has
+ * received events from since startup are reported.
+ * </p>
+ */
+public class IngestLagMonitor implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(IngestLagMonitor.class);
+
+    /**
+     * Configuration key for the minimum interval, in milliseconds, between lookups of partition end offsets
+     */
+    public static final String ENV_INGEST_LAG_REFRESH_MS = "INGEST_LAG_REFRESH_MS";
+    /** Default end offset refresh interval, 30 seconds */
+    public static final long DEFAULT_LAG_REFRESH_MS = 30_000;
+
+    private final KConnectorDesc connector;
+    private final AppliedOffsetRegistry registry;
+    private final Function<Properties, Admin> adminFactory;
+    private final long refreshMillis;
+    private final List<AutoCloseable> gauges;
+    private final AtomicBoolean refreshing = new AtomicBoolean(false);
+
+    private volatile Map<TopicPartition, Long> endOffsets = Map.of();
+    private volatile long lastRefresh = 0;
+    private Admin admin;
+
+    /**
+     * Creates a new monitor and registers its gauges
+     *
+     * @param connector     Connector
+     * @param registry      Registry of offsets received by the connector's sink
+     * @param adminFactory  Provides the admin client used to look up end offsets, given the connection properties
+     * @param refreshMillis Minimum interval between end offset lookups
+     */
+    public IngestLagMonitor(KConnectorDesc connector, AppliedOffsetRegistry registry,
+                            Function<Properties, Admin> adminFactory, long refreshMillis) {
+        this.connector = Objects.requireNonNull(connector, "connector cannot be null");
+        this.registry = Objects.requireNonNull(registry, "registry cannot be null");
+        this.adminFactory = Objects.requireNonNull(adminFactory, "adminFactory cannot be null");
+        this.refreshMillis = refreshMillis;
+
+        Meter meter = IngestMetrics.meter();
+        this.gauges = List.of(meter.gaugeBuilder(IngestMetrics.CONSUMER_LAG)
+                                   .setDescription("Records on a partition not yet applied to the dataset")
+                                   .ofLongs()
+                                   .buildWithCallback(this::recordLag),
+                              meter.gaugeBuilder(IngestMetrics.TIME_SINCE_LAST_APPLIED)
+                                   .setDescription("Time since a record was last applied to the dataset")
+                                   .setUnit("s")
+                                   .buildWithCallback(this::recordTimeSinceLastApplied));
+    }
+
+    private void recordLag(ObservableLongMeasurement measurement) {
+        refreshIfDue();
+        lags().forEach((partition, lag) -> measurement.record(lag, attributes(partition.topic()).toBuilder()
+                                                                   .put(IngestMetrics.KAFKA_PARTITION,
+                                                                        Integer.toString(partition.partition()))
+                                                                   .build()));
+    }
+
+    private void recordTimeSinceLastApplied(ObservableDoubleMeasurement measurement) {
+        long now = System.currentTimeMillis();
+        for (String topic : this.connector.getTopics()) {
+            Long lastApplied = IngestMetrics.lastApplied(topic);
+            if (lastApplied != null) {
+                measurement.record((now - lastApplied) / 1000.0, attributes(topic));
+            }
+        }
+    }
+
+    private Attributes attributes(String topic) {
+        return Attributes.of(FMod_OpenTelemetry.DB_NAME, this.connector.getDatasetName(), CqrsMetrics.KAFKA_TOPIC,
+                             topic);
+    }
+
+    /**
+     * Gets the partitions of the connector's topics that events have been received from
+     *
+     * @return Partitions
+     */
+    Set<TopicPartition> partitions() {
+        Set<String> topics = new HashSet<>(this.connector.getTopics());
+        Set<TopicPartition> partitions = new HashSet<>();
+        for (TopicPartition partition : this.registry.partitions()) {
+            if (topics.contains(partition.topic())) {
+                partitions.add(partition);
+            }
+        }
+        return partitions;
+    }
+
+    /**
+     * Calculates the lag of each partition with a known end offset
+     *
+     * @return Lag by partition
+     */
+    Map<TopicPartition, Long> lags() {
+        Map<TopicPartition, Long> lags = new HashMap<>();
+        Map<TopicPartition, Long> current = this.endOffsets;
+        for (TopicPartition partition : partitions()) {
+            Long endOffset = current.get(partition);
+            if (endOffset != null) {
+                // The end offset is that of the next record to be written, so one beyond the last received
+                lags.put(partition, Math.max(0, endOffset - (this.registry.received(partition) + 1)));
+            }
+        }
+        return lags;
+    }
+
+    /**
+     * Replaces the known end offsets
+     *
+     * @param endOffsets End offsets
+     */
+    void updateEndOffsets(Map<TopicPartition, Long> endOffsets) {
+        this.endOffsets = Map.copyOf(endOffsets);
+    }
+
+    private void refreshIfDue() {
+        long now = System.currentTimeMillis();
+        if (now - this.lastRefresh < this.refreshMillis) {
+            return;
+        }
+        Set<TopicPartition> partitions = partitions();
+        if (partitions.isEmpty() || !this.refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        this.lastRefresh = now;
+        try {
+            Map<TopicPartition, OffsetSpec> request = new HashMap<>();
+            partitions.forEach(partition -> request.put(partition, OffsetSpec.latest()));
+            admin().listOffsets(request).all().whenComplete((results, error) -> {
+                try {
+                    if (error != null) {
+                        LOG.debug("Failed to look up end offsets for {}: {}", this.connector.getDatasetName(),
+                                  error.getMessage());
+                        return;
+                    }
+                    Map<TopicPartition, Long> offsets = new HashMap<>();
+                    for (Map.Entry<TopicPartition, ListOffsetsResult.ListOffsetsResultInfo> entry :
+                            results.entrySet()) {
+                        offsets.put(entry.getKey(), entry.getValue().offset());
+                    }
+                    updateEndOffsets(offsets);
+                } finally {
+                    this.refreshing.set(false);
+                }
+            });
+        } catch (RuntimeException e) {
+            this.refreshing.set(false);
+            LOG.debug("Failed to look up end offsets for {}: {}", this.connector.getDatasetName(), e.getMessage());
+        }
+    }
+
+    private synchronized Admin admin() {
+        if (this.admin == null) {
+            Properties properties = FMod_DistributionLifecycle.connectionProperties(this.connector);
+            properties.put(AdminClientConfig.BOOTSTRAP_SERVERS_CONFIG, this.connector.getBootstrapServers());
+            // Not specific to the connector so that connectors of the same cluster can share a client
+            properties.put(AdminClientConfig.CLIENT_ID_CONFIG, "scg-ingest-lag");
+            this.admin = this.adminFactory.apply(properties);
+        }
+        return this.admin;
+    }
+
+    @Override
+    public synchronized void close() {
+        for (AutoCloseable gauge : this.gauges) {
+            try {
+                gauge.close();
+            } catch (Exception e) {
+                LOG.debug("Failed to close gauge: {}", e.getMessage());
+            }
+        }
+        this.admin = null;
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ *  Copyright (c) Telicent Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.telicent.core;
+
+import io.telicent.otel.IngestMetrics;
+import io.telicent.smart.cache.payloads.RdfPayload;
+import io.telicent.smart.cache.projectors.Sink;
+import io.telicent.smart.cache.sources.Event;
+import io.telicent.smart.cache.sources.kafka.KafkaEvent;
+import org.apache.kafka.common.utils.Bytes;
+
+import java.util.Objects;
+
+/**
+ * A sink that records {@link IngestMetrics} for each event passed on to the sink that applies it to the dataset
+ */
+public class IngestMetricsSink implements Sink<Event<Bytes, RdfPayload>> {
+
+    private final Sink<Event<Bytes, RdfPayload>> destination;
+
+    /**
+     * Creates a new sink
+     *
+     * @param destination Destination that applies events
+     */
+    public IngestMetricsSink(Sink<Event<Bytes, RdfPayload>> destination) {
+        this.destination = Objects.requireNonNull(destination, "destination cannot be null");
+    }
+
+    @Override
+    public void send(Event<Bytes, RdfPayload> event) {
+        long bytes = payloadBytes(event);
+        long start = System.nanoTime();
+        this.destination.send(event);
+        IngestMetrics.recordApplied(topic(event), bytes, System.nanoTime() - start);
+    }
+
+    /**
+     * Gets the Kafka topic an event was read from
+     *
+     * @param event Event
+     * @return Topic, or {@code null} if the event was not read from Kafka
+     */
+    static String topic(Event<?, ?> event) {
+        return (event instanceof KafkaEvent<?, ?> kafkaEvent) ? kafkaEvent.getConsumerRecord().topic() : null;
+    }
+
+    private static long payloadBytes(Event<Bytes, RdfPayload> event) {
+        if (event instanceof KafkaEvent<Bytes, RdfPayload> kafkaEvent) {
+            return kafkaEvent.getConsumerRecord().serializedValueSize();
+        }
+        RdfPayload payload = event.value();
+        byte[] data = (payload == null || payload.isReady()) ? null : payload.getRawData();
+        return (data == null) ? 0 : data.length;
+    }
+
+    @Override
+    public void close() {
+        this.destination.close();
+    }
+}
@@ -0,0 +1,379 @@
+/*
+ *  Copyright (c) Telicent Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.telicent.core;
+
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.telicent.otel.IngestMetrics;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.jena.kafka.JenaKafkaException;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.utils.Bytes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static io.telicent.backup.utils.JsonFileUtils.OBJECT_MAPPER;
+import static io.telicent.otel.FMod_OpenTelemetry.fixupName;
+
+/**
+ * Holds Kafka records that could not be applied to a dataset, either by publishing them to a dead letter topic or, if
+ * no topic is configured or Kafka is unavailable, by writing them to a local quarantine directory.
+ * <p>
+ * Dead letter records carry the original key, value and headers plus headers describing the failure and the original
+ * location of the record. Quarantine files are JSON documents, named for the original location of the record, holding
+ * the same information with the key and value Base64 encoded. The most recent quarantined records are also kept in
+ * memory for the {@code /$/ingest/quarantine} endpoint.
+ * </p>
+ * <p>
+ * Records are sent to the dead letter topic asynchronously, so quarantining a record does not wait on Kafka, with at
+ * most a bounded number of sends outstanding. When that bound is reached quarantining waits for a send to complete. A
+ * send that fails falls back to the quarantine directory, or, if there is none, the failure is raised by the next call
+ * to {@link #checkFailures()} so that ingest stops rather than quarantining further records that may be lost.
+ * </p>
+ */
+public class IngestQuarantine implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(IngestQuarantine.class);
+
+    /**
+     * Configuration key for the Kafka topic records that cannot be applied are sent to
+     */
+    public static final String ENV_INGEST_DLQ_TOPIC = "INGEST_DLQ_TOPIC";
+    /**
+     * Configuration key for the directory records that cannot be applied are written to when there is no dead letter
+     * topic, or it cannot be written to
+     */
+    public static final String ENV_INGEST_QUARANTINE_DIR = "INGEST_QUARANTINE_DIR";
+    /**
+     * Configuration key for the number of quarantined records listed by the quarantine endpoint
+     */
+    public static final String ENV_INGEST_QUARANTINE_HISTORY = "INGEST_QUARANTINE_HISTORY";
+    /** Default number of quarantined records listed */
+    public static final int DEFAULT_QUARANTINE_HISTORY = 1000;
+    /**
+     * Configuration key for the maximum number of records being sent to the dead letter topic at once
+     */
+    public static final String ENV_INGEST_DLQ_MAX_IN_FLIGHT = "INGEST_DLQ_MAX_IN_FLIGHT";
+    /** Default maximum number of records being sent to the dead letter topic */
+    public static final int DEFAULT_DLQ_MAX_IN_FLIGHT = 100;
+
+    /** Header giving the reason a record was dead lettered */
+    public static final String HEADER_REASON = "Dead-Letter-Reason";
+    /** Header giving the topic a dead lettered record was read from */
+    public static final String HEADER_SOURCE_TOPIC = "Dead-Letter-Source-Topic";
+    /** Header giving the partition a dead lettered record was read from */
+    public static final String HEADER_SOURCE_PARTITION = "Dead-Letter-Source-Partition";
+    /** Header giving the offset of a dead lettered record */
+    public static final String HEADER_SOURCE_OFFSET = "Dead-Letter-Source-Offset";
+
+    /** Destination of a record sent to the dead letter topic */
+    public static final String DESTINATION_DLQ = "dlq";
+    /** Destination of a record written to the quarantine directory */
+    public static final String DESTINATION_FILE = "file";
+
+    private static final long SEND_TIMEOUT_SECONDS = 30;
+    private static final long MAX_BLOCK_MILLIS = 5_000;
+
+    /**
+     * A quarantined record
+     *
+     * @param time        When the record was quarantined
+     * @param topic       Topic the record was read from
+     * @param partition   Partition the record was read from
+     * @param offset      Offset of the record
+     * @param reason      Reason the record could not be applied
+     * @param destination Where the record was sent, {@value #DESTINATION_DLQ} or {@value #DESTINATION_FILE}
+     * @param location    Dead letter topic or quarantine file
+     */
+    public record Entry(Instant time, String topic, int partition, long offset, String reason, String destination,
+                        String location) {}
+
+    private final String dlqTopic;
+    private final Path directory;
+    private final int history;
+    private final Function<String, Properties> connectionFor;
+    private final Function<Properties, Producer<byte[], byte[]>> producerFactory;
+    private final Map<Properties, Producer<byte[], byte[]>> producers = new HashMap<>();
+    private final Deque<Entry> recent = new ArrayDeque<>();
+    private final Semaphore inFlight;
+    private long sentToDlq = 0;
+    private long writtenToFile = 0;
+    private volatile JenaKafkaException failure;
+
+    /**
+     * Creates a new quarantine
+     *
+     * @param dlqTopic        Dead letter topic, or {@code null} to only use the quarantine directory
+     * @param directory       Quarantine directory, or {@code null} if records may only be sent to the dead letter topic
+     * @param history         Number of recent quarantined records to keep for listing
+     * @param connectionFor   Supplies the producer connection properties for the topic a record was read from, or
+     *                        {@code null} if not known
+     * @param producerFactory Creates the producers used to send to the dead letter topic
+     */
+    public IngestQuarantine(String dlqTopic, Path directory, int history, Function<String, Properties> connectionFor,
+                            Function<Properties, Producer<byte[], byte[]>> producerFactory) {
+        this(dlqTopic, directory, history, DEFAULT_DLQ_MAX_IN_FLIGHT, connectionFor, producerFactory);
+    }
+
+    /**
+     * Creates a new quarantine
+     *
+     * @param dlqTopic        Dead letter topic, or {@code null} to only use the quarantine directory
+     * @param directory       Quarantine directory, or {@code null} if records may only be sent to the dead letter topic
+     * @param history         Number of recent quarantined records to keep for listing
+     * @param maxInFlight     Maximum number of records being sent to the dead letter topic at once
+     * @param connectionFor   Supplies the producer connection properties for the topic a record was read from, or
+     *                        {@code null} if not known
+     * @param producerFactory Creates the producers used to send to the dead letter topic
+     */
+    public IngestQuarantine(String dlqTopic, Path directory, int history, int maxInFlight,
+                            Function<String, Properties> connectionFor,
+                            Function<Properties, Producer<byte[], byte[]>> producerFactory) {
+        if (StringUtils.isBlank(dlqTopic) && directory == null) {
+            throw new IllegalArgumentException(
+                    "At least one of a dead letter topic or quarantine directory is required");
+        }
+        this.dlqTopic = StringUtils.isBlank(dlqTopic) ? null : dlqTopic;
+        this.directory = directory;
+        this.history = Math.max(0, history);
+        this.inFlight = new Semaphore(Math.max(1, maxInFlight));
+        this.connectionFor = Objects.requireNonNull(connectionFor, "connectionFor cannot be null");
+        this.producerFactory = Objects.requireNonNull(producerFactory, "producerFactory cannot be null");
+    }
+
+    /**
+     * Quarantines a record, records sent to the dead letter topic are only listed once the send completes
+     *
+     * @param record Record
+     * @param value  Original value of the record
+     * @param reason Reason the record could not be applied
+     * @throws JenaKafkaException Thrown if the record could neither be sent to the dead letter topic nor written to
+     *                            the quarantine directory, or an earlier send to the dead letter topic failed
+     */
+    public void quarantine(ConsumerRecord<Bytes, ?> record, byte[] value, String reason) {
+        checkFailures();
+        if (this.dlqTopic != null && sendToDlq(record, value, reason)) {
+            return;
+        }
+        fallBackToFile(record, value, reason);
+    }
+
+    /**
+     * Raises the failure of an earlier send to the dead letter topic that could not fall back to the quarantine
+     * directory, if any
+     *
+     * @throws JenaKafkaException Thrown if such a send failed
+     */
+    public void checkFailures() {
+        JenaKafkaException current = this.failure;
+        if (current != null) {
+            throw current;
+        }
+    }
+
+    private void fallBackToFile(ConsumerRecord<Bytes, ?> record, byte[] value, String reason) {
+        if (this.directory == null) {
+            throw new JenaKafkaException(
+                    "Unable to send record " + describe(record) + " to dead letter topic " + this.dlqTopic);
+        }
+        quarantined(record, writeToFile(record, value, reason));
+    }
+
+    private void quarantined(ConsumerRecord<Bytes, ?> record, Entry entry) {
+        LOG.warn("Quarantined record {} to {} {}: {}", describe(record), entry.destination(), entry.location(),
+                 entry.reason());
+        IngestMetrics.recordQuarantined(record.topic(), entry.destination());
+        synchronized (this) {
+            if (DESTINATION_DLQ.equals(entry.destination())) {
+                this.sentToDlq++;
+            } else {
+                this.writtenToFile++;
+            }
+            this.recent.addLast(entry);
+            while (this.recent.size() > this.history) {
+                this.recent.removeFirst();
+            }
+        }
+    }
+
+    private static String describe(ConsumerRecord<?, ?> record) {
+        return record.topic() + "-" + record.partition() + "@" + record.offset();
+    }
+
+    /**
+     * Starts sending a record to the dead letter topic
+     *
+     * @return True if the send was started, false if it could not be and the record must be quarantined otherwise
+     */
+    private boolean sendToDlq(ConsumerRecord<Bytes, ?> record, byte[] value, String reason) {
+        Properties connection = this.connectionFor.apply(record.topic());
+        if (connection == null) {
+            LOG.warn("No Kafka connection known for topic {}, unable to use dead letter topic", record.topic());
+            return false;
+        }
+        RecordHeaders headers = new RecordHeaders();
+        for (Header header : record.headers()) {
+            headers.add(header);
+        }
+        headers.add(HEADER_REASON, bytes(reason));
+        headers.add(HEADER_SOURCE_TOPIC, bytes(record.topic()));
+        headers.add(HEADER_SOURCE_PARTITION, bytes(Integer.toString(record.partition())));
+        headers.add(HEADER_SOURCE_OFFSET, bytes(Long.toString(record.offset())));
+        byte[] key = (record.key() == null) ? null : record.key().get();
+        try {
+            // Backpressure, only waits once the maximum number of sends are outstanding
+            if (!this.inFlight.tryAcquire(SEND_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                LOG.warn("Timed out waiting to send {} to dead letter topic {}", describe(record), this.dlqTopic);
+                return false;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOG.warn("Interrupted waiting to send {} to dead letter topic {}", describe(record), this.dlqTopic);
+            return false;
+        }
+        try {
+            producer(connection).send(new ProducerRecord<>(this.dlqTopic, null, key, value, headers),
+                                      (metadata, error) -> sent(record, value, reason, error));
+            return true;
+        } catch (RuntimeException e) {
+            this.inFlight.release();
+            LOG.warn("Failed to send {} to dead letter topic {}: {}", describe(record), this.dlqTopic,
+                     e.getMessage());
+            return false;
+        }
+    }
+
+    private void sent(ConsumerRecord<Bytes, ?> record, byte[] value, String reason, Exception error) {
+        try {
+            if (error == null) {
+                quarantined(record, new Entry(Instant.now(), record.topic(), record.partition(), record.offset(),
+                                              reason, DESTINATION_DLQ, this.dlqTopic));
+                return;
+            }
+            LOG.warn("Failed to send {} to dead letter topic {}: {}", describe(record), this.dlqTopic,
+                     error.getMessage());
+            fallBackToFile(record, value, reason);
+        } catch (JenaKafkaException e) {
+            LOG.error("Record {} could not be quarantined, it must be recovered from its source topic: {}",
+                      describe(record), e.getMessage());
+            this.failure = e;
+        } finally {
+            this.inFlight.release();
+        }
+    }
+
+    private static byte[] bytes(String value) {
+        return (value == null ? "" : value).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private synchronized Producer<byte[], byte[]> producer(Properties connection) {
+        return this.producers.computeIfAbsent(connection, c -> {
+            Properties properties = new Properties();
+            properties.putAll(c);
+            properties.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class.getName());
+            properties.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class.getName());
+            properties.putIfAbsent(ProducerConfig.CLIENT_ID_CONFIG, "scg-ingest-dlq-" + (this.producers.size() + 1));
+            // Don't hold up ingest for long if the cluster is unavailable, the record falls back to the directory
+            properties.putIfAbsent(ProducerConfig.MAX_BLOCK_MS_CONFIG, Long.toString(MAX_BLOCK_MILLIS));
+            return this.producerFactory.apply(properties);
+        });
+    }
+
+    private Entry writeToFile(ConsumerRecord<Bytes, ?> record, byte[] value, String reason) {
+        Instant now = Instant.now();
+        ObjectNode json = OBJECT_MAPPER.createObjectNode();
+        json.put("topic", record.topic());
+        json.put("partition", record.partition());
+        json.put("offset", record.offset());
+        json.put("reason", reason);
+        json.put("quarantined", now.toString());
+        ObjectNode headers = json.putObject("headers");
+        for (Header header : record.headers()) {
+            headers.put(header.key(),
+                        header.value() == null ? null : new String(header.value(), StandardCharsets.UTF_8));
+        }
+        Base64.Encoder encoder = Base64.getEncoder();
+        json.put("key", record.key() == null ? null : encoder.encodeToString(record.key().get()));
+        json.put("value", value == null ? null : encoder.encodeToString(value));
+
+        Path file = this.directory.resolve(
+                fixupName(record.topic()) + "-" + record.partition() + "-" + record.offset() + ".json");
+        try {
+            Files.createDirectories(this.directory);
+            OBJECT_MAPPER.writerWithDefaultPrettyPrinter().writeValue(file.toFile(), json);
+        } catch (IOException e) {
+            throw new JenaKafkaException("Unable to write record " + describe(record) + " to quarantine file " + file,
+                                         e);
+        }
+        return new Entry(now, record.topic(), record.partition(), record.offset(), reason, DESTINATION_FILE,
+                         file.toString());
+    }
+
+    /**
+     * Lists the quarantine counts and most recent quarantined records as JSON
+     *
+     * @return JSON
+     */
+    public synchronized ObjectNode toJson() {
+        ObjectNode json = OBJECT_MAPPER.createObjectNode();
+        json.put("dlqTopic", this.dlqTopic);
+        json.put("quarantineDirectory", this.directory == null ? null : this.directory.toString());
+        json.put(DESTINATION_DLQ, this.sentToDlq);
+        json.put(DESTINATION_FILE, this.writtenToFile);
+        ArrayNode records = json.putArray("records");
+        for (Entry entry : this.recent) {
+            ObjectNode node = records.addObject();
+            node.put("time", entry.time().toString());
+            node.put("topic", entry.topic());
+            node.put("partition", entry.partition());
+            node.put("offset", entry.offset());
+            node.put("reason", entry.reason());
+            node.put("destination", entry.destination());
+            node.put("location", entry.location());
+        }
+        return json;
+    }
+
+    @Override
+    public synchronized void close() {
+        // Closing a producer waits for its outstanding sends to complete
+        this.producers.values().forEach(producer -> {
+            try {
+                producer.close();
+            } catch (RuntimeException e) {
+                LOG.warn("Failed to close dead letter producer: {}", e.getMessage());
+            }
+        });
+        this.producers.clear();
+    }
+}
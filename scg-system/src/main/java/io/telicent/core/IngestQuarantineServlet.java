@@ -0,0 +1,47 @@
+/*
+ *  Copyright (c) Telicent Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.telicent.core;
+
+import io.telicent.utils.ServletUtils;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import java.util.Objects;
+
+/**
+ * Lists the Kafka records that have been quarantined rather than applied, served at {@code /$/ingest/quarantine}
+ */
+public class IngestQuarantineServlet extends HttpServlet {
+
+    private final IngestQuarantine quarantine;
+
+    /**
+     * Creates a new servlet
+     *
+     * @param quarantine Quarantine to list
+     */
+    public IngestQuarantineServlet(IngestQuarantine quarantine) {
+        this.quarantine = Objects.requireNonNull(quarantine, "quarantine cannot be null");
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) {
+        response.setStatus(HttpServletResponse.SC_OK);
+        ServletUtils.processResponse(response, this.quarantine.toJson());
+    }
+}
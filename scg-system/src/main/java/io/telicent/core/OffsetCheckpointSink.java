@@ -0,0 +1,195 @@
+/*
+ *  Copyright (c) Telicent Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.telicent.core;
+
+import io.telicent.smart.cache.payloads.RdfPayload;
+import io.telicent.smart.cache.projectors.Sink;
+import io.telicent.smart.cache.sources.Event;
+import io.telicent.smart.cache.sources.kafka.KafkaEvent;
+import org.apache.jena.dboe.storage.StoragePrefixes;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.query.ReadWrite;
+import org.apache.jena.riot.system.PrefixEntry;
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.sparql.core.DatasetGraphWrapper;
+import org.apache.jena.system.Txn;
+import org.apache.jena.tdb2.store.DatasetGraphTDB;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.utils.Bytes;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A sink that checkpoints the Kafka offsets of the events it applies into the dataset itself, within the same
+ * transaction as the data, so that the dataset always records exactly which offsets its committed state includes.
+ * <p>
+ * Offsets are stored in the TDB2 prefix table, rather than as data, under the reserved key {@value #GRAPH_URI} with
+ * one entry per topic partition giving the offset of the next record to be read. The prefix table is written in the
+ * same transaction as the data, but only the dataset's own prefixes are visible to users, so the checkpoint never
+ * appears in queries, Graph Store Protocol requests or exports. On startup the connector resumes from it rather than
+ * from the separately written offsets state file.
+ * </p>
+ */
+public class OffsetCheckpointSink implements Sink<Event<Bytes, RdfPayload>> {
+
+    /**
+     * Configuration key to enable checkpointing Kafka offsets into TDB2 datasets, defaults to false
+     */
+    public static final String ENV_INGEST_OFFSET_CHECKPOINT = "INGEST_OFFSET_CHECKPOINT";
+
+    /** URI of the prefix table key offsets are stored under */
+    public static final String GRAPH_URI = "urn:x-telicent:smart-cache-graph:kafka-offsets";
+
+    static final Node GRAPH = NodeFactory.createURI(GRAPH_URI);
+
+    private final DatasetGraph dataset;
+    private final Sink<Event<Bytes, RdfPayload>> destination;
+
+    /**
+     * Creates a new sink
+     *
+     * @param dataset     TDB2 dataset to store offsets in, this must share its transactions with the dataset the
+     *                    destination applies events to
+     * @param destination Destination that applies events
+     */
+    public OffsetCheckpointSink(DatasetGraph dataset, Sink<Event<Bytes, RdfPayload>> destination) {
+        this.dataset = Objects.requireNonNull(dataset, "dataset cannot be null");
+        this.destination = Objects.requireNonNull(destination, "destination cannot be null");
+    }
+
+    @Override
+    public void send(Event<Bytes, RdfPayload> event) {
+        this.destination.send(event);
+        if (event instanceof KafkaEvent<Bytes, RdfPayload> kafkaEvent && this.dataset.isInTransaction()
+            && this.dataset.transactionMode() == ReadWrite.WRITE) {
+            // Looked up each time as the dataset may have switched to a new generation since the last event
+            StoragePrefixes storage = storage(this.dataset);
+            if (storage != null) {
+                ConsumerRecord<Bytes, RdfPayload> record = kafkaEvent.getConsumerRecord();
+                storage.add(GRAPH, key(record.topic(), record.partition()), Long.toString(record.offset() + 1));
+            }
+        }
+    }
+
+    static String key(String topic, int partition) {
+        return topic + "/" + partition;
+    }
+
+    /**
+     * Finds the prefix table of the TDB2 generation a dataset currently uses
+     *
+     * @param dataset Dataset
+     * @return Prefix table, or {@code null} if not a TDB2 dataset
+     */
+    private static StoragePrefixes storage(DatasetGraph dataset) {
+        while (dataset instanceof DatasetGraphWrapper wrapper) {
+            dataset = wrapper.getWrapped();
+        }
+        return dataset instanceof DatasetGraphTDB tdb ? tdb.getStoragePrefixes() : null;
+    }
+
+    /**
+     * Reads the checkpointed offsets from a dataset
+     *
+     * @param dataset Dataset
+     * @return Offset of the next record to be read for each topic partition, empty if there is no checkpoint
+     */
+    public static Map<TopicPartition, Long> read(DatasetGraph dataset) {
+        return Txn.calculateRead(dataset, () -> {
+            Map<TopicPartition, Long> offsets = new HashMap<>();
+            StoragePrefixes storage = storage(dataset);
+            if (storage == null) {
+                return offsets;
+            }
+            Iterator<PrefixEntry> entries = storage.get(GRAPH);
+            while (entries.hasNext()) {
+                PrefixEntry entry = entries.next();
+                TopicPartition partition = parsePartition(entry.getPrefix());
+                if (partition != null) {
+                    try {
+                        offsets.put(partition, Long.parseLong(entry.getUri()));
+                    } catch (NumberFormatException e) {
+                        // Ignore, not a checkpoint this sink wrote
+                    }
+                }
+            }
+            return offsets;
+        });
+    }
+
+    /**
+     * Writes checkpointed offsets to a dataset, as when moving a checkpoint to a new generation of a database
+     *
+     * @param dataset Dataset
+     * @param offsets Offset of the next record to be read for each topic partition
+     */
+    public static void write(DatasetGraph dataset, Map<TopicPartition, Long> offsets) {
+        if (offsets.isEmpty()) {
+            return;
+        }
+        Txn.executeWrite(dataset, () -> {
+            StoragePrefixes storage = storage(dataset);
+            if (storage != null) {
+                add(storage, offsets);
+            }
+        });
+    }
+
+    /**
+     * Replaces the checkpointed offsets of a dataset, as when restoring it from a backup, so that only the given
+     * offsets are left
+     *
+     * @param dataset Dataset
+     * @param offsets Offset of the next record to be read for each topic partition, empty to remove the checkpoint
+     */
+    public static void replace(DatasetGraph dataset, Map<TopicPartition, Long> offsets) {
+        Txn.executeWrite(dataset, () -> {
+            StoragePrefixes storage = storage(dataset);
+            if (storage != null) {
+                storage.deleteAll(GRAPH);
+                add(storage, offsets);
+            }
+        });
+    }
+
+    private static void add(StoragePrefixes storage, Map<TopicPartition, Long> offsets) {
+        offsets.forEach((partition, offset) -> storage.add(GRAPH, key(partition.topic(), partition.partition()),
+                                                           Long.toString(offset)));
+    }
+
+    private static TopicPartition parsePartition(String key) {
+        int separator = key.lastIndexOf('/');
+        if (separator <= 0) {
+            return null;
+        }
+        try {
+            return new TopicPartition(key.substring(0, separator), Integer.parseInt(key.substring(separator + 1)));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void close() {
+        this.destination.close();
+    }
+}
@@ -0,0 +1,605 @@
+/*
+ *  Copyright (c) Telicent Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.telicent.core;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.jena.dboe.base.file.Location;
+import org.apache.jena.dboe.transaction.txn.TransactionCoordinator;
+import org.apache.jena.graph.Node;
+import org.apache.jena.query.ReadWrite;
+import org.apache.jena.query.TxnType;
+import org.apache.jena.rdfpatch.RDFChanges;
+import org.apache.jena.rdfpatch.RDFPatchOps;
+import org.apache.jena.sparql.JenaTransactionException;
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.sparql.core.DatasetGraphWrapper;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.jena.system.Txn;
+import org.apache.jena.tdb2.store.DatasetGraphSwitchable;
+import org.apache.jena.tdb2.store.DatasetGraphTDB;
+import org.apache.jena.tdb2.sys.DatabaseOps;
+import org.apache.jena.tdb2.sys.StoreConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compacts a TDB2 database while it remains available for reads and writes.
+ * <p>
+ * {@link org.apache.jena.tdb2.DatabaseMgr#compact(DatasetGraph, boolean)} requires the dataset to be in exclusive
+ * mode for the whole copy, so on a large database every request is blocked for minutes. An online compaction instead:
+ * </p>
+ * <ol>
+ *     <li>Places a wrapper in front of the current generation that records every committed change and can hold back
+ *     new transactions.</li>
+ *     <li>Copies a read snapshot of the current generation into a new, temporary, {@code Data-NNNN} directory while
+ *     readers and writers carry on as normal.</li>
+ *     <li>Replays the changes committed since the snapshot into the new generation until it has caught up.</li>
+ *     <li>Holds back new transactions, waits for those in progress to finish, replays the final changes, moves the new
+ *     generation into place and switches the dataset to it.</li>
+ * </ol>
+ * <p>
+ * Only the final step blocks requests, and only for as long as it takes to replay the last few changes. Replaying a
+ * change that the snapshot already includes is harmless, so the snapshot need only be taken after recording started.
+ * The new generation only gets its {@code Data-NNNN} name during the final step, so a failure part way through never
+ * leaves a partial generation that would be opened on restart. If transactions in progress do not finish within the
+ * swap timeout the compaction is abandoned and the dataset carries on using the current generation.
+ * </p>
+ * <p>
+ * Recorded changes are held in memory until replayed, so if more than the maximum number of changes are waiting to be
+ * replayed at once, as when a large load runs during the snapshot copy, recording stops and the compaction fails
+ * rather than exhausting memory. While a compaction is in progress the dataset's current generation is wrapped, so
+ * other operations that need the TDB2 database itself, such as restores, must not run at the same time, see
+ * {@link #currentGeneration(DatasetGraphSwitchable)}.
+ * </p>
+ */
+public class OnlineCompaction {
+
+    private static final Logger LOG = LoggerFactory.getLogger(OnlineCompaction.class);
+
+    /**
+     * Configuration key to compact datasets online rather than in exclusive mode, defaults to false
+     */
+    public static final String ENV_COMPACTION_ONLINE = "COMPACTION_ONLINE";
+    /**
+     * Configuration key for how long, in milliseconds, to wait for transactions in progress to finish before switching
+     * to the compacted generation
+     */
+    public static final String ENV_COMPACTION_SWAP_TIMEOUT_MS = "COMPACTION_SWAP_TIMEOUT_MS";
+    /** Default swap timeout, 30 seconds */
+    public static final long DEFAULT_SWAP_TIMEOUT_MS = 30_000;
+    /**
+     * Configuration key for the maximum number of recorded changes waiting to be replayed before a compaction fails
+     */
+    public static final String ENV_COMPACTION_MAX_PENDING_CHANGES = "COMPACTION_MAX_PENDING_CHANGES";
+    /** Default maximum number of recorded changes waiting to be replayed */
+    public static final int DEFAULT_MAX_PENDING_CHANGES = 1_000_000;
+
+    /** Stop catching up, and attempt the swap, once there are no more than this many changes left to replay */
+    static final int CATCH_UP_THRESHOLD = 10_000;
+    private static final int MAX_CATCH_UP_ROUNDS = 100;
+    private static final String TEMP_SUFFIX = "-compacting";
+
+    private final DatasetGraphSwitchable container;
+    private final long swapTimeoutMillis;
+    private final int maxPendingChanges;
+    private final Runnable afterSnapshot;
+
+    /**
+     * Creates a new online compaction
+     *
+     * @param container         Database to compact
+     * @param swapTimeoutMillis How long to wait for transactions in progress to finish before switching generation
+     */
+    public OnlineCompaction(DatasetGraphSwitchable container, long swapTimeoutMillis) {
+        this(container, swapTimeoutMillis, DEFAULT_MAX_PENDING_CHANGES);
+    }
+
+    /**
+     * Creates a new online compaction
+     *
+     * @param container         Database to compact
+     * @param swapTimeoutMillis How long to wait for transactions in progress to finish before switching generation
+     * @param maxPendingChanges Maximum number of recorded changes waiting to be replayed before the compaction fails
+     */
+    public OnlineCompaction(DatasetGraphSwitchable container, long swapTimeoutMillis, int maxPendingChanges) {
+        this(container, swapTimeoutMillis, maxPendingChanges, () -> {
+        });
+    }
+
+    /**
+     * Creates a new online compaction
+     *
+     * @param container         Database to compact
+     * @param swapTimeoutMillis How long to wait for transactions in progress to finish before switching generation
+     * @param maxPendingChanges Maximum number of recorded changes waiting to be replayed before the compaction fails
+     * @param afterSnapshot     Called once the snapshot has been copied, intended for testing
+     */
+    OnlineCompaction(DatasetGraphSwitchable container, long swapTimeoutMillis, int maxPendingChanges,
+                     Runnable afterSnapshot) {
+        this.container = Objects.requireNonNull(container, "container cannot be null");
+        this.swapTimeoutMillis = swapTimeoutMillis;
+        // Catching up only starts replaying once this many changes are waiting, so the limit can't be any lower
+        this.maxPendingChanges = Math.max(maxPendingChanges, CATCH_UP_THRESHOLD + 1);
+        this.afterSnapshot = Objects.requireNonNull(afterSnapshot, "afterSnapshot cannot be null");
+    }
+
+    /**
+     * Indicates whether a database can be compacted online
+     *
+     * @param container Database
+     * @return True if the current generation is an on-disk TDB2 database
+     */
+    public static boolean isSupported(DatasetGraphSwitchable container) {
+        return container.get() instanceof DatasetGraphTDB && container.getContainerPath() != null
+               && DatabaseOps.findStorageLocation(container.getContainerPath()) != null;
+    }
+
+    /**
+     * Gets the TDB2 database a dataset is currently using, seeing through the wrapper an online compaction places in
+     * front of it
+     *
+     * @param container Database
+     * @return Current generation, or {@code null} if not a TDB2 database
+     */
+    public static DatasetGraphTDB currentGeneration(DatasetGraphSwitchable container) {
+        DatasetGraph dsg = container.get();
+        while (dsg instanceof DatasetGraphWrapper wrapper) {
+            dsg = wrapper.getWrapped();
+        }
+        return dsg instanceof DatasetGraphTDB tdb ? tdb : null;
+    }
+
+    /**
+     * Indicates whether an online compaction of a database is in progress
+     *
+     * @param container Database
+     * @return True if a compaction is in progress
+     */
+    public static boolean isInProgress(DatasetGraphSwitchable container) {
+        return container.get() instanceof GatedDatasetGraph;
+    }
+
+    /**
+     * Compacts the database
+     *
+     * @param deleteOld Whether to delete the previous generation once switched
+     * @return True if compacted, false if abandoned because transactions in progress did not finish in time
+     * @throws IOException           Thrown if the new generation cannot be created or moved into place
+     * @throws IllegalStateException Thrown if too many changes were committed during the compaction to hold them all
+     *                               in memory, the dataset carries on using its current generation
+     */
+    public boolean compact(boolean deleteOld) throws IOException {
+        if (!(this.container.get() instanceof DatasetGraphTDB current)) {
+            throw new IllegalStateException("Not an on-disk TDB2 database");
+        }
+        Path currentDir = DatabaseOps.findStorageLocation(this.container.getContainerPath());
+        Path nextDir = nextGeneration(currentDir);
+        Path tempDir = nextDir.resolveSibling(nextDir.getFileName() + TEMP_SUFFIX);
+        FileUtils.deleteDirectory(tempDir.toFile());
+
+        ChangeLog changes = new ChangeLog(this.maxPendingChanges);
+        GatedDatasetGraph gate = new GatedDatasetGraph(RDFPatchOps.changes(current, changes));
+        if (!this.container.change(current, gate)) {
+            throw new IllegalStateException("Database changed generation during compaction");
+        }
+        Location tempLocation = Location.create(tempDir.toString());
+        boolean switched = false;
+        try {
+            // Wait for any write transaction that began before changes were recorded to finish, so that everything it
+            // wrote is either in the snapshot or recorded
+            Txn.executeWrite(current, () -> {
+            });
+
+            DatasetGraphTDB next = StoreConnection.connectCreate(tempLocation).getDatasetGraphTDB();
+            copySnapshot(current, next);
+            this.afterSnapshot.run();
+
+            int rounds = 0;
+            while (changes.pending() > CATCH_UP_THRESHOLD && rounds++ < MAX_CATCH_UP_ROUNDS) {
+                replay(drain(changes), next);
+            }
+            replay(drain(changes), next);
+
+            // Hold back new transactions, and wait for those in progress, only for the final swap
+            if (!gate.close(this.swapTimeoutMillis)) {
+                LOG.warn("[Compaction] Abandoning online compaction of {}, transactions in progress did not finish "
+                         + "within {} ms", currentDir, this.swapTimeoutMillis);
+                return false;
+            }
+            try {
+                TransactionCoordinator txnMgr = current.getTxnSystem().getTxnMgr();
+                if (!awaitExclusive(txnMgr)) {
+                    LOG.warn("[Compaction] Abandoning online compaction of {}, transactions begun before compaction "
+                             + "started did not finish within {} ms", currentDir, this.swapTimeoutMillis);
+                    return false;
+                }
+                try {
+                    replay(drain(changes), next);
+                    // Checkpointed offsets are written directly to the prefix table so aren't recorded as changes
+                    OffsetCheckpointSink.write(next, OffsetCheckpointSink.read(current));
+                    StoreConnection.release(tempLocation);
+                    Files.move(tempDir, nextDir);
+                    DatasetGraphTDB compacted =
+                            StoreConnection.connectExisting(Location.create(nextDir.toString())).getDatasetGraphTDB();
+                    gate.switchTo(compacted);
+                    this.container.change(gate, compacted);
+                    switched = true;
+                } finally {
+                    txnMgr.finishExclusiveMode();
+                }
+            } finally {
+                gate.open();
+            }
+        } finally {
+            if (!switched) {
+                this.container.change(gate, current);
+                StoreConnection.release(tempLocation);
+                FileUtils.deleteDirectory(tempDir.toFile());
+            }
+        }
+
+        StoreConnection.release(current.getLocation());
+        if (deleteOld) {
+            FileUtils.deleteDirectory(currentDir.toFile());
+        }
+        return true;
+    }
+
+    private boolean awaitExclusive(TransactionCoordinator txnMgr) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.swapTimeoutMillis);
+        while (!txnMgr.tryExclusiveMode(false)) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets the directory of the generation after the given one
+     *
+     * @param current Current generation directory, e.g. {@code Data-0001}
+     * @return Next generation directory, e.g. {@code Data-0002}
+     */
+    public static Path nextGeneration(Path current) {
+        String name = current.getFileName().toString();
+        int separator = name.lastIndexOf('-');
+        int index = Integer.parseInt(name.substring(separator + 1));
+        return current.resolveSibling(String.format("%s-%04d", name.substring(0, separator), index + 1));
+    }
+
+    private static void copySnapshot(DatasetGraphTDB source, DatasetGraphTDB target) {
+        Txn.executeRead(source, () -> Txn.executeWrite(target, () -> {
+            source.find().forEachRemaining(target::add);
+            target.prefixes().putAll(source.prefixes());
+        }));
+    }
+
+    private List<Change> drain(ChangeLog changes) {
+        if (changes.overflowed()) {
+            throw new IllegalStateException("More than " + this.maxPendingChanges + " changes were committed to "
+                                            + this.container.getContainerPath() + " faster than they could be "
+                                            + "replayed, abandoning online compaction");
+        }
+        return changes.drain();
+    }
+
+    private static void replay(List<Change> changes, DatasetGraph target) {
+        if (changes.isEmpty()) {
+            return;
+        }
+        Txn.executeWrite(target, () -> {
+            for (Change change : changes) {
+                change.apply(target);
+            }
+        });
+    }
+
+    /**
+     * A change recorded from a committed transaction
+     *
+     * @param add    Whether this is an addition rather than a deletion
+     * @param quad   Quad changed, or {@code null} for a prefix change
+     * @param prefix Prefix changed
+     * @param uri    URI of an added prefix
+     */
+    record Change(boolean add, Quad quad, String prefix, String uri) {
+        void apply(DatasetGraph target) {
+            if (this.quad != null) {
+                if (this.add) {
+                    target.add(this.quad);
+                } else {
+                    target.delete(this.quad);
+                }
+            } else if (this.add) {
+                target.prefixes().add(this.prefix, this.uri);
+            } else {
+                target.prefixes().delete(this.prefix);
+            }
+        }
+    }
+
+    /**
+     * Records the changes made by each transaction, only keeping them once the transaction commits
+     * <p>
+     * Once more than the maximum number of changes are waiting to be replayed, including those of a single
+     * transaction, the log overflows. It then discards everything and records nothing further.
+     * </p>
+     */
+    static final class ChangeLog implements RDFChanges {
+        private final int maxPending;
+        private final ThreadLocal<List<Change>> transaction = new ThreadLocal<>();
+        private final List<Change> committed = new ArrayList<>();
+        private volatile boolean overflowed = false;
+
+        ChangeLog(int maxPending) {
+            this.maxPending = maxPending;
+        }
+
+        private void record(Change change) {
+            if (this.overflowed) {
+                this.transaction.remove();
+                return;
+            }
+            List<Change> current = this.transaction.get();
+            if (current == null) {
+                current = new ArrayList<>();
+                this.transaction.set(current);
+            }
+            current.add(change);
+            if (current.size() > this.maxPending) {
+                this.transaction.remove();
+                overflow();
+            }
+        }
+
+        private synchronized void overflow() {
+            this.overflowed = true;
+            this.committed.clear();
+        }
+
+        boolean overflowed() {
+            return this.overflowed;
+        }
+
+        synchronized int pending() {
+            return this.committed.size();
+        }
+
+        synchronized List<Change> drain() {
+            List<Change> drained = new ArrayList<>(this.committed);
+            this.committed.clear();
+            return drained;
+        }
+
+        @Override
+        public void header(String field, Node value) {
+        }
+
+        @Override
+        public void add(Node g, Node s, Node p, Node o) {
+            record(new Change(true, Quad.create(g == null ? Quad.defaultGraphIRI : g, s, p, o), null, null));
+        }
+
+        @Override
+        public void delete(Node g, Node s, Node p, Node o) {
+            record(new Change(false, Quad.create(g == null ? Quad.defaultGraphIRI : g, s, p, o), null, null));
+        }
+
+        @Override
+        public void addPrefix(Node gn, String prefix, String uriStr) {
+            record(new Change(true, null, prefix, uriStr));
+        }
+
+        @Override
+        public void deletePrefix(Node gn, String prefix) {
+            record(new Change(false, null, prefix, null));
+        }
+
+        @Override
+        public void txnBegin() {
+            this.transaction.remove();
+        }
+
+        @Override
+        public void txnCommit() {
+            List<Change> current = this.transaction.get();
+            this.transaction.remove();
+            if (current != null) {
+                synchronized (this) {
+                    if (this.overflowed) {
+                        return;
+                    }
+                    if (this.committed.size() + current.size() > this.maxPending) {
+                        overflow();
+                    } else {
+                        this.committed.addAll(current);
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void txnAbort() {
+            this.transaction.remove();
+        }
+
+        @Override
+        public void segment() {
+        }
+
+        @Override
+        public void start() {
+        }
+
+        @Override
+        public void finish() {
+        }
+    }
+
+    /**
+     * A wrapper that can hold back new transactions while the dataset it wraps is switched
+     */
+    static final class GatedDatasetGraph extends DatasetGraphWrapper {
+        private final Object lock = new Object();
+        private final ThreadLocal<Boolean> entered = new ThreadLocal<>();
+        private volatile DatasetGraph target;
+        private boolean closed = false;
+        private int active = 0;
+
+        GatedDatasetGraph(DatasetGraph target) {
+            super(target);
+            this.target = target;
+        }
+
+        @Override
+        protected DatasetGraph get() {
+            return this.target;
+        }
+
+        void switchTo(DatasetGraph newTarget) {
+            this.target = newTarget;
+        }
+
+        @Override
+        public void begin(TxnType type) {
+            enter();
+            try {
+                this.target.begin(type);
+            } catch (RuntimeException e) {
+                exit();
+                throw e;
+            }
+        }
+
+        @Override
+        public void begin() {
+            begin(TxnType.READ_PROMOTE);
+        }
+
+        @Override
+        public void begin(ReadWrite readWrite) {
+            begin(TxnType.convert(readWrite));
+        }
+
+        @Override
+        public void commit() {
+            try {
+                this.target.commit();
+            } finally {
+                exit();
+            }
+        }
+
+        @Override
+        public void abort() {
+            try {
+                this.target.abort();
+            } finally {
+                exit();
+            }
+        }
+
+        @Override
+        public void end() {
+            try {
+                this.target.end();
+            } finally {
+                exit();
+            }
+        }
+
+        private void enter() {
+            if (this.entered.get() != null) {
+                return;
+            }
+            synchronized (this.lock) {
+                while (this.closed) {
+                    try {
+                        this.lock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new JenaTransactionException("Interrupted waiting for compaction to finish");
+                    }
+                }
+                this.active++;
+            }
+            this.entered.set(Boolean.TRUE);
+        }
+
+        private void exit() {
+            if (this.entered.get() == null) {
+                return;
+            }
+            this.entered.remove();
+            synchronized (this.lock) {
+                this.active--;
+                this.lock.notifyAll();
+            }
+        }
+
+        /**
+         * Holds back new transactions and waits for those in progress to finish
+         *
+         * @param timeoutMillis How long to wait
+         * @return True if no transactions are in progress, false if the wait timed out, in which case the gate is left
+         * open
+         */
+        boolean close(long timeoutMillis) {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            synchronized (this.lock) {
+                this.closed = true;
+                while (this.active > 0) {
+                    long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                    if (remaining <= 0) {
+                        open();
+                        return false;
+                    }
+                    try {
+                        this.lock.wait(remaining);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        open();
+                        return false;
+                    }
+                }
+                return true;
+            }
+        }
+
+        void open() {
+            synchronized (this.lock) {
+                this.closed = false;
+                this.lock.notifyAll();
+            }
+        }
+    }
+}
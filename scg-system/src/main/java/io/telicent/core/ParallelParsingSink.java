@@ -0,0 +1,148 @@
+/*
+ *  Copyright (c) Telicent Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.telicent.core;
+
+import io.telicent.otel.IngestMetrics;
+import io.telicent.smart.cache.payloads.RdfPayload;
+import io.telicent.smart.cache.projectors.Sink;
+import io.telicent.smart.cache.sources.Event;
+import io.telicent.smart.cache.sources.kafka.KafkaEvent;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.web.HttpNames;
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.utils.Bytes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Objects;
+
+/**
+ * A sink that applies large line based RDF payloads, N-Triples and N-Quads, parsed in chunks by a
+ * {@link ChunkedParser}.
+ * <p>
+ * Payloads are normally parsed ahead of time by {@link ParseAheadInterceptor} as the connector polls them from Kafka,
+ * before the connector begins the write transaction they are applied in, so parsing does not extend how long the
+ * dataset's writer lock is held. Payloads that were not parsed ahead of time, e.g. because the parse ahead memory limit
+ * was reached, are parsed here in the same way. Either way the chunks are added to a single in-memory dataset as they
+ * are parsed, so at most the parser's queue depth of parsed chunks is held besides it, and the record is passed on to
+ * the destination as one event carrying that dataset. A payload is therefore parsed in full before any of it is
+ * applied, so a payload that fails to parse makes no changes to the dataset and can be quarantined by a
+ * {@link DeadLetterSink}. Other formats, small payloads and payloads that have already been parsed are passed through
+ * unchanged.
+ * </p>
+ */
+public class ParallelParsingSink implements Sink<Event<Bytes, RdfPayload>> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ParallelParsingSink.class);
+
+    /**
+     * Configuration key for the number of threads used to parse large N-Triples/N-Quads payloads, zero or one, the
+     * default, parses payloads on the ingest thread
+     */
+    public static final String ENV_INGEST_PARSE_THREADS = "INGEST_PARSE_THREADS";
+    /**
+     * Configuration key for the minimum size, in bytes, of a payload before it is parsed in parallel
+     */
+    public static final String ENV_INGEST_PARALLEL_PARSE_MIN_BYTES = "INGEST_PARALLEL_PARSE_MIN_BYTES";
+    /** Default minimum payload size for parallel parsing, 1 MiB */
+    public static final int DEFAULT_PARALLEL_PARSE_MIN_BYTES = 1024 * 1024;
+    /**
+     * Configuration key for the size, in bytes, of the chunks a payload is split into for parsing
+     */
+    public static final String ENV_INGEST_PARSE_CHUNK_BYTES = "INGEST_PARSE_CHUNK_BYTES";
+    /** Default parse chunk size, 256 KiB */
+    public static final int DEFAULT_PARSE_CHUNK_BYTES = 256 * 1024;
+    /**
+     * Configuration key for the maximum number of chunks being parsed, or parsed and waiting to be applied, at once,
+     * defaults to twice the number of parse threads
+     */
+    public static final String ENV_INGEST_PARSE_QUEUE_DEPTH = "INGEST_PARSE_QUEUE_DEPTH";
+    /**
+     * Configuration key for the maximum estimated memory, in bytes, held by payloads parsed ahead of the connector's
+     * transaction and not yet applied, see {@link ParseAheadBuffer}, the remainder are parsed as they are applied
+     */
+    public static final String ENV_INGEST_PARSE_AHEAD_MAX_BYTES = "INGEST_PARSE_AHEAD_MAX_BYTES";
+    /** Default parse ahead limit, 256 MiB */
+    public static final long DEFAULT_PARSE_AHEAD_MAX_BYTES = 256L * 1024 * 1024;
+
+    private final Sink<Event<Bytes, RdfPayload>> destination;
+    private final ChunkedParser parser;
+    private final ParseAheadBuffer parsedAhead;
+
+    /**
+     * Creates a new sink for payloads that are not parsed ahead of time
+     *
+     * @param destination Destination that applies the parsed payloads
+     * @param parser      Parser
+     */
+    public ParallelParsingSink(Sink<Event<Bytes, RdfPayload>> destination, ChunkedParser parser) {
+        this(destination, parser, null);
+    }
+
+    /**
+     * Creates a new sink
+     *
+     * @param destination Destination that applies the parsed payloads
+     * @param parser      Parser for payloads that were not parsed ahead of time
+     * @param parsedAhead Buffer of the connector's consumer group holding payloads parsed ahead of time, may be
+     *                    {@code null}
+     */
+    public ParallelParsingSink(Sink<Event<Bytes, RdfPayload>> destination, ChunkedParser parser,
+                               ParseAheadBuffer parsedAhead) {
+        this.destination = Objects.requireNonNull(destination, "destination cannot be null");
+        this.parser = Objects.requireNonNull(parser, "parser cannot be null");
+        this.parsedAhead = parsedAhead;
+    }
+
+    @Override
+    public void send(Event<Bytes, RdfPayload> event) {
+        RdfPayload payload = event.value();
+        if (payload == null || payload.isReady()) {
+            this.destination.send(event);
+            return;
+        }
+        byte[] data = payload.getRawData();
+        Lang lang = this.parser.lang(event.lastHeader(HttpNames.hContentType), data);
+        if (lang == null) {
+            this.destination.send(event);
+            return;
+        }
+        DatasetGraph parsed = parsedAhead(event);
+        if (parsed == null) {
+            long start = System.nanoTime();
+            parsed = this.parser.parse(data, lang);
+            long elapsed = System.nanoTime() - start;
+            IngestMetrics.recordParse(IngestMetricsSink.topic(event), elapsed);
+            LOG.debug("Parsed {} bytes of {} in {} ms", data.length, lang.getName(), elapsed / 1_000_000);
+        }
+        this.destination.send(event.replaceValue(RdfPayload.of(parsed)));
+    }
+
+    private DatasetGraph parsedAhead(Event<Bytes, RdfPayload> event) {
+        if (this.parsedAhead == null || !(event instanceof KafkaEvent<Bytes, RdfPayload> kafkaEvent)) {
+            return null;
+        }
+        ConsumerRecord<Bytes, RdfPayload> record = kafkaEvent.getConsumerRecord();
+        return this.parsedAhead.take(record.topic(), record.partition(), record.offset());
+    }
+
+    @Override
+    public void close() {
+        this.destination.close();
+    }
+}
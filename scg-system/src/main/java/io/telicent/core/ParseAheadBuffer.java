@@ -0,0 +1,318 @@
+/*
+ *  Copyright (c) Telicent Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.telicent.core;
+
+import io.telicent.otel.IngestMetrics;
+import io.telicent.smart.cache.payloads.RdfPayload;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.web.HttpNames;
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.common.header.Header;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Holds the large N-Triples and N-Quads payloads of a Kafka consumer group's polls that are being parsed ahead of the
+ * connector's write transaction, see {@link ParseAheadInterceptor}, until {@link ParallelParsingSink} takes them.
+ * <p>
+ * There is a buffer for each consumer group, see {@link #forConsumerGroup(String)}, so each connector has its own
+ * parser, memory limit and parsed payloads. Payloads are parsed one at a time, in the order they were polled, on a
+ * thread of the buffer's own so the consumer's poll is never held up by parsing. Each payload reserves an estimate of
+ * the memory its parsed form needs, {@link #PARSED_BYTES_PER_PAYLOAD_BYTE} times its size, and parsing waits while the
+ * payloads already parsed but not yet taken hold the whole limit. Payloads whose estimate alone exceeds the limit are
+ * never parsed ahead.
+ * </p>
+ * <p>
+ * The sink waits for a payload whose parse is under way, and parses any other payload itself, so the connector never
+ * applies a record before its parse finishes and, as it only polls again once everything polled has been applied,
+ * parsing is never more than a poll ahead of the connector.
+ * </p>
+ */
+public final class ParseAheadBuffer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ParseAheadBuffer.class);
+
+    /**
+     * Estimated ratio between the memory used by a parsed payload and the payload's size
+     */
+    public static final int PARSED_BYTES_PER_PAYLOAD_BYTE = 4;
+
+    private static final ParseAheadBuffer INSTANCE = new ParseAheadBuffer();
+    private static final ConcurrentMap<String, ParseAheadBuffer> CONSUMER_GROUPS = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, Pending> pending = new ConcurrentHashMap<>();
+    private volatile ChunkedParser parser;
+    private long maxParsedBytes;
+    private long reservedBytes;
+    private ExecutorService executor;
+
+    private static final class Pending {
+        private final String topic;
+        private final long offset;
+        private final byte[] data;
+        private final Lang lang;
+        private final long estimate;
+        private final CompletableFuture<DatasetGraph> parsed = new CompletableFuture<>();
+        private boolean started = false;
+        private boolean reserved = false;
+
+        private Pending(String topic, long offset, byte[] data, Lang lang) {
+            this.topic = topic;
+            this.offset = offset;
+            this.data = data;
+            this.lang = lang;
+            this.estimate = (long) data.length * PARSED_BYTES_PER_PAYLOAD_BYTE;
+        }
+    }
+
+    /**
+     * Gets the buffer for consumers that have no consumer group
+     *
+     * @return Buffer
+     */
+    public static ParseAheadBuffer get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Gets the buffer for a Kafka consumer group
+     *
+     * @param consumerGroup Consumer group, {@code null} for consumers that have no consumer group
+     * @return Buffer
+     */
+    public static ParseAheadBuffer forConsumerGroup(String consumerGroup) {
+        if (consumerGroup == null || consumerGroup.isBlank()) {
+            return INSTANCE;
+        }
+        return CONSUMER_GROUPS.computeIfAbsent(consumerGroup, group -> new ParseAheadBuffer());
+    }
+
+    /**
+     * Disables parsing ahead for every consumer group, discarding anything already parsed
+     */
+    public static void disableAll() {
+        INSTANCE.disable();
+        CONSUMER_GROUPS.values().forEach(ParseAheadBuffer::disable);
+    }
+
+    ParseAheadBuffer() {
+    }
+
+    /**
+     * Enables parsing ahead for the consumer group
+     *
+     * @param chunkedParser  Parser
+     * @param maxParsedBytes Maximum estimated memory, in bytes, held by payloads parsed ahead and not yet taken
+     */
+    public synchronized void enable(ChunkedParser chunkedParser, long maxParsedBytes) {
+        this.maxParsedBytes = maxParsedBytes;
+        if (this.executor == null) {
+            this.executor = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, "scg-ingest-parse-ahead");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        this.parser = chunkedParser;
+    }
+
+    /**
+     * Disables parsing ahead for the consumer group, discarding anything already parsed
+     */
+    public void disable() {
+        ExecutorService stopping;
+        synchronized (this) {
+            this.parser = null;
+            stopping = this.executor;
+            this.executor = null;
+        }
+        discard(new ArrayList<>(this.pending.keySet()));
+        if (stopping != null) {
+            stopping.shutdownNow();
+        }
+    }
+
+    /**
+     * Starts parsing the large N-Triples and N-Quads payloads of a poll
+     *
+     * @param records Polled records
+     * @return Keys of the payloads being parsed, to {@link #discard(Collection)} any the sink does not take
+     */
+    List<String> submit(ConsumerRecords<Object, Object> records) {
+        List<String> submitted = new ArrayList<>();
+        ChunkedParser current = this.parser;
+        if (current == null) {
+            return submitted;
+        }
+        for (ConsumerRecord<Object, Object> record : records) {
+            if (!(record.value() instanceof RdfPayload payload) || payload.isReady()) {
+                continue;
+            }
+            byte[] data = payload.getRawData();
+            Lang lang = current.lang(contentType(record), data);
+            if (lang == null) {
+                continue;
+            }
+            String key = key(record.topic(), record.partition(), record.offset());
+            Pending parsing = new Pending(record.topic(), record.offset(), data, lang);
+            synchronized (this) {
+                if (this.executor == null) {
+                    break;
+                }
+                this.pending.put(key, parsing);
+                this.executor.execute(() -> parse(current, parsing));
+            }
+            submitted.add(key);
+        }
+        return submitted;
+    }
+
+    private void parse(ChunkedParser current, Pending parsing) {
+        synchronized (this) {
+            if (parsing.estimate > this.maxParsedBytes) {
+                parsing.parsed.complete(null);
+                return;
+            }
+            try {
+                while (!parsing.parsed.isDone() && this.reservedBytes + parsing.estimate > this.maxParsedBytes) {
+                    wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                parsing.parsed.complete(null);
+                return;
+            }
+            if (parsing.parsed.isDone()) {
+                // Taken, or discarded, before it could be parsed
+                return;
+            }
+            parsing.started = true;
+            parsing.reserved = true;
+            this.reservedBytes += parsing.estimate;
+        }
+        long start = System.nanoTime();
+        try {
+            DatasetGraph dataset = current.parse(parsing.data, parsing.lang);
+            IngestMetrics.recordParse(parsing.topic, System.nanoTime() - start);
+            parsing.parsed.complete(dataset);
+        } catch (RuntimeException e) {
+            LOG.debug("Leaving payload at offset {} of {} to be parsed when applied: {}", parsing.offset,
+                      parsing.topic, e.getMessage());
+            release(parsing);
+            parsing.parsed.complete(null);
+        }
+    }
+
+    private synchronized void release(Pending parsing) {
+        if (parsing.reserved) {
+            parsing.reserved = false;
+            this.reservedBytes -= parsing.estimate;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Takes the parsed form of a record's payload, waiting if it is being parsed
+     *
+     * @param topic     Topic
+     * @param partition Partition
+     * @param offset    Offset
+     * @return Parsed payload, or {@code null} if the payload was not parsed ahead
+     */
+    public DatasetGraph take(String topic, int partition, long offset) {
+        Pending parsing = this.pending.remove(key(topic, partition, offset));
+        if (parsing == null) {
+            return null;
+        }
+        synchronized (this) {
+            if (!parsing.started) {
+                // Not worth waiting for, the sink parses it instead
+                parsing.parsed.complete(null);
+                notifyAll();
+                return null;
+            }
+        }
+        DatasetGraph dataset = parsing.parsed.join();
+        release(parsing);
+        return dataset;
+    }
+
+    /**
+     * Discards payloads the sink did not take, e.g. because their partition was revoked
+     *
+     * @param keys Keys of the payloads
+     */
+    void discard(Collection<String> keys) {
+        for (String key : keys) {
+            Pending parsing = this.pending.remove(key);
+            if (parsing == null) {
+                continue;
+            }
+            synchronized (this) {
+                if (!parsing.started) {
+                    parsing.parsed.complete(null);
+                }
+                notifyAll();
+            }
+            parsing.parsed.whenComplete((dataset, e) -> release(parsing));
+        }
+    }
+
+    /**
+     * Waits until every payload submitted so far has been parsed, or skipped
+     */
+    void awaitParsed() {
+        ExecutorService current;
+        synchronized (this) {
+            current = this.executor;
+        }
+        if (current != null) {
+            CompletableFuture.runAsync(() -> { }, current).join();
+        }
+    }
+
+    /**
+     * Gets the estimated memory held by payloads parsed ahead and not yet taken
+     *
+     * @return Estimated bytes
+     */
+    synchronized long reserved() {
+        return this.reservedBytes;
+    }
+
+    private static String key(String topic, int partition, long offset) {
+        return topic + "-" + partition + "@" + offset;
+    }
+
+    private static String contentType(ConsumerRecord<Object, Object> record) {
+        Header header = record.headers().lastHeader(HttpNames.hContentType);
+        return (header == null || header.value() == null) ? null :
+               new String(header.value(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ *  Copyright (c) Telicent Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.telicent.core;
+
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerInterceptor;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * A Kafka consumer interceptor that starts parsing large N-Triples and N-Quads payloads as they are polled, before the
+ * connector begins the write transaction they are applied in, so that {@link ParallelParsingSink} only has to apply
+ * the parsed payloads while holding the dataset's writer lock.
+ * <p>
+ * Kafka instantiates interceptors reflectively, so payloads are parsed by the {@link ParseAheadBuffer} of the
+ * consumer's group, taken from the consumer configuration when Kafka configures the interceptor, and parsing is
+ * enabled through that buffer. Parsed payloads that the sink has not taken by the next poll, e.g. because the
+ * partition was revoked, are discarded. Payloads that fail to parse are left for the sink, so the failure is handled
+ * as any other failure to apply a record.
+ * </p>
+ */
+public class ParseAheadInterceptor implements ConsumerInterceptor<Object, Object> {
+
+    private ParseAheadBuffer buffer;
+    private List<String> parsedLastPoll = new ArrayList<>();
+
+    /**
+     * Creates a new interceptor, as Kafka does, that parses into the buffer of the consumer's group once configured
+     */
+    public ParseAheadInterceptor() {
+        this(ParseAheadBuffer.get());
+    }
+
+    ParseAheadInterceptor(ParseAheadBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    /**
+     * Adds this interceptor to consumer properties, keeping any interceptors already configured
+     *
+     * @param properties Consumer properties
+     */
+    public static void install(Properties properties) {
+        AppliedOffsetInterceptor.install(properties, ParseAheadInterceptor.class);
+    }
+
+    @Override
+    public ConsumerRecords<Object, Object> onConsume(ConsumerRecords<Object, Object> records) {
+        // The connector applies everything it polls before polling again
+        this.buffer.discard(this.parsedLastPoll);
+        this.parsedLastPoll = this.buffer.submit(records);
+        return records;
+    }
+
+    @Override
+    public void onCommit(Map<TopicPartition, OffsetAndMetadata> offsets) {
+    }
+
+    @Override
+    public void close() {
+        this.buffer.discard(this.parsedLastPoll);
+        this.parsedLastPoll = new ArrayList<>();
+    }
+
+    @Override
+    public void configure(Map<String, ?> configs) {
+        Object consumerGroup = configs.get(ConsumerConfig.GROUP_ID_CONFIG);
+        if (consumerGroup != null) {
+            this.buffer = ParseAheadBuffer.forConsumerGroup(consumerGroup.toString());
+        }
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ *  Copyright (c) Telicent Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.telicent.core;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * An output stream that collects an RDF Patch in memory until it passes a size threshold, after which the content is
+ * spilled to a temporary file so that large CQRS updates do not have to hold the whole patch on heap.
+ * <p>
+ * Closing the buffer discards the content, deleting the temporary file if one was created.
+ * </p>
+ */
+public class PatchBuffer extends OutputStream {
+
+    private static final int INITIAL_SIZE = 8 * 1024;
+
+    private final long spillThreshold;
+    private MemoryBuffer memory = new MemoryBuffer(INITIAL_SIZE);
+    private Path spillFile;
+    private OutputStream spillOutput;
+    private long size = 0;
+    private boolean closed = false;
+
+    /**
+     * Creates a new buffer
+     *
+     * @param spillThreshold Number of bytes held in memory before spilling to disk, a value less than or equal to zero
+     *                       disables spilling
+     */
+    public PatchBuffer(long spillThreshold) {
+        this.spillThreshold = spillThreshold;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureCapacity(1);
+        current().write(b);
+        size++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureCapacity(len);
+        current().write(b, off, len);
+        size += len;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (spillOutput != null) {
+            spillOutput.flush();
+        }
+    }
+
+    private OutputStream current() throws IOException {
+        if (closed) {
+            throw new IOException("Patch buffer is closed");
+        }
+        return spillOutput != null ? spillOutput : memory;
+    }
+
+    private void ensureCapacity(int len) throws IOException {
+        if (spillOutput != null || spillThreshold <= 0 || size + len <= spillThreshold) {
+            return;
+        }
+        spillFile = Files.createTempFile("cqrs-patch-", ".rdfp");
+        spillOutput = new BufferedOutputStream(Files.newOutputStream(spillFile));
+        memory.writeTo(spillOutput);
+        memory = null;
+        CQRS.LOG.info("CQRS patch exceeded {} bytes, spilling to {}", spillThreshold, spillFile);
+    }
+
+    /**
+     * Gets the number of bytes written to the buffer
+     *
+     * @return Size in bytes
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Gets whether the content has been spilled to disk
+     *
+     * @return True if spilled to disk, false if held in memory
+     */
+    public boolean isSpilled() {
+        return spillFile != null;
+    }
+
+    /**
+     * Gets the content as a byte array, this is only permitted while the content is held in memory
+     * <p>
+     * Where the backing array is exactly the size of the content it is returned directly rather than copied, callers
+     * must treat it as read-only.
+     * </p>
+     *
+     * @return Content
+     * @throws IllegalStateException Thrown if the content has been spilled to disk
+     */
+    public byte[] toByteArray() {
+        if (isSpilled()) {
+            throw new IllegalStateException("Patch has been spilled to disk, use openInputStream() instead");
+        }
+        return memory.toExactByteArray();
+    }
+
+    /**
+     * Reads the whole content into a single array of exactly the content size, reading spilled content straight into
+     * that array rather than growing intermediate buffers
+     *
+     * @return Content
+     * @throws IOException Thrown if the spilled content cannot be read
+     */
+    public byte[] readAll() throws IOException {
+        if (!isSpilled()) {
+            return toByteArray();
+        }
+        if (size > Integer.MAX_VALUE - 8) {
+            throw new IOException("Patch of " + size + " bytes is too large to send as a single record");
+        }
+        spillOutput.flush();
+        byte[] content = new byte[(int) size];
+        try (InputStream input = Files.newInputStream(spillFile)) {
+            int read = input.readNBytes(content, 0, content.length);
+            if (read != content.length) {
+                throw new EOFException("Expected " + content.length + " bytes of spilled patch but read " + read);
+            }
+        }
+        return content;
+    }
+
+    /**
+     * Opens a stream over the content written so far
+     *
+     * @return Input stream
+     * @throws IOException Thrown if the spilled content cannot be read
+     */
+    public InputStream openInputStream() throws IOException {
+        if (!isSpilled()) {
+            // Reads directly from the backing array
+            return memory.asInputStream();
+        }
+        spillOutput.flush();
+        return new BufferedInputStream(Files.newInputStream(spillFile));
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        memory = null;
+        if (spillOutput != null) {
+            try {
+                spillOutput.close();
+            } finally {
+                Files.deleteIfExists(spillFile);
+            }
+        }
+    }
+
+    /**
+     * A growable in-memory buffer that gives read access to its backing array without copying
+     */
+    static final class MemoryBuffer extends ByteArrayOutputStream {
+
+        MemoryBuffer(int initialSize) {
+            super(initialSize);
+        }
+
+        /**
+         * Gets the content, returning the backing array itself when it is exactly full
+         *
+         * @return Content
+         */
+        synchronized byte[] toExactByteArray() {
+            return (count == buf.length) ? buf : toByteArray();
+        }
+
+        /**
+         * Gets a stream that reads the current content directly from the backing array
+         *
+         * @return Input stream
+         */
+        synchronized InputStream asInputStream() {
+            return new ByteArrayInputStream(buf, 0, count);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ *  Copyright (c) Telicent Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.telicent.core;
+
+import io.telicent.smart.cache.sources.TelicentHeaders;
+import org.apache.jena.kafka.JenaKafkaException;
+import org.apache.jena.riot.web.HttpNames;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.common.header.Header;
+
+import java.io.ByteArrayOutputStream;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Group commit for a CQRS update endpoint.
+ * <p>
+ * Patches submitted within the configured window that carry the same security label are joined into a single
+ * multi-transaction RDF Patch and sent as one Kafka record. The batch is sent when the window elapses, when it reaches
+ * the maximum number of patches, or when adding a patch would take it over the maximum record size. Every submitter is
+ * completed with the outcome of the shared send.
+ * </p>
+ * <p>
+ * Batches are sent while holding the committer's lock so that records for the same security label are handed to the
+ * producer in submission order.
+ * </p>
+ */
+public class PatchGroupCommitter implements AutoCloseable {
+
+    private final Producer<String, byte[]> producer;
+    private final String topic;
+    private final CQRS.Options options;
+    private final ScheduledExecutorService scheduler;
+    private final Map<String, Batch> pending = new HashMap<>();
+    private boolean closed = false;
+
+    private static final class Batch {
+        private final String securityLabel;
+        private final ByteArrayOutputStream patches = new ByteArrayOutputStream();
+        private final List<CompletableFuture<CQRS.PatchOffset>> waiting = new ArrayList<>();
+        private ScheduledFuture<?> timer;
+
+        private Batch(String securityLabel) {
+            this.securityLabel = securityLabel;
+        }
+    }
+
+    /**
+     * Creates a new group committer
+     *
+     * @param producer  Kafka producer
+     * @param topic     Topic to send to
+     * @param options   CQRS options, supplies the window, batch limits and patch encoding
+     * @param scheduler Scheduler for the group commit windows, owned by the caller and typically shared by all the
+     *                  committers of a server
+     */
+    public PatchGroupCommitter(Producer<String, byte[]> producer, String topic, CQRS.Options options,
+                               ScheduledExecutorService scheduler) {
+        this.producer = Objects.requireNonNull(producer, "producer cannot be null");
+        this.topic = topic;
+        this.options = Objects.requireNonNull(options, "options cannot be null");
+        this.scheduler = Objects.requireNonNull(scheduler, "scheduler cannot be null");
+    }
+
+    /**
+     * Submits a complete patch to be sent as part of the next batch for its security label
+     *
+     * @param securityLabel Security label header for the patch, may be {@code null}
+     * @param patch         RDF Patch, in the configured encoding, including its transaction boundaries
+     * @return Future completed with the position of the record the patch was sent in
+     */
+    public CompletableFuture<CQRS.PatchOffset> submit(String securityLabel, byte[] patch) {
+        CompletableFuture<CQRS.PatchOffset> result = new CompletableFuture<>();
+        synchronized (this) {
+            if (closed) {
+                result.completeExceptionally(new JenaKafkaException("CQRS group commit has been closed"));
+                return result;
+            }
+            Batch batch = pending.get(securityLabel);
+            long maxRecordBytes = options.maxRecordBytes();
+            if (batch != null && maxRecordBytes > 0 && batch.patches.size() + patch.length > maxRecordBytes) {
+                // Would exceed the record size, send what we have and start a new batch
+                send(take(securityLabel));
+                batch = null;
+            }
+            if (batch == null) {
+                Batch created = new Batch(securityLabel);
+                created.timer = scheduler.schedule(() -> sendIfPending(created),
+                                                   options.groupCommitWindowMillis(), TimeUnit.MILLISECONDS);
+                pending.put(securityLabel, created);
+                batch = created;
+            }
+            batch.patches.writeBytes(patch);
+            batch.waiting.add(result);
+            if (batch.waiting.size() >= options.groupCommitMaxPatches()) {
+                send(take(securityLabel));
+            }
+        }
+        return result;
+    }
+
+    private synchronized void sendIfPending(Batch batch) {
+        if (pending.get(batch.securityLabel) == batch) {
+            send(take(batch.securityLabel));
+        }
+    }
+
+    private Batch take(String securityLabel) {
+        Batch batch = pending.remove(securityLabel);
+        if (batch.timer != null) {
+            batch.timer.cancel(false);
+        }
+        return batch;
+    }
+
+    private void send(Batch batch) {
+        List<Header> headers = new ArrayList<>();
+        headers.add(CQRS.kafkaHeader(HttpNames.hContentType, options.encoding().contentType()));
+        if (batch.securityLabel != null) {
+            headers.add(CQRS.kafkaHeader(TelicentHeaders.SECURITY_LABEL, batch.securityLabel));
+        }
+        CompletableFuture<CQRS.PatchOffset> sent = new CompletableFuture<>();
+        try {
+            // Patches are already in the sent encoding, both encodings allow complete patches to be concatenated
+            byte[] body = batch.patches.toByteArray();
+            CQRS.LOG.info("[{}] Group commit: {} patches, {} bytes", topic, batch.waiting.size(), body.length);
+            CQRS.sendToKafkaAsync(producer, topic, headers, body, sent);
+        } catch (RuntimeException e) {
+            sent.completeExceptionally(e);
+        }
+        sent.whenComplete((offset, error) -> batch.waiting.forEach(waiter -> {
+            if (error != null) {
+                waiter.completeExceptionally(error);
+            } else {
+                waiter.complete(offset);
+            }
+        }));
+    }
+
+    /**
+     * Sends any pending batches and stops accepting new patches, the scheduler is left running for its owner to shut
+     * down
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (String securityLabel : new ArrayList<>(pending.keySet())) {
+            send(take(securityLabel));
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ *  Copyright (c) Telicent Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.telicent.core;
+
+import io.telicent.smart.cache.payloads.RdfPayload;
+import io.telicent.smart.cache.projectors.Sink;
+import io.telicent.smart.cache.sources.Event;
+import org.apache.jena.rdfpatch.PatchException;
+import org.apache.jena.riot.web.HttpNames;
+import org.apache.kafka.common.utils.Bytes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A sink that joins the parts of a CQRS patch that was too large for a single Kafka record, see
+ * {@link CQRS#ENV_CQRS_MAX_RECORD_BYTES}, back together, passing the whole patch on as a single event once its last
+ * part arrives. All other events are passed through unchanged.
+ * <p>
+ * Parts are held on heap until the last part arrives, so nothing of a patch is applied unless every part was sent.
+ * Parts of a patch whose remaining parts never arrive, because the update failed part way through sending, are
+ * discarded once more than the maximum number of patches are waiting for parts. A part that arrives out of order, for
+ * example when the connector restarted part way through a patch so the earlier parts were never seen, fails with a
+ * {@link PatchException}, so the record is quarantined if a dead letter topic is configured, rather than a partial
+ * patch being applied.
+ * </p>
+ */
+public class PatchPartsSink implements Sink<Event<Bytes, RdfPayload>> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PatchPartsSink.class);
+
+    /** Default maximum number of patches waiting for their remaining parts */
+    public static final int DEFAULT_MAX_PENDING_PATCHES = 16;
+
+    private final Sink<Event<Bytes, RdfPayload>> destination;
+    private final int maxPendingPatches;
+    private final Map<String, PendingPatch> pending = new LinkedHashMap<>();
+
+    private static final class PendingPatch {
+        private final long parts;
+        private long received = 0;
+        private final ByteArrayOutputStream content = new ByteArrayOutputStream();
+
+        private PendingPatch(long parts) {
+            this.parts = parts;
+        }
+    }
+
+    /**
+     * Creates a new sink
+     *
+     * @param destination Destination that applies whole patches
+     */
+    public PatchPartsSink(Sink<Event<Bytes, RdfPayload>> destination) {
+        this(destination, DEFAULT_MAX_PENDING_PATCHES);
+    }
+
+    /**
+     * Creates a new sink
+     *
+     * @param destination       Destination that applies whole patches
+     * @param maxPendingPatches Maximum number of patches waiting for their remaining parts
+     */
+    public PatchPartsSink(Sink<Event<Bytes, RdfPayload>> destination, int maxPendingPatches) {
+        this.destination = Objects.requireNonNull(destination, "destination cannot be null");
+        this.maxPendingPatches = Math.max(1, maxPendingPatches);
+    }
+
+    @Override
+    public void send(Event<Bytes, RdfPayload> event) {
+        String patchId = event.lastHeader(CQRS.HEADER_PATCH_ID);
+        RdfPayload payload = event.value();
+        if (patchId == null || payload == null || payload.isReady()) {
+            this.destination.send(event);
+            return;
+        }
+        long[] position = position(patchId, event.lastHeader(CQRS.HEADER_PATCH_PART));
+        long part = position[0];
+        long parts = position[1];
+
+        PendingPatch patch = part == 1 ? new PendingPatch(parts) : this.pending.remove(patchId);
+        if (patch == null || patch.parts != parts || patch.received != part - 1) {
+            throw new PatchException(
+                    "Part " + part + " of " + parts + " of patch " + patchId + " received without the parts before it");
+        }
+        patch.content.writeBytes(payload.getRawData());
+        patch.received = part;
+        if (part < parts) {
+            this.pending.put(patchId, patch);
+            discardAbandoned();
+            return;
+        }
+        this.destination.send(event.replaceValue(
+                RdfPayload.of(event.lastHeader(HttpNames.hContentType), patch.content.toByteArray())));
+    }
+
+    private static long[] position(String patchId, String header) {
+        try {
+            int separator = header == null ? -1 : header.indexOf('/');
+            long part = Long.parseLong(header.substring(0, separator).trim());
+            long parts = Long.parseLong(header.substring(separator + 1).trim());
+            if (part >= 1 && part <= parts) {
+                return new long[]{part, parts};
+            }
+        } catch (RuntimeException e) {
+            // Reported below
+        }
+        throw new PatchException("Invalid " + CQRS.HEADER_PATCH_PART + " header for patch " + patchId + ": " + header);
+    }
+
+    private void discardAbandoned() {
+        Iterator<Map.Entry<String, PendingPatch>> oldest = this.pending.entrySet().iterator();
+        while (this.pending.size() > this.maxPendingPatches && oldest.hasNext()) {
+            Map.Entry<String, PendingPatch> abandoned = oldest.next();
+            LOGGER.warn("Discarding patch {} after receiving {} of its {} parts, the update failed to send",
+                        abandoned.getKey(), abandoned.getValue().received, abandoned.getValue().parts);
+            oldest.remove();
+        }
+    }
+
+    /**
+     * Gets the number of patches waiting for their remaining parts
+     *
+     * @return Number of patches
+     */
+    int pending() {
+        return this.pending.size();
+    }
+
+    @Override
+    public void close() {
+        this.pending.clear();
+        this.destination.close();
+    }
+}
@@ -0,0 +1,268 @@
+/*
+ *  Copyright (c) Telicent Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.telicent.core;
+
+import org.apache.jena.atlas.RuntimeIOException;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.rdfpatch.RDFChanges;
+import org.apache.jena.riot.out.NodeFmtLib;
+
+import java.io.DataOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes RDF changes in a compact binary RDF Patch encoding with a per-message dictionary.
+ * <p>
+ * Every term is written in full the first time it appears and is then referred to by its index, and IRIs are split
+ * into a namespace, itself held in a dictionary, and a local name. Patches with many repeated IRIs, which is typical
+ * of CQRS updates, are therefore much smaller than their text form. The changes are encoded as they are written, so
+ * the patch never has to be re-parsed to produce the binary form.
+ * </p>
+ * <p>
+ * A message starts with a start marker that resets the dictionaries, so messages written separately may be
+ * concatenated, as group commit does, and still be read back with {@link RDFPatchReaderDictionary}.
+ * </p>
+ */
+public class RDFChangesWriterDictionary implements RDFChanges, Flushable {
+
+    /** Content type advertised for this encoding */
+    public static final String CONTENT_TYPE = "application/rdf-patch+dict";
+
+    static final int VERSION = 1;
+
+    // Operation codes
+    static final int OP_START = 'S';
+    static final int OP_HEADER = 'H';
+    static final int OP_ADD = 'A';
+    static final int OP_DELETE = 'D';
+    static final int OP_ADD_PREFIX = 'P';
+    static final int OP_DELETE_PREFIX = 'Q';
+    static final int OP_TXN_BEGIN = 'X';
+    static final int OP_TXN_COMMIT = 'C';
+    static final int OP_TXN_ABORT = 'R';
+    static final int OP_SEGMENT = 'G';
+
+    // Term tags
+    static final int TERM_NULL = 0;
+    static final int TERM_REF = 1;
+    static final int TERM_DEFINE = 2;
+    static final int TERM_INLINE = 3;
+
+    // Term kinds
+    static final int KIND_IRI = 1;
+    static final int KIND_BLANK = 2;
+    static final int KIND_LITERAL = 3;
+    static final int KIND_TEXT = 4;
+
+    /**
+     * Maximum number of entries in each dictionary, further new terms are written inline so memory use is bounded
+     */
+    static final int MAX_DICTIONARY_ENTRIES = 1 << 20;
+
+    private final DataOutputStream out;
+    private final Map<Node, Integer> terms = new HashMap<>();
+    private final Map<String, Integer> namespaces = new HashMap<>();
+
+    /**
+     * Creates a new writer, the start marker is written immediately
+     *
+     * @param output Output stream
+     */
+    public RDFChangesWriterDictionary(OutputStream output) {
+        this.out = new DataOutputStream(output);
+        try {
+            this.out.writeByte(OP_START);
+            this.out.writeByte(VERSION);
+        } catch (IOException e) {
+            throw new RuntimeIOException(e);
+        }
+    }
+
+    @Override
+    public void header(String field, Node value) {
+        try {
+            out.writeByte(OP_HEADER);
+            writeString(field);
+            writeTerm(value);
+        } catch (IOException e) {
+            throw new RuntimeIOException(e);
+        }
+    }
+
+    @Override
+    public void add(Node g, Node s, Node p, Node o) {
+        quad(OP_ADD, g, s, p, o);
+    }
+
+    @Override
+    public void delete(Node g, Node s, Node p, Node o) {
+        quad(OP_DELETE, g, s, p, o);
+    }
+
+    private void quad(int op, Node g, Node s, Node p, Node o) {
+        try {
+            out.writeByte(op);
+            writeTerm(g);
+            writeTerm(s);
+            writeTerm(p);
+            writeTerm(o);
+        } catch (IOException e) {
+            throw new RuntimeIOException(e);
+        }
+    }
+
+    @Override
+    public void addPrefix(Node gn, String prefix, String uriStr) {
+        try {
+            out.writeByte(OP_ADD_PREFIX);
+            writeTerm(gn);
+            writeString(prefix);
+            writeString(uriStr);
+        } catch (IOException e) {
+            throw new RuntimeIOException(e);
+        }
+    }
+
+    @Override
+    public void deletePrefix(Node gn, String prefix) {
+        try {
+            out.writeByte(OP_DELETE_PREFIX);
+            writeTerm(gn);
+            writeString(prefix);
+        } catch (IOException e) {
+            throw new RuntimeIOException(e);
+        }
+    }
+
+    @Override
+    public void txnBegin() {
+        op(OP_TXN_BEGIN);
+    }
+
+    @Override
+    public void txnCommit() {
+        op(OP_TXN_COMMIT);
+    }
+
+    @Override
+    public void txnAbort() {
+        op(OP_TXN_ABORT);
+    }
+
+    @Override
+    public void segment() {
+        op(OP_SEGMENT);
+    }
+
+    private void op(int op) {
+        try {
+            out.writeByte(op);
+        } catch (IOException e) {
+            throw new RuntimeIOException(e);
+        }
+    }
+
+    @Override
+    public void start() {
+    }
+
+    @Override
+    public void finish() {
+        try {
+            flush();
+        } catch (IOException e) {
+            throw new RuntimeIOException(e);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    private void writeTerm(Node node) throws IOException {
+        if (node == null) {
+            out.writeByte(TERM_NULL);
+            return;
+        }
+        Integer id = terms.get(node);
+        if (id != null) {
+            out.writeByte(TERM_REF);
+            writeVarInt(id);
+            return;
+        }
+        if (terms.size() < MAX_DICTIONARY_ENTRIES) {
+            terms.put(node, terms.size());
+            out.writeByte(TERM_DEFINE);
+        } else {
+            out.writeByte(TERM_INLINE);
+        }
+        if (node.isURI()) {
+            out.writeByte(KIND_IRI);
+            writeIri(node.getURI());
+        } else if (node.isBlank()) {
+            out.writeByte(KIND_BLANK);
+            writeString(node.getBlankNodeLabel());
+        } else if (node.isLiteral() && node.getLiteralLanguage().isEmpty()) {
+            out.writeByte(KIND_LITERAL);
+            writeString(node.getLiteralLexicalForm());
+            // Datatypes repeat heavily so are held in the term dictionary
+            writeTerm(NodeFactory.createURI(node.getLiteralDatatypeURI()));
+        } else {
+            // Language tagged literals, with or without a base direction, and any other terms use their N-Triples form
+            out.writeByte(KIND_TEXT);
+            writeString(NodeFmtLib.strNT(node));
+        }
+    }
+
+    private void writeIri(String iri) throws IOException {
+        int split = Math.max(iri.lastIndexOf('#'), iri.lastIndexOf('/')) + 1;
+        String namespace = iri.substring(0, split);
+        Integer id = namespaces.get(namespace);
+        if (id != null) {
+            writeVarInt(id + 1);
+        } else {
+            // Zero introduces a namespace, added to the dictionary if there is room
+            writeVarInt(0);
+            writeString(namespace);
+            if (namespaces.size() < MAX_DICTIONARY_ENTRIES) {
+                namespaces.put(namespace, namespaces.size());
+            }
+        }
+        writeString(iri.substring(split));
+    }
+
+    private void writeString(String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private void writeVarInt(int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+}
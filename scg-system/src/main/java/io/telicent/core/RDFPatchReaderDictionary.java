@@ -0,0 +1,192 @@
+/*
+ *  Copyright (c) Telicent Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.telicent.core;
+
+import org.apache.jena.datatypes.TypeMapper;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.rdfpatch.PatchException;
+import org.apache.jena.rdfpatch.RDFChanges;
+import org.apache.jena.rdfpatch.RDFPatch;
+import org.apache.jena.rdfpatch.changes.RDFChangesCollector;
+import org.apache.jena.sparql.util.NodeFactoryExtra;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static io.telicent.core.RDFChangesWriterDictionary.*;
+
+/**
+ * Reads RDF Patches written by {@link RDFChangesWriterDictionary}.
+ * <p>
+ * Concatenated messages are read as one patch, the dictionaries being reset at the start of each message.
+ * </p>
+ */
+public final class RDFPatchReaderDictionary {
+
+    private final DataInputStream input;
+    private final List<Node> terms = new ArrayList<>();
+    private final List<String> namespaces = new ArrayList<>();
+
+    private RDFPatchReaderDictionary(InputStream input) {
+        this.input = new DataInputStream(input);
+    }
+
+    /**
+     * Reads a dictionary encoded patch into memory
+     *
+     * @param data Encoded patch
+     * @return Patch
+     * @throws PatchException Thrown if the data is not a valid dictionary encoded patch
+     */
+    public static RDFPatch read(byte[] data) {
+        RDFChangesCollector collector = new RDFChangesCollector();
+        apply(new ByteArrayInputStream(data), collector);
+        return collector.getRDFPatch();
+    }
+
+    /**
+     * Reads a dictionary encoded patch, passing each change to the destination as it is read
+     *
+     * @param input       Input stream
+     * @param destination Destination for the changes
+     * @throws PatchException Thrown if the data is not a valid dictionary encoded patch
+     */
+    public static void apply(InputStream input, RDFChanges destination) {
+        try {
+            new RDFPatchReaderDictionary(input).readAll(destination);
+        } catch (IOException e) {
+            throw new PatchException("Failed to read dictionary encoded RDF Patch: " + e.getMessage());
+        }
+    }
+
+    private void readAll(RDFChanges destination) throws IOException {
+        int op = input.read();
+        if (op != OP_START) {
+            throw new PatchException("Not a dictionary encoded RDF Patch");
+        }
+        destination.start();
+        while (op != -1) {
+            switch (op) {
+                case OP_START -> {
+                    int version = input.readUnsignedByte();
+                    if (version != VERSION) {
+                        throw new PatchException("Unsupported dictionary encoded RDF Patch version " + version);
+                    }
+                    terms.clear();
+                    namespaces.clear();
+                }
+                case OP_HEADER -> destination.header(readString(), readTerm());
+                case OP_ADD -> destination.add(readTerm(), readTerm(), readTerm(), readTerm());
+                case OP_DELETE -> destination.delete(readTerm(), readTerm(), readTerm(), readTerm());
+                case OP_ADD_PREFIX -> destination.addPrefix(readTerm(), readString(), readString());
+                case OP_DELETE_PREFIX -> destination.deletePrefix(readTerm(), readString());
+                case OP_TXN_BEGIN -> destination.txnBegin();
+                case OP_TXN_COMMIT -> destination.txnCommit();
+                case OP_TXN_ABORT -> destination.txnAbort();
+                case OP_SEGMENT -> destination.segment();
+                default -> throw new PatchException("Unknown operation " + op + " in dictionary encoded RDF Patch");
+            }
+            op = input.read();
+        }
+        destination.finish();
+    }
+
+    private Node readTerm() throws IOException {
+        int tag = input.readUnsignedByte();
+        switch (tag) {
+            case TERM_NULL:
+                return null;
+            case TERM_REF:
+                int id = readVarInt();
+                if (id >= terms.size()) {
+                    throw new PatchException("Undefined term " + id + " in dictionary encoded RDF Patch");
+                }
+                return terms.get(id);
+            case TERM_DEFINE:
+                // The writer assigns the index before writing the body, which may itself define a datatype term
+                int slot = terms.size();
+                terms.add(null);
+                Node defined = readTermBody();
+                terms.set(slot, defined);
+                return defined;
+            case TERM_INLINE:
+                return readTermBody();
+            default:
+                throw new PatchException("Unknown term tag " + tag + " in dictionary encoded RDF Patch");
+        }
+    }
+
+    private Node readTermBody() throws IOException {
+        int kind = input.readUnsignedByte();
+        return switch (kind) {
+            case KIND_IRI -> NodeFactory.createURI(readIri());
+            case KIND_BLANK -> NodeFactory.createBlankNode(readString());
+            case KIND_LITERAL -> {
+                String lexical = readString();
+                String datatype = readTerm().getURI();
+                yield NodeFactory.createLiteralDT(lexical, TypeMapper.getInstance().getSafeTypeByName(datatype));
+            }
+            case KIND_TEXT -> NodeFactoryExtra.parseNode(readString());
+            default -> throw new PatchException("Unknown term kind " + kind + " in dictionary encoded RDF Patch");
+        };
+    }
+
+    private String readIri() throws IOException {
+        int ref = readVarInt();
+        String namespace;
+        if (ref == 0) {
+            namespace = readString();
+            if (namespaces.size() < MAX_DICTIONARY_ENTRIES) {
+                namespaces.add(namespace);
+            }
+        } else if (ref - 1 < namespaces.size()) {
+            namespace = namespaces.get(ref - 1);
+        } else {
+            throw new PatchException("Undefined namespace " + (ref - 1) + " in dictionary encoded RDF Patch");
+        }
+        return namespace + readString();
+    }
+
+    private String readString() throws IOException {
+        int length = readVarInt();
+        byte[] bytes = new byte[length];
+        input.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private int readVarInt() throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = input.read();
+            if (b == -1) {
+                throw new EOFException("Truncated dictionary encoded RDF Patch");
+            }
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new PatchException("Malformed length in dictionary encoded RDF Patch");
+    }
+}
@@ -16,6 +16,8 @@
 
 package io.telicent.core;
 
+import io.telicent.otel.CqrsMetrics;
+import io.telicent.smart.cache.configuration.Configurator;
 import io.telicent.smart.cache.security.data.DataAccessAuthorizer;
 import io.telicent.smart.cache.security.data.plugins.DataSecurityPlugin;
 import io.telicent.smart.cache.security.data.plugins.DataSecurityPluginLoader;
@@ -34,10 +36,17 @@ import org.apache.jena.sparql.modify.UsingList;
 import org.apache.jena.update.UpdateAction;
 import org.apache.jena.update.UpdateException;
 import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.common.TopicPartition;
 
 import java.io.InputStream;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.function.Consumer;
 import java.util.function.Function;
 
@@ -67,6 +76,11 @@ public class SPARQL_Update_CQRS extends SPARQL_Update {
     private final Function<HttpAction, String> getUser;
     private final String topic;
     private final Producer<String, byte[]> producer;
+    private final CQRS.Options options;
+    private final PatchGroupCommitter groupCommitter;
+    private final AppliedOffsetRegistry appliedOffsets;
+    private final long waitAppliedTimeoutMillis;
+    private final Semaphore waiters;
     private final Consumer<HttpAction> onBegin;
     private final Consumer<HttpAction> onCommit;
     private final Consumer<HttpAction> onAbort;
@@ -77,10 +91,45 @@ public class SPARQL_Update_CQRS extends SPARQL_Update {
                               Consumer<HttpAction> onBegin,
                               Consumer<HttpAction> onCommit,
                               Consumer<HttpAction> onAbort) {
+        this(getUser, topic, producer, CQRS.Options.DEFAULT, null, AppliedOffsetRegistry.get(), onBegin, onCommit,
+             onAbort);
+    }
+
+    /**
+     * Creates a new CQRS update endpoint
+     *
+     * @param getUser        Function that identifies the user making a request
+     * @param topic          Topic that patches are sent to
+     * @param producer       Kafka producer, {@code null} if patches are only logged
+     * @param options        CQRS options
+     * @param groupCommitter Group committer, owned by the caller, or {@code null} to send each patch individually
+     * @param appliedOffsets Registry of the consumer group of the Kafka connector that applies the topic to this
+     *                       endpoint's dataset, used by {@code wait=applied} updates
+     * @param onBegin        Called when the patch transaction begins
+     * @param onCommit       Called when the patch transaction commits
+     * @param onAbort        Called when the patch transaction aborts
+     */
+    public SPARQL_Update_CQRS(Function<HttpAction, String> getUser,
+                              String topic,
+                              Producer<String, byte[]> producer,
+                              CQRS.Options options,
+                              PatchGroupCommitter groupCommitter,
+                              AppliedOffsetRegistry appliedOffsets,
+                              Consumer<HttpAction> onBegin,
+                              Consumer<HttpAction> onCommit,
+                              Consumer<HttpAction> onAbort) {
         super();
         this.getUser = Objects.requireNonNull(getUser, "getUser function cannot be null");
         this.topic = topic;
         this.producer = producer;
+        this.options = Objects.requireNonNull(options, "options cannot be null");
+        this.groupCommitter = (producer != null) ? groupCommitter : null;
+        this.appliedOffsets = Objects.requireNonNull(appliedOffsets, "appliedOffsets cannot be null");
+        this.waitAppliedTimeoutMillis = Configurator.get(CQRS.ENV_CQRS_WAIT_APPLIED_TIMEOUT_MS, Long::parseLong,
+                                                         CQRS.DEFAULT_WAIT_APPLIED_TIMEOUT_MS);
+        this.waiters = new Semaphore(Math.max(0, Configurator.get(CQRS.ENV_CQRS_WAIT_APPLIED_MAX_WAITERS,
+                                                                  Integer::parseInt,
+                                                                  CQRS.DEFAULT_WAIT_APPLIED_MAX_WAITERS)));
         this.onBegin = onBegin;
         this.onCommit = onCommit;
         this.onAbort = onAbort;
@@ -95,20 +144,53 @@ public class SPARQL_Update_CQRS extends SPARQL_Update {
         return this.producer;
     }
 
+    /**
+     * Gets the options this endpoint was configured with
+     *
+     * @return Options
+     */
+    CQRS.Options getOptions() {
+        return this.options;
+    }
+
+    /**
+     * Gets the group committer for this endpoint
+     *
+     * @return Group committer, or {@code null} if group commit is not enabled
+     */
+    PatchGroupCommitter getGroupCommitter() {
+        return this.groupCommitter;
+    }
+
     @Override
     protected void execute(HttpAction action, InputStream input) {
         UsingList usingList = processProtocol(action.getRequest());
-        action.beginWrite();
+        boolean waitForApplied = waitForApplied(action);
+        CompletableFuture<CQRS.PatchOffset> pendingSend = null;
+        CQRS.UpdateCQRS updateCtl = null;
+        if (options.readSnapshot()) {
+            // The base dataset is only ever read, changes go to the buffering overlay and are discarded at the end
+            action.beginRead();
+        } else {
+            action.beginWrite();
+        }
         try {
             // Get the DatasetGraph to use
             DatasetGraph dsgRequest = getDatasetGraphToUse(action);
-            CQRS.UpdateCQRS updateCtl =
-                    CQRS.startOperation(topic, producer, action, dsgRequest, onBegin, onCommit, onAbort);
+            updateCtl = CQRS.startOperation(topic, producer, options, groupCommitter, action, dsgRequest, onBegin,
+                                            onCommit, onAbort);
             UpdateAction.parseExecute(usingList, updateCtl.dataset(), input, UpdateParseBase, Syntax.syntaxARQ);
             // Don't make the changes until read back from Kafka.
             CQRS.finishOperation(action, updateCtl);
+            if (!options.asyncSend()) {
+                CQRS.awaitSend(updateCtl.sendResult());
+            }
+            // Acknowledgement, in async mode, and waiting to be applied are handled once the transaction has been
+            // released
+            pendingSend = updateCtl.sendResult();
             action.abort();
             // Finished with this - it might have a large buffering dataset so clearly release it.
+            CQRS.releaseOperation(updateCtl);
             updateCtl = null;
             /* ---- */
         } catch (UpdateException ex) {
@@ -133,6 +215,12 @@ public class SPARQL_Update_CQRS extends SPARQL_Update {
             ActionLib.consumeBody(action);
             abortSilent(action);
             throw ex;
+        } catch (ActionErrorException ex) {
+            // Already carries the response status
+            ActionLib.consumeBody(action);
+            abortSilent(action);
+            incCounter(action.getEndpoint().getCounters(), UpdateExecErrors);
+            throw ex;
         } catch (Throwable ex) {
             ActionLib.consumeBody(action);
             if (!(ex instanceof ActionErrorException)) {
@@ -140,8 +228,102 @@ public class SPARQL_Update_CQRS extends SPARQL_Update {
                 ServletOps.errorOccurred(ex.getMessage(), ex);
             }
         } finally {
+            // Removes any spilled patch file left behind by a failed update
+            CQRS.releaseOperation(updateCtl);
             action.end();
         }
+        if (pendingSend != null) {
+            CQRS.PatchOffset sent = awaitPendingSend(action, pendingSend);
+            if (waitForApplied && sent.isSent()) {
+                awaitApplied(action, sent);
+            }
+        }
+        // The response itself, 204 or the HTML success page for form updates, is sent by SPARQL_Update with the
+        // CQRS-Quads-* headers set when the patch was written
+    }
+
+    private static boolean waitForApplied(HttpAction action) {
+        String wait = action.getRequestParameter(CQRS.PARAM_WAIT);
+        if (wait == null) {
+            return false;
+        }
+        if (!CQRS.WAIT_APPLIED.equals(wait)) {
+            ServletOps.errorBadRequest("Unsupported value for " + CQRS.PARAM_WAIT + ": " + wait);
+        }
+        return true;
+    }
+
+    /**
+     * Waits for Kafka to acknowledge a patch that was sent in async mode.
+     * <p>
+     * This happens after the write transaction has been released so that other updates can prepare and send their
+     * patches while this one is in flight, allowing the producer to pipeline and batch them.  The request thread still
+     * blocks here until the broker has acknowledged the patch, the only gain is overlapping the send with the end of
+     * the transaction.
+     * </p>
+     *
+     * @param action      Action
+     * @param pendingSend Send result
+     * @return Position of the patch
+     */
+    private CQRS.PatchOffset awaitPendingSend(HttpAction action, CompletableFuture<CQRS.PatchOffset> pendingSend) {
+        try {
+            return CQRS.awaitSend(pendingSend);
+        } catch (RuntimeException ex) {
+            incCounter(action.getEndpoint().getCounters(), UpdateExecErrors);
+            ServletOps.errorOccurred(ex.getMessage(), ex);
+            return CQRS.PatchOffset.NOT_SENT;
+        }
+    }
+
+    /**
+     * Waits for the Kafka connector to apply the patch to the local dataset, for {@code wait=applied} requests.
+     * <p>
+     * The patch is already durably in Kafka at this point so a timeout does not fail the update, it is reported via
+     * the {@link CQRS#HEADER_APPLIED} response header instead. Each waiting request holds a server thread, so only a
+     * limited number wait at once, any further requests respond immediately as not yet applied. Updates that respond
+     * before their patch is applied are logged and counted by {@link CqrsMetrics#recordNotApplied(String, String)}.
+     * </p>
+     *
+     * @param action Action
+     * @param sent   Position of the patch
+     */
+    private void awaitApplied(HttpAction action, CQRS.PatchOffset sent) {
+        if (!waiters.tryAcquire()) {
+            action.log.warn("[{}] Too many updates waiting to be applied, not waiting for patch at offset {} of {}",
+                            action.id, sent.offset(), sent.topic());
+            CqrsMetrics.recordNotApplied(sent.topic(), CqrsMetrics.REASON_SATURATED);
+            action.setResponseHeader(CQRS.HEADER_APPLIED, Boolean.toString(false));
+            return;
+        }
+        try {
+            action.setResponseHeader(CQRS.HEADER_APPLIED, Boolean.toString(waitUntilApplied(action, sent)));
+        } finally {
+            waiters.release();
+        }
+    }
+
+    private boolean waitUntilApplied(HttpAction action, CQRS.PatchOffset sent) {
+        CompletableFuture<Long> applied =
+                appliedOffsets.whenApplied(new TopicPartition(sent.topic(), sent.partition()), sent.offset());
+        boolean isApplied = false;
+        try {
+            applied.get(waitAppliedTimeoutMillis, TimeUnit.MILLISECONDS);
+            isApplied = true;
+        } catch (TimeoutException e) {
+            action.log.warn("[{}] Patch at offset {} of {} not applied within {} ms", action.id, sent.offset(),
+                            sent.topic(), waitAppliedTimeoutMillis);
+            CqrsMetrics.recordNotApplied(sent.topic(), CqrsMetrics.REASON_TIMEOUT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | CancellationException e) {
+            action.log.warn("[{}] Failed waiting for patch at offset {} of {} to be applied", action.id,
+                            sent.offset(), sent.topic());
+        } finally {
+            // Releases the waiter if it is still registered
+            applied.cancel(false);
+        }
+        return isApplied;
     }
 
     private DatasetGraph getDatasetGraphToUse(HttpAction action){
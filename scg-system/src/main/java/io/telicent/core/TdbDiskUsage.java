@@ -0,0 +1,212 @@
+/*
+ *  Copyright (c) Telicent Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.telicent.core;
+
+import io.telicent.smart.cache.configuration.Configurator;
+import org.apache.jena.tdb2.sys.DatabaseOps;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Clock;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Tracks the disk usage of a TDB2 database container without walking the whole container each time it is asked for.
+ * <p>
+ * A container holds a {@code Data-NNNN} directory per generation, only the highest of which is active, plus any stale
+ * generations left behind by compactions that did not delete them. Usage is cached and only recalculated once the
+ * refresh interval has passed. On a refresh only the files of the active generation are measured again. Stale
+ * generations are never written to again, so each is measured once and its size is cached until it is deleted.
+ * </p>
+ */
+public final class TdbDiskUsage {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TdbDiskUsage.class);
+
+    /**
+     * Configuration key for the minimum interval, in milliseconds, between recalculations of disk usage
+     */
+    public static final String ENV_TDB_DISK_USAGE_REFRESH_MS = "TDB_DISK_USAGE_REFRESH_MS";
+    /** Default refresh interval, 1 minute */
+    public static final long DEFAULT_REFRESH_MS = 60_000;
+
+    private static final Pattern GENERATION = Pattern.compile("Data-(\\d+)");
+    private static final Map<Path, TdbDiskUsage> TRACKERS = new ConcurrentHashMap<>();
+
+    /**
+     * Disk usage of a database container
+     *
+     * @param active Bytes used by the active generation
+     * @param stale  Bytes used by older generations that are no longer in use
+     * @param other  Bytes used by any other files in the container, e.g. lock and compaction results files
+     */
+    public record Usage(long active, long stale, long other) {
+        /**
+         * Gets the total bytes used by the container
+         *
+         * @return Total bytes
+         */
+        public long total() {
+            return this.active + this.stale + this.other;
+        }
+    }
+
+    private final Path container;
+    private final long refreshMillis;
+    private final Clock clock;
+    private final Map<Path, Long> staleSizes = new ConcurrentHashMap<>();
+    private volatile Usage usage;
+    private volatile long refreshedAt;
+
+    /**
+     * Gets the shared tracker for a database container, using the configured refresh interval
+     *
+     * @param container Container path
+     * @return Tracker
+     */
+    public static TdbDiskUsage forContainer(Path container) {
+        Objects.requireNonNull(container, "container cannot be null");
+        return TRACKERS.computeIfAbsent(container.toAbsolutePath().normalize(), path -> new TdbDiskUsage(path,
+                Configurator.get(ENV_TDB_DISK_USAGE_REFRESH_MS, Long::parseLong, DEFAULT_REFRESH_MS),
+                Clock.systemUTC()));
+    }
+
+    /**
+     * Creates a new tracker
+     *
+     * @param container     Container path
+     * @param refreshMillis Minimum interval between recalculations
+     * @param clock         Clock
+     */
+    TdbDiskUsage(Path container, long refreshMillis, Clock clock) {
+        this.container = Objects.requireNonNull(container, "container cannot be null");
+        this.refreshMillis = refreshMillis;
+        this.clock = Objects.requireNonNull(clock, "clock cannot be null");
+    }
+
+    /**
+     * Gets the disk usage, recalculating it if it was last calculated longer ago than the refresh interval
+     *
+     * @return Disk usage
+     */
+    public Usage usage() {
+        Usage current = this.usage;
+        if (current == null || this.clock.millis() - this.refreshedAt >= this.refreshMillis) {
+            return refresh();
+        }
+        return current;
+    }
+
+    /**
+     * Recalculates the disk usage now, e.g. after a compaction has changed the active generation
+     *
+     * @return Disk usage
+     */
+    public synchronized Usage refresh() {
+        Path activeDir = Files.isDirectory(this.container) ? DatabaseOps.findStorageLocation(this.container) : null;
+        int activeGeneration = activeDir != null ? generationOf(activeDir) : -1;
+        long active = 0, stale = 0, other = 0;
+        Set<Path> seen = new HashSet<>();
+        try (Stream<Path> children = listOrEmpty(this.container)) {
+            for (Path child : (Iterable<Path>) children::iterator) {
+                if (child.equals(activeDir)) {
+                    active = sizeOf(child);
+                } else if (Files.isDirectory(child)) {
+                    int generation = generationOf(child);
+                    if (generation >= 0 && generation < activeGeneration) {
+                        // Older generations are never written to again so their size only needs measuring once
+                        seen.add(child);
+                        stale += this.staleSizes.computeIfAbsent(child, TdbDiskUsage::sizeOf);
+                    } else {
+                        // e.g. a generation being written by an online compaction
+                        stale += sizeOf(child);
+                    }
+                } else {
+                    other += sizeOf(child);
+                }
+            }
+        }
+        this.staleSizes.keySet().retainAll(seen);
+
+        Usage updated = new Usage(active, stale, other);
+        this.usage = updated;
+        this.refreshedAt = this.clock.millis();
+        return updated;
+    }
+
+    private static Stream<Path> listOrEmpty(Path dir) {
+        try {
+            return Files.list(dir);
+        } catch (NoSuchFileException | NotDirectoryException e) {
+            return Stream.empty();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Gets the generation number of a {@code Data-NNNN} directory
+     *
+     * @param dir Directory
+     * @return Generation number, {@code -1} if not a generation directory
+     */
+    static int generationOf(Path dir) {
+        Matcher matcher = GENERATION.matcher(dir.getFileName().toString());
+        return matcher.matches() ? Integer.parseInt(matcher.group(1)) : -1;
+    }
+
+    /**
+     * Sums the sizes of the regular files under a path, ignoring any that are deleted while being measured
+     *
+     * @param path Path
+     * @return Size in bytes
+     */
+    static long sizeOf(Path path) {
+        long[] total = { 0 };
+        try {
+            Files.walkFileTree(path, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (attrs.isRegularFile()) {
+                        total[0] += attrs.size();
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    // Files may be removed by a concurrent compaction
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            LOG.debug("Failed to measure disk usage of {}: {}", path, e.getMessage());
+        }
+        return total[0];
+    }
+}
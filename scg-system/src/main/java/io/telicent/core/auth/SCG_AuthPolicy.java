@@ -208,6 +208,10 @@ public class SCG_AuthPolicy {
         addPolicy(perms, "/$/backups/restore", BACKUP_RESTORE);
         addPolicy(perms, "/$/backups/restore/*", BACKUP_RESTORE);
         addPolicy(perms, "/$/backups/*", BACKUP_READ_ONLY);
+
+        // Ingest - /$/ingest/*
+        // Lists records that could not be applied, these may contain data so require an administrator role
+        addPolicy(roles, "/$/ingest/*", ADMIN_ROLES);
     }
 
     /**
@@ -0,0 +1,166 @@
+/*
+ *  Copyright (c) Telicent Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.telicent.otel;
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.metrics.DoubleHistogram;
+import io.opentelemetry.api.metrics.LongCounter;
+import io.opentelemetry.api.metrics.LongHistogram;
+import io.opentelemetry.api.metrics.Meter;
+import org.apache.jena.atlas.lib.Version;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Metrics for CQRS updates
+ * <p>
+ * Instruments are created lazily against the current {@link JenaMetrics} meter, and recreated if the underlying Open
+ * Telemetry instance is changed, e.g. by tests.
+ * </p>
+ */
+public final class CqrsMetrics {
+
+    /**
+     * Metric that records the time, in seconds, from handing a patch to the Kafka producer to it being acknowledged
+     */
+    public static final String SEND_DURATION = FMod_OpenTelemetry.METRIC_PREFIX + "cqrs.send.duration";
+    /**
+     * Metric that records the number of quads added by each CQRS update
+     */
+    public static final String PATCH_QUADS_ADDED = FMod_OpenTelemetry.METRIC_PREFIX + "cqrs.patch.quads.added";
+    /**
+     * Metric that records the number of quads deleted by each CQRS update
+     */
+    public static final String PATCH_QUADS_DELETED = FMod_OpenTelemetry.METRIC_PREFIX + "cqrs.patch.quads.deleted";
+    /**
+     * Metric that records the size, in bytes, of the RDF Patch generated by each CQRS update
+     */
+    public static final String PATCH_SIZE = FMod_OpenTelemetry.METRIC_PREFIX + "cqrs.patch.size";
+    /**
+     * Metric that records the average batch size, in bytes, of a CQRS Kafka producer
+     */
+    public static final String PRODUCER_BATCH_SIZE = FMod_OpenTelemetry.METRIC_PREFIX + "cqrs.producer.batch.size";
+    /**
+     * Metric that records the average number of records per request of a CQRS Kafka producer
+     */
+    public static final String PRODUCER_RECORDS_PER_REQUEST =
+            FMod_OpenTelemetry.METRIC_PREFIX + "cqrs.producer.records.per.request";
+    /**
+     * Metric that counts {@code wait=applied} updates that responded without their patch having been applied
+     */
+    public static final String WAIT_APPLIED_NOT_APPLIED =
+            FMod_OpenTelemetry.METRIC_PREFIX + "cqrs.wait.applied.not.applied";
+
+    /** Attribute for the Kafka topic */
+    public static final AttributeKey<String> KAFKA_TOPIC = AttributeKey.stringKey("messaging.destination.name");
+    /** Attribute for the Kafka producer client ID */
+    public static final AttributeKey<String> KAFKA_CLIENT_ID = AttributeKey.stringKey("messaging.client.id");
+    /** Attribute for why a {@code wait=applied} update did not wait for its patch to be applied */
+    public static final AttributeKey<String> REASON = AttributeKey.stringKey("reason");
+    /** Reason given when too many updates were already waiting */
+    public static final String REASON_SATURATED = "saturated";
+    /** Reason given when the wait timed out */
+    public static final String REASON_TIMEOUT = "timeout";
+
+    private static final String LIBRARY = "Smart Cache Graph CQRS";
+    private static final String VERSION = Version.versionForClass(CqrsMetrics.class).orElse("<development>");
+    private static final double NANOSECONDS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private record Instruments(Meter meter, DoubleHistogram sendDuration, LongHistogram quadsAdded,
+                               LongHistogram quadsDeleted, LongHistogram patchSize, LongCounter notApplied) {}
+
+    private static Instruments instruments;
+
+    private CqrsMetrics() {
+    }
+
+    /**
+     * Gets the meter for CQRS metrics
+     *
+     * @return Meter
+     */
+    public static Meter meter() {
+        return JenaMetrics.getMeter(LIBRARY, VERSION);
+    }
+
+    private static synchronized Instruments instruments() {
+        Meter current = meter();
+        if (instruments == null || instruments.meter() != current) {
+            instruments = new Instruments(current,
+                                          current.histogramBuilder(SEND_DURATION)
+                                                 .setDescription("Time taken for Kafka to acknowledge a CQRS patch")
+                                                 .setUnit("s")
+                                                 .build(),
+                                          current.histogramBuilder(PATCH_QUADS_ADDED)
+                                                 .setDescription("Quads added by a CQRS update")
+                                                 .ofLongs()
+                                                 .build(),
+                                          current.histogramBuilder(PATCH_QUADS_DELETED)
+                                                 .setDescription("Quads deleted by a CQRS update")
+                                                 .ofLongs()
+                                                 .build(),
+                                          current.histogramBuilder(PATCH_SIZE)
+                                                 .setDescription("Size of the RDF Patch generated by a CQRS update")
+                                                 .setUnit("bytes")
+                                                 .ofLongs()
+                                                 .build(),
+                                          current.counterBuilder(WAIT_APPLIED_NOT_APPLIED)
+                                                 .setDescription("wait=applied CQRS updates that responded before "
+                                                                 + "their patch was applied")
+                                                 .build());
+        }
+        return instruments;
+    }
+
+    /**
+     * Records the statistics of a CQRS patch
+     *
+     * @param topic   Topic
+     * @param added   Quads added
+     * @param deleted Quads deleted
+     * @param bytes   Patch size in bytes
+     */
+    public static void recordPatch(String topic, long added, long deleted, long bytes) {
+        Instruments current = instruments();
+        Attributes attributes = Attributes.of(KAFKA_TOPIC, topic);
+        current.quadsAdded().record(added, attributes);
+        current.quadsDeleted().record(deleted, attributes);
+        current.patchSize().record(bytes, attributes);
+    }
+
+    /**
+     * Records the send duration for a CQRS patch
+     *
+     * @param topic         Topic
+     * @param startNanoTime {@link System#nanoTime()} when the patch was handed to the producer
+     */
+    public static void recordSend(String topic, long startNanoTime) {
+        long elapsed = System.nanoTime() - startNanoTime;
+        instruments().sendDuration().record(elapsed / NANOSECONDS_PER_SECOND, Attributes.of(KAFKA_TOPIC, topic));
+    }
+
+    /**
+     * Records that a {@code wait=applied} update responded before its patch was applied
+     *
+     * @param topic  Topic
+     * @param reason Reason, {@link #REASON_SATURATED} or {@link #REASON_TIMEOUT}
+     */
+    public static void recordNotApplied(String topic, String reason) {
+        instruments().notApplied().add(1, Attributes.of(KAFKA_TOPIC, topic, REASON, reason));
+    }
+}
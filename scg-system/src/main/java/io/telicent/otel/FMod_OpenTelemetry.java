@@ -26,7 +26,7 @@ import io.opentelemetry.api.metrics.Meter;
 import io.opentelemetry.api.metrics.ObservableLongGauge;
 import io.opentelemetry.semconv.DbAttributes;
 import io.telicent.core.FMod_InitialCompaction;
-import org.apache.commons.io.FileUtils;
+import io.telicent.core.TdbDiskUsage;
 import org.apache.jena.Jena;
 import org.apache.jena.atlas.lib.Lib;
 import org.apache.jena.atlas.lib.Version;
@@ -54,6 +54,14 @@ public class FMod_OpenTelemetry implements FusekiModule {
      * Metric that records TDB2 disk space usage
      */
     public static final String TDB_DISK_USAGE = METRIC_PREFIX + "tdb2.disk.usage";
+    /**
+     * Metric that records TDB2 disk space used by the active generation of the database
+     */
+    public static final String TDB_DISK_USAGE_ACTIVE = METRIC_PREFIX + "tdb2.disk.usage.active";
+    /**
+     * Metric that records TDB2 disk space used by stale generations of the database, reclaimable by deleting them
+     */
+    public static final String TDB_DISK_USAGE_STALE = METRIC_PREFIX + "tdb2.disk.usage.stale";
 
     public static String ENV_OPENTELEMETRY = "FUSEKI_FMOD_OTEL";
     public static String SYS_OPENTELEMETRY = "fuseki:fmod:OpenTelemetry";
@@ -120,11 +128,20 @@ public class FMod_OpenTelemetry implements FusekiModule {
                                                                            .toFile()
                                                                            .getAbsolutePath())
                                                        .build();
+            // Usage is cached by the tracker so that each collection doesn't walk the whole database
+            TdbDiskUsage diskUsage = TdbDiskUsage.forContainer(tdb.getContainerPath());
             meter.gaugeBuilder(TDB_DISK_USAGE)
                  .setUnit("bytes")
                  .ofLongs()
-                 .buildWithCallback(m -> m.record(FileUtils.sizeOfDirectory(tdb.getContainerPath().toFile()),
-                                                  diskUsageAttributes));
+                 .buildWithCallback(m -> m.record(diskUsage.usage().total(), diskUsageAttributes));
+            meter.gaugeBuilder(TDB_DISK_USAGE_ACTIVE)
+                 .setUnit("bytes")
+                 .ofLongs()
+                 .buildWithCallback(m -> m.record(diskUsage.usage().active(), diskUsageAttributes));
+            meter.gaugeBuilder(TDB_DISK_USAGE_STALE)
+                 .setUnit("bytes")
+                 .ofLongs()
+                 .buildWithCallback(m -> m.record(diskUsage.usage().stale(), diskUsageAttributes));
         }
 
         // Add gauges for each Fuseki counter
@@ -0,0 +1,225 @@
+/*
+ *  Copyright (c) Telicent Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.telicent.otel;
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.metrics.DoubleHistogram;
+import io.opentelemetry.api.metrics.LongCounter;
+import io.opentelemetry.api.metrics.LongGauge;
+import io.opentelemetry.api.metrics.LongHistogram;
+import io.opentelemetry.api.metrics.Meter;
+import org.apache.jena.atlas.lib.Version;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Metrics for applying data read from Kafka to a dataset
+ * <p>
+ * Instruments are created lazily against the current {@link JenaMetrics} meter, and recreated if the underlying Open
+ * Telemetry instance is changed, e.g. by tests.
+ * </p>
+ */
+public final class IngestMetrics {
+
+    /**
+     * Metric that records the number of records per connector batch that batch timing works out would meet the target
+     * commit duration, for tuning the connector's {@code max.poll.records}
+     */
+    public static final String BATCH_RECOMMENDED = FMod_OpenTelemetry.METRIC_PREFIX + "ingest.batch.recommended";
+    /**
+     * Metric that records the number of records applied in each batch committed by the connector
+     */
+    public static final String BATCH_SIZE = FMod_OpenTelemetry.METRIC_PREFIX + "ingest.batch.size";
+    /**
+     * Metric that records the time, in seconds, taken to apply and commit each batch committed by the connector
+     */
+    public static final String COMMIT_DURATION = FMod_OpenTelemetry.METRIC_PREFIX + "ingest.commit.duration";
+    /**
+     * Metric that records the time, in seconds, taken to parse a payload when it is parsed ahead of being applied
+     */
+    public static final String PARSE_DURATION = FMod_OpenTelemetry.METRIC_PREFIX + "ingest.parse.duration";
+    /**
+     * Metric that records the time, in seconds, taken to apply each event to the dataset, including any parsing
+     */
+    public static final String APPLY_DURATION = FMod_OpenTelemetry.METRIC_PREFIX + "ingest.apply.duration";
+    /**
+     * Metric that counts the records applied to the dataset
+     */
+    public static final String RECORDS_APPLIED = FMod_OpenTelemetry.METRIC_PREFIX + "ingest.records";
+    /**
+     * Metric that counts the bytes of record payloads applied to the dataset
+     */
+    public static final String BYTES_APPLIED = FMod_OpenTelemetry.METRIC_PREFIX + "ingest.bytes";
+    /**
+     * Metric that records the number of records on each partition not yet applied to the dataset
+     */
+    public static final String CONSUMER_LAG = FMod_OpenTelemetry.METRIC_PREFIX + "ingest.lag";
+    /**
+     * Metric that records the time, in seconds, since a record was last applied to the dataset
+     */
+    public static final String TIME_SINCE_LAST_APPLIED =
+            FMod_OpenTelemetry.METRIC_PREFIX + "ingest.time.since.last.applied";
+
+    /**
+     * Metric that counts the records that could not be applied and were quarantined
+     */
+    public static final String RECORDS_QUARANTINED = FMod_OpenTelemetry.METRIC_PREFIX + "ingest.quarantined";
+
+    /** Attribute for the Kafka partition */
+    public static final AttributeKey<String> KAFKA_PARTITION =
+            AttributeKey.stringKey("messaging.destination.partition.id");
+    /** Attribute for where a quarantined record was sent */
+    public static final AttributeKey<String> QUARANTINE_DESTINATION = AttributeKey.stringKey("quarantine.destination");
+
+    private static final String LIBRARY = "Smart Cache Graph Ingest";
+    private static final String VERSION = Version.versionForClass(IngestMetrics.class).orElse("<development>");
+    private static final double NANOSECONDS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private record Instruments(Meter meter, LongGauge batchRecommended, LongHistogram batchSize,
+                               DoubleHistogram commitDuration, DoubleHistogram parseDuration,
+                               DoubleHistogram applyDuration, LongCounter records, LongCounter bytes,
+                               LongCounter quarantined) {}
+
+    private static Instruments instruments;
+
+    private static final Map<String, Long> LAST_APPLIED = new ConcurrentHashMap<>();
+
+    private IngestMetrics() {
+    }
+
+    /**
+     * Gets the meter for ingest metrics
+     *
+     * @return Meter
+     */
+    public static Meter meter() {
+        return JenaMetrics.getMeter(LIBRARY, VERSION);
+    }
+
+    private static synchronized Instruments instruments() {
+        Meter current = meter();
+        if (instruments == null || instruments.meter() != current) {
+            instruments = new Instruments(current,
+                                          current.gaugeBuilder(BATCH_RECOMMENDED)
+                                                 .setDescription("Records per batch meeting the target commit time")
+                                                 .ofLongs()
+                                                 .build(),
+                                          current.histogramBuilder(BATCH_SIZE)
+                                                 .setDescription("Records applied per connector batch")
+                                                 .ofLongs()
+                                                 .build(),
+                                          current.histogramBuilder(COMMIT_DURATION)
+                                                 .setDescription("Time taken to apply and commit a connector batch")
+                                                 .setUnit("s")
+                                                 .build(),
+                                          current.histogramBuilder(PARSE_DURATION)
+                                                 .setDescription("Time taken to parse a payload read from Kafka")
+                                                 .setUnit("s")
+                                                 .build(),
+                                          current.histogramBuilder(APPLY_DURATION)
+                                                 .setDescription("Time taken to apply an event read from Kafka")
+                                                 .setUnit("s")
+                                                 .build(),
+                                          current.counterBuilder(RECORDS_APPLIED)
+                                                 .setDescription("Records read from Kafka applied to the dataset")
+                                                 .build(),
+                                          current.counterBuilder(BYTES_APPLIED)
+                                                 .setDescription("Bytes read from Kafka applied to the dataset")
+                                                 .setUnit("bytes")
+                                                 .build(),
+                                          current.counterBuilder(RECORDS_QUARANTINED)
+                                                 .setDescription("Records read from Kafka that were quarantined")
+                                                 .build());
+        }
+        return instruments;
+    }
+
+    private static Attributes topicAttributes(String topic) {
+        return (topic == null) ? Attributes.empty() : Attributes.of(CqrsMetrics.KAFKA_TOPIC, topic);
+    }
+
+    /**
+     * Records a connector batch measured by batch timing
+     *
+     * @param topic       Topic of the first record of the batch, or {@code null} if not known
+     * @param records     Records applied in the batch
+     * @param commitNanos Time taken to apply and commit the batch
+     * @param recommended Batch size that would meet the target commit duration
+     */
+    public static void recordBatch(String topic, long records, long commitNanos, long recommended) {
+        Instruments current = instruments();
+        Attributes attributes = topicAttributes(topic);
+        current.batchSize().record(records, attributes);
+        current.commitDuration().record(commitNanos / NANOSECONDS_PER_SECOND, attributes);
+        current.batchRecommended().set(recommended, attributes);
+    }
+
+    /**
+     * Records the time taken to parse a payload
+     *
+     * @param topic      Topic the payload was read from, or {@code null} if not known
+     * @param parseNanos Time taken to parse the payload
+     */
+    public static void recordParse(String topic, long parseNanos) {
+        instruments().parseDuration().record(parseNanos / NANOSECONDS_PER_SECOND, topicAttributes(topic));
+    }
+
+    /**
+     * Records a record having been applied to the dataset
+     *
+     * @param topic      Topic the record was read from, or {@code null} if not known
+     * @param bytes      Size of the record payload in bytes
+     * @param applyNanos Time taken to apply the record
+     */
+    public static void recordApplied(String topic, long bytes, long applyNanos) {
+        Instruments current = instruments();
+        Attributes attributes = topicAttributes(topic);
+        current.records().add(1, attributes);
+        if (bytes > 0) {
+            current.bytes().add(bytes, attributes);
+        }
+        current.applyDuration().record(applyNanos / NANOSECONDS_PER_SECOND, attributes);
+        if (topic != null) {
+            LAST_APPLIED.put(topic, System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Records a record having been quarantined rather than applied
+     *
+     * @param topic       Topic the record was read from
+     * @param destination Where the record was sent
+     */
+    public static void recordQuarantined(String topic, String destination) {
+        instruments().quarantined().add(1, topicAttributes(topic).toBuilder()
+                                                                 .put(QUARANTINE_DESTINATION, destination)
+                                                                 .build());
+    }
+
+    /**
+     * Gets when a record from the given topic was last applied
+     *
+     * @param topic Topic
+     * @return Time in milliseconds since the epoch, or {@code null} if no record has been applied since startup
+     */
+    public static Long lastApplied(String topic) {
+        return LAST_APPLIED.get(topic);
+    }
+}
@@ -4,22 +4,29 @@ import com.fasterxml.jackson.databind.node.ObjectNode;
 import io.telicent.jena.abac.ABAC;
 import io.telicent.jena.abac.SysABAC;
 import io.telicent.jena.abac.core.DatasetGraphABAC;
+import io.telicent.core.OffsetCheckpointSink;
 import io.telicent.jena.abac.labels.LabelsStoreMem;
 import io.telicent.smart.cache.security.data.plugins.DataSecurityPlugin;
 import io.telicent.smart.cache.security.data.plugins.rdf.abac.RdfAbacPlugin;
 import org.apache.jena.atlas.lib.FileOps;
 import org.apache.jena.graph.Node;
 import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.sparql.core.DatasetGraph;
 import org.apache.jena.sparql.core.DatasetGraphFactory;
 import org.apache.jena.sparql.core.Quad;
+import org.apache.jena.system.Txn;
+import org.apache.jena.tdb2.DatabaseMgr;
+import org.apache.kafka.common.TopicPartition;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Map;
 
 import static io.telicent.backup.utils.JsonFileUtils.OBJECT_MAPPER;
 import static org.junit.jupiter.api.Assertions.*;
@@ -130,6 +137,47 @@ public class TestBackupAndRestore {
         assertTrue(dsgABAC.contains(Quad.create(DEFAULT_GRAPH, NodeFactory.createURI("http://example.org/subject5"), NodeFactory.createURI("http://example.org/predicate5"), NodeFactory.createURI("http://example.org/object5"))));
     }
 
+    @Test
+    public void test_backupWithCheckpoint_AndThen_Restore_resumesFromBackedUpCheckpoint(@TempDir Path tempDir)
+            throws IOException {
+        // given
+        DatasetGraph dsg = DatabaseMgr.connectDatasetGraph(tempDir.toString());
+        Quad quad = Quad.create(DEFAULT_GRAPH, NodeFactory.createURI("http://example.org/subject1"),
+                                NodeFactory.createURI("http://example.org/predicate1"),
+                                NodeFactory.createLiteralString("object1"));
+        Txn.executeWrite(dsg, () -> dsg.add(quad));
+        OffsetCheckpointSink.write(dsg, Map.of(new TopicPartition("knowledge", 0), 5L));
+        String backupFilename = TEST_BACKUP_DIR + "test_checkpoint";
+        DatasetBackupService.backupCheckpoint(dsg, backupFilename);
+        datasetBackupService.executeBackupTDB(dsg, backupFilename, OBJECT_MAPPER.createObjectNode());
+        OffsetCheckpointSink.write(dsg, Map.of(new TopicPartition("knowledge", 0), 9L,
+                                               new TopicPartition("knowledge", 1), 3L));
+
+        // when
+        datasetBackupService.executeRestoreTDB(dsg, backupFilename + ".nq.gz");
+
+        // then
+        assertEquals(Map.of(new TopicPartition("knowledge", 0), 5L), OffsetCheckpointSink.read(dsg));
+        assertTrue(Txn.calculateRead(dsg, () -> dsg.contains(quad)));
+    }
+
+    @Test
+    public void test_backupWithoutCheckpoint_AndThen_Restore_clearsCheckpoint(@TempDir Path tempDir)
+            throws IOException {
+        // given
+        DatasetGraph dsg = DatabaseMgr.connectDatasetGraph(tempDir.toString());
+        String backupFilename = TEST_BACKUP_DIR + "test_no_checkpoint";
+        DatasetBackupService.backupCheckpoint(dsg, backupFilename);
+        datasetBackupService.executeBackupTDB(dsg, backupFilename, OBJECT_MAPPER.createObjectNode());
+        OffsetCheckpointSink.write(dsg, Map.of(new TopicPartition("knowledge", 0), 9L));
+
+        // when
+        datasetBackupService.executeRestoreTDB(dsg, backupFilename + ".nq.gz");
+
+        // then
+        assertTrue(OffsetCheckpointSink.read(dsg).isEmpty());
+    }
+
     @Test
     public void test_executeDeleteBackup() throws IOException {
         // given
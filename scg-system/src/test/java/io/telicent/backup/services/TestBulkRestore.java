@@ -0,0 +1,192 @@
+package io.telicent.backup.services;
+
+import io.telicent.backup.utils.BackupFormat;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.sparql.core.DatasetGraphFactory;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.jena.sparql.sse.SSE;
+import org.apache.jena.sparql.util.IsoMatcher;
+import org.apache.jena.system.Txn;
+import org.apache.jena.tdb2.DatabaseMgr;
+import org.apache.jena.tdb2.store.DatasetGraphSwitchable;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestBulkRestore {
+
+    @TempDir
+    Path tempDir;
+
+    private static final Quad OLD = SSE.parseQuad("(_ <http://example/old> <http://example/p> 'old')");
+
+    private static DatasetGraph source(int subjects) {
+        DatasetGraph dsg = DatasetGraphFactory.createTxnMem();
+        for (int i = 0; i < subjects; i++) {
+            dsg.add(SSE.parseQuad("(<http://example/g> <http://example/s" + i + "> <http://example/p> _:b" + i + ")"));
+            dsg.add(SSE.parseQuad("(_ _:b" + i + " <http://example/q> " + i + ")"));
+        }
+        return dsg;
+    }
+
+    private DatasetGraphSwitchable database() {
+        DatasetGraph dsg = DatabaseMgr.connectDatasetGraph(tempDir.resolve("db").toString());
+        Txn.executeWrite(dsg, () -> dsg.add(OLD));
+        return (DatasetGraphSwitchable) dsg;
+    }
+
+    @Test
+    void givenSegmentedBackup_whenRestored_thenDatasetSwitchedToRestoredGeneration() throws IOException {
+        // given
+        DatasetGraph source = source(20);
+        Path backup = tempDir.resolve("ds_backup.nq.gz");
+        new ParallelBackupWriter(3, 7).write(source, backup);
+        DatasetGraphSwitchable dsg = database();
+        BulkRestore restore = new BulkRestore(3, 5_000);
+
+        // when
+        BulkRestore.Prepared prepared = restore.prepare(dsg, backup);
+        boolean unchangedBeforeSwitch = Txn.calculateRead(dsg, () -> dsg.contains(OLD));
+        restore.switchTo(prepared);
+
+        // then
+        assertTrue(unchangedBeforeSwitch);
+        assertEquals(40, prepared.quads());
+        Txn.executeRead(dsg, () -> {
+            assertFalse(dsg.contains(OLD));
+            assertTrue(IsoMatcher.isomorphic(source, dsg));
+        });
+        assertTrue(Files.isDirectory(tempDir.resolve("db/Data-0002")));
+        assertFalse(Files.exists(tempDir.resolve("db/Data-0001")));
+    }
+
+    @Test
+    void givenSingleStreamBackup_whenRestored_thenAllQuadsRestored() throws IOException {
+        // given
+        DatasetGraph source = source(5);
+        Path backup = tempDir.resolve("ds_backup.nq.gz");
+        try (OutputStream output = new GZIPOutputStream(Files.newOutputStream(backup))) {
+            RDFDataMgr.write(output, source, Lang.NQUADS);
+        }
+        DatasetGraphSwitchable dsg = database();
+        BulkRestore restore = new BulkRestore(2, 5_000);
+
+        // when
+        restore.switchTo(restore.prepare(dsg, backup));
+
+        // then
+        Txn.executeRead(dsg, () -> assertTrue(IsoMatcher.isomorphic(source, dsg)));
+    }
+
+    @Test
+    void givenSingleStreamProtobufBackup_whenRestored_thenAllQuadsRestored() throws IOException {
+        // given
+        DatasetGraph source = source(5);
+        Path backup = tempDir.resolve("ds_backup" + BackupFormat.PROTOBUF.suffix());
+        try (OutputStream output = new GZIPOutputStream(Files.newOutputStream(backup))) {
+            RDFDataMgr.write(output, source, Lang.RDFPROTO);
+        }
+        DatasetGraphSwitchable dsg = database();
+        BulkRestore restore = new BulkRestore(2, 5_000);
+
+        // when
+        restore.switchTo(restore.prepare(dsg, backup));
+
+        // then
+        Txn.executeRead(dsg, () -> assertTrue(IsoMatcher.isomorphic(source, dsg)));
+    }
+
+    @Test
+    void givenBackupWithPrefixes_whenRestored_thenPrefixesTakenFromBackup() throws IOException {
+        // given
+        DatasetGraph source = source(2);
+        source.prefixes().add("ex", "http://example/");
+        Path backup = tempDir.resolve("ds_backup" + BackupFormat.PROTOBUF.suffix());
+        try (OutputStream output = new GZIPOutputStream(Files.newOutputStream(backup))) {
+            RDFDataMgr.write(output, source, Lang.RDFPROTO);
+        }
+        DatasetGraphSwitchable dsg = database();
+        Txn.executeWrite(dsg, () -> dsg.prefixes().add("old", "http://example/old#"));
+
+        // when
+        new BulkRestore(2, 5_000).restore(dsg, backup);
+
+        // then
+        Txn.executeRead(dsg, () -> {
+            assertEquals("http://example/", dsg.prefixes().get("ex"));
+            assertNull(dsg.prefixes().get("old"));
+        });
+    }
+
+    @Test
+    void givenWriteTransactionInProgress_whenRestored_thenFailsAndDatasetUnchanged() throws Exception {
+        // given
+        DatasetGraph source = source(2);
+        Path backup = tempDir.resolve("ds_backup.nq.gz");
+        new ParallelBackupWriter(2, 7).write(source, backup);
+        DatasetGraphSwitchable dsg = database();
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch finish = new CountDownLatch(1);
+        Thread writer = new Thread(() -> Txn.executeWrite(dsg, () -> {
+            writing.countDown();
+            try {
+                finish.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+        writer.start();
+        writing.await();
+
+        // when
+        try {
+            assertThrows(IllegalStateException.class, () -> new BulkRestore(2, 200).restore(dsg, backup));
+        } finally {
+            finish.countDown();
+            writer.join();
+        }
+
+        // then
+        Txn.executeRead(dsg, () -> assertTrue(dsg.contains(OLD)));
+        assertFalse(Files.exists(tempDir.resolve("db/Data-0002")));
+    }
+
+    @Test
+    void givenInvalidBackup_whenPrepared_thenFailsAndDatasetUnchanged() throws IOException {
+        // given
+        Path backup = tempDir.resolve("bad_backup.nq.gz");
+        try (OutputStream output = new GZIPOutputStream(Files.newOutputStream(backup))) {
+            output.write("not n-quads\n".getBytes(StandardCharsets.UTF_8));
+        }
+        DatasetGraphSwitchable dsg = database();
+
+        // when / then
+        assertThrows(RuntimeException.class, () -> new BulkRestore(2, 5_000).prepare(dsg, backup));
+        Txn.executeRead(dsg, () -> assertTrue(dsg.contains(OLD)));
+        assertFalse(Files.exists(tempDir.resolve("db/Data-0002-restoring")));
+    }
+
+    @Test
+    void givenBlock_whenFindingLastLineEnd_thenSplitAfterLastLineFeed() {
+        // given / when / then
+        assertEquals(4, BulkRestore.lastLineEnd("abc\ndef".getBytes(StandardCharsets.UTF_8)));
+        assertEquals(0, BulkRestore.lastLineEnd("abc".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void givenInMemoryDataset_whenCheckingSupport_thenNotSupported() {
+        // given / when / then
+        assertFalse(BulkRestore.isSupported(DatasetGraphFactory.createTxnMem()));
+    }
+}
@@ -48,14 +48,18 @@ import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Optional;
+import java.util.Random;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 import static io.telicent.backup.services.DatasetBackupService_Test.*;
 import static io.telicent.backup.utils.JsonFileUtils.OBJECT_MAPPER;
@@ -821,6 +825,33 @@ public class TestDatasetBackupService {
         assertEquals(0, DatasetBackupService_Test.getCallCount(RESTORE_LABELS));
     }
 
+    @Test
+    @DisplayName("Restore datasets from a corrupt ZIP file leaves nothing extracted")
+    public void test_restoreDatasets_corruptZip() throws Exception {
+        // given
+        String restoreID = "1";
+        Path zipFile = baseDir.resolve(restoreID + ".zip");
+        try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(zipFile))) {
+            zip.putNextEntry(new ZipEntry("dataset/tdb/dataset_backup.nq.gz"));
+            byte[] data = new byte[64 * 1024];
+            new Random(1).nextBytes(data);
+            zip.write(data);
+            zip.closeEntry();
+        }
+        byte[] bytes = Files.readAllBytes(zipFile);
+        Files.write(zipFile, Arrays.copyOf(bytes, bytes.length / 2));
+        when(mockRegistry.accessPoints()).thenReturn(emptyList());
+
+        // when
+        ObjectNode result = OBJECT_MAPPER.createObjectNode();
+        assertThrows(IOException.class, () -> cut.restoreDatasets(restoreID, result));
+
+        // then
+        assertFalse(Files.exists(baseDir.resolve(restoreID)));
+        assertFalse(Files.exists(baseDir.resolve(restoreID + "-extracting")));
+        assertEquals(0, DatasetBackupService_Test.getCallCount(RESTORE_TDB));
+    }
+
     @Test
     @DisplayName("Restore datasets when no matching dataset is found")
     public void test_restoreDatasets_NoMatch() throws Exception {
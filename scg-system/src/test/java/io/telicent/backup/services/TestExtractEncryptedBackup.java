@@ -0,0 +1,99 @@
+package io.telicent.backup.services;
+
+import io.telicent.backup.utils.EncryptionUtils;
+import io.telicent.backup.utils.RSAKeyPairGenerator;
+import io.telicent.model.KeyPair;
+import io.telicent.smart.cache.security.data.plugins.rdf.abac.RdfAbacPlugin;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.sparql.core.DatasetGraphFactory;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.jena.system.Txn;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.openpgp.PGPException;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.Security;
+import java.util.Objects;
+
+import static io.telicent.backup.utils.BackupConstants.ENCRYPTION_SUFFIX;
+import static io.telicent.backup.utils.BackupConstants.ZIP_SUFFIX;
+import static io.telicent.backup.utils.CompressionUtils.cleanupDirectory;
+import static io.telicent.backup.utils.CompressionUtils.zipDirectory;
+import static io.telicent.backup.utils.JsonFileUtils.OBJECT_MAPPER;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestExtractEncryptedBackup {
+
+    private static final String PASSKEY = "dummy";
+
+    @TempDir
+    static Path keyDir;
+
+    private static URL privateKeyUrl;
+    private static URL publicKeyUrl;
+
+    @TempDir
+    Path tempDir;
+
+    static {
+        // Add Bouncy castle to JVM
+        if (Objects.isNull(Security.getProvider(BouncyCastleProvider.PROVIDER_NAME))) {
+            Security.addProvider(new BouncyCastleProvider());
+        }
+    }
+
+    @BeforeAll
+    public static void setUp() throws GeneralSecurityException, IOException, PGPException {
+        Path privateKeyPath = keyDir.resolve("private.asc");
+        Path publicKeyPath = keyDir.resolve("public.asc");
+        try (OutputStream privateOut = Files.newOutputStream(privateKeyPath);
+             OutputStream publicOut = Files.newOutputStream(publicKeyPath)) {
+            RSAKeyPairGenerator.generateAndExportKeyRing(privateOut, publicOut, "test@telicent.io",
+                                                         PASSKEY.toCharArray(), true);
+        }
+        privateKeyUrl = privateKeyPath.toUri().toURL();
+        publicKeyUrl = publicKeyPath.toUri().toURL();
+    }
+
+    @Test
+    public void givenEncryptedBackup_whenExtracted_thenRestored() throws Exception {
+        // given
+        DatasetBackupService service = new DatasetBackupService(null, new KeyPair(privateKeyUrl, publicKeyUrl, PASSKEY),
+                                                                new RdfAbacPlugin());
+        Quad quad = Quad.create(Quad.defaultGraphIRI, NodeFactory.createURI("http://example.org/subject1"),
+                                NodeFactory.createURI("http://example.org/predicate1"),
+                                NodeFactory.createLiteralString("object1"));
+        DatasetGraph source = DatasetGraphFactory.createTxnMem();
+        Txn.executeWrite(source, () -> source.add(quad));
+        Path backupDir = tempDir.resolve("1");
+        Path tdbDir = Files.createDirectories(backupDir.resolve("ds/tdb"));
+        service.executeBackupTDB(source, tdbDir.resolve("ds_backup").toString(), OBJECT_MAPPER.createObjectNode());
+        EncryptionUtils encryptionUtils = new EncryptionUtils(privateKeyUrl.openStream(), PASSKEY);
+        try (OutputStream encZipOut = new BufferedOutputStream(
+                Files.newOutputStream(Path.of(backupDir + ZIP_SUFFIX + ENCRYPTION_SUFFIX)))) {
+            zipDirectory(backupDir, encryptionUtils.encryptingStream(encZipOut, publicKeyUrl));
+        }
+        cleanupDirectory(backupDir.toString());
+
+        // when
+        boolean extracted = service.extractBackup(backupDir.toString());
+
+        // then
+        assertTrue(extracted);
+        Path restoreFile = backupDir.resolve("ds/tdb/ds_backup.nq.gz");
+        assertTrue(Files.isRegularFile(restoreFile));
+        DatasetGraph restored = DatasetGraphFactory.createTxnMem();
+        service.executeRestoreTDB(restored, restoreFile.toString());
+        assertTrue(Txn.calculateRead(restored, () -> restored.contains(quad)));
+    }
+}
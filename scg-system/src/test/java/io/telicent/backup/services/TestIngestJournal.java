@@ -0,0 +1,136 @@
+package io.telicent.backup.services;
+
+import io.telicent.smart.cache.payloads.RdfPayload;
+import io.telicent.smart.cache.projectors.Sink;
+import io.telicent.smart.cache.sources.Event;
+import org.apache.jena.riot.WebContent;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.utils.Bytes;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestIngestJournal {
+
+    @TempDir
+    Path tempDir;
+
+    private final List<Event<Bytes, RdfPayload>> replayed = new ArrayList<>();
+
+    private Sink<Event<Bytes, RdfPayload>> collector() {
+        return new Sink<>() {
+            @Override
+            public void send(Event<Bytes, RdfPayload> event) {
+                replayed.add(event);
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    private static void append(IngestJournal journal, long offset, String body) {
+        ConsumerRecord<Bytes, RdfPayload> record =
+                new ConsumerRecord<>("knowledge", 0, offset, Bytes.wrap(("key-" + offset).getBytes(StandardCharsets.UTF_8)),
+                                     null);
+        record.headers().add("Content-Type", WebContent.contentTypeNTriples.getBytes(StandardCharsets.UTF_8));
+        journal.append(record, body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String value(Event<Bytes, RdfPayload> event) {
+        return new String(event.value().getRawData(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void givenAppendedRecords_whenCopiedAndReplayed_thenRecordsSinceBaseReplayed() throws IOException {
+        // given
+        IngestJournal journal = new IngestJournal(tempDir.resolve("journal"));
+        journal.setReplayTarget(collector());
+        append(journal, 1, "<http://a> <http://p> 1 .");
+        IngestJournal.Position from = journal.position();
+        append(journal, 2, "<http://a> <http://p> 2 .");
+        append(journal, 3, "<http://a> <http://p> 3 .");
+
+        // when
+        Path copy = tempDir.resolve("delta.jsonl.gz");
+        IngestJournal.Position end = journal.copy(from, copy);
+        long count = journal.replay(copy);
+
+        // then
+        assertEquals(journal.position(), end);
+        assertEquals(2, count);
+        assertEquals(List.of("<http://a> <http://p> 2 .", "<http://a> <http://p> 3 ."),
+                     replayed.stream().map(TestIngestJournal::value).toList());
+        assertEquals("key-2", new String(replayed.get(0).key().get(), StandardCharsets.UTF_8));
+        assertEquals(WebContent.contentTypeNTriples, replayed.get(0).lastHeader("Content-Type"));
+    }
+
+    @Test
+    void givenRotatedJournal_whenCopyingFromOldSegment_thenFails() throws IOException {
+        // given
+        IngestJournal journal = new IngestJournal(tempDir);
+        IngestJournal.Position from = journal.position();
+        append(journal, 1, "data");
+
+        // when
+        IngestJournal.Position start = journal.rotate();
+
+        // then
+        assertEquals(0, start.offset());
+        assertEquals(from.segment() + 1, start.segment());
+        assertFalse(Files.exists(tempDir.resolve("segment-" + from.segment() + ".jsonl")));
+        assertThrows(IllegalStateException.class, () -> journal.copy(from, tempDir.resolve("delta.jsonl.gz")));
+    }
+
+    @Test
+    void givenBase_whenReopened_thenBaseAndPositionRestored() throws IOException {
+        // given
+        IngestJournal journal = new IngestJournal(tempDir);
+        IngestJournal.Position start = journal.rotate();
+        append(journal, 1, "data");
+        journal.setBase("4", start);
+        IngestJournal.Position end = journal.position();
+        journal.close();
+
+        // when
+        IngestJournal reopened = new IngestJournal(tempDir);
+
+        // then
+        assertEquals(end, reopened.position());
+        assertEquals(new IngestJournal.Base("4", start), reopened.base().orElseThrow());
+    }
+
+    @Test
+    void givenBase_whenInvalidated_thenNextBackupIsFull() throws IOException {
+        // given
+        IngestJournal journal = new IngestJournal(tempDir);
+        journal.setBase("1", journal.position());
+
+        // when
+        journal.invalidate();
+
+        // then
+        assertTrue(journal.base().isEmpty());
+        assertTrue(new IngestJournal(tempDir).base().isEmpty());
+    }
+
+    @Test
+    void givenNoReplayTarget_whenReplaying_thenFails() throws IOException {
+        // given
+        IngestJournal journal = new IngestJournal(tempDir);
+        Path copy = tempDir.resolve("delta.jsonl.gz");
+        journal.copy(journal.position(), copy);
+
+        // when / then
+        assertThrows(IllegalStateException.class, () -> journal.replay(copy));
+    }
+}
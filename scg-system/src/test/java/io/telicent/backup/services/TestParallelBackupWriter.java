@@ -0,0 +1,122 @@
+package io.telicent.backup.services;
+
+import io.telicent.backup.utils.BackupFormat;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFParser;
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.sparql.core.DatasetGraphFactory;
+import org.apache.jena.sparql.sse.SSE;
+import org.apache.jena.sparql.util.IsoMatcher;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestParallelBackupWriter {
+
+    @TempDir
+    Path tempDir;
+
+    private static DatasetGraph dataset(int subjects) {
+        DatasetGraph dsg = DatasetGraphFactory.createTxnMem();
+        for (int i = 0; i < subjects; i++) {
+            dsg.add(SSE.parseQuad("(_ <http://example/s" + i + "> <http://example/p> " + i + ")"));
+            dsg.add(SSE.parseQuad("(<http://example/g> <http://example/s" + i + "> <http://example/p> _:b" + i + ")"));
+        }
+        return dsg;
+    }
+
+    private static DatasetGraph read(InputStream input) throws IOException {
+        return read(input, Lang.NQUADS);
+    }
+
+    private static DatasetGraph read(InputStream input, Lang lang) throws IOException {
+        DatasetGraph dsg = DatasetGraphFactory.createTxnMem();
+        try (InputStream gzip = new GZIPInputStream(input)) {
+            RDFParser.source(gzip).lang(lang).parse(dsg);
+        }
+        return dsg;
+    }
+
+    @Test
+    void givenDataset_whenWrittenInParallel_thenReadAsSingleGzipFile() throws IOException {
+        // given
+        DatasetGraph dsg = dataset(25);
+        Path target = tempDir.resolve("ds_backup.nq.gz");
+
+        // when
+        List<ParallelBackupWriter.Segment> segments = new ParallelBackupWriter(4, 7).write(dsg, target);
+
+        // then
+        assertEquals(8, segments.size());
+        assertEquals(50, segments.stream().mapToLong(ParallelBackupWriter.Segment::quads).sum());
+        assertEquals(Files.size(target), segments.get(7).offset() + segments.get(7).length());
+        assertTrue(IsoMatcher.isomorphic(dsg, read(Files.newInputStream(target))));
+        assertEquals(segments, ParallelBackupWriter.readManifest(target).orElseThrow());
+    }
+
+    @Test
+    void givenManifest_whenReadingSegmentsIndependently_thenAllQuadsRead() throws IOException {
+        // given
+        DatasetGraph dsg = dataset(10);
+        Path target = tempDir.resolve("ds_backup.nq.gz");
+        new ParallelBackupWriter(2, 3).write(dsg, target);
+        byte[] backup = Files.readAllBytes(target);
+
+        // when
+        long quads = 0;
+        for (ParallelBackupWriter.Segment segment : ParallelBackupWriter.readManifest(target).orElseThrow()) {
+            byte[] member = Arrays.copyOfRange(backup, (int) segment.offset(),
+                                               (int) (segment.offset() + segment.length()));
+            DatasetGraph part = read(new ByteArrayInputStream(member));
+            assertEquals(segment.quads(), part.stream().count());
+            quads += segment.quads();
+        }
+
+        // then
+        assertEquals(20, quads);
+    }
+
+    @Test
+    void givenEmptyDataset_whenWritten_thenValidEmptyBackup() throws IOException {
+        // given
+        DatasetGraph dsg = DatasetGraphFactory.createTxnMem();
+        Path target = tempDir.resolve("empty_backup.nq.gz");
+
+        // when
+        List<ParallelBackupWriter.Segment> segments = new ParallelBackupWriter(2, 10).write(dsg, target);
+
+        // then
+        assertEquals(1, segments.size());
+        assertTrue(read(Files.newInputStream(target)).isEmpty());
+    }
+
+    @Test
+    void givenNoManifest_whenReading_thenEmpty() throws IOException {
+        // given / when / then
+        assertTrue(ParallelBackupWriter.readManifest(tempDir.resolve("single_backup.nq.gz")).isEmpty());
+    }
+
+    @Test
+    void givenThriftFormat_whenWrittenInParallel_thenReadAsSingleThriftFile() throws IOException {
+        // given
+        DatasetGraph dsg = dataset(15);
+        Path target = tempDir.resolve("ds_backup" + BackupFormat.THRIFT.suffix());
+
+        // when
+        new ParallelBackupWriter(3, 4, BackupFormat.THRIFT).write(dsg, target);
+
+        // then
+        assertTrue(IsoMatcher.isomorphic(dsg, read(Files.newInputStream(target), Lang.RDFTHRIFT)));
+        assertTrue(Files.readString(ParallelBackupWriter.manifestFile(target)).contains("\"thrift\""));
+    }
+}
@@ -0,0 +1,50 @@
+package io.telicent.backup.utils;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestBackupFormat {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void givenLabel_whenFinding_thenFormatMatchedIgnoringCase() {
+        // given / when / then
+        assertEquals(Optional.of(BackupFormat.THRIFT), BackupFormat.fromLabel("thrift"));
+        assertEquals(Optional.of(BackupFormat.PROTOBUF), BackupFormat.fromLabel("PROTOBUF"));
+        assertEquals(Optional.of(BackupFormat.NQUADS), BackupFormat.fromLabel(BackupFormat.NQUADS.label()));
+        assertTrue(BackupFormat.fromLabel("turtle").isEmpty());
+        assertTrue(BackupFormat.fromLabel(null).isEmpty());
+    }
+
+    @Test
+    void givenBackupFile_whenFindingFormat_thenFormatFromSuffix() {
+        // given / when / then
+        assertEquals(BackupFormat.THRIFT, BackupFormat.forFile("ds_backup.rt.gz"));
+        assertEquals(BackupFormat.PROTOBUF, BackupFormat.forFile("ds_backup.rpb.gz"));
+        assertEquals(BackupFormat.NQUADS, BackupFormat.forFile("ds_backup.nq.gz"));
+        assertEquals(BackupFormat.NQUADS, BackupFormat.forFile("ds_backup"));
+    }
+
+    @Test
+    void givenBackupOnDisk_whenLocating_thenFormatOfFilePresent() throws IOException {
+        // given
+        String backupFile = tempDir.resolve("ds_backup").toString();
+        assertTrue(BackupFormat.locate(backupFile).isEmpty());
+        Files.createFile(Path.of(backupFile + BackupFormat.PROTOBUF.suffix()));
+
+        // when
+        Optional<BackupFormat> format = BackupFormat.locate(backupFile);
+
+        // then
+        assertEquals(Optional.of(BackupFormat.PROTOBUF), format);
+    }
+}
@@ -21,10 +21,13 @@ import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Random;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 import java.util.zip.ZipOutputStream;
@@ -145,6 +148,26 @@ public class TestCompressionUtils {
         assertThrows(NullPointerException.class, () -> CompressionUtils.zipDirectory((Path) null, destZipDir, false));
     }
 
+    @Test
+    @DisplayName("Should store already compressed files without compressing them again")
+    void testZipDirectoryStoresCompressedFiles() throws IOException {
+        byte[] data = new byte[4096];
+        new Random(42).nextBytes(data);
+        Files.write(sourceDir.resolve("data_backup.nq.gz"), data);
+        Files.write(sourceDir.resolve("plain.txt"), new byte[4096]);
+
+        CompressionUtils.zipDirectory(sourceDir, destZipDir, false);
+
+        try (ZipFile zipFile = new ZipFile(destZipDir.toFile())) {
+            ZipEntry compressed = zipFile.getEntry("data_backup.nq.gz");
+            assertEquals(ZipEntry.STORED, compressed.getMethod());
+            assertArrayEquals(data, zipFile.getInputStream(compressed).readAllBytes());
+            assertEquals(ZipEntry.DEFLATED, zipFile.getEntry("plain.txt").getMethod());
+        }
+        CompressionUtils.unzipDirectory(destZipDir, destUnzipDir);
+        assertArrayEquals(data, Files.readAllBytes(destUnzipDir.resolve("data_backup.nq.gz")));
+    }
+
     @Test
     @DisplayName("Should throw NullPointerException for null zip file path (String)")
     void testZipDirectoryNullDestString() {
@@ -182,6 +205,22 @@ public class TestCompressionUtils {
         assertFalse(Files.exists(sourceDirForDelete), "Source directory should be deleted after zipping via string overload");
     }
 
+    @Test
+    @DisplayName("Should zip to and unzip from streams")
+    void testZipAndUnzipDirectoryStreams() throws IOException {
+        Path subDir = sourceDir.resolve("s_sub");
+        Files.createDirectory(subDir);
+        Files.write(sourceDir.resolve("stream_file1.txt"), "Stream test content.".getBytes());
+        Files.write(subDir.resolve("stream_file2.nq.gz"), new byte[]{31, -117, 8, 0});
+        ByteArrayOutputStream zipped = new ByteArrayOutputStream();
+
+        CompressionUtils.zipDirectory(sourceDir, zipped);
+        CompressionUtils.unzipDirectory(new ByteArrayInputStream(zipped.toByteArray()), destUnzipDir);
+
+        assertEquals("Stream test content.", Files.readString(destUnzipDir.resolve("stream_file1.txt")));
+        assertArrayEquals(new byte[]{31, -117, 8, 0}, Files.readAllBytes(destUnzipDir.resolve("s_sub/stream_file2.nq.gz")));
+    }
+
     @Test
     @DisplayName("Should unzip a simple ZIP file")
     void testUnzipDirectorySimple() throws IOException {
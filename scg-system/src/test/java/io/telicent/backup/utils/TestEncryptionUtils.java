@@ -8,9 +8,13 @@ import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.nio.file.Files;
@@ -22,7 +26,7 @@ import java.util.Objects;
 import java.util.Optional;
 import java.util.stream.Stream;
 
-import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.*;
 
 public class TestEncryptionUtils {
 
@@ -77,6 +81,51 @@ public class TestEncryptionUtils {
         assertNotNull(decryptedFile);
     }
 
+    @Test
+    public void testEncryptAndDecryptStreams() throws URISyntaxException, PGPException, IOException {
+        // given
+        final EncryptionUtils encryptionUtils = new EncryptionUtils(privateKeyUrl.openStream(), passkey);
+        final byte[] clear = Files.readAllBytes(Paths.get(zippedBackupUrl.toURI()));
+        final ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+
+        // when
+        try (OutputStream encryptOut = encryptionUtils.encryptingStream(encrypted, publicKeyUrl)) {
+            encryptOut.write(clear);
+        }
+        final byte[] decrypted;
+        try (InputStream decryptIn = encryptionUtils.decryptingStream(new ByteArrayInputStream(encrypted.toByteArray()))) {
+            decrypted = decryptIn.readAllBytes();
+        }
+
+        // then
+        assertArrayEquals(clear, decrypted);
+        final Path decryptedFile = tempDir.resolve("output.zip");
+        final Path encryptedFile = Files.write(tempDir.resolve("output.enc"), encrypted.toByteArray());
+        encryptionUtils.decryptFile(encryptedFile, decryptedFile);
+        assertArrayEquals(clear, Files.readAllBytes(decryptedFile));
+    }
+
+    @Test
+    public void testDecryptStreamDetectsTampering() throws PGPException, IOException {
+        // given
+        final EncryptionUtils encryptionUtils = new EncryptionUtils(privateKeyUrl.openStream(), passkey);
+        final ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+        try (OutputStream encryptOut = encryptionUtils.encryptingStream(encrypted, publicKeyUrl)) {
+            encryptOut.write(new byte[100_000]);
+        }
+        // Flip a bit in the middle of the ASCII armored body
+        final byte[] tampered = encrypted.toByteArray();
+        final int index = tampered.length / 2;
+        tampered[index] = (byte) (tampered[index] == 'A' ? 'B' : 'A');
+
+        // when / then
+        assertThrows(Exception.class, () -> {
+            try (InputStream decryptIn = encryptionUtils.decryptingStream(new ByteArrayInputStream(tampered))) {
+                decryptIn.readAllBytes();
+            }
+        });
+    }
+
     private static URL loadResource(String resourcePath) {
         return Optional.ofNullable(TestEncryptionUtils.class.getResource(resourcePath))
                 .orElseThrow(() -> new IllegalArgumentException(String.format("Resource %s not found", resourcePath)));
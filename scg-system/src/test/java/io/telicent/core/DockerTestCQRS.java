@@ -1,6 +1,8 @@
 package io.telicent.core;
 
 import io.telicent.LibTestsSCG;
+import io.telicent.smart.cache.configuration.Configurator;
+import io.telicent.smart.cache.configuration.sources.PropertiesSource;
 import io.telicent.smart.cache.sources.TelicentHeaders;
 import io.telicent.smart.cache.sources.kafka.BasicKafkaTestCluster;
 import io.telicent.smart.cache.sources.kafka.KafkaTestCluster;
@@ -19,7 +21,14 @@ import org.junit.jupiter.api.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.util.Properties;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import static io.telicent.TestSmartCacheGraphIntegration.launchServer;
@@ -122,6 +131,15 @@ public class DockerTestCQRS {
         }
         System.clearProperty(KafkaConfiguration.BOOTSTRAP_SERVERS);
         System.clearProperty(KafkaConfiguration.CONSUMER_GROUP);
+        // Reset any CQRS options a test may have configured
+        LibTestsSCG.setupAuthentication();
+        LibTestsSCG.disableInitialCompaction();
+    }
+
+    private static void configureCqrs(String key, String value) {
+        Properties properties = new Properties();
+        properties.put(key, value);
+        Configurator.addSource(new PropertiesSource(properties));
     }
 
     private String url(String x) {
@@ -137,6 +155,18 @@ public class DockerTestCQRS {
                              .execute();
     }
 
+    private HttpResponse<String> postUpdate(String token, String contentType, String body) throws Exception {
+        try (HttpClient client = HttpClient.newHttpClient()) {
+            HttpRequest request = HttpRequest.newBuilder(URI.create(url(UPDATE_ENDPOINT)))
+                                             .header(LibTestsSCG.tokenHeader(), LibTestsSCG.tokenHeaderValue(token))
+                                             .header(TelicentHeaders.SECURITY_LABEL, EMPLOYEE)
+                                             .header("Content-Type", contentType)
+                                             .POST(HttpRequest.BodyPublishers.ofString(body))
+                                             .build();
+            return client.send(request, HttpResponse.BodyHandlers.ofString());
+        }
+    }
+
     /**
      * Verifies data is visible
      *
@@ -342,4 +372,58 @@ public class DockerTestCQRS {
         verifyNothingVisible(USER_2, Duration.ZERO);
         verifyNothingVisible(ADMIN, Duration.ZERO);
     }
+
+    @Test
+    public void givenReadSnapshotMode_whenPerformingDeleteInsertWhereViaCqrs_thenDataModified() {
+        // Given
+        configureCqrs(CQRS.ENV_CQRS_READ_SNAPSHOT, "true");
+        server = launchServer(SCG_CQRS_CONFIG);
+        String token = LibTestsSCG.tokenForUser(USER_1, DATASET_NAME);
+        executeSparqlUpdate(token, INSERT_JOHN_SMITH, EMPLOYEE);
+        verifyDataVisible(url(QUERY_ENDPOINT), FIND_NAME_QUERY, token, 1);
+
+        // When
+        executeSparqlUpdate(token, DELETE_INSERT_WHERE, EMPLOYEE);
+
+        // Then
+        RowSetRewindable results = verifyDataVisible(url(QUERY_ENDPOINT), QUERY, token, 1);
+        Assert.assertEquals("Johnathon Frederick Smith", results.next().get("o").getLiteralLexicalForm());
+    }
+
+    @Test
+    public void givenEmptyDataset_whenUpdatingViaCqrs_thenNoContentWithChangeCountHeaders() throws Exception {
+        // Given
+        server = launchServer(SCG_CQRS_CONFIG);
+        String token = LibTestsSCG.tokenForUser(USER_1, DATASET_NAME);
+
+        // When
+        HttpResponse<String> response = postUpdate(token, "application/sparql-update", INSERT_JOHN_SMITH);
+
+        // Then
+        Assert.assertEquals(204, response.statusCode());
+        Assert.assertEquals("", response.body());
+        Assert.assertEquals("1", response.headers().firstValue(CQRS.HEADER_QUADS_ADDED).orElse(null));
+        Assert.assertEquals("0", response.headers().firstValue(CQRS.HEADER_QUADS_DELETED).orElse(null));
+        Assert.assertEquals("1", response.headers().firstValue(CQRS.HEADER_GRAPHS_CHANGED).orElse(null));
+        Assert.assertTrue(response.headers().firstValue(CQRS.HEADER_PATCH_BYTES).isPresent());
+        verifyDataVisible(url(QUERY_ENDPOINT), FIND_NAME_QUERY, token, 1);
+    }
+
+    @Test
+    public void givenEmptyDataset_whenUpdatingViaCqrsHtmlForm_thenSuccessPage() throws Exception {
+        // Given
+        server = launchServer(SCG_CQRS_CONFIG);
+        String token = LibTestsSCG.tokenForUser(USER_1, DATASET_NAME);
+
+        // When
+        HttpResponse<String> response =
+                postUpdate(token, "application/x-www-form-urlencoded",
+                           "update=" + URLEncoder.encode(INSERT_JOHN_SMITH, StandardCharsets.UTF_8));
+
+        // Then
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertTrue(response.body().toLowerCase().contains("succe"));
+        Assert.assertEquals("1", response.headers().firstValue(CQRS.HEADER_QUADS_ADDED).orElse(null));
+        verifyDataVisible(url(QUERY_ENDPOINT), FIND_NAME_QUERY, token, 1);
+    }
 }
@@ -0,0 +1,141 @@
+package io.telicent.core;
+
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestAppliedOffsetRegistry {
+
+    private static final TopicPartition PARTITION = new TopicPartition("test-topic", 0);
+
+    @Test
+    void givenOffsetAlreadyApplied_whenWaiting_thenCompletesImmediately() {
+        // given
+        AppliedOffsetRegistry registry = new AppliedOffsetRegistry();
+        registry.applied(PARTITION, 10);
+
+        // when
+        CompletableFuture<Long> waiter = registry.whenApplied(PARTITION, 5);
+
+        // then
+        assertTrue(waiter.isDone());
+        assertEquals(10, registry.applied(PARTITION));
+    }
+
+    @Test
+    void givenWaiter_whenOffsetsApplied_thenCompletesOnceReached() {
+        // given
+        AppliedOffsetRegistry registry = new AppliedOffsetRegistry();
+        CompletableFuture<Long> waiter = registry.whenApplied(PARTITION, 5);
+        CompletableFuture<Long> otherPartition = registry.whenApplied(new TopicPartition("test-topic", 1), 1);
+
+        // when
+        registry.applied(PARTITION, 4);
+
+        // then
+        assertFalse(waiter.isDone());
+
+        // and when
+        registry.applied(PARTITION, 7);
+
+        // then
+        assertEquals(7L, waiter.join());
+        assertFalse(otherPartition.isDone());
+    }
+
+    @Test
+    void givenReceivedInsideTransaction_whenOffsetsCommitted_thenWaiterCompletes() {
+        // given
+        AppliedOffsetRegistry registry = new AppliedOffsetRegistry();
+        AppliedOffsetInterceptor interceptor = new AppliedOffsetInterceptor(registry);
+        CompletableFuture<Long> waiter = registry.whenApplied(PARTITION, 3);
+        registry.received(PARTITION, 3);
+
+        // when
+        interceptor.onCommit(Map.of(PARTITION, new OffsetAndMetadata(3)));
+
+        // then
+        assertFalse(waiter.isDone());
+
+        // and when
+        interceptor.onCommit(Map.of(PARTITION, new OffsetAndMetadata(4)));
+
+        // then
+        assertEquals(3L, waiter.join());
+        assertEquals(3, registry.applied(PARTITION));
+    }
+
+    @Test
+    void givenCommitBeyondReceived_whenCommitted_thenOnlyReceivedOffsetsApplied() {
+        // given
+        AppliedOffsetRegistry registry = new AppliedOffsetRegistry();
+        registry.received(PARTITION, 3);
+
+        // when
+        registry.committed(PARTITION, 10);
+        registry.committed(new TopicPartition("test-topic", 1), 10);
+
+        // then
+        assertEquals(3, registry.applied(PARTITION));
+        assertEquals(-1, registry.applied(new TopicPartition("test-topic", 1)));
+    }
+
+    @Test
+    void givenExistingInterceptors_whenInstalled_thenAppended() {
+        // given
+        Properties properties = new Properties();
+        properties.setProperty(ConsumerConfig.INTERCEPTOR_CLASSES_CONFIG, "com.example.Interceptor");
+
+        // when
+        AppliedOffsetInterceptor.install(properties);
+        AppliedOffsetInterceptor.install(properties);
+
+        // then
+        assertEquals("com.example.Interceptor," + AppliedOffsetInterceptor.class.getName(),
+                     properties.getProperty(ConsumerConfig.INTERCEPTOR_CLASSES_CONFIG));
+    }
+
+    @Test
+    void givenWaiterCancelled_whenOffsetApplied_thenNothingCompleted() {
+        // given
+        AppliedOffsetRegistry registry = new AppliedOffsetRegistry();
+        CompletableFuture<Long> waiter = registry.whenApplied(PARTITION, 5);
+
+        // when
+        waiter.cancel(false);
+        registry.applied(PARTITION, 5);
+
+        // then
+        assertTrue(waiter.isCancelled());
+    }
+
+    @Test
+    void givenConsumerGroups_whenCommittedForOneGroup_thenOnlyItsWaitersComplete() {
+        // given
+        AppliedOffsetRegistry first = AppliedOffsetRegistry.forConsumerGroup("test-group-first");
+        AppliedOffsetRegistry second = AppliedOffsetRegistry.forConsumerGroup("test-group-second");
+        AppliedOffsetInterceptor interceptor = new AppliedOffsetInterceptor();
+        interceptor.configure(Map.of(ConsumerConfig.GROUP_ID_CONFIG, "test-group-first"));
+        first.received(PARTITION, 3);
+        second.received(PARTITION, 3);
+        CompletableFuture<Long> firstWaiter = first.whenApplied(PARTITION, 3);
+        CompletableFuture<Long> secondWaiter = second.whenApplied(PARTITION, 3);
+
+        // when
+        interceptor.onCommit(Map.of(PARTITION, new OffsetAndMetadata(4)));
+
+        // then
+        assertSame(first, AppliedOffsetRegistry.forConsumerGroup("test-group-first"));
+        assertSame(AppliedOffsetRegistry.get(), AppliedOffsetRegistry.forConsumerGroup(null));
+        assertEquals(3L, firstWaiter.join());
+        assertFalse(secondWaiter.isDone());
+        secondWaiter.cancel(false);
+    }
+}
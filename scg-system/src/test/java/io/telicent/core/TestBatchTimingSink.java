@@ -0,0 +1,177 @@
+package io.telicent.core;
+
+import io.telicent.smart.cache.payloads.RdfPayload;
+import io.telicent.smart.cache.projectors.Sink;
+import io.telicent.smart.cache.sources.Event;
+import io.telicent.smart.cache.sources.kafka.KafkaEvent;
+import io.telicent.smart.cache.sources.memory.SimpleEvent;
+import org.apache.jena.query.TxnType;
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.sparql.core.DatasetGraphFactory;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.utils.Bytes;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class TestBatchTimingSink {
+
+    private static final TopicPartition PARTITION = new TopicPartition("knowledge", 0);
+
+    private final AppliedOffsetRegistry registry = new AppliedOffsetRegistry();
+    private long offset = 0;
+
+    private Sink<Event<Bytes, RdfPayload>> destination(long delayMillis) {
+        return new Sink<>() {
+            @Override
+            public void send(Event<Bytes, RdfPayload> event) {
+                if (delayMillis > 0) {
+                    try {
+                        Thread.sleep(delayMillis);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    private KafkaEvent<Bytes, RdfPayload> event() {
+        ConsumerRecord<Bytes, RdfPayload> record =
+                new ConsumerRecord<>(PARTITION.topic(), PARTITION.partition(), offset, null, null);
+        KafkaEvent<Bytes, RdfPayload> event = mock(KafkaEvent.class);
+        when(event.getConsumerRecord()).thenReturn(record);
+        // As the applied offset sink does
+        registry.received(PARTITION, offset++);
+        return event;
+    }
+
+    private void sendBatch(BatchTimingSink sink, int records) {
+        for (int i = 0; i < records; i++) {
+            sink.send(event());
+        }
+        registry.committed(PARTITION, offset);
+    }
+
+    @Test
+    void givenFastCommits_whenBatchesCommitted_thenRecommendedBatchSizeGrows() {
+        // given
+        BatchTimingSink sink = new BatchTimingSink(destination(0), registry, 60_000, 2, 16);
+
+        // when
+        for (int i = 0; i < 5; i++) {
+            sendBatch(sink, 20);
+        }
+
+        // then
+        assertEquals(16, sink.recommendedBatchSize());
+        assertEquals(5, sink.batches());
+    }
+
+    @Test
+    void givenSlowCommits_whenBatchesCommitted_thenRecommendedBatchSizeShrinks() {
+        // given
+        BatchTimingSink sink = new BatchTimingSink(destination(20), registry, 10, 1, 1000);
+
+        // when
+        sendBatch(sink, 3);
+
+        // then
+        assertEquals(1, sink.recommendedBatchSize());
+        assertEquals(1, sink.batches());
+    }
+
+    @Test
+    void givenConnectorTransaction_whenSending_thenTransactionLeftToTheConnector() {
+        // given
+        DatasetGraph dataset = DatasetGraphFactory.createTxnMem();
+        BatchTimingSink sink = new BatchTimingSink(destination(0), registry, 1, 1, 1);
+
+        // when
+        dataset.begin(TxnType.WRITE);
+        try {
+            for (int i = 0; i < 10; i++) {
+                sink.send(event());
+            }
+
+            // then
+            assertTrue(dataset.isInTransaction());
+            assertEquals(0, sink.batches());
+            dataset.commit();
+        } finally {
+            dataset.end();
+        }
+        registry.committed(PARTITION, offset);
+        assertEquals(1, sink.batches());
+    }
+
+    @Test
+    void givenOtherPartitionCommitted_whenBatchOpen_thenBatchContinues() {
+        // given
+        BatchTimingSink sink = new BatchTimingSink(destination(0), registry, 60_000, 1, 1);
+        sink.send(event());
+        TopicPartition other = new TopicPartition("other", 0);
+        registry.received(other, 0);
+
+        // when
+        registry.committed(other, 1);
+
+        // then
+        assertEquals(0, sink.batches());
+    }
+
+    @Test
+    void givenNonKafkaEvent_whenSending_thenNotMeasured() {
+        // given
+        BatchTimingSink sink = new BatchTimingSink(destination(0), registry, 60_000, 1, 1);
+
+        // when
+        sink.send(new SimpleEvent<>(List.of(), null, RdfPayload.of(DatasetGraphFactory.create())));
+        registry.committed(PARTITION, 1);
+
+        // then
+        assertEquals(0, sink.batches());
+    }
+
+    @Test
+    void givenClosed_whenCommitted_thenNoLongerMeasured() {
+        // given
+        BatchTimingSink sink = new BatchTimingSink(destination(0), registry, 60_000, 1, 1);
+        sink.send(event());
+
+        // when
+        sink.close();
+        registry.committed(PARTITION, offset);
+
+        // then
+        assertEquals(0, sink.batches());
+    }
+
+    @Test
+    void givenPollRecordsConfigured_whenLimiting_thenExistingSettingKept() {
+        // given
+        Properties configured = new Properties();
+        configured.setProperty(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, "50");
+        Properties unconfigured = new Properties();
+
+        // when
+        BatchTimingSink.limitPollRecords(configured, 1000);
+        BatchTimingSink.limitPollRecords(unconfigured, 1000);
+
+        // then
+        assertEquals("50", configured.getProperty(ConsumerConfig.MAX_POLL_RECORDS_CONFIG));
+        assertEquals("1000", unconfigured.getProperty(ConsumerConfig.MAX_POLL_RECORDS_CONFIG));
+    }
+}
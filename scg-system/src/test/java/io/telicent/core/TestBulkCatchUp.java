@@ -0,0 +1,166 @@
+package io.telicent.core;
+
+import io.telicent.backup.services.BulkRestore;
+import org.apache.jena.riot.WebContent;
+import org.apache.jena.riot.web.HttpNames;
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.jena.sparql.sse.SSE;
+import org.apache.jena.system.Txn;
+import org.apache.jena.tdb2.DatabaseMgr;
+import org.apache.jena.tdb2.store.DatasetGraphSwitchable;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.record.TimestampType;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestBulkCatchUp {
+
+    private static final String TOPIC = "knowledge";
+    private static final TopicPartition PARTITION = new TopicPartition(TOPIC, 0);
+
+    @TempDir
+    Path tempDir;
+
+    private MockConsumer<byte[], byte[]> consumer;
+
+    @BeforeEach
+    void setup() {
+        consumer = new MockConsumer<>(OffsetResetStrategy.EARLIEST);
+        consumer.updatePartitions(TOPIC, List.of(new PartitionInfo(TOPIC, 0, null, null, null)));
+    }
+
+    private static ConsumerRecord<byte[], byte[]> record(long offset, String contentType, String value,
+                                                         String patchId) {
+        RecordHeaders headers = new RecordHeaders();
+        headers.add(HttpNames.hContentType, contentType.getBytes(StandardCharsets.UTF_8));
+        if (patchId != null) {
+            headers.add(CQRS.HEADER_PATCH_ID, patchId.getBytes(StandardCharsets.UTF_8));
+        }
+        return new ConsumerRecord<>(TOPIC, 0, offset, 0L, TimestampType.CREATE_TIME, 0, 0, null,
+                                    value.getBytes(StandardCharsets.UTF_8), headers, Optional.empty());
+    }
+
+    private static ConsumerRecord<byte[], byte[]> triples(long offset) {
+        return record(offset, WebContent.contentTypeNTriples,
+                      "<http://example/s" + offset + "> <http://example/p> " + offset + " .\n", null);
+    }
+
+    private void backlog(List<ConsumerRecord<byte[], byte[]>> records) {
+        consumer.updateBeginningOffsets(Map.of(PARTITION, 0L));
+        consumer.updateEndOffsets(Map.of(PARTITION, (long) records.size()));
+        consumer.schedulePollTask(() -> records.forEach(consumer::addRecord));
+    }
+
+    private DatasetGraphSwitchable database() {
+        return (DatasetGraphSwitchable) DatabaseMgr.connectDatasetGraph(tempDir.resolve("db").toString());
+    }
+
+    private static Quad quad(long offset) {
+        return SSE.parseQuad("(_ <http://example/s" + offset + "> <http://example/p> " + offset + ")");
+    }
+
+    @Test
+    void givenBacklog_whenCaughtUp_thenLoadedAndCheckpointed() throws IOException {
+        // given
+        backlog(List.of(triples(0), triples(1), triples(2)));
+        DatasetGraphSwitchable dsg = database();
+
+        // when
+        Map<TopicPartition, Long> loaded = new BulkCatchUp(consumer, List.of(TOPIC), 3)
+                .catchUp(dsg, new BulkRestore(1, 5_000));
+
+        // then
+        assertEquals(Map.of(PARTITION, 3L), loaded);
+        assertEquals(Map.of(PARTITION, 3L), OffsetCheckpointSink.read(dsg));
+        Txn.executeRead(dsg, () -> {
+            assertTrue(dsg.contains(quad(0)));
+            assertTrue(dsg.contains(quad(2)));
+        });
+    }
+
+    @Test
+    void givenPatchInBacklog_whenCaughtUp_thenStopsAtPatch() throws IOException {
+        // given
+        backlog(List.of(triples(0), record(1, WebContent.contentTypePatch, "TX .\nA <x:s> <x:p> <x:o> .\nTC .\n",
+                                             null), triples(2)));
+        DatasetGraphSwitchable dsg = database();
+
+        // when
+        Map<TopicPartition, Long> loaded = new BulkCatchUp(consumer, List.of(TOPIC), 1)
+                .catchUp(dsg, new BulkRestore(1, 5_000));
+
+        // then
+        assertEquals(Map.of(PARTITION, 1L), loaded);
+        assertEquals(Map.of(PARTITION, 1L), OffsetCheckpointSink.read(dsg));
+        Txn.executeRead(dsg, () -> {
+            assertTrue(dsg.contains(quad(0)));
+            assertFalse(dsg.contains(quad(2)));
+        });
+    }
+
+    @Test
+    void givenPatchPart_whenParsed_thenNotBulkLoaded() {
+        // given
+        ConsumerRecord<byte[], byte[]> part = record(0, WebContent.contentTypeNTriples,
+                                                     "<http://example/s> <http://example/p> 0 .\n", "p1");
+
+        // when
+        List<Quad> parsed = BulkCatchUp.parse(part, new HashMap<>());
+
+        // then
+        assertNull(parsed);
+    }
+
+    @Test
+    void givenSmallBacklog_whenCaughtUp_thenNothingLoaded() throws IOException {
+        // given
+        backlog(List.of(triples(0), triples(1)));
+        DatasetGraphSwitchable dsg = database();
+
+        // when
+        Map<TopicPartition, Long> loaded = new BulkCatchUp(consumer, List.of(TOPIC), 3)
+                .catchUp(dsg, new BulkRestore(1, 5_000));
+
+        // then
+        assertTrue(loaded.isEmpty());
+        assertTrue(OffsetCheckpointSink.read(dsg).isEmpty());
+        assertTrue(Txn.calculateRead(dsg, dsg::isEmpty));
+    }
+
+    @Test
+    void givenCommittedOffsets_whenCaughtUp_thenNothingLoaded() throws IOException {
+        // given
+        backlog(List.of(triples(0), triples(1), triples(2)));
+        consumer.assign(Set.of(PARTITION));
+        consumer.commitSync(Map.of(PARTITION, new OffsetAndMetadata(1)));
+        consumer.unsubscribe();
+        DatasetGraph dsg = database();
+
+        // when
+        Map<TopicPartition, Long> loaded = new BulkCatchUp(consumer, List.of(TOPIC), 1)
+                .catchUp((DatasetGraphSwitchable) dsg, new BulkRestore(1, 5_000));
+
+        // then
+        assertTrue(loaded.isEmpty());
+        assertTrue(Txn.calculateRead(dsg, dsg::isEmpty));
+    }
+}
@@ -0,0 +1,211 @@
+package io.telicent.core;
+
+import org.apache.jena.kafka.JenaKafkaException;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestCQRS {
+
+    private static final String TOPIC = "test-topic";
+
+    private static MockProducer<String, byte[]> mockProducer() {
+        return new MockProducer<>(false, new StringSerializer(), new ByteArraySerializer());
+    }
+
+    @Test
+    void sendToKafkaAsync_doesNotCompleteUntilAcknowledged() {
+        // given
+        MockProducer<String, byte[]> producer = mockProducer();
+        CompletableFuture<CQRS.PatchOffset> result = new CompletableFuture<>();
+
+        // when
+        CQRS.sendToKafkaAsync(producer, TOPIC, List.of(), "patch".getBytes(StandardCharsets.UTF_8), result);
+
+        // then
+        assertFalse(result.isDone());
+        assertEquals(1, producer.history().size());
+
+        // and when
+        assertTrue(producer.completeNext());
+
+        // then
+        assertEquals(0L, CQRS.awaitSend(result).offset());
+    }
+
+    @Test
+    void sendToKafkaAsync_failedSend_awaitThrows() {
+        // given
+        MockProducer<String, byte[]> producer = mockProducer();
+        CompletableFuture<CQRS.PatchOffset> result = new CompletableFuture<>();
+        CQRS.sendToKafkaAsync(producer, TOPIC, List.of(), "patch".getBytes(StandardCharsets.UTF_8), result);
+
+        // when
+        assertTrue(producer.errorNext(new RuntimeException("broker unavailable")));
+
+        // then
+        assertTrue(result.isCompletedExceptionally());
+        assertThrows(JenaKafkaException.class, () -> CQRS.awaitSend(result));
+    }
+
+    @Test
+    void sendToKafkaAsync_closedProducer_completesExceptionally() {
+        // given
+        MockProducer<String, byte[]> producer = mockProducer();
+        producer.close();
+        CompletableFuture<CQRS.PatchOffset> result = new CompletableFuture<>();
+
+        // when
+        CQRS.sendToKafkaAsync(producer, TOPIC, List.of(), "patch".getBytes(StandardCharsets.UTF_8), result);
+
+        // then
+        assertTrue(result.isCompletedExceptionally());
+        assertThrows(JenaKafkaException.class, () -> CQRS.awaitSend(result));
+    }
+
+    @Test
+    void options_default_isSynchronous() {
+        // given / when / then
+        assertFalse(CQRS.Options.DEFAULT.asyncSend());
+    }
+
+    @Test
+    void options_default_neverSplitsPatches() {
+        // given / when / then
+        assertEquals(CQRS.DEFAULT_MAX_RECORD_BYTES, CQRS.Options.DEFAULT.maxRecordBytes());
+        assertEquals(0, CQRS.Options.DEFAULT.maxRecordBytes());
+    }
+
+    private static PatchBuffer patch(String content) throws IOException {
+        PatchBuffer patch = new PatchBuffer(0);
+        patch.write(content.getBytes(StandardCharsets.UTF_8));
+        return patch;
+    }
+
+    private static String header(ProducerRecord<String, byte[]> record, String name) {
+        return new String(record.headers().lastHeader(name).value(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void sendPartsToKafkaAsync_splitsPatchIntoOrderedParts() throws IOException {
+        // given
+        MockProducer<String, byte[]> producer = mockProducer();
+        CompletableFuture<CQRS.PatchOffset> result = new CompletableFuture<>();
+
+        // when
+        try (PatchBuffer patch = patch("0123456789")) {
+            CQRS.sendPartsToKafkaAsync(producer, TOPIC, List.of(), patch, 4, result);
+        }
+
+        // then
+        List<ProducerRecord<String, byte[]>> sent = producer.history();
+        assertEquals(3, sent.size());
+        String patchId = header(sent.get(0), CQRS.HEADER_PATCH_ID);
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < sent.size(); i++) {
+            ProducerRecord<String, byte[]> record = sent.get(i);
+            assertEquals(patchId, record.key());
+            assertEquals(patchId, header(record, CQRS.HEADER_PATCH_ID));
+            assertEquals((i + 1) + "/3", header(record, CQRS.HEADER_PATCH_PART));
+            content.append(new String(record.value(), StandardCharsets.UTF_8));
+        }
+        assertEquals("0123456789", content.toString());
+
+        // and when
+        assertTrue(producer.completeNext());
+        assertTrue(producer.completeNext());
+
+        // then
+        assertFalse(result.isDone());
+
+        // and when
+        assertTrue(producer.completeNext());
+
+        // then
+        assertEquals(2L, CQRS.awaitSend(result).offset());
+    }
+
+    @Test
+    void sendPartsToKafkaAsync_failedPart_awaitThrows() throws IOException {
+        // given
+        MockProducer<String, byte[]> producer = mockProducer();
+        CompletableFuture<CQRS.PatchOffset> result = new CompletableFuture<>();
+        try (PatchBuffer patch = patch("0123456789")) {
+            CQRS.sendPartsToKafkaAsync(producer, TOPIC, List.of(), patch, 4, result);
+        }
+
+        // when
+        assertTrue(producer.completeNext());
+        assertTrue(producer.errorNext(new RuntimeException("broker unavailable")));
+        assertTrue(producer.completeNext());
+
+        // then
+        assertTrue(result.isCompletedExceptionally());
+        assertThrows(JenaKafkaException.class, () -> CQRS.awaitSend(result));
+    }
+
+    @Test
+    void patchEncoding_parse_isCaseInsensitive() {
+        assertEquals(CQRS.PatchEncoding.BINARY, CQRS.PatchEncoding.parse(" Binary "));
+        assertEquals(CQRS.PatchEncoding.TEXT, CQRS.PatchEncoding.parse("text"));
+    }
+
+    @Test
+    void producerProperties_keepsExplicitCompression() {
+        // given
+        Properties explicit = new Properties();
+        explicit.put("compression.type", "zstd");
+
+        // when
+        Properties withDefault = CQRS.producerProperties(new Properties(), CQRS.Options.DEFAULT);
+        Properties withExplicit = CQRS.producerProperties(explicit, CQRS.Options.DEFAULT);
+
+        // then
+        assertEquals("none", withDefault.get("compression.type"));
+        assertEquals("zstd", withExplicit.get("compression.type"));
+    }
+
+    @Test
+    void producerProperties_lingersOnlyWhenUpdatesSendConcurrently() {
+        // given
+        CQRS.Options defaults = CQRS.Options.DEFAULT;
+        CQRS.Options async = new CQRS.Options(true, false, defaults.spillThreshold(), defaults.maxRecordBytes(),
+                                              defaults.encoding(), defaults.compression(), 0,
+                                              defaults.groupCommitMaxPatches());
+        Properties explicit = new Properties();
+        explicit.put("linger.ms", "20");
+
+        // when
+        Properties serial = CqrsProducerPool.withDefaults(CQRS.producerProperties(new Properties(), defaults));
+        Properties concurrent = CqrsProducerPool.withDefaults(CQRS.producerProperties(new Properties(), async));
+        Properties configured = CqrsProducerPool.withDefaults(CQRS.producerProperties(explicit, defaults));
+
+        // then
+        assertEquals("0", serial.get("linger.ms"));
+        assertEquals("5", concurrent.get("linger.ms"));
+        assertEquals("20", configured.get("linger.ms"));
+    }
+
+    @Test
+    void options_groupCommitUnderWriteLock_isRejected() {
+        // given
+        CQRS.Options defaults = CQRS.Options.DEFAULT;
+
+        // when / then
+        assertThrows(IllegalArgumentException.class,
+                     () -> new CQRS.Options(false, false, defaults.spillThreshold(), defaults.maxRecordBytes(),
+                                            defaults.encoding(), defaults.compression(), 100, 10));
+        assertTrue(new CQRS.Options(false, true, defaults.spillThreshold(), defaults.maxRecordBytes(),
+                                    defaults.encoding(), defaults.compression(), 100, 10).isGroupCommit());
+    }
+}
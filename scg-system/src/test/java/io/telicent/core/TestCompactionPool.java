@@ -0,0 +1,117 @@
+package io.telicent.core;
+
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.sparql.core.DatasetGraphFactory;
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestCompactionPool {
+
+    private static Map<String, DatasetGraph> datasets(String... names) {
+        Map<String, DatasetGraph> datasets = new LinkedHashMap<>();
+        for (String name : names) {
+            datasets.put(name, DatasetGraphFactory.createTxnMem());
+        }
+        return datasets;
+    }
+
+    @Test
+    void givenDatasetsOnSeparateVolumes_whenCompacting_thenRunInParallel() {
+        // given
+        Map<String, DatasetGraph> datasets = datasets("/a", "/b", "/c");
+        CountDownLatch allStarted = new CountDownLatch(3);
+        try (CompactionPool pool = new CompactionPool(3, 1, dsg -> dsg)) {
+
+            // when
+            Map<String, CompactionPool.Outcome> outcomes = pool.compactAll(datasets, (name, dsg) -> {
+                allStarted.countDown();
+                try {
+                    // Only completes if all three compactions are running at once
+                    assertTrue(allStarted.await(5, TimeUnit.SECONDS));
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                return FMod_InitialCompaction.CompactionStatus.COMPACTED;
+            }, (name, state) -> {
+            });
+
+            // then
+            assertEquals(List.of("/a", "/b", "/c"), List.copyOf(outcomes.keySet()));
+            outcomes.values().forEach(outcome -> {
+                assertNull(outcome.error());
+                assertEquals(FMod_InitialCompaction.CompactionStatus.COMPACTED, outcome.status());
+            });
+        }
+    }
+
+    @Test
+    void givenDatasetsOnSameVolume_whenCompacting_thenLimitedPerVolume() {
+        // given
+        Map<String, DatasetGraph> datasets = datasets("/a", "/b", "/c", "/d");
+        Object volume = new Object();
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        try (CompactionPool pool = new CompactionPool(4, 2, dsg -> volume)) {
+
+            // when
+            pool.compactAll(datasets, (name, dsg) -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                } finally {
+                    running.decrementAndGet();
+                }
+                return FMod_InitialCompaction.CompactionStatus.COMPACTED;
+            }, (name, state) -> {
+            });
+
+            // then
+            assertTrue(maxRunning.get() <= 2);
+        }
+    }
+
+    @Test
+    void givenFailingCompaction_whenCompacting_thenFailureReportedAndOthersComplete() {
+        // given
+        Map<String, DatasetGraph> datasets = datasets("/a", "/b");
+        Map<String, String> progress = new ConcurrentHashMap<>();
+        try (CompactionPool pool = new CompactionPool(1, 1)) {
+
+            // when
+            Map<String, CompactionPool.Outcome> outcomes = pool.compactAll(datasets, (name, dsg) -> {
+                if (name.equals("/a")) {
+                    throw new IllegalStateException("Disk full");
+                }
+                return FMod_InitialCompaction.CompactionStatus.SKIPPED_NOT_TDB2;
+            }, progress::put);
+
+            // then
+            assertEquals("Disk full", outcomes.get("/a").error().getMessage());
+            assertEquals(FMod_InitialCompaction.CompactionStatus.SKIPPED_NOT_TDB2, outcomes.get("/b").status());
+            assertEquals(Map.of("/a", CompactionPool.FAILED, "/b", "SKIPPED_NOT_TDB2"), progress);
+        }
+    }
+
+    @Test
+    void givenInMemoryDataset_whenFindingVolume_thenDatasetIsItsOwnVolume() {
+        // given
+        DatasetGraph dsg = DatasetGraphFactory.createTxnMem();
+
+        // when
+        Object volume = CompactionPool.volumeOf(dsg);
+
+        // then
+        assertSame(dsg, volume);
+    }
+}
@@ -0,0 +1,176 @@
+package io.telicent.core;
+
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.sparql.core.DatasetGraphFactory;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestCompactionScheduler {
+
+    private static final long HOUR = 3_600_000;
+
+    private final DatasetGraph knowledge = DatasetGraphFactory.createTxnMem();
+    private final DatasetGraph ontology = DatasetGraphFactory.createTxnMem();
+    private final Map<DatasetGraph, Long> sizes = new HashMap<>();
+    private final Map<String, Long> compactedSizes = new HashMap<>();
+    private final List<String> compacted = new ArrayList<>();
+
+    private CompactionScheduler scheduler(CompactionScheduler.Policy policy, Clock clock) {
+        return new CompactionScheduler(() -> Map.of("/knowledge", knowledge, "/ontology", ontology),
+                                       dsg -> sizes.getOrDefault(dsg, -1L),
+                                       (name, dsg) -> compactedSizes.getOrDefault(name, -1L),
+                                       (name, dsg) -> compacted.add(name), policy, clock);
+    }
+
+    private static Clock at(String time) {
+        return Clock.fixed(Instant.parse("2026-10-17T" + time + ":00Z"), ZoneOffset.UTC);
+    }
+
+    private static CompactionScheduler.Policy policy(String windowStart, String windowEnd) {
+        return new CompactionScheduler.Policy(2.0, 1.2, windowStart == null ? null : LocalTime.parse(windowStart),
+                                              windowEnd == null ? null : LocalTime.parse(windowEnd), 6 * HOUR);
+    }
+
+    @Test
+    void givenDatasetBeyondBloatRatio_whenChecking_thenMostBloatedCompacted() {
+        // given
+        sizes.put(knowledge, 300L);
+        compactedSizes.put("/knowledge", 100L);
+        sizes.put(ontology, 250L);
+        compactedSizes.put("/ontology", 100L);
+        CompactionScheduler scheduler = scheduler(policy(null, null), at("12:00"));
+
+        // when
+        Optional<String> scheduled = scheduler.check();
+
+        // then
+        assertEquals(Optional.of("/knowledge"), scheduled);
+        assertEquals(List.of("/knowledge"), compacted);
+    }
+
+    @Test
+    void givenModestGrowth_whenCheckingOutsideWindow_thenNotCompacted() {
+        // given
+        sizes.put(knowledge, 150L);
+        compactedSizes.put("/knowledge", 100L);
+        CompactionScheduler scheduler = scheduler(policy("01:00", "05:00"), at("12:00"));
+
+        // when
+        Optional<String> scheduled = scheduler.check();
+
+        // then
+        assertTrue(scheduled.isEmpty());
+        assertTrue(compacted.isEmpty());
+    }
+
+    @Test
+    void givenModestGrowth_whenCheckingInsideWindow_thenCompacted() {
+        // given
+        sizes.put(knowledge, 150L);
+        compactedSizes.put("/knowledge", 100L);
+        CompactionScheduler scheduler = scheduler(policy("23:00", "05:00"), at("02:00"));
+
+        // when
+        Optional<String> scheduled = scheduler.check();
+
+        // then
+        assertEquals(Optional.of("/knowledge"), scheduled);
+    }
+
+    @Test
+    void givenRecentlyScheduled_whenCheckingAgain_thenNotCompactedUntilIntervalPassed() {
+        // given
+        sizes.put(knowledge, 300L);
+        compactedSizes.put("/knowledge", 100L);
+        MutableClock clock = new MutableClock(Instant.parse("2026-10-17T12:00:00Z"));
+        CompactionScheduler scheduler = scheduler(policy(null, null), clock);
+        scheduler.check();
+
+        // when
+        clock.now = clock.now.plusMillis(HOUR);
+        Optional<String> soon = scheduler.check();
+        clock.now = clock.now.plusMillis(6 * HOUR);
+        Optional<String> later = scheduler.check();
+
+        // then
+        assertTrue(soon.isEmpty());
+        assertEquals(Optional.of("/knowledge"), later);
+        assertEquals(2, compacted.size());
+    }
+
+    @Test
+    void givenNeverCompacted_whenChecking_thenFirstSeenSizeIsBaseline() {
+        // given
+        sizes.put(knowledge, 100L);
+        CompactionScheduler scheduler = scheduler(policy(null, null), at("12:00"));
+        assertTrue(scheduler.check().isEmpty());
+
+        // when
+        sizes.put(knowledge, 200L);
+        Optional<String> scheduled = scheduler.check();
+
+        // then
+        assertEquals(Optional.of("/knowledge"), scheduled);
+        assertEquals(2.0, scheduler.bloatRatio("/knowledge", knowledge));
+    }
+
+    @Test
+    void givenUnknownSize_whenChecking_thenNotCompacted() {
+        // given
+        CompactionScheduler scheduler = scheduler(policy(null, null), at("12:00"));
+
+        // when
+        Optional<String> scheduled = scheduler.check();
+
+        // then
+        assertTrue(scheduled.isEmpty());
+    }
+
+    @Test
+    void givenWindowSpanningMidnight_whenTesting_thenBothSidesIncluded() {
+        // given
+        CompactionScheduler.Policy policy = policy("22:00", "02:00");
+
+        // when / then
+        assertTrue(policy.inWindow(LocalTime.parse("23:30")));
+        assertTrue(policy.inWindow(LocalTime.parse("01:30")));
+        assertFalse(policy.inWindow(LocalTime.parse("02:00")));
+        assertFalse(policy.inWindow(LocalTime.parse("12:00")));
+        assertFalse(policy(null, null).inWindow(LocalTime.parse("12:00")));
+    }
+
+    private static final class MutableClock extends Clock {
+        private Instant now;
+
+        private MutableClock(Instant now) {
+            this.now = now;
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return this.now;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package io.telicent.core;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.rdfpatch.changes.RDFChangesCounter;
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.sparql.core.DatasetGraphFactory;
+import org.apache.jena.sparql.core.Quad;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class TestCountingRDFChanges {
+
+    private static final Node S = NodeFactory.createURI("http://example/s");
+    private static final Node P = NodeFactory.createURI("http://example/p");
+    private static final Node G = NodeFactory.createURI("http://example/graph");
+
+    @Test
+    void givenChanges_whenCounting_thenTotalsAndPerGraphCountsTracked_andChangesPassedThrough() {
+        // given
+        RDFChangesCounter downstream = new RDFChangesCounter();
+        CountingRDFChanges counting = new CountingRDFChanges(downstream);
+
+        // when
+        counting.add(null, S, P, NodeFactory.createLiteralString("a"));
+        counting.add(Quad.defaultGraphIRI, S, P, NodeFactory.createLiteralString("b"));
+        counting.add(G, S, P, NodeFactory.createLiteralString("c"));
+        counting.delete(G, S, P, NodeFactory.createLiteralString("d"));
+
+        // then
+        assertEquals(3, counting.added());
+        assertEquals(1, counting.deleted());
+        assertEquals(2, counting.perGraph().get(CountingRDFChanges.DEFAULT_GRAPH).added());
+        assertEquals(1, counting.perGraph().get(G.toString()).added());
+        assertEquals(1, counting.perGraph().get(G.toString()).deleted());
+        assertEquals(3, downstream.summary().countAddData);
+        assertEquals(1, downstream.summary().countDeleteData);
+    }
+
+    @Test
+    void givenBaseDataset_whenCounting_thenNetChangesCounted() {
+        // given
+        Node existing = NodeFactory.createLiteralString("existing");
+        Node added = NodeFactory.createLiteralString("added");
+        Node temporary = NodeFactory.createLiteralString("transient");
+        DatasetGraph base = DatasetGraphFactory.create();
+        base.add(G, S, P, existing);
+        DatasetGraph current = DatasetGraphFactory.create();
+        current.add(G, S, P, existing);
+        CountingRDFChanges counting = new CountingRDFChanges(new RDFChangesCounter(), current, base);
+
+        // when
+        // Each change is counted before it is applied, as it is when monitoring a dataset
+        counting.add(G, S, P, existing);
+        current.add(G, S, P, existing);
+        counting.add(G, S, P, added);
+        current.add(G, S, P, added);
+        counting.add(null, S, P, temporary);
+        current.add(Quad.defaultGraphIRI, S, P, temporary);
+        counting.delete(null, S, P, temporary);
+        current.delete(Quad.defaultGraphIRI, S, P, temporary);
+        counting.delete(G, S, P, existing);
+        current.delete(G, S, P, existing);
+
+        // then
+        assertEquals(1, counting.added());
+        assertEquals(1, counting.deleted());
+        assertEquals(1, counting.perGraph().size());
+        assertEquals(1, counting.perGraph().get(G.toString()).added());
+        assertEquals(1, counting.perGraph().get(G.toString()).deleted());
+    }
+}
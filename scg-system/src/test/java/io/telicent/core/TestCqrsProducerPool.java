@@ -0,0 +1,143 @@
+package io.telicent.core;
+
+import org.apache.jena.sparql.util.Context;
+import org.apache.jena.sparql.util.Symbol;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestCqrsProducerPool {
+
+    private final List<Properties> created = new ArrayList<>();
+    private final List<MockProducer<String, byte[]>> producers = new ArrayList<>();
+
+    private CqrsProducerPool createPool() {
+        return new CqrsProducerPool(props -> {
+            created.add(props);
+            MockProducer<String, byte[]> producer =
+                    new MockProducer<>(true, new StringSerializer(), new ByteArraySerializer());
+            producers.add(producer);
+            return producer;
+        });
+    }
+
+    private static Properties cluster(String bootstrapServers) {
+        Properties properties = new Properties();
+        properties.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+        return properties;
+    }
+
+    @Test
+    void givenSameCluster_whenAcquiring_thenProducerShared() {
+        // given
+        CqrsProducerPool pool = createPool();
+
+        // when
+        Producer<String, byte[]> first = pool.acquire(cluster("kafka:9092"));
+        Producer<String, byte[]> second = pool.acquire(cluster("kafka:9092"));
+        Producer<String, byte[]> other = pool.acquire(cluster("other:9092"));
+
+        // then
+        assertSame(first, second);
+        assertNotSame(first, other);
+        assertEquals(2, pool.size());
+    }
+
+    @Test
+    void givenNoTuning_whenAcquiring_thenDefaultsApplied() {
+        // given
+        CqrsProducerPool pool = createPool();
+        Properties properties = cluster("kafka:9092");
+        properties.put(ProducerConfig.LINGER_MS_CONFIG, "50");
+
+        // when
+        pool.acquire(properties);
+
+        // then
+        Properties effective = created.getFirst();
+        assertEquals("true", effective.get(ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG));
+        assertEquals("all", effective.get(ProducerConfig.ACKS_CONFIG));
+        assertEquals("50", effective.get(ProducerConfig.LINGER_MS_CONFIG));
+        assertNotNull(effective.get(ProducerConfig.CLIENT_ID_CONFIG));
+    }
+
+    @Test
+    void givenAcksOne_whenApplyingDefaults_thenIdempotenceNotEnabled() {
+        // given
+        Properties properties = cluster("kafka:9092");
+        properties.put(ProducerConfig.ACKS_CONFIG, "1");
+
+        // when
+        Properties effective = CqrsProducerPool.withDefaults(properties);
+
+        // then
+        assertEquals("false", effective.get(ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG));
+        assertEquals("1", effective.get(ProducerConfig.ACKS_CONFIG));
+    }
+
+    @Test
+    void givenPool_whenClosed_thenProducersClosed() {
+        // given
+        CqrsProducerPool pool = createPool();
+        pool.acquire(cluster("kafka:9092"));
+
+        // when
+        pool.close();
+
+        // then
+        assertTrue(producers.getFirst().closed());
+        assertEquals(0, pool.size());
+    }
+
+    @Test
+    void givenEndpointContext_whenFindingOverrides_thenOnlyProducerSettingsReturned() {
+        // given
+        Context context = new Context();
+        context.set(Symbol.create(FMod_CQRS.PRODUCER_CONTEXT_PREFIX + ProducerConfig.LINGER_MS_CONFIG), "20");
+        context.set(CQRS.symKafkaTopic, "knowledge");
+
+        // when
+        Properties overrides = FMod_CQRS.producerOverrides(context);
+
+        // then
+        assertEquals(1, overrides.size());
+        assertEquals("20", overrides.get(ProducerConfig.LINGER_MS_CONFIG));
+    }
+
+    @Test
+    void givenConnectorsForSameCluster_whenAcquiring_thenProducerShared() {
+        // given
+        CqrsProducerPool pool = createPool();
+        Properties knowledge = cluster("kafka:9092");
+        knowledge.put(ConsumerConfig.GROUP_ID_CONFIG, "knowledge-group");
+        knowledge.put(ConsumerConfig.CLIENT_ID_CONFIG, "knowledge-client");
+        knowledge.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, "500");
+        knowledge.put("security.protocol", "SASL_SSL");
+        Properties ontology = cluster("kafka:9092");
+        ontology.put(ConsumerConfig.GROUP_ID_CONFIG, "ontology-group");
+        ontology.put(ConsumerConfig.CLIENT_ID_CONFIG, "ontology-client");
+        ontology.put("security.protocol", "SASL_SSL");
+
+        // when
+        Producer<String, byte[]> first = pool.acquire(CqrsProducerPool.producerSettings(knowledge));
+        Producer<String, byte[]> second = pool.acquire(CqrsProducerPool.producerSettings(ontology));
+
+        // then
+        assertSame(first, second);
+        Properties effective = created.getFirst();
+        assertNull(effective.get(ConsumerConfig.GROUP_ID_CONFIG));
+        assertNull(effective.get(ConsumerConfig.MAX_POLL_RECORDS_CONFIG));
+        assertNotEquals("knowledge-client", effective.get(ProducerConfig.CLIENT_ID_CONFIG));
+        assertEquals("SASL_SSL", effective.get("security.protocol"));
+    }
+}
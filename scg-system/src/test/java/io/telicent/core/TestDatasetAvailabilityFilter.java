@@ -134,6 +134,24 @@ public class TestDatasetAvailabilityFilter {
         assertTrue(response.body().contains("backup"));
     }
 
+    @Test
+    void givenDatasetQueryDuringOnlineCompaction_whenProcessingRequest_thenAnswered() throws IOException, InterruptedException {
+        startServer();
+        markMaintenanceInProgress(dataset, DatasetMaintenanceRegistry.MaintenanceOperation.ONLINE_COMPACTION);
+
+        HttpRequest request = HttpRequest.newBuilder()
+                                         .uri(URI.create(server.serverURL() + "ds/query?query="
+                                                 + URLEncoder.encode("SELECT * WHERE { ?s ?p ?o }",
+                                                                     StandardCharsets.UTF_8)))
+                                         .GET()
+                                         .build();
+
+        HttpResponse<String> response =
+                HttpEnv.getDftHttpClient().send(request, HttpResponse.BodyHandlers.ofString());
+
+        assertEquals(200, response.statusCode());
+    }
+
     @Test
     void datasetNameForPath_identifiesDatasetBackedPaths() {
         Set<String> datasetNames = Set.of("/ds", "/other");
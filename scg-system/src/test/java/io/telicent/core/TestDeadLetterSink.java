@@ -0,0 +1,222 @@
+package io.telicent.core;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.telicent.smart.cache.payloads.RdfPayload;
+import io.telicent.smart.cache.projectors.Sink;
+import io.telicent.smart.cache.sources.Event;
+import io.telicent.smart.cache.sources.kafka.KafkaEvent;
+import org.apache.jena.kafka.JenaKafkaException;
+import org.apache.jena.riot.RiotException;
+import org.apache.jena.riot.WebContent;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.record.TimestampType;
+import org.apache.kafka.common.utils.Bytes;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+
+import static io.telicent.backup.utils.JsonFileUtils.OBJECT_MAPPER;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class TestDeadLetterSink {
+
+    @TempDir
+    Path tempDir;
+
+    private final List<Event<Bytes, RdfPayload>> applied = new ArrayList<>();
+
+    private Sink<Event<Bytes, RdfPayload>> destination(RuntimeException failure) {
+        return new Sink<>() {
+            @Override
+            public void send(Event<Bytes, RdfPayload> event) {
+                if (failure != null) {
+                    throw failure;
+                }
+                applied.add(event);
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    private static KafkaEvent<Bytes, RdfPayload> event(long offset, String body) {
+        byte[] data = body.getBytes(StandardCharsets.UTF_8);
+        RdfPayload payload = RdfPayload.of(WebContent.contentTypeNTriples, data);
+        ConsumerRecord<Bytes, RdfPayload> record =
+                new ConsumerRecord<>("knowledge", 0, offset, Bytes.wrap("key".getBytes(StandardCharsets.UTF_8)),
+                                     payload);
+        KafkaEvent<Bytes, RdfPayload> event = mock(KafkaEvent.class);
+        when(event.getConsumerRecord()).thenReturn(record);
+        when(event.value()).thenReturn(payload);
+        return event;
+    }
+
+    private IngestQuarantine fileQuarantine() {
+        return new IngestQuarantine(null, tempDir, 10, topic -> null, props -> {
+            throw new AssertionError("No producer expected");
+        });
+    }
+
+    @Test
+    void givenParseFailure_whenSending_thenQuarantinedToFile() throws IOException {
+        // given
+        IngestQuarantine quarantine = fileQuarantine();
+        DeadLetterSink sink =
+                new DeadLetterSink(destination(new RuntimeException(new RiotException("Bad data"))), quarantine, 0);
+
+        // when
+        sink.send(event(7, "not n-triples"));
+
+        // then
+        Path file = tempDir.resolve("knowledge-0-7.json");
+        assertTrue(Files.exists(file));
+        JsonNode json = OBJECT_MAPPER.readTree(file.toFile());
+        assertEquals(7, json.get("offset").asLong());
+        assertTrue(json.get("reason").asText().contains("Bad data"));
+        assertEquals("not n-triples", new String(Base64.getDecoder().decode(json.get("value").asText()),
+                                                 StandardCharsets.UTF_8));
+        ObjectNode listing = quarantine.toJson();
+        assertEquals(1, listing.get(IngestQuarantine.DESTINATION_FILE).asLong());
+        assertEquals(1, listing.get("records").size());
+    }
+
+    @Test
+    void givenOtherFailure_whenSending_thenPropagated() {
+        // given
+        DeadLetterSink sink = new DeadLetterSink(destination(new IllegalStateException("Store failure")),
+                                                 fileQuarantine(), 0);
+
+        // when / then
+        assertThrows(IllegalStateException.class, () -> sink.send(event(1, "")));
+        assertEquals(0, tempDir.toFile().list().length);
+    }
+
+    @Test
+    void givenOversizedRecord_whenSending_thenNotApplied() {
+        // given
+        DeadLetterSink sink = new DeadLetterSink(destination(null), fileQuarantine(), 4);
+        ConsumerRecord<Bytes, RdfPayload> large =
+                new ConsumerRecord<>("knowledge", 0, 3L, 0L, TimestampType.CREATE_TIME,
+                                     0, 100, null, RdfPayload.of(WebContent.contentTypeNTriples, new byte[100]),
+                                     new RecordHeaders(),
+                                     Optional.empty());
+        @SuppressWarnings("unchecked")
+        KafkaEvent<Bytes, RdfPayload> event = mock(KafkaEvent.class);
+        when(event.getConsumerRecord()).thenReturn(large);
+
+        // when
+        sink.send(event);
+        sink.send(event(4, ""));
+
+        // then
+        assertTrue(Files.exists(tempDir.resolve("knowledge-0-3.json")));
+        assertEquals(1, applied.size());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void givenDeadLetterTopic_whenParseFails_thenSentWithErrorHeaders() {
+        // given
+        Producer<byte[], byte[]> producer = producer(null);
+        IngestQuarantine quarantine = new IngestQuarantine("knowledge.dlq", null, 10, topic -> new Properties(),
+                                                           props -> producer);
+        DeadLetterSink sink = new DeadLetterSink(destination(new RiotException("Bad data")), quarantine, 0);
+
+        // when
+        sink.send(event(12, "bad"));
+
+        // then
+        ArgumentCaptor<ProducerRecord<byte[], byte[]>> sent = ArgumentCaptor.forClass(ProducerRecord.class);
+        verify(producer).send(sent.capture(), any());
+        ProducerRecord<byte[], byte[]> record = sent.getValue();
+        assertEquals("knowledge.dlq", record.topic());
+        assertEquals("12", new String(record.headers().lastHeader(IngestQuarantine.HEADER_SOURCE_OFFSET).value(),
+                                      StandardCharsets.UTF_8));
+        assertNotNull(record.headers().lastHeader(IngestQuarantine.HEADER_REASON));
+        assertEquals("bad", new String(record.value(), StandardCharsets.UTF_8));
+        assertEquals(1, quarantine.toJson().get(IngestQuarantine.DESTINATION_DLQ).asLong());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void givenDeadLetterTopicUnavailable_whenParseFails_thenQuarantinedToFile() {
+        // given
+        Producer<byte[], byte[]> producer = producer(new RuntimeException("No brokers"));
+        IngestQuarantine quarantine = new IngestQuarantine("knowledge.dlq", tempDir, 10, topic -> new Properties(),
+                                                           props -> producer);
+        DeadLetterSink sink = new DeadLetterSink(destination(new RiotException("Bad data")), quarantine, 0);
+
+        // when
+        sink.send(event(5, "bad"));
+
+        // then
+        assertTrue(Files.exists(tempDir.resolve("knowledge-0-5.json")));
+        assertEquals(1, quarantine.toJson().get(IngestQuarantine.DESTINATION_FILE).asLong());
+    }
+
+    @Test
+    void givenDeadLetterSendFailsWithoutDirectory_whenNextRecordSent_thenIngestStops() {
+        // given
+        Producer<byte[], byte[]> producer = producer(new RuntimeException("No brokers"));
+        IngestQuarantine quarantine = new IngestQuarantine("knowledge.dlq", null, 10, topic -> new Properties(),
+                                                           props -> producer);
+        DeadLetterSink failing = new DeadLetterSink(destination(new RiotException("Bad data")), quarantine, 0);
+        failing.send(event(5, "bad"));
+        DeadLetterSink sink = new DeadLetterSink(destination(null), quarantine, 0);
+
+        // when / then
+        assertThrows(JenaKafkaException.class, () -> sink.send(event(6, "")));
+        assertTrue(applied.isEmpty());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void givenDeadLetterSendOutstanding_whenQuarantining_thenIngestNotBlocked() {
+        // given
+        Producer<byte[], byte[]> producer = mock(Producer.class);
+        when(producer.send(any(), any())).thenReturn(new CompletableFuture<>());
+        IngestQuarantine quarantine = new IngestQuarantine("knowledge.dlq", null, 10, 2, topic -> new Properties(),
+                                                           props -> producer);
+        DeadLetterSink sink = new DeadLetterSink(destination(new RiotException("Bad data")), quarantine, 0);
+
+        // when
+        sink.send(event(1, "bad"));
+        sink.send(event(2, "bad"));
+
+        // then
+        verify(producer, times(2)).send(any(), any());
+        assertEquals(0, quarantine.toJson().get(IngestQuarantine.DESTINATION_DLQ).asLong());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Producer<byte[], byte[]> producer(Exception error) {
+        Producer<byte[], byte[]> producer = mock(Producer.class);
+        when(producer.send(any(), any())).thenAnswer(invocation -> {
+            Callback callback = invocation.getArgument(1);
+            callback.onCompletion(null, error);
+            return error == null ? CompletableFuture.completedFuture(null) : CompletableFuture.failedFuture(error);
+        });
+        return producer;
+    }
+}
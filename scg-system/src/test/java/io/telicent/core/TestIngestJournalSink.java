@@ -0,0 +1,122 @@
+package io.telicent.core;
+
+import io.telicent.backup.services.IngestJournal;
+import io.telicent.smart.cache.payloads.RdfPayload;
+import io.telicent.smart.cache.projectors.Sink;
+import io.telicent.smart.cache.sources.Event;
+import io.telicent.smart.cache.sources.kafka.KafkaEvent;
+import org.apache.jena.riot.WebContent;
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.sparql.core.DatasetGraphFactory;
+import org.apache.jena.system.Txn;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.utils.Bytes;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class TestIngestJournalSink {
+
+    private static final TopicPartition PARTITION = new TopicPartition("knowledge", 0);
+
+    private static final Sink<Event<Bytes, RdfPayload>> NO_OP = new Sink<>() {
+        @Override
+        public void send(Event<Bytes, RdfPayload> event) {
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    @SuppressWarnings("unchecked")
+    private static KafkaEvent<Bytes, RdfPayload> event(long offset) {
+        RdfPayload payload = RdfPayload.of(WebContent.contentTypeNTriples,
+                                           "<http://a> <http://p> 1 .".getBytes(StandardCharsets.UTF_8));
+        ConsumerRecord<Bytes, RdfPayload> record =
+                new ConsumerRecord<>(PARTITION.topic(), PARTITION.partition(), offset,
+                                     Bytes.wrap("key".getBytes(StandardCharsets.UTF_8)), payload);
+        KafkaEvent<Bytes, RdfPayload> event = mock(KafkaEvent.class);
+        when(event.getConsumerRecord()).thenReturn(record);
+        when(event.value()).thenReturn(payload);
+        return event;
+    }
+
+    @Test
+    void givenRecordsAppliedInWriteTransaction_whenCommitted_thenJournaledOnlyOnceCommitted() {
+        // given
+        DatasetGraph dsg = DatasetGraphFactory.createTxnMem();
+        IngestJournal journal = mock(IngestJournal.class);
+        AppliedOffsetRegistry registry = new AppliedOffsetRegistry();
+        try (IngestJournalSink sink = new IngestJournalSink(dsg, journal, registry, NO_OP)) {
+
+            // when
+            Txn.executeWrite(dsg, () -> {
+                sink.send(event(1));
+                registry.received(PARTITION, 1);
+                sink.send(event(2));
+                registry.received(PARTITION, 2);
+            });
+
+            // then
+            verify(journal, never()).append(any(), any());
+            assertEquals(2, sink.pending());
+
+            // when
+            registry.committed(PARTITION, 2);
+
+            // then
+            verify(journal).append(argThat(r -> r.offset() == 1), any());
+            verify(journal, never()).append(argThat(r -> r.offset() == 2), any());
+            assertEquals(1, sink.pending());
+
+            // when
+            registry.committed(PARTITION, 3);
+
+            // then
+            verify(journal, times(2)).append(any(), any());
+            assertEquals(0, sink.pending());
+        }
+    }
+
+    @Test
+    void givenNoWriteTransaction_whenSent_thenJournaledImmediately() {
+        // given
+        DatasetGraph dsg = DatasetGraphFactory.createTxnMem();
+        IngestJournal journal = mock(IngestJournal.class);
+        try (IngestJournalSink sink = new IngestJournalSink(dsg, journal, new AppliedOffsetRegistry(), NO_OP)) {
+
+            // when
+            sink.send(event(5));
+
+            // then
+            verify(journal).append(argThat(r -> r.offset() == 5), any());
+            assertEquals(0, sink.pending());
+        }
+    }
+
+    @Test
+    void givenSinkClosed_whenCommitted_thenListenerRemoved() {
+        // given
+        DatasetGraph dsg = DatasetGraphFactory.createTxnMem();
+        IngestJournal journal = mock(IngestJournal.class);
+        AppliedOffsetRegistry registry = new AppliedOffsetRegistry();
+        IngestJournalSink sink = new IngestJournalSink(dsg, journal, registry, NO_OP);
+        Txn.executeWrite(dsg, () -> {
+            sink.send(event(1));
+            registry.received(PARTITION, 1);
+        });
+
+        // when
+        sink.close();
+        registry.committed(PARTITION, 2);
+
+        // then
+        verify(journal, never()).append(any(), any());
+    }
+}
@@ -0,0 +1,70 @@
+package io.telicent.core;
+
+import org.apache.jena.kafka.KConnectorDesc;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class TestIngestLagMonitor {
+
+    private final AppliedOffsetRegistry registry = new AppliedOffsetRegistry();
+    private IngestLagMonitor monitor;
+
+    @AfterEach
+    void teardown() {
+        if (monitor != null) {
+            monitor.close();
+        }
+    }
+
+    private IngestLagMonitor monitor(String... topics) {
+        KConnectorDesc connector = mock(KConnectorDesc.class);
+        when(connector.getTopics()).thenReturn(List.of(topics));
+        when(connector.getDatasetName()).thenReturn("/ds");
+        monitor = new IngestLagMonitor(connector, registry, props -> {
+            throw new AssertionError("Admin client should not be created");
+        }, 60_000);
+        return monitor;
+    }
+
+    @Test
+    void givenReceivedOffsets_whenCalculatingLag_thenOnlyConnectorPartitionsReported() {
+        // given
+        TopicPartition first = new TopicPartition("knowledge", 0);
+        TopicPartition second = new TopicPartition("knowledge", 1);
+        TopicPartition other = new TopicPartition("other", 0);
+        registry.applied(first, 41);
+        registry.received(second, 9);
+        registry.applied(other, 5);
+        IngestLagMonitor monitor = monitor("knowledge");
+
+        // when
+        monitor.updateEndOffsets(Map.of(first, 50L, second, 10L, other, 100L));
+        Map<TopicPartition, Long> lags = monitor.lags();
+
+        // then
+        assertEquals(Set.of(first, second), monitor.partitions());
+        assertEquals(Map.of(first, 8L, second, 0L), lags);
+    }
+
+    @Test
+    void givenUnknownEndOffsets_whenCalculatingLag_thenNothingReported() {
+        // given
+        registry.applied(new TopicPartition("knowledge", 0), 3);
+        IngestLagMonitor monitor = monitor("knowledge");
+
+        // when
+        Map<TopicPartition, Long> lags = monitor.lags();
+
+        // then
+        assertTrue(lags.isEmpty());
+    }
+}
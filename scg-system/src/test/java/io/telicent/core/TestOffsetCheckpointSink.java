@@ -0,0 +1,159 @@
+package io.telicent.core;
+
+import io.telicent.smart.cache.payloads.RdfPayload;
+import io.telicent.smart.cache.projectors.Sink;
+import io.telicent.smart.cache.sources.Event;
+import io.telicent.smart.cache.sources.kafka.KafkaEvent;
+import org.apache.jena.query.TxnType;
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.sparql.core.DatasetGraphFactory;
+import org.apache.jena.system.Txn;
+import org.apache.jena.tdb2.DatabaseMgr;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.utils.Bytes;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class TestOffsetCheckpointSink {
+
+    private final List<Event<Bytes, RdfPayload>> applied = new ArrayList<>();
+
+    private final Sink<Event<Bytes, RdfPayload>> destination = new Sink<>() {
+        @Override
+        public void send(Event<Bytes, RdfPayload> event) {
+            applied.add(event);
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    @SuppressWarnings("unchecked")
+    private static KafkaEvent<Bytes, RdfPayload> event(String topic, int partition, long offset) {
+        ConsumerRecord<Bytes, RdfPayload> record = new ConsumerRecord<>(topic, partition, offset, null, null);
+        KafkaEvent<Bytes, RdfPayload> event = mock(KafkaEvent.class);
+        when(event.getConsumerRecord()).thenReturn(record);
+        return event;
+    }
+
+    @Test
+    void givenEventsInWriteTransaction_whenCommitted_thenNextOffsetsCheckpointed() {
+        // given
+        DatasetGraph dsg = DatabaseMgr.createDatasetGraph();
+        OffsetCheckpointSink sink = new OffsetCheckpointSink(dsg, destination);
+
+        // when
+        Txn.executeWrite(dsg, () -> {
+            sink.send(event("knowledge", 0, 10));
+            sink.send(event("knowledge", 0, 11));
+            sink.send(event("knowledge", 1, 4));
+            sink.send(event("ontology", 0, 0));
+        });
+
+        // then
+        assertEquals(4, applied.size());
+        Map<TopicPartition, Long> offsets = OffsetCheckpointSink.read(dsg);
+        assertEquals(Map.of(new TopicPartition("knowledge", 0), 12L,
+                            new TopicPartition("knowledge", 1), 5L,
+                            new TopicPartition("ontology", 0), 1L), offsets);
+    }
+
+    @Test
+    void givenCheckpoint_whenReadingData_thenNotVisible() {
+        // given
+        DatasetGraph dsg = DatabaseMgr.createDatasetGraph();
+        OffsetCheckpointSink sink = new OffsetCheckpointSink(dsg, destination);
+
+        // when
+        Txn.executeWrite(dsg, () -> sink.send(event("knowledge", 0, 10)));
+
+        // then
+        Txn.executeRead(dsg, () -> {
+            assertTrue(dsg.isEmpty());
+            assertFalse(dsg.listGraphNodes().hasNext());
+            assertTrue(dsg.prefixes().isEmpty());
+        });
+        assertFalse(OffsetCheckpointSink.read(dsg).isEmpty());
+    }
+
+    @Test
+    void givenCheckpoint_whenWrittenToAnotherDataset_thenOffsetsCarried() {
+        // given
+        DatasetGraph dsg = DatabaseMgr.createDatasetGraph();
+        OffsetCheckpointSink sink = new OffsetCheckpointSink(dsg, destination);
+        Txn.executeWrite(dsg, () -> sink.send(event("knowledge", 2, 7)));
+        DatasetGraph other = DatabaseMgr.createDatasetGraph();
+
+        // when
+        OffsetCheckpointSink.write(other, OffsetCheckpointSink.read(dsg));
+
+        // then
+        assertEquals(Map.of(new TopicPartition("knowledge", 2), 8L), OffsetCheckpointSink.read(other));
+    }
+
+    @Test
+    void givenNotTdb2_whenCommitted_thenEventAppliedWithoutCheckpoint() {
+        // given
+        DatasetGraph dsg = DatasetGraphFactory.createTxnMem();
+        OffsetCheckpointSink sink = new OffsetCheckpointSink(dsg, destination);
+
+        // when
+        Txn.executeWrite(dsg, () -> sink.send(event("knowledge", 0, 10)));
+
+        // then
+        assertEquals(1, applied.size());
+        assertTrue(OffsetCheckpointSink.read(dsg).isEmpty());
+    }
+
+    @Test
+    void givenAbortedTransaction_whenReading_thenPreviousCheckpointRetained() {
+        // given
+        DatasetGraph dsg = DatabaseMgr.createDatasetGraph();
+        OffsetCheckpointSink sink = new OffsetCheckpointSink(dsg, destination);
+        Txn.executeWrite(dsg, () -> sink.send(event("knowledge", 0, 10)));
+
+        // when
+        dsg.begin(TxnType.WRITE);
+        sink.send(event("knowledge", 0, 11));
+        dsg.abort();
+        dsg.end();
+
+        // then
+        assertEquals(Map.of(new TopicPartition("knowledge", 0), 11L), OffsetCheckpointSink.read(dsg));
+    }
+
+    @Test
+    void givenNoTransaction_whenSending_thenEventAppliedWithoutCheckpoint() {
+        // given
+        DatasetGraph dsg = DatabaseMgr.createDatasetGraph();
+        OffsetCheckpointSink sink = new OffsetCheckpointSink(dsg, destination);
+
+        // when
+        sink.send(event("knowledge", 0, 10));
+
+        // then
+        assertEquals(1, applied.size());
+        assertTrue(OffsetCheckpointSink.read(dsg).isEmpty());
+    }
+
+    @Test
+    void givenEmptyDataset_whenReading_thenNoCheckpoint() {
+        // given
+        DatasetGraph dsg = DatabaseMgr.createDatasetGraph();
+
+        // when
+        Map<TopicPartition, Long> offsets = OffsetCheckpointSink.read(dsg);
+
+        // then
+        assertTrue(offsets.isEmpty());
+    }
+}
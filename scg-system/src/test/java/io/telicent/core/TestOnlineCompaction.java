@@ -0,0 +1,209 @@
+package io.telicent.core;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.query.TxnType;
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.jena.system.Txn;
+import org.apache.jena.tdb2.DatabaseMgr;
+import org.apache.jena.tdb2.store.DatasetGraphSwitchable;
+import org.apache.jena.tdb2.store.DatasetGraphTDB;
+import org.apache.jena.tdb2.sys.DatabaseOps;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestOnlineCompaction {
+
+    @TempDir
+    Path tempDir;
+
+    private static Quad quad(int i) {
+        Node s = NodeFactory.createURI("http://example.org/s" + i);
+        Node p = NodeFactory.createURI("http://example.org/p");
+        return Quad.create(Quad.defaultGraphIRI, s, p, NodeFactory.createLiteralString("value " + i));
+    }
+
+    private DatasetGraphSwitchable database() {
+        DatasetGraph dsg = DatabaseMgr.connectDatasetGraph(tempDir.toString());
+        DatasetGraphSwitchable switchable = FMod_InitialCompaction.getTDB2(dsg);
+        assertNotNull(switchable);
+        Txn.executeWrite(switchable, () -> {
+            for (int i = 0; i < 100; i++) {
+                switchable.add(quad(i));
+            }
+            switchable.prefixes().add("ex", "http://example.org/");
+        });
+        // Deletions leave space to be reclaimed
+        Txn.executeWrite(switchable, () -> {
+            for (int i = 0; i < 50; i++) {
+                switchable.delete(quad(i));
+            }
+        });
+        return switchable;
+    }
+
+    @Test
+    void givenDatabase_whenCompactedOnline_thenSwitchedToNextGenerationWithSameData() throws IOException {
+        // given
+        DatasetGraphSwitchable dsg = database();
+        Path before = DatabaseOps.findStorageLocation(dsg.getContainerPath());
+
+        // when
+        boolean compacted = new OnlineCompaction(dsg, 5_000).compact(true);
+
+        // then
+        assertTrue(compacted);
+        Path after = DatabaseOps.findStorageLocation(dsg.getContainerPath());
+        assertEquals(OnlineCompaction.nextGeneration(before), after);
+        assertFalse(Files.exists(before));
+        Txn.executeRead(dsg, () -> {
+            assertEquals(50, dsg.stream().count());
+            assertTrue(dsg.contains(quad(75)));
+            assertFalse(dsg.contains(quad(25)));
+            assertEquals("http://example.org/", dsg.prefixes().get("ex"));
+        });
+    }
+
+    @Test
+    void givenOffsetsCheckpointedDuringCompaction_whenCompactedOnline_thenLatestCheckpointCarried() throws IOException {
+        // given
+        DatasetGraphSwitchable dsg = database();
+        TopicPartition partition = new TopicPartition("knowledge", 0);
+        OffsetCheckpointSink.write(dsg, Map.of(partition, 10L));
+        Runnable checkpoint = () -> OffsetCheckpointSink.write(dsg, Map.of(partition, 20L));
+
+        // when
+        boolean compacted = new OnlineCompaction(dsg, 5_000, OnlineCompaction.DEFAULT_MAX_PENDING_CHANGES, checkpoint).compact(true);
+
+        // then
+        assertTrue(compacted);
+        assertEquals(Map.of(partition, 20L), OffsetCheckpointSink.read(dsg));
+    }
+
+    @Test
+    void givenWritesDuringCompaction_whenCompactedOnline_thenWritesReplayed() throws IOException {
+        // given
+        DatasetGraphSwitchable dsg = database();
+        Runnable concurrentWrites = () -> CompletableFuture.runAsync(() -> {
+            Txn.executeWrite(dsg, () -> {
+                dsg.add(quad(500));
+                dsg.delete(quad(75));
+            });
+            // Aborted changes must not be replayed
+            dsg.begin(TxnType.WRITE);
+            dsg.add(quad(600));
+            dsg.abort();
+            dsg.end();
+        }).join();
+
+        // when
+        boolean compacted = new OnlineCompaction(dsg, 5_000, OnlineCompaction.DEFAULT_MAX_PENDING_CHANGES, concurrentWrites).compact(true);
+
+        // then
+        assertTrue(compacted);
+        Txn.executeRead(dsg, () -> {
+            assertEquals(50, dsg.stream().count());
+            assertTrue(dsg.contains(quad(500)));
+            assertFalse(dsg.contains(quad(75)));
+            assertFalse(dsg.contains(quad(600)));
+        });
+    }
+
+    @Test
+    void givenReaderDuringCompaction_whenCompactedOnline_thenReaderNotBlocked() throws IOException {
+        // given
+        DatasetGraphSwitchable dsg = database();
+        Runnable concurrentRead = () -> CompletableFuture.supplyAsync(
+                () -> Txn.calculateRead(dsg, () -> dsg.stream().count())).join();
+
+        // when
+        boolean compacted = new OnlineCompaction(dsg, 5_000, OnlineCompaction.DEFAULT_MAX_PENDING_CHANGES, concurrentRead).compact(true);
+
+        // then
+        assertTrue(compacted);
+    }
+
+    @Test
+    void givenTooManyWritesDuringCompaction_whenCompactedOnline_thenFailsAndCurrentGenerationKept() {
+        // given
+        DatasetGraphSwitchable dsg = database();
+        Path before = DatabaseOps.findStorageLocation(dsg.getContainerPath());
+        Runnable bulkWrites = () -> CompletableFuture.runAsync(() -> Txn.executeWrite(dsg, () -> {
+            for (int i = 1_000; i < 1_000 + OnlineCompaction.CATCH_UP_THRESHOLD + 2; i++) {
+                dsg.add(quad(i));
+            }
+        })).join();
+
+        // when
+        OnlineCompaction compaction = new OnlineCompaction(dsg, 5_000, 0, bulkWrites);
+
+        // then
+        assertThrows(IllegalStateException.class, () -> compaction.compact(true));
+        assertFalse(OnlineCompaction.isInProgress(dsg));
+        assertEquals(before, DatabaseOps.findStorageLocation(dsg.getContainerPath()));
+        Txn.executeRead(dsg, () -> assertTrue(dsg.contains(quad(1_000))));
+    }
+
+    @Test
+    void givenChangesBeyondLimit_whenCommitted_thenLogOverflowsAndDiscardsChanges() {
+        // given
+        OnlineCompaction.ChangeLog changes = new OnlineCompaction.ChangeLog(2);
+        Quad quad = quad(1);
+
+        // when
+        changes.txnBegin();
+        changes.add(quad.getGraph(), quad.getSubject(), quad.getPredicate(), quad.getObject());
+        changes.txnCommit();
+        changes.txnBegin();
+        changes.add(quad.getGraph(), quad.getSubject(), quad.getPredicate(), quad.getObject());
+        changes.add(quad.getGraph(), quad.getSubject(), quad.getPredicate(), quad.getObject());
+        changes.txnCommit();
+
+        // then
+        assertTrue(changes.overflowed());
+        assertEquals(0, changes.pending());
+    }
+
+    @Test
+    void givenCompactionInProgress_whenGettingCurrentGeneration_thenSeesThroughWrapper() throws IOException {
+        // given
+        DatasetGraphSwitchable dsg = database();
+        DatasetGraphTDB[] during = new DatasetGraphTDB[1];
+        boolean[] inProgress = new boolean[1];
+        Runnable check = () -> {
+            during[0] = OnlineCompaction.currentGeneration(dsg);
+            inProgress[0] = OnlineCompaction.isInProgress(dsg);
+        };
+
+        // when
+        new OnlineCompaction(dsg, 5_000, OnlineCompaction.DEFAULT_MAX_PENDING_CHANGES, check).compact(true);
+
+        // then
+        assertNotNull(during[0]);
+        assertTrue(inProgress[0]);
+        assertFalse(OnlineCompaction.isInProgress(dsg));
+        assertSame(dsg.get(), OnlineCompaction.currentGeneration(dsg));
+    }
+
+    @Test
+    void givenGeneration_whenGettingNext_thenIndexIncremented() {
+        // given
+        Path current = tempDir.resolve("Data-0009");
+
+        // when
+        Path next = OnlineCompaction.nextGeneration(current);
+
+        // then
+        assertEquals(tempDir.resolve("Data-0010"), next);
+    }
+}
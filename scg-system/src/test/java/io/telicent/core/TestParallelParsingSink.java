@@ -0,0 +1,277 @@
+package io.telicent.core;
+
+import io.telicent.smart.cache.payloads.RdfPayload;
+import io.telicent.smart.cache.projectors.Sink;
+import io.telicent.smart.cache.sources.Event;
+import io.telicent.smart.cache.sources.kafka.KafkaEvent;
+import io.telicent.smart.cache.sources.memory.SimpleEvent;
+import org.apache.jena.graph.Node;
+import org.apache.jena.kafka.JenaKafkaException;
+import org.apache.jena.riot.WebContent;
+import org.apache.jena.riot.web.HttpNames;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.record.TimestampType;
+import org.apache.kafka.common.utils.Bytes;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class TestParallelParsingSink {
+
+    private final ExecutorService parsers = Executors.newFixedThreadPool(4);
+    private final List<Event<Bytes, RdfPayload>> received = new ArrayList<>();
+    private final Sink<Event<Bytes, RdfPayload>> destination = new Sink<>() {
+        @Override
+        public void send(Event<Bytes, RdfPayload> event) {
+            received.add(event);
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    private final ParseAheadBuffer buffer = new ParseAheadBuffer();
+
+    @AfterEach
+    void teardown() {
+        buffer.disable();
+        parsers.shutdownNow();
+    }
+
+    private static Event<Bytes, RdfPayload> event(String contentType, String body) {
+        return new SimpleEvent<>(AbstractSmartCacheGraphSinkTests.toHeaders(Map.of(HttpNames.hContentType,
+                                                                                     contentType)), null,
+                                 RdfPayload.of(contentType, body.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void givenData_whenChunking_thenChunksEndOnLineBoundaries() {
+        // given
+        byte[] data = "aaaa\nbb\ncccccc\nd\n".getBytes(StandardCharsets.UTF_8);
+
+        // when
+        List<int[]> bounds = ChunkedParser.chunkBounds(data, 5);
+
+        // then
+        int expectedStart = 0;
+        for (int[] bound : bounds) {
+            assertEquals(expectedStart, bound[0]);
+            assertEquals('\n', data[bound[1] - 1]);
+            expectedStart = bound[1];
+        }
+        assertEquals(data.length, expectedStart);
+    }
+
+    @Test
+    void givenLargeNQuads_whenSending_thenParsedInChunksIntoOneEventWithSharedBlankNodes() {
+        // given
+        StringBuilder body = new StringBuilder("_:b0 <http://example/p> \"first\" <http://example/g> .\n");
+        for (int i = 0; i < 200; i++) {
+            body.append("<http://example/s").append(i).append("> <http://example/p> \"").append(i).append("\" .\n");
+        }
+        body.append("_:b0 <http://example/p> \"last\" <http://example/g> .\n");
+        ParallelParsingSink sink = new ParallelParsingSink(destination, new ChunkedParser(parsers, 512, 2, 0));
+
+        // when
+        sink.send(event(WebContent.contentTypeNQuads, body.toString()));
+
+        // then
+        assertEquals(1, received.size());
+        assertTrue(received.getFirst().value().isDataset());
+        List<Quad> quads = received.getFirst().value().getDataset().stream().toList();
+        assertEquals(202, quads.size());
+        Set<Node> blankSubjects = new HashSet<>();
+        quads.stream().filter(q -> q.getSubject().isBlank()).map(Quad::getSubject).forEach(blankSubjects::add);
+        assertEquals(1, blankSubjects.size());
+    }
+
+    @Test
+    void givenInvalidChunk_whenSending_thenFailsAndNothingApplied() {
+        // given
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            body.append("<http://example/s").append(i).append("> <http://example/p> \"").append(i).append("\" .\n");
+        }
+        body.append("not n-triples\n");
+        ParallelParsingSink sink = new ParallelParsingSink(destination, new ChunkedParser(parsers, 512, 2, 0));
+
+        // when / then
+        assertThrows(JenaKafkaException.class,
+                     () -> sink.send(event(WebContent.contentTypeNTriples, body.toString())));
+        assertTrue(received.isEmpty());
+    }
+
+    private static ConsumerRecord<Object, Object> polled(long offset, int triples) {
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < triples; i++) {
+            body.append("<http://example/s").append(i).append("> <http://example/p> \"").append(i).append("\" .\n");
+        }
+        byte[] data = body.toString().getBytes(StandardCharsets.UTF_8);
+        RecordHeaders headers = new RecordHeaders();
+        headers.add(HttpNames.hContentType, WebContent.contentTypeNTriples.getBytes(StandardCharsets.UTF_8));
+        return new ConsumerRecord<>("knowledge", 0, offset, 0L, TimestampType.CREATE_TIME, 0, data.length, null,
+                                    RdfPayload.of(WebContent.contentTypeNTriples, data), headers, Optional.empty());
+    }
+
+    @SafeVarargs
+    private static ConsumerRecords<Object, Object> poll(ConsumerRecord<Object, Object>... polled) {
+        return new ConsumerRecords<>(Map.of(new TopicPartition("knowledge", 0), List.of(polled)));
+    }
+
+    @Test
+    void givenPayloadParsedAhead_whenSending_thenParsedPayloadApplied() {
+        // given
+        ConsumerRecord<Object, Object> polled = polled(7L, 100);
+        buffer.enable(new ChunkedParser(parsers, 512, 2, 0), Long.MAX_VALUE);
+        new ParseAheadInterceptor(buffer).onConsume(poll(polled));
+        buffer.awaitParsed();
+        // The sink's own parser can't run anything, so only the payload parsed ahead can be applied
+        ExecutorService stopped = Executors.newSingleThreadExecutor();
+        stopped.shutdown();
+        ParallelParsingSink sink =
+                new ParallelParsingSink(destination, new ChunkedParser(stopped, 512, 2, 0), buffer);
+
+        // when
+        sink.send(kafkaEvent(polled, (RdfPayload) polled.value()));
+
+        // then
+        assertEquals(1, received.size());
+        assertEquals(100, received.getFirst().value().getDataset().stream().count());
+        assertNull(buffer.take("knowledge", 0, 7L));
+        assertEquals(0, buffer.reserved());
+    }
+
+    @Test
+    void givenNextPoll_whenConsumed_thenUnappliedPayloadsDiscarded() {
+        // given
+        ConsumerRecord<Object, Object> polled = polled(1L, 1);
+        buffer.enable(new ChunkedParser(parsers, 512, 2, 0), Long.MAX_VALUE);
+        ParseAheadInterceptor interceptor = new ParseAheadInterceptor(buffer);
+        interceptor.onConsume(poll(polled));
+        buffer.awaitParsed();
+
+        // when
+        interceptor.onConsume(ConsumerRecords.empty());
+
+        // then
+        assertNull(buffer.take("knowledge", 0, 1L));
+        assertEquals(0, buffer.reserved());
+    }
+
+    @Test
+    void givenLimitHoldsOnePayload_whenFirstTaken_thenSecondParsed() {
+        // given
+        ConsumerRecord<Object, Object> first = polled(1L, 50);
+        ConsumerRecord<Object, Object> second = polled(2L, 50);
+        long estimate = (long) ((RdfPayload) first.value()).getRawData().length
+                        * ParseAheadBuffer.PARSED_BYTES_PER_PAYLOAD_BYTE;
+        buffer.enable(new ChunkedParser(parsers, 512, 2, 0), estimate);
+        new ParseAheadInterceptor(buffer).onConsume(poll(first, second));
+
+        // when
+        buffer.take("knowledge", 0, 1L);
+        buffer.awaitParsed();
+
+        // then
+        assertEquals(estimate, buffer.reserved());
+        assertNotNull(buffer.take("knowledge", 0, 2L));
+        assertEquals(0, buffer.reserved());
+    }
+
+    @Test
+    void givenPayloadOverLimit_whenConsumed_thenLeftForSink() {
+        // given
+        ConsumerRecord<Object, Object> polled = polled(1L, 50);
+        buffer.enable(new ChunkedParser(parsers, 512, 2, 0), 1024);
+        new ParseAheadInterceptor(buffer).onConsume(poll(polled));
+
+        // when
+        buffer.awaitParsed();
+
+        // then
+        assertNull(buffer.take("knowledge", 0, 1L));
+        assertEquals(0, buffer.reserved());
+    }
+
+    @Test
+    void givenConsumerGroups_whenEnabledForOne_thenOtherParsesNothing() {
+        // given
+        ParseAheadBuffer enabled = ParseAheadBuffer.forConsumerGroup("parse-ahead-a");
+        ParseAheadBuffer other = ParseAheadBuffer.forConsumerGroup("parse-ahead-b");
+        enabled.enable(new ChunkedParser(parsers, 512, 2, 0), Long.MAX_VALUE);
+        try {
+            ParseAheadInterceptor interceptor = new ParseAheadInterceptor();
+            interceptor.configure(Map.of(ConsumerConfig.GROUP_ID_CONFIG, "parse-ahead-b"));
+
+            // when
+            interceptor.onConsume(poll(polled(1L, 1)));
+
+            // then
+            assertNotSame(enabled, other);
+            assertSame(enabled, ParseAheadBuffer.forConsumerGroup("parse-ahead-a"));
+            assertNull(other.take("knowledge", 0, 1L));
+        } finally {
+            enabled.disable();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static KafkaEvent<Bytes, RdfPayload> kafkaEvent(ConsumerRecord<Object, Object> polled,
+                                                            RdfPayload payload) {
+        ConsumerRecord<Bytes, RdfPayload> record =
+                new ConsumerRecord<>(polled.topic(), polled.partition(), polled.offset(), null, payload);
+        KafkaEvent<Bytes, RdfPayload> event = mock(KafkaEvent.class);
+        when(event.getConsumerRecord()).thenReturn(record);
+        when(event.value()).thenReturn(payload);
+        when(event.lastHeader(HttpNames.hContentType)).thenReturn(WebContent.contentTypeNTriples);
+        when(event.replaceValue(any())).thenAnswer(
+                invocation -> new SimpleEvent<>(List.of(), null, invocation.<RdfPayload>getArgument(0)));
+        return event;
+    }
+
+    @Test
+    void givenTurtle_whenSending_thenPassedThrough() {
+        // given
+        ParallelParsingSink sink = new ParallelParsingSink(destination, new ChunkedParser(parsers, 512, 2, 0));
+        Event<Bytes, RdfPayload> event = event(WebContent.contentTypeTurtle, "<http://s> <http://p> <http://o> .");
+
+        // when
+        sink.send(event);
+
+        // then
+        assertSame(event, received.getFirst());
+    }
+
+    @Test
+    void givenSmallPayload_whenSending_thenPassedThrough() {
+        // given
+        ParallelParsingSink sink = new ParallelParsingSink(destination, new ChunkedParser(parsers, 512, 2, 1024));
+        Event<Bytes, RdfPayload> event = event(WebContent.contentTypeNTriples, "<http://s> <http://p> <http://o> .\n");
+
+        // when
+        sink.send(event);
+
+        // then
+        assertSame(event, received.getFirst());
+    }
+}
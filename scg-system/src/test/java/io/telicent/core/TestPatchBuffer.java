@@ -0,0 +1,97 @@
+package io.telicent.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestPatchBuffer {
+
+    private static final byte[] ROW = "A <http://s> <http://p> <http://o> .\n".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    void givenSmallPatch_whenWriting_thenHeldInMemory() throws IOException {
+        // given
+        try (PatchBuffer buffer = new PatchBuffer(1024)) {
+            // when
+            buffer.write(ROW);
+
+            // then
+            assertFalse(buffer.isSpilled());
+            assertEquals(ROW.length, buffer.size());
+            assertArrayEquals(ROW, buffer.toByteArray());
+        }
+    }
+
+    @Test
+    void givenLargePatch_whenWriting_thenSpilledToDisk_andContentPreserved() throws IOException {
+        // given
+        PatchBuffer buffer = new PatchBuffer(ROW.length * 2L);
+
+        // when
+        for (int i = 0; i < 10; i++) {
+            buffer.write(ROW);
+        }
+
+        // then
+        assertTrue(buffer.isSpilled());
+        assertEquals(ROW.length * 10L, buffer.size());
+        assertThrows(IllegalStateException.class, buffer::toByteArray);
+        try (InputStream input = buffer.openInputStream()) {
+            assertEquals(ROW.length * 10, input.readAllBytes().length);
+        }
+
+        // and
+        buffer.close();
+        assertThrows(IOException.class, () -> buffer.write(ROW));
+    }
+
+    @Test
+    void givenSpillingDisabled_whenWritingLargePatch_thenHeldInMemory() throws IOException {
+        // given
+        try (PatchBuffer buffer = new PatchBuffer(0)) {
+            // when
+            for (int i = 0; i < 100; i++) {
+                buffer.write(ROW);
+            }
+
+            // then
+            assertFalse(buffer.isSpilled());
+        }
+    }
+
+    @Test
+    void givenSpilledPatch_whenReadingAll_thenExactContentReturned() throws IOException {
+        // given
+        try (PatchBuffer buffer = new PatchBuffer(ROW.length)) {
+            for (int i = 0; i < 5; i++) {
+                buffer.write(ROW);
+            }
+
+            // when
+            byte[] content = buffer.readAll();
+
+            // then
+            assertTrue(buffer.isSpilled());
+            assertEquals(ROW.length * 5, content.length);
+        }
+    }
+
+    @Test
+    void givenExactlyFullMemoryBuffer_whenGettingContent_thenBackingArrayNotCopied() {
+        // given
+        PatchBuffer.MemoryBuffer buffer = new PatchBuffer.MemoryBuffer(ROW.length);
+        buffer.writeBytes(ROW);
+
+        // when
+        byte[] first = buffer.toExactByteArray();
+        byte[] second = buffer.toExactByteArray();
+
+        // then
+        assertSame(first, second);
+        assertArrayEquals(ROW, first);
+    }
+}
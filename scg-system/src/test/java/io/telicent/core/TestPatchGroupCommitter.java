@@ -0,0 +1,126 @@
+package io.telicent.core;
+
+import io.telicent.smart.cache.sources.TelicentHeaders;
+import org.apache.jena.kafka.JenaKafkaException;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.awaitility.Awaitility;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestPatchGroupCommitter {
+
+    private static final String TOPIC = "test-topic";
+    private static final byte[] PATCH = """
+            TX .
+            A <http://example/s> <http://example/p> <http://example/o> .
+            TC .
+            """.getBytes(StandardCharsets.UTF_8);
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+    @AfterEach
+    void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    private static CQRS.Options groupCommit(long windowMillis, int maxPatches) {
+        CQRS.Options defaults = CQRS.Options.DEFAULT;
+        return new CQRS.Options(true, false, defaults.spillThreshold(), defaults.maxRecordBytes(),
+                                defaults.encoding(), defaults.compression(), windowMillis, maxPatches);
+    }
+
+    private static MockProducer<String, byte[]> mockProducer() {
+        return new MockProducer<>(true, new StringSerializer(), new ByteArraySerializer());
+    }
+
+    @Test
+    void givenMaxPatchesReached_whenSubmitting_thenSentAsSingleRecord() {
+        // given
+        MockProducer<String, byte[]> producer = mockProducer();
+        try (PatchGroupCommitter committer = new PatchGroupCommitter(producer, TOPIC, groupCommit(60_000, 3), scheduler)) {
+            // when
+            CompletableFuture<CQRS.PatchOffset> first = committer.submit("employee", PATCH);
+            CompletableFuture<CQRS.PatchOffset> second = committer.submit("employee", PATCH);
+            assertTrue(producer.history().isEmpty());
+            CompletableFuture<CQRS.PatchOffset> third = committer.submit("employee", PATCH);
+
+            // then
+            assertEquals(1, producer.history().size());
+            ProducerRecord<String, byte[]> record = producer.history().getFirst();
+            String body = new String(record.value(), StandardCharsets.UTF_8);
+            assertEquals(3, body.lines().filter(l -> l.startsWith("TX")).count());
+            assertEquals("employee", new String(record.headers().lastHeader(TelicentHeaders.SECURITY_LABEL).value(),
+                                                StandardCharsets.UTF_8));
+            assertEquals(first.join(), second.join());
+            assertEquals(second.join(), third.join());
+        }
+    }
+
+    @Test
+    void givenDifferentLabels_whenSubmitting_thenSentAsSeparateRecords() {
+        // given
+        MockProducer<String, byte[]> producer = mockProducer();
+        PatchGroupCommitter committer = new PatchGroupCommitter(producer, TOPIC, groupCommit(60_000, 10), scheduler);
+
+        // when
+        CompletableFuture<CQRS.PatchOffset> employee = committer.submit("employee", PATCH);
+        CompletableFuture<CQRS.PatchOffset> contractor = committer.submit("contractor", PATCH);
+        CompletableFuture<CQRS.PatchOffset> unlabelled = committer.submit(null, PATCH);
+        committer.close();
+
+        // then
+        assertEquals(3, producer.history().size());
+        assertNotEquals(employee.join(), contractor.join());
+        assertNotNull(unlabelled.join());
+    }
+
+    @Test
+    void givenWindowElapses_whenSubmitting_thenBatchSent() {
+        // given
+        MockProducer<String, byte[]> producer = mockProducer();
+        try (PatchGroupCommitter committer = new PatchGroupCommitter(producer, TOPIC, groupCommit(50, 100), scheduler)) {
+            // when
+            CompletableFuture<CQRS.PatchOffset> result = committer.submit(null, PATCH);
+
+            // then
+            Awaitility.await().atMost(Duration.ofSeconds(5)).until(result::isDone);
+            assertEquals(1, producer.history().size());
+        }
+    }
+
+    @Test
+    void givenClosed_whenSubmitting_thenFails() {
+        // given
+        PatchGroupCommitter committer = new PatchGroupCommitter(mockProducer(), TOPIC, groupCommit(50, 100), scheduler);
+        committer.close();
+
+        // when
+        CompletableFuture<CQRS.PatchOffset> result = committer.submit(null, PATCH);
+
+        // then
+        assertThrows(JenaKafkaException.class, () -> CQRS.awaitSend(result));
+    }
+
+    @Test
+    void givenSharedScheduler_whenClosed_thenSchedulerLeftRunning() {
+        // given
+        PatchGroupCommitter committer = new PatchGroupCommitter(mockProducer(), TOPIC, groupCommit(50, 100), scheduler);
+
+        // when
+        committer.close();
+
+        // then
+        assertFalse(scheduler.isShutdown());
+    }
+}
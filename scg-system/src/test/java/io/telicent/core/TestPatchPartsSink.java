@@ -0,0 +1,124 @@
+package io.telicent.core;
+
+import io.telicent.smart.cache.payloads.RdfPayload;
+import io.telicent.smart.cache.projectors.Sink;
+import io.telicent.smart.cache.sources.Event;
+import org.apache.jena.rdfpatch.PatchException;
+import org.apache.jena.riot.WebContent;
+import org.apache.jena.riot.web.HttpNames;
+import org.apache.kafka.common.utils.Bytes;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class TestPatchPartsSink {
+
+    @SuppressWarnings("unchecked")
+    private static Event<Bytes, RdfPayload> part(String patchId, String part, String content) {
+        Event<Bytes, RdfPayload> event = mock(Event.class);
+        when(event.lastHeader(CQRS.HEADER_PATCH_ID)).thenReturn(patchId);
+        when(event.lastHeader(CQRS.HEADER_PATCH_PART)).thenReturn(part);
+        when(event.lastHeader(HttpNames.hContentType)).thenReturn(WebContent.contentTypePatch);
+        when(event.value()).thenReturn(RdfPayload.of(WebContent.contentTypePatch,
+                                                     content.getBytes(StandardCharsets.UTF_8)));
+        when(event.replaceValue(any())).thenReturn(event);
+        return event;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Sink<Event<Bytes, RdfPayload>> destination() {
+        return mock(Sink.class);
+    }
+
+    @Test
+    void givenAllParts_whenSent_thenWholePatchSentOnce() {
+        // given
+        Sink<Event<Bytes, RdfPayload>> destination = destination();
+        Event<Bytes, RdfPayload> last = part("p1", "3/3", "89");
+        try (PatchPartsSink sink = new PatchPartsSink(destination)) {
+
+            // when
+            sink.send(part("p1", "1/3", "0123"));
+            sink.send(part("p1", "2/3", "4567"));
+
+            // then
+            verify(destination, never()).send(any());
+            assertEquals(1, sink.pending());
+
+            // and when
+            sink.send(last);
+
+            // then
+            ArgumentCaptor<RdfPayload> joined = ArgumentCaptor.forClass(RdfPayload.class);
+            verify(last).replaceValue(joined.capture());
+            assertEquals("0123456789", new String(joined.getValue().getRawData(), StandardCharsets.UTF_8));
+            verify(destination, times(1)).send(last);
+            assertEquals(0, sink.pending());
+        }
+    }
+
+    @Test
+    void givenNoPatchHeaders_whenSent_thenPassedThrough() {
+        // given
+        Sink<Event<Bytes, RdfPayload>> destination = destination();
+        Event<Bytes, RdfPayload> event = part(null, null, "whole");
+        try (PatchPartsSink sink = new PatchPartsSink(destination)) {
+
+            // when
+            sink.send(event);
+
+            // then
+            verify(destination).send(event);
+            verify(event, never()).replaceValue(any());
+        }
+    }
+
+    @Test
+    void givenMissingEarlierParts_whenSent_thenFailsWithoutApplying() {
+        // given
+        Sink<Event<Bytes, RdfPayload>> destination = destination();
+        try (PatchPartsSink sink = new PatchPartsSink(destination)) {
+            sink.send(part("p1", "1/3", "0123"));
+
+            // when / then
+            assertThrows(PatchException.class, () -> sink.send(part("p1", "3/3", "89")));
+            assertThrows(PatchException.class, () -> sink.send(part("p2", "2/2", "45")));
+            verify(destination, never()).send(any());
+        }
+    }
+
+    @Test
+    void givenInvalidPartHeader_whenSent_thenFails() {
+        // given
+        try (PatchPartsSink sink = new PatchPartsSink(destination())) {
+
+            // when / then
+            assertThrows(PatchException.class, () -> sink.send(part("p1", "4/3", "0123")));
+            assertThrows(PatchException.class, () -> sink.send(part("p1", "one", "0123")));
+        }
+    }
+
+    @Test
+    void givenAbandonedPatches_whenMorePending_thenOldestDiscarded() {
+        // given
+        Sink<Event<Bytes, RdfPayload>> destination = destination();
+        try (PatchPartsSink sink = new PatchPartsSink(destination, 2)) {
+            sink.send(part("p1", "1/2", "01"));
+            sink.send(part("p2", "1/2", "23"));
+
+            // when
+            sink.send(part("p3", "1/2", "45"));
+
+            // then
+            assertEquals(2, sink.pending());
+            assertThrows(PatchException.class, () -> sink.send(part("p1", "2/2", "67")));
+            sink.send(part("p3", "2/2", "67"));
+            verify(destination, times(1)).send(any());
+        }
+    }
+}
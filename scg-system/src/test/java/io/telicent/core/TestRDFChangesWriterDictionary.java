@@ -0,0 +1,111 @@
+package io.telicent.core;
+
+import org.apache.jena.datatypes.xsd.XSDDatatype;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.rdfpatch.PatchException;
+import org.apache.jena.rdfpatch.RDFPatchOps;
+import org.apache.jena.rdfpatch.changes.RDFChangesCounter;
+import org.apache.jena.rdfpatch.text.RDFChangesWriterText;
+import org.apache.jena.rdfpatch.text.TokenWriterText;
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.sparql.core.DatasetGraphFactory;
+import org.apache.jena.sparql.core.Quad;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestRDFChangesWriterDictionary {
+
+    private static final Node G = NodeFactory.createURI("http://example/graph");
+    private static final Node S = NodeFactory.createURI("http://example/s");
+    private static final Node P = NodeFactory.createURI("http://example/p");
+
+    private static byte[] write(int count) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        RDFChangesWriterDictionary writer = new RDFChangesWriterDictionary(output);
+        writer.start();
+        writer.txnBegin();
+        for (int i = 0; i < count; i++) {
+            writer.add(G, NodeFactory.createURI("http://example/s" + i), P, NodeFactory.createLiteralString("v" + i));
+        }
+        writer.txnCommit();
+        writer.finish();
+        return output.toByteArray();
+    }
+
+    @Test
+    void givenChanges_whenWrittenAndRead_thenTermsRoundTrip() throws IOException {
+        // given
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        RDFChangesWriterDictionary writer = new RDFChangesWriterDictionary(output);
+        Node typed = NodeFactory.createLiteralDT("42", XSDDatatype.XSDinteger);
+        Node lang = NodeFactory.createLiteralLang("chat", "fr");
+        Node blank = NodeFactory.createBlankNode("b0");
+        writer.start();
+        writer.txnBegin();
+        writer.add(null, S, P, typed);
+        writer.add(G, S, P, lang);
+        writer.add(G, blank, P, S);
+        writer.add(G, S, P, NodeFactory.createLiteralString("gone"));
+        writer.delete(G, S, P, NodeFactory.createLiteralString("gone"));
+        writer.txnCommit();
+        writer.finish();
+
+        // when
+        DatasetGraph dsg = DatasetGraphFactory.createTxnMem();
+        RDFPatchOps.applyChange(dsg, RDFPatchReaderDictionary.read(output.toByteArray()));
+
+        // then
+        assertTrue(dsg.contains(Quad.defaultGraphIRI, S, P, typed));
+        assertTrue(dsg.contains(G, S, P, lang));
+        assertTrue(dsg.contains(G, Node.ANY, P, S));
+        assertFalse(dsg.contains(G, S, P, NodeFactory.createLiteralString("gone")));
+    }
+
+    @Test
+    void givenRepeatedIris_whenWritten_thenSmallerThanText() throws IOException {
+        // given
+        ByteArrayOutputStream text = new ByteArrayOutputStream();
+        TokenWriterText tok = TokenWriterText.create(text);
+        RDFChangesWriterText textWriter = new RDFChangesWriterText(tok);
+        textWriter.txnBegin();
+        for (int i = 0; i < 1000; i++) {
+            textWriter.add(G, NodeFactory.createURI("http://example/s" + i), P,
+                           NodeFactory.createLiteralString("v" + i));
+        }
+        textWriter.txnCommit();
+        tok.flush();
+
+        // when
+        byte[] binary = write(1000);
+
+        // then
+        assertTrue(binary.length * 2 < text.size(), binary.length + " bytes vs " + text.size() + " bytes of text");
+    }
+
+    @Test
+    void givenConcatenatedMessages_whenRead_thenEachMessageApplied() throws IOException {
+        // given
+        ByteArrayOutputStream joined = new ByteArrayOutputStream();
+        joined.write(write(3));
+        joined.write(write(5));
+
+        // when
+        RDFChangesCounter counter = new RDFChangesCounter();
+        RDFPatchReaderDictionary.read(joined.toByteArray()).apply(counter);
+
+        // then
+        assertEquals(8, counter.summary().countAddData);
+        assertEquals(2, counter.summary().countTxnCommit);
+    }
+
+    @Test
+    void givenNotDictionaryEncoded_whenRead_thenRejected() {
+        // given / when / then
+        assertThrows(PatchException.class, () -> RDFPatchReaderDictionary.read("TX .\n".getBytes()));
+    }
+}
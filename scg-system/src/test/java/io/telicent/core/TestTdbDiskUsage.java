@@ -0,0 +1,112 @@
+package io.telicent.core;
+
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.sparql.sse.SSE;
+import org.apache.jena.system.Txn;
+import org.apache.jena.tdb2.DatabaseMgr;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestTdbDiskUsage {
+
+    @TempDir
+    Path container;
+
+    private static void write(Path file, int bytes) throws IOException {
+        Files.createDirectories(file.getParent());
+        Files.write(file, new byte[bytes]);
+    }
+
+    private static TdbDiskUsage tracker(Path container, long refreshMillis) {
+        return new TdbDiskUsage(container, refreshMillis, Clock.fixed(Instant.EPOCH, ZoneOffset.UTC));
+    }
+
+    @Test
+    void givenSeveralGenerations_whenCalculatingUsage_thenActiveAndStaleSeparated() throws IOException {
+        // given
+        write(container.resolve("Data-0001/SPO.dat"), 300);
+        write(container.resolve("Data-0002/SPO.dat"), 200);
+        write(container.resolve("Data-0002/nodes.dat"), 50);
+        write(container.resolve("tdb.lock"), 10);
+
+        // when
+        TdbDiskUsage.Usage usage = tracker(container, 0).usage();
+
+        // then
+        assertEquals(250, usage.active());
+        assertEquals(300, usage.stale());
+        assertEquals(10, usage.other());
+        assertEquals(560, usage.total());
+    }
+
+    @Test
+    void givenCachedUsage_whenFilesGrowWithinRefreshInterval_thenCachedUsageReturned() throws IOException {
+        // given
+        write(container.resolve("Data-0001/SPO.dat"), 100);
+        TdbDiskUsage tracker = tracker(container, Long.MAX_VALUE);
+        assertEquals(100, tracker.usage().active());
+
+        // when
+        write(container.resolve("Data-0001/SPO.dat"), 400);
+
+        // then
+        assertEquals(100, tracker.usage().active());
+        assertEquals(400, tracker.refresh().active());
+    }
+
+    @Test
+    void givenNewGeneration_whenRefreshed_thenPreviousGenerationBecomesStale() throws IOException {
+        // given
+        write(container.resolve("Data-0001/SPO.dat"), 100);
+        TdbDiskUsage tracker = tracker(container, 0);
+        assertEquals(0, tracker.usage().stale());
+
+        // when
+        write(container.resolve("Data-0002/SPO.dat"), 40);
+        TdbDiskUsage.Usage afterCompaction = tracker.usage();
+        Files.delete(container.resolve("Data-0001/SPO.dat"));
+        Files.delete(container.resolve("Data-0001"));
+        TdbDiskUsage.Usage afterDeletion = tracker.usage();
+
+        // then
+        assertEquals(40, afterCompaction.active());
+        assertEquals(100, afterCompaction.stale());
+        assertEquals(40, afterDeletion.active());
+        assertEquals(0, afterDeletion.stale());
+    }
+
+    @Test
+    void givenMissingContainer_whenCalculatingUsage_thenZero() {
+        // given
+        TdbDiskUsage tracker = tracker(container.resolve("missing"), 0);
+
+        // when
+        TdbDiskUsage.Usage usage = tracker.usage();
+
+        // then
+        assertEquals(0, usage.total());
+    }
+
+    @Test
+    void givenDatabase_whenFindingDatabaseSize_thenMatchesActiveGeneration() {
+        // given
+        DatasetGraph dsg = DatabaseMgr.connectDatasetGraph(container.toString());
+        Txn.executeWrite(dsg, () -> dsg.add(SSE.parseQuad("(_ <http://example/s> <http://example/p> 'o')")));
+
+        // when
+        long size = FMod_InitialCompaction.findDatabaseSize(FMod_InitialCompaction.getTDB2(dsg));
+
+        // then
+        assertTrue(size > 0);
+        assertEquals(size, TdbDiskUsage.sizeOf(container.resolve("Data-0001")));
+    }
+}
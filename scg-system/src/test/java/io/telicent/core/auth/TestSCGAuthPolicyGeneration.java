@@ -206,5 +206,6 @@ public class TestSCGAuthPolicyGeneration {
         verifyPermissions(perms, "/$/backups/restore", SCG_AuthPolicy.BACKUP_RESTORE.values());
         verifyPermissions(perms, "/$/backups/restore/*", SCG_AuthPolicy.BACKUP_RESTORE.values());
         verifyPermissions(perms, "/$/backups/*", SCG_AuthPolicy.BACKUP_READ_ONLY.values());
+        verifyRoles(roles, "/$/ingest/*", SCG_AuthPolicy.ADMIN_ROLES.values());
     }
 }